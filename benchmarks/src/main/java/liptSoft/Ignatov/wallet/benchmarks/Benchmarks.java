@@ -0,0 +1,49 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs benchmarks of the wallet and the bank. Accepts JMH command line options, for example
+ * {@code java -jar benchmarks.jar Wallet -rff wallet.json}, and writes results in JSON to
+ * {@value #DEFAULT_RESULT} unless another result file or format is given
+ */
+public final class Benchmarks {
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    /**
+     * Utility class
+     */
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs benchmarks selected by the options
+     *
+     * @param args JMH command line options
+     */
+    public static void main(final String... args)
+            throws CommandLineOptionException, RunnerException, IOException {
+        final CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        final ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!options.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT);
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RemoteBank#createWallet(String)} called locally by concurrent threads, each creating its own wallets
+ * and exporting them. Wallets of one passport share a range of the index of the bank, wallets of distinct
+ * passports do not. Every iteration creates {@value #WALLETS} wallets per thread in a new bank, so memory
+ * does not grow with the iteration time
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = CreateWalletBenchmark.WALLETS)
+@Measurement(iterations = 10, batchSize = CreateWalletBenchmark.WALLETS)
+@Threads(4)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreateWalletBenchmark {
+
+    static final int WALLETS = 50_000;
+
+    @Param({"shared", "distinct"})
+    public String passports;
+
+    private RemoteBank bank;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        bank = new RemoteBank(0); // wallets are exported on an anonymous port
+    }
+
+    /**
+     * Wallets are exported when they are created, removing their passports unexports them
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws RemoteException {
+        for (String passport : bank.getPassports()) {
+            bank.removePassport(passport);
+        }
+    }
+
+    /**
+     * Ids created by a thread
+     */
+    @State(Scope.Thread)
+    public static class Ids {
+        private String prefix;
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(final CreateWalletBenchmark benchmark, final ThreadParams thread) {
+            prefix = benchmark.passports.equals("shared")
+                    ? "passport:" + thread.getThreadIndex() + "-"
+                    : "passport" + thread.getThreadIndex() + ":";
+            next = 0;
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Benchmark
+    public Wallet createWallet(final Ids ids) throws RemoteException {
+        return bank.createWallet(ids.next());
+    }
+}
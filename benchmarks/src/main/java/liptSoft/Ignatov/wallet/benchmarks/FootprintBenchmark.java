@@ -0,0 +1,61 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.Bank;
+import liptSoft.Ignatov.wallet.ExportManager;
+import liptSoft.Ignatov.wallet.OffHeapBank;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling a new bank with wallets of two currencies, each of its own passport, reported per wallet. Wallets of
+ * {@link RemoteBank} are kept on the heap, wallets of {@link OffHeapBank} are not, so run it with
+ * {@code -prof gc} to compare heap bytes allocated per wallet. Both banks export wallets through
+ * an {@link ExportManager}, which unexports them after the iteration
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+
+    private static final int WALLETS = 100_000;
+
+    @Param({"RemoteBank", "OffHeapBank"})
+    public String implementation;
+
+    private ExportManager exports;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        exports = new ExportManager(0, 1, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        exports.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WALLETS)
+    public Bank fill() throws IOException {
+        final Bank bank = switch (implementation) {
+            case "RemoteBank" -> new RemoteBank(0, null, null, exports);
+            case "OffHeapBank" -> new OffHeapBank(0, exports);
+            default -> throw new IllegalArgumentException("Unknown bank implementation " + implementation);
+        };
+        for (int i = 0; i < WALLETS; i++) {
+            final Wallet wallet = bank.createWallet("passport" + i + ":wallet");
+            wallet.addCurrency("ruble");
+            wallet.addCurrency("dollar");
+            wallet.setRate("dollar", "ruble", 1. / 60);
+            wallet.deposit(i, "dollar");
+        }
+        return bank;
+    }
+}
@@ -0,0 +1,89 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.Bank;
+import liptSoft.Ignatov.wallet.Person;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading all ids of a person with many wallets over RMI, as one set or by pages of sorted ids
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdsBenchmark {
+
+    private static final String PASSPORT = "passport";
+
+    @Param("18888")
+    public int port;
+
+    @Param("10000")
+    public int wallets;
+
+    @Param({"100", "1000"})
+    public int pageSize;
+
+    private Registry registry;
+    private RemoteBank server;
+    private Bank bank;
+    private Person person;
+
+    @Setup
+    public void setUp() throws IOException, NotBoundException {
+        registry = LocateRegistry.createRegistry(port);
+        server = new RemoteBank(port);
+        UnicastRemoteObject.exportObject(server, port);
+        Naming.rebind(url(), server);
+        server.createIndividual("name", "surname", PASSPORT);
+        for (int i = 0; i < wallets; i++) {
+            server.createWallet(PASSPORT + ":" + i);
+        }
+        bank = (Bank) Naming.lookup(url());
+        person = bank.getIndividual(PASSPORT);
+    }
+
+    @TearDown
+    public void tearDown() throws RemoteException {
+        server.removePassport(PASSPORT);
+        UnicastRemoteObject.unexportObject(server, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    @Benchmark
+    public Set<String> set() throws RemoteException {
+        return bank.getAllIds(person);
+    }
+
+    @Benchmark
+    public List<String> pages() throws RemoteException {
+        final List<String> ids = new ArrayList<>();
+        List<String> page = bank.getAllIds(person, null, pageSize);
+        while (true) {
+            ids.addAll(page);
+            if (page.size() < pageSize) {
+                return ids;
+            }
+            page = bank.getAllIds(person, page.get(page.size() - 1), pageSize);
+        }
+    }
+
+    private String url() {
+        return "//localhost:" + port + "/bank";
+    }
+}
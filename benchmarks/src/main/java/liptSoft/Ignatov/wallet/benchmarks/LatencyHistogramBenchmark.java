@@ -0,0 +1,44 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.LatencyHistogram;
+import liptSoft.Ignatov.wallet.LoadGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a latency and reading a percentile of a {@link LatencyHistogram}, which {@link LoadGenerator} does
+ * for every call it makes. Latencies are spread from a microsecond to a second
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LatencyHistogramBenchmark {
+
+    private static final int LATENCIES = 1024;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long[] latencies = new long[LATENCIES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < LATENCIES; i++) {
+            latencies[i] = (long) Math.pow(10, 3 + 6. * i / LATENCIES);
+            histogram.record(latencies[i]);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(latencies[next++ & (LATENCIES - 1)]);
+    }
+
+    @Benchmark
+    public long getValueAtPercentile() {
+        return histogram.getValueAtPercentile(99.9);
+    }
+}
@@ -0,0 +1,59 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.BankMetrics;
+import liptSoft.Ignatov.wallet.ConcurrentWallet;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link BankMetrics}: calls of a wallet of a {@link RemoteBank} made locally, which count
+ * the call and record its latency, against the same calls of a bare {@link ConcurrentWallet}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    @Param({"metered", "bare"})
+    public String wallet;
+
+    private RemoteBank bank;
+    private Wallet target;
+
+    @Setup
+    public void setUp() throws RemoteException {
+        if (wallet.equals("metered")) {
+            bank = new RemoteBank(0); // wallets are exported on an anonymous port
+            target = bank.createWallet("passport:1");
+        } else {
+            target = new ConcurrentWallet();
+        }
+        target.addCurrency("ruble");
+        target.deposit(100, "ruble");
+    }
+
+    @TearDown
+    public void tearDown() throws RemoteException {
+        if (bank != null) {
+            bank.removePassport("passport");
+        }
+    }
+
+    @Benchmark
+    public Double getTotal() throws RemoteException {
+        return target.getTotal("ruble");
+    }
+
+    @Benchmark
+    public void depositWithdraw() throws RemoteException {
+        target.deposit(1, "ruble");
+        target.withdraw(1, "ruble");
+    }
+}
@@ -0,0 +1,87 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.ArrayWallet;
+import liptSoft.Ignatov.wallet.OutputSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Printing balances by {@link OutputSink OutputSinks} to a stream which discards them: the console sink
+ * with {@link System#out} replaced by the stream, and buffered synchronous and asynchronous sinks.
+ * {@code logged} replays a script by a logging wallet, which prints all balances after every command.
+ * {@code formatter} is the baseline, a {@link Formatter} per line as wallets printed before, and it does not
+ * depend on the sink
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark {
+
+    private static final int COMMANDS = 1000;
+
+    @Param({"console", "buffered", "async"})
+    public String output;
+
+    private PrintStream stream;
+    private PrintStream stdout;
+    private OutputSink sink;
+    private String script;
+    private double amount;
+
+    @Setup
+    public void setUp() {
+        final OutputStream discard = OutputStream.nullOutputStream();
+        stream = new PrintStream(discard, true);
+        stdout = System.out;
+        sink = switch (output) {
+            case "console" -> OutputSink.console();
+            case "buffered" -> new OutputSink(discard);
+            case "async" -> new OutputSink(discard, 1 << 16, true);
+            default -> throw new IllegalArgumentException("Unknown output " + output);
+        };
+        final StringBuilder builder = new StringBuilder("add currency ruble\nadd currency dollar\n"
+                + "set rate dollar ruble 1:60\n");
+        for (int i = 3; i < COMMANDS; i += 2) {
+            builder.append("deposit 100.25 ruble\n").append("convert 60 ruble to dollar\n");
+        }
+        script = builder.toString();
+        System.setOut(stream);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void printBalance() {
+        amount += 0.37;
+        sink.printBalance(amount, "ruble");
+    }
+
+    @Benchmark
+    public void formatter() {
+        amount += 0.37;
+        stream.println(new Formatter(Locale.US).format("%.2f %s", amount, "ruble"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public ArrayWallet logged() {
+        final ArrayWallet wallet = new ArrayWallet(true);
+        wallet.setOutput(sink);
+        wallet.start(new Scanner(script));
+        return wallet;
+    }
+}
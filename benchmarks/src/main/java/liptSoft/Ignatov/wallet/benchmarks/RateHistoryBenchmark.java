@@ -0,0 +1,57 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.RateHistory;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateHistory} of one pair of currencies with a month of minute ticks: recording a following tick,
+ * and reading the rate at a random instant of the month
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RateHistoryBenchmark {
+
+    private static final int TICKS = 30 * 24 * 60;
+    private static final int INSTANTS = 1024;
+
+    private final RateHistory history = new RateHistory();
+    private final Instant[] instants = new Instant[INSTANTS];
+    private final Random random = new Random(25);
+    private long time = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+    private long points = 600_000;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final long start = time;
+        for (int i = 0; i < TICKS; i++) {
+            record();
+        }
+        for (int i = 0; i < INSTANTS; i++) {
+            instants[i] = Instant.ofEpochMilli(start + (long) (random.nextDouble() * (time - start)));
+        }
+    }
+
+    /**
+     * Records a tick a minute after the previous one, with a rate changed by a few points
+     */
+    @Benchmark
+    public void record() {
+        points = Math.max(1, points + random.nextInt(41) - 20);
+        history.record("dollar", "ruble", points / 10_000., Instant.ofEpochMilli(time));
+        time += 60_000;
+    }
+
+    @Benchmark
+    public double getRate() {
+        return history.getRate("dollar", "ruble", instants[next++ & (INSTANTS - 1)]);
+    }
+}
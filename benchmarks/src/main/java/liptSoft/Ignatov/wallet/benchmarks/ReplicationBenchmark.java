@@ -0,0 +1,81 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.Follower;
+import liptSoft.Ignatov.wallet.Journal;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.RemotePerson;
+import liptSoft.Ignatov.wallet.ReplicationServer;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits to a wallet of a journaled bank replicated to a follower in the same JVM over the loopback interface:
+ * a deposit returning when its record is durable, and a deposit followed by waiting until the copy of the wallet
+ * at the follower has it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplicationBenchmark {
+
+    private static final String ID = "passport:1";
+
+    private Path directory;
+    private Journal journal;
+    private ReplicationServer server;
+    private Follower follower;
+    private Wallet wallet;
+    private Wallet copy;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("bank");
+        journal = new Journal(directory.resolve("primary.journal"));
+        server = new ReplicationServer(journal, 0);
+        final RemoteBank primary = new RemoteBank(0, journal);
+        primary.createIndividual("name", "surname", "passport");
+        wallet = primary.createWallet(ID);
+        wallet.addCurrency("ruble");
+        follower = new Follower(server.getAddress(), directory.resolve("follower.journal"), 0, null);
+        final RemotePerson person = new RemotePerson("name", "surname", "passport");
+        while (follower.getBank().getWallet(person, ID) == null) {
+            Thread.sleep(1);
+        }
+        copy = follower.getBank().getWallet(person, ID);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        follower.close();
+        server.close();
+        journal.close();
+        Files.deleteIfExists(directory.resolve("follower.journal"));
+        Files.deleteIfExists(directory.resolve("primary.journal"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void deposit() throws RemoteException {
+        wallet.deposit(1, "ruble");
+    }
+
+    @Benchmark
+    public double replicated() throws RemoteException {
+        wallet.deposit(1, "ruble");
+        final double expected = wallet.getBalanceIn("ruble");
+        double actual;
+        while ((actual = copy.getBalanceIn("ruble")) != expected) {
+            Thread.onSpinWait();
+        }
+        return actual;
+    }
+}
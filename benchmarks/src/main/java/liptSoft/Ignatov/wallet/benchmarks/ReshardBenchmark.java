@@ -0,0 +1,90 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.HashRing;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.ShardServer;
+import liptSoft.Ignatov.wallet.ShardedBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ShardedBank#reshard(HashRing)} adding a fourth shard to three shards and removing it again, in turns,
+ * so every invocation moves about a quarter of the passports with one wallet each. All shards run in this JVM
+ * with registries on consecutive ports
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 4)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReshardBenchmark {
+
+    private static final int SHARDS = 4;
+
+    @Param("18888")
+    public int port;
+
+    @Param("1000")
+    public int passports;
+
+    private final List<Registry> registries = new ArrayList<>();
+    private final List<RemoteBank> shards = new ArrayList<>();
+    private HashRing ring;
+    private HashRing grown;
+    private ShardedBank router;
+
+    @Setup
+    public void setUp() throws IOException {
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            registries.add(LocateRegistry.createRegistry(port + i));
+            final RemoteBank shard = new RemoteBank(port + i);
+            UnicastRemoteObject.exportObject(shard, port + i);
+            registries.get(i).rebind("bank", shard);
+            shards.add(shard);
+            urls.add(ShardServer.url(port + i));
+        }
+        ring = new HashRing(urls.subList(0, SHARDS - 1), HashRing.DEFAULT_VIRTUAL_NODES);
+        grown = ring.with(urls.get(SHARDS - 1));
+        router = new ShardedBank(ring);
+        for (int i = 0; i < passports; i++) {
+            router.createIndividual("name", "surname", "passport" + i);
+            final Wallet wallet = router.createWallet("passport" + i + ":wallet");
+            wallet.addCurrency("ruble");
+            wallet.deposit(i, "ruble");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws RemoteException {
+        for (RemoteBank shard : shards) {
+            for (String passport : shard.getPassports()) {
+                shard.removePassport(passport);
+            }
+            UnicastRemoteObject.unexportObject(shard, true);
+        }
+        for (Registry registry : registries) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    /**
+     * Moves passports to the ring the router does not use
+     *
+     * @return number of moved passports
+     */
+    @Benchmark
+    public int reshard() throws RemoteException {
+        return router.reshard(router.getRing().equals(grown) ? ring : grown);
+    }
+}
@@ -0,0 +1,120 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.Bank;
+import liptSoft.Ignatov.wallet.ExportManager;
+import liptSoft.Ignatov.wallet.Person;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of RMI calls over the loopback interface to a bank and a wallet exported in the same JVM.
+ * Wallets and persons are exported when they are created, or lazily by an {@link ExportManager} when they
+ * are fetched, which records the time of every call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RmiBenchmark {
+
+    private static final String ID = "passport:1";
+
+    @Param("18888")
+    public int port;
+
+    @Param({"eager", "lazy"})
+    public String exports;
+
+    private Registry registry;
+    private ExportManager manager;
+    private RemoteBank server;
+    private Bank bank;
+    private Wallet wallet;
+    private Person person;
+
+    @Setup
+    public void setUp() throws IOException, NotBoundException {
+        registry = LocateRegistry.createRegistry(port);
+        if (exports.equals("lazy")) {
+            manager = new ExportManager(port, 1, TimeUnit.MINUTES);
+            server = new RemoteBank(port, null, null, manager);
+        } else {
+            server = new RemoteBank(port);
+        }
+        UnicastRemoteObject.exportObject(server, port);
+        Naming.rebind(url(), server);
+        bank = (Bank) Naming.lookup(url());
+        bank.createIndividual("name", "surname", "passport");
+        person = bank.getIndividual("passport");
+        wallet = bank.createWallet(ID);
+        wallet.addCurrency("ruble");
+        wallet.deposit(1_000_000, "ruble");
+    }
+
+    @TearDown
+    public void tearDown() throws RemoteException {
+        server.removePassport("passport");
+        if (manager != null) {
+            manager.close();
+        }
+        UnicastRemoteObject.unexportObject(server, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    /**
+     * A call of a remote wallet returning a value
+     */
+    @Benchmark
+    public Double getBalanceIn() throws RemoteException {
+        return wallet.getBalanceIn("ruble");
+    }
+
+    /**
+     * A call of a remote wallet changing it
+     */
+    @Benchmark
+    public void deposit() throws RemoteException {
+        wallet.deposit(1, "ruble");
+    }
+
+    /**
+     * Two calls of a remote wallet moving money as {@link #transfer()} does in one call of the bank
+     */
+    @Benchmark
+    public void withdrawAndDeposit() throws RemoteException {
+        wallet.withdraw(1, "ruble");
+        wallet.deposit(1, "ruble");
+    }
+
+    /**
+     * A call of the remote bank returning a stub of a wallet
+     */
+    @Benchmark
+    public Wallet getWallet() throws RemoteException {
+        return bank.getWallet(person, ID);
+    }
+
+    /**
+     * A call of the remote bank changing two wallets
+     */
+    @Benchmark
+    public Double transfer() throws RemoteException {
+        return bank.transfer(ID, ID, 1, "ruble");
+    }
+
+    private String url() {
+        return "//localhost:" + port + "/bank";
+    }
+}
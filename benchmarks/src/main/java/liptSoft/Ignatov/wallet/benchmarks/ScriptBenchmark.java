@@ -0,0 +1,110 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.AbstractWallet;
+import liptSoft.Ignatov.wallet.ArrayWallet;
+import liptSoft.Ignatov.wallet.ScriptExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and executing a script of wallet commands by {@code start}, reported per command. The script
+ * sets up currencies and a rate and then repeats deposits, withdrawals and conversions, printing nothing.
+ * {@code executor} runs a longer script from a file by a {@link ScriptExecutor} parsing it on several threads
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptBenchmark {
+
+    private static final int COMMANDS = 1000;
+    private static final int FILE_COMMANDS = 100_000;
+
+    private String script;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder builder = new StringBuilder("add currency ruble\nadd currency dollar\n"
+                + "set rate dollar ruble 1:60\n");
+        for (int i = 3; i < COMMANDS; i += 4) {
+            builder.append("deposit 100.25 ruble\n").append("withdraw 0.25\n")
+                    .append("convert 60 ruble to dollar\n").append("deposit 1 dollar\n");
+        }
+        script = builder.toString();
+        bytes = script.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Implementation of wallets executing commands read by a {@link Scanner}
+     */
+    @State(Scope.Thread)
+    public static class Implementation {
+        @Param({"WalletImpl", "ArrayWallet", "FixedPointWallet", "ConcurrentWallet"})
+        public String implementation;
+    }
+
+    /**
+     * File with {@value #FILE_COMMANDS} commands and the executor parsing it
+     */
+    @State(Scope.Thread)
+    public static class Executor {
+        @Param({"1", "4"})
+        public int threads;
+
+        private Path file;
+        private ScriptExecutor executor;
+
+        @Setup
+        public void setUp() throws IOException {
+            final StringBuilder builder = new StringBuilder("add currency ruble\nadd currency dollar\n"
+                    + "set rate dollar ruble 1:60\n");
+            for (int i = 3; i < FILE_COMMANDS; i++) {
+                builder.append(i % 2 == 1 ? "deposit 1.5\n" : "convert 0.6 ruble to dollar\n");
+            }
+            file = Files.createTempFile("wallet", ".txt");
+            Files.writeString(file, builder);
+            executor = new ScriptExecutor(threads);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public AbstractWallet scanner(final Implementation implementation) {
+        final AbstractWallet wallet = WalletBenchmark.create(implementation.implementation);
+        wallet.start(new Scanner(script));
+        return wallet;
+    }
+
+    /**
+     * Commands read from a channel and parsed in place, supported by {@link ArrayWallet} only
+     */
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public AbstractWallet channel() {
+        final ArrayWallet wallet = new ArrayWallet();
+        wallet.start(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        return wallet;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_COMMANDS)
+    public ScriptExecutor.Report executor(final Executor executor) {
+        return executor.executor.execute(new ArrayWallet(), executor.file);
+    }
+}
@@ -0,0 +1,102 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.ExportManager;
+import liptSoft.Ignatov.wallet.Person;
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Snapshot;
+import liptSoft.Ignatov.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots of a bank of one person with wallets of two currencies: writing the snapshot, opening a bank from it,
+ * which reads persons and the index only, and opening it followed by reading every wallet, which loads their
+ * records. Every invocation is one iteration, so objects exported by the opened bank are unexported after it
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private static final String PASSPORT = "passport";
+
+    @Param("10000")
+    public int wallets;
+
+    private Path directory;
+    private Path file;
+    private Path written;
+    private RemoteBank source;
+    private ExportManager exports;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = new RemoteBank(0); // wallets are exported on an anonymous port
+        source.createIndividual("name", "surname", PASSPORT);
+        for (int i = 0; i < wallets; i++) {
+            final Wallet wallet = source.createWallet(id(i));
+            wallet.addCurrency("ruble");
+            wallet.addCurrency("dollar");
+            wallet.setRate("dollar", "ruble", 1. / 60);
+            wallet.deposit(i, "dollar");
+        }
+        directory = Files.createTempDirectory("bank");
+        file = directory.resolve("bank.snapshot");
+        written = directory.resolve("written.snapshot");
+        source.writeSnapshot(file);
+    }
+
+    @Setup(Level.Iteration)
+    public void export() {
+        exports = new ExportManager(0, 1, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void unexport() {
+        exports.close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        source.removePassport(PASSPORT);
+        Files.deleteIfExists(written);
+        Files.delete(file);
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Path write() throws IOException {
+        source.writeSnapshot(written);
+        return written;
+    }
+
+    @Benchmark
+    public RemoteBank open() throws IOException {
+        return new RemoteBank(0, new Snapshot(file), null, exports);
+    }
+
+    /**
+     * Opening a bank and reading the balance of every wallet
+     */
+    @Benchmark
+    public double hydrate() throws IOException {
+        final RemoteBank loaded = new RemoteBank(0, new Snapshot(file), null, exports);
+        final Person person = loaded.getIndividual(PASSPORT);
+        double total = 0;
+        for (int i = 0; i < wallets; i++) {
+            total += loaded.getWallet(person, id(i)).getBalanceIn("dollar");
+        }
+        return total;
+    }
+
+    private static String id(int i) {
+        return PASSPORT + ":" + i;
+    }
+}
@@ -0,0 +1,57 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.AbstractWallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getTotal} of a wallet by the number of its currencies, each with a rate to the currency of the total,
+ * and a change of a balance followed by {@code getTotal}, which invalidates totals cached by a wallet
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TotalBenchmark {
+
+    @Param({"WalletImpl", "ArrayWallet", "FixedPointWallet", "ConcurrentWallet"})
+    public String implementation;
+
+    @Param({"2", "8", "32", "128"})
+    public int currencies;
+
+    private AbstractWallet wallet;
+    private String last;
+
+    @Setup
+    public void setUp() {
+        wallet = WalletBenchmark.create(implementation);
+        for (int i = 0; i < currencies; i++) {
+            wallet.addCurrency(currency(i));
+            if (i > 0) {
+                wallet.setRate(currency(i), currency(0), i + 1);
+            }
+            wallet.deposit(100, currency(i));
+        }
+        last = currency(currencies - 1);
+    }
+
+    @Benchmark
+    public Double getTotal() {
+        return wallet.getTotal("c0");
+    }
+
+    @Benchmark
+    public Double depositAndGetTotal() {
+        wallet.deposit(1, last);
+        wallet.withdraw(1, last);
+        return wallet.getTotal("c0");
+    }
+
+    private static String currency(int i) {
+        return "c" + i;
+    }
+}
@@ -0,0 +1,58 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.RemoteBank;
+import liptSoft.Ignatov.wallet.Wallet;
+import liptSoft.Ignatov.wallet.WalletException;
+import org.openjdk.jmh.annotations.*;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RemoteBank#transfer(String, String, double, String)} called locally by concurrent threads between
+ * random wallets of one bank: a hot pair of wallets contended by all threads, or wallets spread over many.
+ * Run it with {@code -t 1} to compare with a single thread
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    @Param({"2", "1000"})
+    public int wallets;
+
+    private RemoteBank bank;
+    private String[] ids;
+
+    @Setup
+    public void setUp() throws RemoteException {
+        bank = new RemoteBank(0); // wallets are exported on an anonymous port
+        ids = new String[wallets];
+        for (int i = 0; i < wallets; i++) {
+            ids[i] = "passport:" + i;
+            final Wallet wallet = bank.createWallet(ids[i]);
+            wallet.addCurrency("ruble");
+            wallet.deposit(1_000_000, "ruble");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws RemoteException {
+        bank.removePassport("passport");
+    }
+
+    @Benchmark
+    public Double transfer() throws RemoteException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            return bank.transfer(ids[random.nextInt(wallets)], ids[random.nextInt(wallets)], 1, "ruble");
+        } catch (WalletException e) {
+            return null; // the wallet ran out of money
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package liptSoft.Ignatov.wallet.benchmarks;
+
+import liptSoft.Ignatov.wallet.AbstractWallet;
+import liptSoft.Ignatov.wallet.ArrayWallet;
+import liptSoft.Ignatov.wallet.ConcurrentWallet;
+import liptSoft.Ignatov.wallet.FixedPointWallet;
+import liptSoft.Ignatov.wallet.WalletImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of a single wallet of every implementation, called from one thread
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WalletBenchmark {
+
+    @Param({"WalletImpl", "ArrayWallet", "FixedPointWallet", "ConcurrentWallet"})
+    public String implementation;
+
+    private AbstractWallet wallet;
+
+    @Setup
+    public void setUp() {
+        wallet = create(implementation);
+        wallet.addCurrency("ruble");
+        wallet.addCurrency("dollar");
+        wallet.setRate("dollar", "ruble", 1. / 60);
+        wallet.deposit(1_000_000, "ruble");
+        wallet.deposit(1_000, "dollar");
+    }
+
+    /**
+     * A deposit and a withdrawal of the same amount, so the balance stays the same
+     */
+    @Benchmark
+    public void depositWithdraw() {
+        wallet.deposit(1.5, "ruble");
+        wallet.withdraw(1.5, "ruble");
+    }
+
+    /**
+     * A conversion to another currency and back
+     */
+    @Benchmark
+    public void convert() {
+        wallet.convertTo(60, "ruble", "dollar");
+        wallet.convertTo(1, "dollar", "ruble");
+    }
+
+    @Benchmark
+    public Double getBalanceIn() {
+        return wallet.getBalanceIn("dollar");
+    }
+
+    @Benchmark
+    public Double getTotal() {
+        return wallet.getTotal("ruble");
+    }
+
+    /**
+     * Creates an empty wallet of the implementation named by its simple class name
+     */
+    static AbstractWallet create(final String implementation) {
+        return switch (implementation) {
+            case "WalletImpl" -> new WalletImpl();
+            case "ArrayWallet" -> new ArrayWallet();
+            case "FixedPointWallet" -> new FixedPointWallet();
+            case "ConcurrentWallet" -> new ConcurrentWallet();
+            default -> throw new IllegalArgumentException("Unknown wallet implementation " + implementation);
+        };
+    }
+}
@@ -0,0 +1,368 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Scanner;
+
+/**
+ * Base class for {@link Wallet} implementations. Holds the command interpreter used by
+ * {@link #start(Scanner)} and the operations which are defined in terms of the currency added first,
+ * so that implementations only have to provide the storage of currencies, balances and rates.
+ * Operations with minor units are defined through the double ones with {@link FixedPoint#DEFAULT_SCALE}
+ *
+ * @see WalletImpl
+ * @see ArrayWallet
+ * @see FixedPointWallet
+ */
+public abstract class AbstractWallet implements Wallet {
+
+    protected final boolean logging;
+
+    private volatile OutputSink output = OutputSink.console();
+
+    /**
+     * AbstractWallet constructor
+     *
+     * @param logging whether print balance after each command
+     */
+    protected AbstractWallet(boolean logging) {
+        this.logging = logging;
+    }
+
+    /**
+     * Gets the currency added first to this wallet. Called only when the wallet is not empty
+     *
+     * @return string representation of the currency added first
+     */
+    protected abstract String firstCurrency();
+
+    @Override
+    public abstract void deposit(double amount, final String currency);
+
+    @Override
+    public abstract void addCurrency(final String currency);
+
+    @Override
+    public abstract void withdraw(double amount, final String currency);
+
+    @Override
+    public abstract void setRate(final String currency1, final String currency2, double rate);
+
+    @Override
+    public abstract void convertTo(double amount, final String currency1, final String currency2);
+
+    @Override
+    public abstract void showBalance();
+
+    @Override
+    public abstract boolean isEmpty();
+
+    @Override
+    public abstract void clearWallet();
+
+    @Override
+    public abstract Double getBalanceIn(final String currency);
+
+    @Override
+    public abstract Double getTotal(final String currency);
+
+    @Override
+    public void start(final Scanner in) {
+        if (!isEmpty()) {
+            return;
+        }
+        while (in.hasNextLine()) {
+            final String command = in.nextLine();
+            final String[] commandWords = command.split(" ");
+            final int wordsNumber = commandWords.length;
+            switch (commandWords[0]) {
+                case "add" -> {
+                    if (wordsNumber == 3) {
+                        addCurrency(commandWords[2]);
+                    } else {
+                        throwWalletException("add", "add currency <currency>");
+                    }
+                }
+                case "deposit" -> {
+                    switch (wordsNumber) {
+                        case 3 -> deposit(toDouble(commandWords[1]), commandWords[2]);
+                        case 2 -> deposit(toDouble(commandWords[1]));
+                        default -> throwWalletException("deposit", "deposit <amount> [currency]");
+                    }
+                }
+                case "withdraw" -> {
+                    switch (wordsNumber) {
+                        case 3 -> withdraw(toDouble(commandWords[1]), commandWords[2]);
+                        case 2 -> withdraw(toDouble(commandWords[1]));
+                        default -> throwWalletException("withdraw", "withdraw <amount> [currency]");
+                    }
+                }
+                case "set" -> {
+                    if (wordsNumber == 5) {
+                        final String[] rateParts = commandWords[4].split(":");
+                        if (rateParts.length == 2) {
+                            double rate = toDouble(rateParts[0])
+                                    / toDouble(rateParts[1]);
+                            setRate(commandWords[2], commandWords[3], rate);
+                        } else {
+                            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                                    "illegal rate. Format: <double>:<double>");
+                        }
+                    } else {
+                        throwWalletException("set", "set rate <currency 1> <currency 2> <rate>");
+                    }
+                }
+                case "convert" -> {
+                    if (wordsNumber == 5) {
+                        convertTo(toDouble(commandWords[1]), commandWords[2], commandWords[4]);
+                    } else {
+                        throwWalletException("convert", "convert <amount> <currency 1> to <currency 2>");
+                    }
+                }
+                case "show" -> {
+                    if (wordsNumber == 1) {
+                        throwWalletException("show",
+                                "Have a look at usages of 'show balance' and 'show total' commands");
+                    }
+                    switch (commandWords[1]) {
+                        case "balance" -> {
+                            if (wordsNumber == 2) {
+                                showBalance();
+                            } else {
+                                throwWalletException("show balance", "show balance");
+                            }
+                        }
+                        case "total" -> {
+                            switch (wordsNumber) {
+                                case 2 -> showTotalIn();
+                                case 4 -> showTotalIn(commandWords[3]);
+                                default -> throwWalletException("show total", "show total in [currency]");
+                            }
+                        }
+                    }
+                }
+                default -> throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                        "Unknown command '" + commandWords[0] + "'");
+            }
+        }
+    }
+
+    @Override
+    public void deposit(double amount) {
+        checkNonEmpty();
+        deposit(amount, firstCurrency());
+    }
+
+    @Override
+    public void withdraw(double amount) {
+        checkNonEmpty();
+        withdraw(amount, firstCurrency());
+    }
+
+    @Override
+    public void showTotalIn(final String currency) {
+        printBalance(getTotal(currency), currency);
+    }
+
+    @Override
+    public void showTotalIn() {
+        checkNonEmpty();
+        showTotalIn(firstCurrency());
+    }
+
+    @Override
+    public void depositMinor(long amount, final String currency) {
+        deposit(FixedPoint.toDouble(amount, FixedPoint.DEFAULT_SCALE), currency);
+    }
+
+    @Override
+    public void withdrawMinor(long amount, final String currency) {
+        withdraw(FixedPoint.toDouble(amount, FixedPoint.DEFAULT_SCALE), currency);
+    }
+
+    @Override
+    public void convertToMinor(long amount, final String currency1, final String currency2) {
+        convertTo(FixedPoint.toDouble(amount, FixedPoint.DEFAULT_SCALE), currency1, currency2);
+    }
+
+    @Override
+    public long getBalanceMinorIn(final String currency) {
+        return FixedPoint.toMinor(getBalanceIn(currency), FixedPoint.DEFAULT_SCALE);
+    }
+
+    @Override
+    public long getTotalMinor(final String currency) {
+        return FixedPoint.toMinor(getTotal(currency), FixedPoint.DEFAULT_SCALE);
+    }
+
+    @Override
+    public BatchResult execute(final List<WalletOperation> operations, boolean atomic) {
+        final BatchResult.Builder result = new BatchResult.Builder(operations.size());
+        final Checkpoint checkpoint = atomic ? checkpoint() : null;
+        for (WalletOperation operation : operations) {
+            try {
+                result.succeeded(apply(operation));
+            } catch (WalletException e) {
+                result.failed(e);
+                if (atomic) {
+                    checkpoint.restore();
+                    return result.build(false);
+                }
+            } catch (RuntimeException e) {
+                if (atomic) {
+                    checkpoint.restore();
+                }
+                throw e;
+            }
+        }
+        return result.build(true);
+    }
+
+    /**
+     * Executes one operation of a batch
+     *
+     * @return value of the operation or null if it returns nothing
+     * @throws WalletException if the operation fails
+     */
+    protected Double apply(final WalletOperation operation) {
+        final String currency = operation.getCurrency1();
+        switch (operation.getType()) {
+            case ADD_CURRENCY -> addCurrency(currency);
+            case DEPOSIT -> {
+                if (currency == null) {
+                    deposit(operation.getAmount());
+                } else {
+                    deposit(operation.getAmount(), currency);
+                }
+            }
+            case WITHDRAW -> {
+                if (currency == null) {
+                    withdraw(operation.getAmount());
+                } else {
+                    withdraw(operation.getAmount(), currency);
+                }
+            }
+            case SET_RATE -> setRate(currency, operation.getCurrency2(), operation.getAmount());
+            case CONVERT -> convertTo(operation.getAmount(), currency, operation.getCurrency2());
+            case CLEAR -> clearWallet();
+            case GET_BALANCE -> {
+                return getBalanceIn(currency);
+            }
+            case GET_TOTAL -> {
+                if (currency == null) {
+                    checkNonEmpty();
+                    return getTotal(firstCurrency());
+                }
+                return getTotal(currency);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Saves the state of this wallet before an all-or-nothing batch
+     *
+     * @return checkpoint which brings currencies, balances and rates back to the saved state
+     */
+    protected abstract Checkpoint checkpoint();
+
+    /**
+     * Saved state of a wallet
+     */
+    protected interface Checkpoint {
+        /**
+         * Restores the saved state. Called at most once
+         */
+        void restore();
+    }
+
+    /**
+     * Sets the sink which balances and logs of this wallet are printed to, {@link OutputSink#console()} by default
+     */
+    public void setOutput(final OutputSink output) {
+        this.output = Objects.requireNonNull(output);
+    }
+
+    protected void printBalance(double sum, final String currency) {
+        output.printBalance(sum, currency);
+    }
+
+    protected void logBalance() {
+        if (logging) {
+            final OutputSink output = this.output;
+            output.println("----------------Balance--------------");
+            showBalance();
+            output.println("--------------------------------------");
+        }
+    }
+
+    protected void checkNonEmpty() {
+        if (isEmpty()) {
+            throw emptyWallet();
+        }
+    }
+
+    protected static WalletException emptyWallet() {
+        return new WalletException(WalletException.Reason.EMPTY_WALLET,
+                "Expected that there are at least one currency in a wallet");
+    }
+
+    protected static WalletException noSuchCurrency(final String currency) {
+        return new WalletException(WalletException.Reason.NO_SUCH_CURRENCY,
+                String.format("Expected that currency %s is in a wallet", currency));
+    }
+
+    protected static WalletException undefinedRate(final String currency1, final String currency2) {
+        return new WalletException(WalletException.Reason.UNDEFINED_RATE,
+                String.format("Expected defined rate from %s to %s", currency1, currency2));
+    }
+
+    /**
+     * Checks that an amount moved between wallets is finite and positive
+     */
+    protected static void checkTransferAmount(double amount) {
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Expected finite positive amount, found " + amount);
+        }
+    }
+
+    /**
+     * Converts an amount moved between wallets at the rate, checking that the result is finite
+     */
+    protected static double credited(double rate, double amount) {
+        final double credited = rate * amount;
+        if (!Double.isFinite(credited)) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Amount " + amount + " at rate " + rate + " is not a finite amount");
+        }
+        return credited;
+    }
+
+    /**
+     * Error of an operation on a wallet moved to another shard, which is fetched from the bank again
+     */
+    protected static WalletException moved() {
+        return new WalletException(WalletException.Reason.MOVED,
+                "Wallet is moved to another shard, get it from the bank again");
+    }
+
+    protected static WalletException notEnoughMoney() {
+        return new WalletException(WalletException.Reason.NOT_ENOUGH_MONEY,
+                "Not enough money in this currency to do an operation");
+    }
+
+    private void throwWalletException(final String command, final String usage) {
+        throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                "illegal command " + command + ". Usage: " + usage);
+    }
+
+    private Double toDouble(final String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                    "'" + value + "' is not a double number. " + e.getMessage());
+        }
+    }
+}
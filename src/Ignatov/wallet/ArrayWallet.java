@@ -0,0 +1,367 @@
+package liptSoft.Ignatov.wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Class implementing {@link Wallet} interface over primitive arrays.
+ * Every currency gets a dense slot in the order it is added (see {@link CurrencyTable}),
+ * balances are kept in a {@code double[]} indexed by slot and rates in a {@link RateGraph},
+ * so deposit, withdraw and balance lookups do not allocate.
+ * Rates which were not set are derived through other currencies, so conversion fails
+ * only if there is no chain of rates between currencies.
+ * <p>
+ * Once a total in some currency is requested, it is cached and then maintained incrementally:
+ * every change of a balance adjusts it by the converted delta, and every change of a rate replaces
+ * only the term of the affected currency, so {@link #getTotal(String)} does not depend on the number of currencies.
+ * Cached totals are summed with Neumaier compensation, so a large deposit withdrawn later does not wipe out
+ * small balances summed meanwhile
+ */
+public class ArrayWallet extends AbstractWallet {
+
+    private CurrencyTable currencies = new CurrencyTable();
+
+    private RateGraph rates = new RateGraph(currencies.capacity(), this::rateChanged);
+
+    private double[] balances = new double[currencies.capacity()]; // slot -> amount
+
+    private double[] totals = new double[currencies.capacity()]; // target slot -> cached total
+
+    private double[] compensations = new double[currencies.capacity()]; // target slot -> lost low-order part
+
+    private int[] undefinedTerms = new int[currencies.capacity()]; // target slot -> currencies without rate to it
+
+    private boolean[] cached = new boolean[currencies.capacity()]; // target slot -> whether total is maintained
+
+    private int[] cachedTargets = new int[currencies.capacity()];
+
+    private int cachedCount = 0;
+
+    private long totalCacheHits = 0;
+
+    private long totalRecomputations = 0;
+
+    /**
+     * ArrayWallet constructor
+     *
+     * @param logging whether print balance after each command
+     */
+    public ArrayWallet(boolean logging) {
+        super(logging);
+    }
+
+    /**
+     * Default constructor
+     */
+    public ArrayWallet() {
+        this(false);
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) {
+        deposit(requireSlot(currency), amount);
+    }
+
+    void deposit(int slot, double amount) {
+        balances[slot] += amount;
+        adjustTotals(slot, amount);
+        logBalance();
+    }
+
+    @Override
+    public void addCurrency(final String currency) {
+        final int slot = currencies.add(currency);
+        if (slot < 0) {
+            return;
+        }
+        if (currencies.capacity() != balances.length) {
+            final int capacity = currencies.capacity();
+            balances = Arrays.copyOf(balances, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+            compensations = Arrays.copyOf(compensations, capacity);
+            undefinedTerms = Arrays.copyOf(undefinedTerms, capacity);
+            cached = Arrays.copyOf(cached, capacity);
+            cachedTargets = Arrays.copyOf(cachedTargets, capacity);
+        }
+        balances[slot] = 0;
+        cached[slot] = false;
+        rates.add();
+        for (int i = 0; i < cachedCount; i++) {
+            undefinedTerms[cachedTargets[i]]++; // the new currency is not connected yet
+        }
+        logBalance();
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) {
+        withdraw(requireSlot(currency), amount);
+    }
+
+    void withdraw(int slot, double amount) {
+        if (balances[slot] < amount) {
+            throw notEnoughMoney();
+        }
+        balances[slot] -= amount;
+        adjustTotals(slot, -amount);
+        logBalance();
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) {
+        final int slot1 = requireSlot(currency1);
+        setRate(slot1, requireSlot(currency2), rate);
+    }
+
+    void setRate(int slot1, int slot2, double rate) {
+        rates.setRate(slot1, slot2, rate);
+        logBalance();
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) {
+        final int from = requireSlot(currency1);
+        convertTo(amount, from, slotOf(currency2), currency2);
+    }
+
+    void convertTo(double amount, int from, int to) {
+        convertTo(amount, from, to, null);
+    }
+
+    /**
+     * Converts between slots. A missing target currency, slot -1, is reported after a lack of money,
+     * in the order of {@link WalletImpl}
+     */
+    private void convertTo(double amount, int from, int to, final String currency2) {
+        if (balances[from] < amount) {
+            throw notEnoughMoney();
+        }
+        if (to < 0) {
+            throw noSuchCurrency(currency2);
+        }
+        final double rate = rates.rate(to, from);
+        if (Double.isNaN(rate)) {
+            throw undefinedRate(currencies.name(from), currencies.name(to));
+        }
+        balances[from] -= amount;
+        balances[to] += rate * amount;
+        adjustTotals(from, -amount);
+        adjustTotals(to, rate * amount);
+        logBalance();
+    }
+
+    @Override
+    public void showBalance() {
+        for (int slot = 0; slot < currencies.size(); slot++) {
+            printBalance(balances[slot], currencies.name(slot));
+        }
+    }
+
+    @Override
+    protected String firstCurrency() {
+        return currencies.name(0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currencies.size() == 0;
+    }
+
+    @Override
+    public void clearWallet() {
+        currencies.clear();
+        rates.clear();
+        invalidateTotals();
+        logBalance();
+    }
+
+    /**
+     * Gets balance in a provided currency without boxing it.
+     * Currency should be in the wallet, else method fails with an error
+     *
+     * @return balance in this wallet in the provided currency
+     */
+    public double balanceOf(final String currency) {
+        return balances[requireSlot(currency)];
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) {
+        return balanceOf(currency);
+    }
+
+    @Override
+    public Double getTotal(final String currency) {
+        return getTotal(requireSlot(currency));
+    }
+
+    void showTotalIn(int target) {
+        printBalance(getTotal(target), currencies.name(target));
+    }
+
+    /**
+     * Starts reading commands from the channel and executing these commands like {@link #start(java.util.Scanner)},
+     * but parses commands in place with {@link CommandReader}
+     *
+     * @param in channel which is used for input commands in UTF-8
+     */
+    public void start(final ReadableByteChannel in) {
+        if (!isEmpty()) {
+            return;
+        }
+        new CommandReader(this).execute(in);
+    }
+
+    /**
+     * Gets the slot of the currency written in bytes {@code [from, to)} of the buffer
+     *
+     * @return slot of the currency or -1 if there is no such currency in this wallet
+     */
+    int slotOf(final ByteBuffer buffer, int from, int to) {
+        return currencies.slotOf(buffer, from, to);
+    }
+
+    /**
+     * Gets the slot of the provided currency
+     *
+     * @return slot of the currency or -1 if there is no such currency in this wallet
+     */
+    int slotOf(final String currency) {
+        return currencies.slotOf(currency);
+    }
+
+    /**
+     * Gets the slot of the currency added first. Wallet should not be empty, else method fails with an error
+     */
+    int firstSlot() {
+        checkNonEmpty();
+        return 0;
+    }
+
+    /**
+     * Saves currencies, balances and rates. Cached totals are not saved, they are recomputed after restoring
+     */
+    @Override
+    protected Checkpoint checkpoint() {
+        final CurrencyTable savedCurrencies = currencies.copy();
+        final RateGraph savedRates = rates.copy();
+        final double[] savedBalances = balances.clone();
+        return () -> {
+            invalidateTotals();
+            currencies = savedCurrencies;
+            rates = savedRates;
+            if (savedBalances.length != balances.length) {
+                final int capacity = savedBalances.length;
+                totals = Arrays.copyOf(totals, capacity);
+                compensations = Arrays.copyOf(compensations, capacity);
+                undefinedTerms = Arrays.copyOf(undefinedTerms, capacity);
+                cached = Arrays.copyOf(cached, capacity);
+                cachedTargets = Arrays.copyOf(cachedTargets, capacity);
+            }
+            balances = savedBalances;
+        };
+    }
+
+    private void invalidateTotals() {
+        for (int i = 0; i < cachedCount; i++) {
+            cached[cachedTargets[i]] = false;
+        }
+        cachedCount = 0;
+    }
+
+    private double getTotal(int target) {
+        if (cached[target]) {
+            totalCacheHits++;
+        } else {
+            recomputeTotal(target);
+        }
+        if (undefinedTerms[target] > 0) {
+            for (int slot = 0; slot < currencies.size(); slot++) {
+                if (Double.isNaN(rates.rate(slot, target))) {
+                    throw undefinedRate(currencies.name(target), currencies.name(slot));
+                }
+            }
+        }
+        return totals[target] + compensations[target];
+    }
+
+    /**
+     * Gets the number of {@link #getTotal(String)} calls answered by a cached total
+     */
+    public long getTotalCacheHits() {
+        return totalCacheHits;
+    }
+
+    /**
+     * Gets the number of totals computed by walking all currencies of this wallet
+     */
+    public long getTotalRecomputations() {
+        return totalRecomputations;
+    }
+
+    private void recomputeTotal(int target) {
+        totalRecomputations++;
+        totals[target] = 0;
+        compensations[target] = 0;
+        int undefined = 0;
+        for (int slot = 0; slot < currencies.size(); slot++) {
+            final double rate = rates.rate(slot, target);
+            if (Double.isNaN(rate)) {
+                undefined++;
+            } else {
+                accumulate(target, balances[slot] / rate);
+            }
+        }
+        undefinedTerms[target] = undefined;
+        cached[target] = true;
+        cachedTargets[cachedCount++] = target;
+    }
+
+    private void adjustTotals(int slot, double delta) {
+        for (int i = 0; i < cachedCount; i++) {
+            final int target = cachedTargets[i];
+            final double rate = rates.rate(slot, target);
+            if (!Double.isNaN(rate)) {
+                accumulate(target, delta / rate);
+            }
+        }
+    }
+
+    private void rateChanged(int slot, int target, double oldRate, double newRate) {
+        if (!cached[target]) {
+            return;
+        }
+        if (Double.isNaN(oldRate)) {
+            undefinedTerms[target]--;
+        } else {
+            accumulate(target, -balances[slot] / oldRate);
+        }
+        if (Double.isNaN(newRate)) {
+            undefinedTerms[target]++;
+        } else {
+            accumulate(target, balances[slot] / newRate);
+        }
+    }
+
+    /**
+     * Adds the term to the cached total, keeping the low-order bits lost by the addition in its compensation
+     */
+    private void accumulate(int target, double term) {
+        final double total = totals[target];
+        final double sum = total + term;
+        if (Math.abs(total) >= Math.abs(term)) {
+            compensations[target] += (total - sum) + term;
+        } else {
+            compensations[target] += (term - sum) + total;
+        }
+        totals[target] = sum;
+    }
+
+    private int requireSlot(final String currency) {
+        final int slot = slotOf(currency);
+        if (slot < 0) {
+            throw noSuchCurrency(currency);
+        }
+        return slot;
+    }
+}
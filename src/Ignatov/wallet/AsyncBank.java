@@ -0,0 +1,165 @@
+package liptSoft.Ignatov.wallet;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of a {@link Bank}. Every operation is started on a bounded I/O executor and returns
+ * a {@link CompletableFuture}, so independent calls, for example to several wallets, run concurrently,
+ * and dependent ones are chained with {@code thenCompose}.
+ * <p>
+ * The executor has a fixed number of threads and a bounded queue of waiting calls. When the queue is full,
+ * the call is not started and its future fails with {@link RejectedExecutionException}.
+ * Failed calls complete their futures with {@link RemoteException} or {@link WalletException}
+ */
+public class AsyncBank implements AutoCloseable {
+
+    private final Bank bank;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * AsyncBank constructor
+     *
+     * @param bank          bank, usually a remote stub
+     * @param threads       number of calls running at the same time
+     * @param queueCapacity number of calls which can wait for a thread
+     */
+    public AsyncBank(final Bank bank, int threads, int queueCapacity) {
+        this.bank = bank;
+        final AtomicInteger number = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            final Thread thread = new Thread(runnable, "async-bank-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the executor. Started calls are completed
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @see Bank#createWallet(String)
+     */
+    public CompletableFuture<AsyncWallet> createWallet(final String id) {
+        return call(executor, () -> wrap(bank.createWallet(id)));
+    }
+
+    /**
+     * @see Bank#getWallet(Person, String)
+     */
+    public CompletableFuture<AsyncWallet> getWallet(final Person person, final String id) {
+        return call(executor, () -> wrap(bank.getWallet(person, id)));
+    }
+
+    /**
+     * @see Bank#createIndividual(String, String, String)
+     */
+    public CompletableFuture<Boolean> createIndividual(final String name, final String surname,
+                                                       final String passport) {
+        return call(executor, () -> bank.createIndividual(name, surname, passport));
+    }
+
+    /**
+     * @see Bank#getIndividual(String)
+     */
+    public CompletableFuture<Person> getIndividual(final String passport) {
+        return call(executor, () -> bank.getIndividual(passport));
+    }
+
+    /**
+     * @see Bank#getAllIds(Person)
+     */
+    public CompletableFuture<Set<String>> getAllIds(final Person person) {
+        return call(executor, () -> bank.getAllIds(person));
+    }
+
+    /**
+     * @see Bank#getAllIds(Person, String, int)
+     */
+    public CompletableFuture<List<String>> getAllIds(final Person person, final String after, int limit) {
+        return call(executor, () -> bank.getAllIds(person, after, limit));
+    }
+
+    /**
+     * @see Bank#isExists(Person)
+     */
+    public CompletableFuture<Boolean> isExists(final Person person) {
+        return call(executor, () -> bank.isExists(person));
+    }
+
+    /**
+     * @see Bank#execute(String, List, boolean)
+     */
+    public CompletableFuture<BatchResult> execute(final String id, final List<WalletOperation> operations,
+                                                  boolean atomic) {
+        return call(executor, () -> bank.execute(id, operations, atomic));
+    }
+
+    /**
+     * @see Bank#transfer(String, String, double, String)
+     */
+    public CompletableFuture<Double> transfer(final String fromId, final String toId, double amount,
+                                              final String currency) {
+        return call(executor, () -> bank.transfer(fromId, toId, amount, currency));
+    }
+
+    /**
+     * @see Bank#transfer(String, String, double, String, String)
+     */
+    public CompletableFuture<Double> transfer(final String fromId, final String toId, double amount,
+                                              final String currency, final String targetCurrency) {
+        return call(executor, () -> bank.transfer(fromId, toId, amount, currency, targetCurrency));
+    }
+
+    /**
+     * Wraps a wallet got from the bank in a facade sharing the executor of this bank
+     *
+     * @return asynchronous wallet or null if the wallet is null
+     */
+    public AsyncWallet wrap(final Wallet wallet) {
+        return wallet == null ? null : new AsyncWallet(wallet, executor);
+    }
+
+    /**
+     * Remote call returning a value
+     */
+    @FunctionalInterface
+    interface RemoteCall<T> {
+        T call() throws RemoteException;
+    }
+
+    /**
+     * Starts the call on the executor
+     *
+     * @return future completed with the result or the exception of the call
+     */
+    static <T> CompletableFuture<T> call(final Executor executor, final RemoteCall<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(call.call());
+                } catch (RemoteException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
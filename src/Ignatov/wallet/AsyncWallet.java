@@ -0,0 +1,193 @@
+package liptSoft.Ignatov.wallet;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static liptSoft.Ignatov.wallet.AsyncBank.call;
+
+/**
+ * Asynchronous facade of a {@link Wallet}, created by {@link AsyncBank}. Every operation returns
+ * a {@link CompletableFuture} completed on the I/O executor of the bank.
+ * Calls to one wallet are not ordered among themselves, so an operation depending on another one
+ * has to be chained after it
+ */
+public class AsyncWallet {
+
+    private final Wallet wallet;
+    private final Executor executor;
+
+    /**
+     * AsyncWallet constructor
+     *
+     * @param wallet   wallet, usually a remote stub
+     * @param executor executor of calls
+     */
+    AsyncWallet(final Wallet wallet, final Executor executor) {
+        this.wallet = wallet;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the synchronous wallet
+     */
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    /**
+     * @see Wallet#deposit(double)
+     */
+    public CompletableFuture<Void> deposit(double amount) {
+        return run(() -> wallet.deposit(amount));
+    }
+
+    /**
+     * @see Wallet#deposit(double, String)
+     */
+    public CompletableFuture<Void> deposit(double amount, final String currency) {
+        return run(() -> wallet.deposit(amount, currency));
+    }
+
+    /**
+     * @see Wallet#addCurrency(String)
+     */
+    public CompletableFuture<Void> addCurrency(final String currency) {
+        return run(() -> wallet.addCurrency(currency));
+    }
+
+    /**
+     * @see Wallet#withdraw(double)
+     */
+    public CompletableFuture<Void> withdraw(double amount) {
+        return run(() -> wallet.withdraw(amount));
+    }
+
+    /**
+     * @see Wallet#withdraw(double, String)
+     */
+    public CompletableFuture<Void> withdraw(double amount, final String currency) {
+        return run(() -> wallet.withdraw(amount, currency));
+    }
+
+    /**
+     * @see Wallet#setRate(String, String, double)
+     */
+    public CompletableFuture<Void> setRate(final String currency1, final String currency2, double rate) {
+        return run(() -> wallet.setRate(currency1, currency2, rate));
+    }
+
+    /**
+     * @see Wallet#convertTo(double, String, String)
+     */
+    public CompletableFuture<Void> convertTo(double amount, final String currency1, final String currency2) {
+        return run(() -> wallet.convertTo(amount, currency1, currency2));
+    }
+
+    /**
+     * @see Wallet#showBalance()
+     */
+    public CompletableFuture<Void> showBalance() {
+        return run(wallet::showBalance);
+    }
+
+    /**
+     * @see Wallet#showTotalIn(String)
+     */
+    public CompletableFuture<Void> showTotalIn(final String currency) {
+        return run(() -> wallet.showTotalIn(currency));
+    }
+
+    /**
+     * @see Wallet#showTotalIn()
+     */
+    public CompletableFuture<Void> showTotalIn() {
+        return run(wallet::showTotalIn);
+    }
+
+    /**
+     * @see Wallet#isEmpty()
+     */
+    public CompletableFuture<Boolean> isEmpty() {
+        return call(executor, wallet::isEmpty);
+    }
+
+    /**
+     * @see Wallet#clearWallet()
+     */
+    public CompletableFuture<Void> clearWallet() {
+        return run(wallet::clearWallet);
+    }
+
+    /**
+     * @see Wallet#getBalanceIn(String)
+     */
+    public CompletableFuture<Double> getBalanceIn(final String currency) {
+        return call(executor, () -> wallet.getBalanceIn(currency));
+    }
+
+    /**
+     * @see Wallet#getTotal(String)
+     */
+    public CompletableFuture<Double> getTotal(final String currency) {
+        return call(executor, () -> wallet.getTotal(currency));
+    }
+
+    /**
+     * @see Wallet#depositMinor(long, String)
+     */
+    public CompletableFuture<Void> depositMinor(long amount, final String currency) {
+        return run(() -> wallet.depositMinor(amount, currency));
+    }
+
+    /**
+     * @see Wallet#withdrawMinor(long, String)
+     */
+    public CompletableFuture<Void> withdrawMinor(long amount, final String currency) {
+        return run(() -> wallet.withdrawMinor(amount, currency));
+    }
+
+    /**
+     * @see Wallet#convertToMinor(long, String, String)
+     */
+    public CompletableFuture<Void> convertToMinor(long amount, final String currency1, final String currency2) {
+        return run(() -> wallet.convertToMinor(amount, currency1, currency2));
+    }
+
+    /**
+     * @see Wallet#getBalanceMinorIn(String)
+     */
+    public CompletableFuture<Long> getBalanceMinorIn(final String currency) {
+        return call(executor, () -> wallet.getBalanceMinorIn(currency));
+    }
+
+    /**
+     * @see Wallet#getTotalMinor(String)
+     */
+    public CompletableFuture<Long> getTotalMinor(final String currency) {
+        return call(executor, () -> wallet.getTotalMinor(currency));
+    }
+
+    /**
+     * @see Wallet#execute(List, boolean)
+     */
+    public CompletableFuture<BatchResult> execute(final List<WalletOperation> operations, boolean atomic) {
+        return call(executor, () -> wallet.execute(operations, atomic));
+    }
+
+    /**
+     * Remote call without a result
+     */
+    @FunctionalInterface
+    private interface RemoteAction {
+        void run() throws RemoteException;
+    }
+
+    private CompletableFuture<Void> run(final RemoteAction action) {
+        return call(executor, () -> {
+            action.run();
+            return null;
+        });
+    }
+}
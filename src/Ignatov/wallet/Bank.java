@@ -2,6 +2,7 @@ package liptSoft.Ignatov.wallet;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -67,6 +68,19 @@ public interface Bank extends Remote {
 
     Set<String> getAllIds(Person person) throws RemoteException;
 
+    /**
+     * gets a page of wallet ids of provided person ordered by sub id. The last id of a page is the cursor
+     * of the next page, so a huge set of ids is transmitted in pages
+     *
+     * @param person remote person (individual)
+     * @param after  id returned last on the previous page or null for the first page
+     * @param limit  maximal number of ids in the page
+     * @return ids following after, fewer than limit only on the last page, or null if no such person
+     * at the bank
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+    List<String> getAllIds(Person person, String after, int limit) throws RemoteException;
+
     /**
      * Checks whether person at the bank or not
      *
@@ -76,4 +90,41 @@ public interface Bank extends Remote {
      */
     boolean isExists(Person person) throws RemoteException;
 
+    /**
+     * Executes a batch of operations on the wallet with specified id in a single call
+     *
+     * @param id         wallet id
+     * @param operations operations to execute in order
+     * @param atomic     whether the batch is all-or-nothing
+     * @return value or error of every executed operation or null if there is no such wallet
+     * @throws RemoteException when errors occurred while executing interface methods
+     * @see Wallet#execute(List, boolean)
+     */
+    BatchResult execute(String id, List<WalletOperation> operations, boolean atomic) throws RemoteException;
+
+    /**
+     * Transfers money between wallets in the same currency
+     *
+     * @see #transfer(String, String, double, String, String)
+     */
+    Double transfer(String fromId, String toId, double amount, String currency) throws RemoteException;
+
+    /**
+     * Transfers money between wallets in a single call. The amount is withdrawn in the currency from one wallet
+     * and deposited to the other one in the target currency, converted at the rate of the target wallet or,
+     * if it does not define one, of the source wallet. Either both wallets are changed or none of them
+     *
+     * @param fromId         id of the wallet to withdraw from
+     * @param toId           id of the wallet to deposit to
+     * @param amount         amount in the currency
+     * @param currency       currency of the source wallet
+     * @param targetCurrency currency of the target wallet
+     * @return deposited amount in the target currency or null if there is no such wallet
+     * @throws WalletException     if a wallet has no such currency, the rate is undefined or there is
+     *                             not enough money
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+    Double transfer(String fromId, String toId, double amount, String currency, String targetCurrency)
+            throws RemoteException;
+
 }
@@ -0,0 +1,314 @@
+package liptSoft.Ignatov.wallet;
+
+import java.lang.management.ManagementFactory;
+import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a {@link RemoteBank}: calls, errors and latencies of methods of {@link Bank} and {@link Wallet},
+ * errors by their reasons and sizes of the bank, published as a platform MXBean by {@link #register(String)}.
+ * <p>
+ * Counters are {@link LongAdder LongAdders}, which spread concurrent increments over cells, so threads
+ * calling one method do not contend for a counter. Latencies are counted in fixed buckets bounded by powers
+ * of two nanoseconds, from 1 ns to about a second. Recording a call reads the clock twice and increments
+ * three counters without allocating, percentiles are computed from the buckets only when they are read
+ */
+public final class BankMetrics implements BankMetricsMXBean {
+
+    /**
+     * Measured method
+     */
+    public enum Method {
+        CREATE_WALLET("Bank.createWallet"), GET_WALLET("Bank.getWallet"),
+        CREATE_INDIVIDUAL("Bank.createIndividual"), GET_INDIVIDUAL("Bank.getIndividual"),
+        GET_ALL_IDS("Bank.getAllIds"), IS_EXISTS("Bank.isExists"), EXECUTE("Bank.execute"),
+        TRANSFER("Bank.transfer"),
+        START("Wallet.start"), DEPOSIT("Wallet.deposit"), ADD_CURRENCY("Wallet.addCurrency"),
+        WITHDRAW("Wallet.withdraw"), SET_RATE("Wallet.setRate"), CONVERT_TO("Wallet.convertTo"),
+        SHOW_BALANCE("Wallet.showBalance"), SHOW_TOTAL_IN("Wallet.showTotalIn"), IS_EMPTY("Wallet.isEmpty"),
+        CLEAR_WALLET("Wallet.clearWallet"), GET_BALANCE_IN("Wallet.getBalanceIn"), GET_TOTAL("Wallet.getTotal"),
+        DEPOSIT_MINOR("Wallet.depositMinor"), WITHDRAW_MINOR("Wallet.withdrawMinor"),
+        CONVERT_TO_MINOR("Wallet.convertToMinor"), GET_BALANCE_MINOR_IN("Wallet.getBalanceMinorIn"),
+        GET_TOTAL_MINOR("Wallet.getTotalMinor"), WALLET_EXECUTE("Wallet.execute");
+
+        private final String label;
+
+        Method(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the interface and the name of the method
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final String DOMAIN = "liptSoft.Ignatov.wallet";
+    private static final int BUCKETS = 32; // bucket b counts latencies below 2^b ns and not below 2^(b - 1) ns
+    private static final Method[] METHODS = Method.values();
+    private static final WalletException.Reason[] REASONS = WalletException.Reason.values();
+    private static final int REMOTE = REASONS.length;
+    private static final int UNEXPECTED = REASONS.length + 1;
+
+    private final LongAdder[] calls = adders(METHODS.length);
+    private final LongAdder[] errors = adders(METHODS.length);
+    private final LongAdder[] nanos = adders(METHODS.length);
+    private final LongAdder[] latencies = adders(METHODS.length * BUCKETS); // method, bucket -> count
+    private final LongAdder[] reasons = adders(REASONS.length + 2);
+    private final LongSupplier wallets;
+    private final LongSupplier persons;
+    private final LongSupplier exported;
+    private volatile ObjectName name;
+
+    /**
+     * BankMetrics constructor
+     *
+     * @param wallets  number of wallets of the bank
+     * @param persons  number of persons of the bank
+     * @param exported number of exported objects of the bank
+     */
+    public BankMetrics(final LongSupplier wallets, final LongSupplier persons, final LongSupplier exported) {
+        this.wallets = wallets;
+        this.persons = persons;
+        this.exported = exported;
+    }
+
+    /**
+     * Records a call of the method
+     *
+     * @param start {@link System#nanoTime()} before the call
+     */
+    public void record(final Method method, long start) {
+        final long latency = System.nanoTime() - start;
+        final int index = method.ordinal();
+        calls[index].increment();
+        nanos[index].add(latency);
+        latencies[index * BUCKETS + bucket(latency)].increment();
+    }
+
+    /**
+     * Records an exception thrown by a call of the method, the call itself is recorded by {@link #record}
+     */
+    public void failed(final Method method, final Exception e) {
+        errors[method.ordinal()].increment();
+        reasons[e instanceof WalletException wallet ? wallet.getReason().ordinal()
+                : e instanceof RemoteException ? REMOTE : UNEXPECTED].increment();
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server
+     *
+     * @param bank name of the bank, which distinguishes metrics of banks of one JVM
+     * @return name of the MBean, {@code liptSoft.Ignatov.wallet:type=BankMetrics,name=<bank>}
+     * @throws JMException if the name is taken or the MBean cannot be registered
+     */
+    public ObjectName register(final String bank) throws JMException {
+        final ObjectName objectName = new ObjectName(DOMAIN + ":type=BankMetrics,name=" + ObjectName.quote(bank));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregisters the metrics registered by {@link #register(String)}
+     *
+     * @throws JMException if the MBean cannot be unregistered
+     */
+    public void unregister() throws JMException {
+        final ObjectName objectName = name;
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            name = null;
+        }
+    }
+
+    /**
+     * Returns the number of calls of the method
+     */
+    public long getCalls(final Method method) {
+        return calls[method.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of calls of the method which threw exceptions
+     */
+    public long getErrors(final Method method) {
+        return errors[method.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of calls which threw wallet exceptions with the reason
+     */
+    public long getErrors(final WalletException.Reason reason) {
+        return reasons[reason.ordinal()].sum();
+    }
+
+    /**
+     * Returns the latency in nanoseconds which the percentage of calls of the method do not exceed,
+     * up to a power of two, or 0 if the method is not called
+     *
+     * @param percentile percentage from 0 to 100
+     * @return exclusive upper bound of the bucket of the percentile or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public long getLatencyNanos(final Method method, double percentile) {
+        final long[] counts = histogram(method.ordinal());
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return byMethod(calls);
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Method method : METHODS) {
+            if (getCalls(method) > 0) {
+                result.put(method.label(), getErrors(method));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByReason() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (WalletException.Reason reason : REASONS) {
+            result.put(reason.name(), reasons[reason.ordinal()].sum());
+        }
+        result.put("REMOTE", reasons[REMOTE].sum());
+        result.put("UNEXPECTED", reasons[UNEXPECTED].sum());
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        final Map<String, Double> result = new LinkedHashMap<>();
+        for (Method method : METHODS) {
+            final long count = getCalls(method);
+            if (count > 0) {
+                result.put(method.label(), nanos[method.ordinal()].sum() / 1e3 / count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Micros() {
+        return percentiles(50);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Micros() {
+        return percentiles(99);
+    }
+
+    @Override
+    public Map<String, long[]> getLatencyHistograms() {
+        final Map<String, long[]> result = new LinkedHashMap<>();
+        for (Method method : METHODS) {
+            if (getCalls(method) > 0) {
+                result.put(method.label(), histogram(method.ordinal()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getLatencyBoundsNanos() {
+        final long[] bounds = new long[BUCKETS - 1];
+        for (int bucket = 0; bucket < bounds.length; bucket++) {
+            bounds[bucket] = 1L << bucket;
+        }
+        return bounds;
+    }
+
+    @Override
+    public long getWallets() {
+        return wallets.getAsLong();
+    }
+
+    @Override
+    public long getPersons() {
+        return persons.getAsLong();
+    }
+
+    @Override
+    public long getExportedObjects() {
+        return exported.getAsLong();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][]{calls, errors, nanos, latencies, reasons}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    private Map<String, Long> byMethod(final LongAdder[] counters) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Method method : METHODS) {
+            final long count = counters[method.ordinal()].sum();
+            if (count > 0) {
+                result.put(method.label(), count);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Double> percentiles(double percentile) {
+        final Map<String, Double> result = new LinkedHashMap<>();
+        for (Method method : METHODS) {
+            if (getCalls(method) > 0) {
+                final long latency = getLatencyNanos(method, percentile);
+                result.put(method.label(), latency == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : latency / 1e3);
+            }
+        }
+        return result;
+    }
+
+    private long[] histogram(int method) {
+        final long[] counts = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = latencies[method * BUCKETS + bucket].sum();
+        }
+        return counts;
+    }
+
+    private static int bucket(long latency) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, latency)));
+    }
+
+    private static LongAdder[] adders(int n) {
+        final LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,71 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BankMetrics}. Maps are keyed by methods, as {@code Bank.createWallet} or
+ * {@code Wallet.deposit}, and contain only methods called since the start or the last reset
+ */
+public interface BankMetricsMXBean {
+
+    /**
+     * Returns numbers of calls by methods
+     */
+    Map<String, Long> getCalls();
+
+    /**
+     * Returns numbers of calls which threw exceptions by methods
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * Returns numbers of calls which threw exceptions by {@link WalletException.Reason reasons} of wallet
+     * exceptions, {@code REMOTE} for remote exceptions and {@code UNEXPECTED} for other exceptions
+     */
+    Map<String, Long> getErrorsByReason();
+
+    /**
+     * Returns mean latencies in microseconds by methods
+     */
+    Map<String, Double> getMeanLatencyMicros();
+
+    /**
+     * Returns upper bounds of buckets of the median latency in microseconds by methods
+     */
+    Map<String, Double> getLatencyP50Micros();
+
+    /**
+     * Returns upper bounds of buckets of the 99th percentile of latencies in microseconds by methods
+     */
+    Map<String, Double> getLatencyP99Micros();
+
+    /**
+     * Returns counts of latencies in buckets by methods, buckets are bounded by {@link #getLatencyBoundsNanos()}
+     */
+    Map<String, long[]> getLatencyHistograms();
+
+    /**
+     * Returns upper bounds of buckets of latencies in nanoseconds, exclusive, the last bucket is unbounded
+     */
+    long[] getLatencyBoundsNanos();
+
+    /**
+     * Returns the number of wallets of the bank
+     */
+    long getWallets();
+
+    /**
+     * Returns the number of persons of the bank
+     */
+    long getPersons();
+
+    /**
+     * Returns the number of wallets and persons exported to RMI clients
+     */
+    long getExportedObjects();
+
+    /**
+     * Resets counters and histograms
+     */
+    void reset();
+}
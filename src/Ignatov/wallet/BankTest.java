@@ -3,17 +3,37 @@ package liptSoft.Ignatov.wallet;
 import org.junit.*;
 import org.junit.rules.TestName;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 /**
  * @author Ignatov Nikolay ({@link <a href="https://github.com/nikolyanikolya?tab=repositories"> github </a>})
@@ -32,6 +52,7 @@ public class BankTest {
     private static String passport = "defaultPassport";
     private static final int TIMEOUT = 50;
     private static final int THREADS = 10;
+    private static final int OPERATIONS = 1000;
     @Rule
     public TestName testName = new TestName();
 
@@ -193,6 +214,1232 @@ public class BankTest {
         }
     }
 
+    @Test
+    public void test07() throws RemoteException {
+        setPersonData(testName.getMethodName());
+        final Wallet wallet = bank.createWallet(getId(passport, subId));
+        wallet.addCurrency("ruble");
+        final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+        Collection<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        wallet.deposit(2, "ruble");
+                        wallet.withdraw(1, "ruble");
+                        wallet.getTotal("ruble");
+                    }
+                    return "";
+                } catch (RemoteException | WalletException e) {
+                    return "Error while changing the balance concurrently. " + e.getMessage();
+                }
+            });
+        }
+        try {
+            final long start = System.nanoTime();
+            List<String> errors = executors.invokeAll(tasks).stream().map(s -> {
+                try {
+                    return s.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    return "Error while executing the task. " + e.getMessage();
+                }
+            }).filter(s -> !s.isEmpty()).toList();
+            final long elapsed = System.nanoTime() - start;
+            if (!errors.isEmpty()) {
+                Assert.fail("Wallet operations are not thread-safe\n" + String.join("\n", errors));
+            }
+            Assert.assertEquals("expected that no deposit or withdrawal is lost",
+                    (double) THREADS * OPERATIONS, wallet.getBalanceIn("ruble"), 0);
+            System.err.printf("%s: %d threads, %.0f wallet operations per second%n", testName.getMethodName(),
+                    THREADS, 3. * THREADS * OPERATIONS / elapsed * TimeUnit.SECONDS.toNanos(1));
+        } catch (InterruptedException e) {
+            Assert.fail("Some of threads were interrupted. " + e.getMessage());
+        } finally {
+            executors.shutdown();
+        }
+    }
+
+    @Test
+    public void test08() throws RemoteException, MalformedURLException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final Bank bank = (Bank) Naming.lookup(URL);
+        final String id = getId(passport, subId);
+        final Wallet wallet = bank.createWallet(id);
+        wallet.addCurrency("ruble");
+        wallet.addCurrency("dollar");
+        wallet.setRate("dollar", "ruble", 1. / 60);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            wallet.deposit(60, "ruble");
+            wallet.convertTo(60, "ruble", "dollar");
+            wallet.getBalanceIn("dollar");
+        }
+        final long perMethod = System.nanoTime() - start;
+
+        final List<WalletOperation> operations = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            operations.add(WalletOperation.deposit(60, "ruble"));
+            operations.add(WalletOperation.convert(60, "ruble", "dollar"));
+            operations.add(WalletOperation.getBalance("dollar"));
+        }
+        start = System.nanoTime();
+        final BatchResult result = bank.execute(id, operations, true);
+        final long batch = System.nanoTime() - start;
+        Assert.assertTrue("expected successful batch " + result, result.isSuccessful());
+        Assert.assertEquals(operations.size(), result.size());
+        Assert.assertEquals(2. * OPERATIONS, result.getValue(result.size() - 1), 1e-9);
+        System.err.printf("%s: %d operations, %.1f ms per method, %.1f ms in one batch%n",
+                testName.getMethodName(), 3 * OPERATIONS, perMethod / 1e6, batch / 1e6);
+
+        final BatchResult failed = bank.execute(id, List.of(WalletOperation.deposit(1, "ruble"),
+                WalletOperation.addCurrency("euro"), WalletOperation.withdraw(1e9, "dollar"),
+                WalletOperation.deposit(1, "ruble")), true);
+        Assert.assertFalse("expected rolled back batch", failed.isCommitted());
+        Assert.assertEquals(3, failed.size());
+        Assert.assertFalse(failed.isSuccessful(2));
+        Assert.assertEquals(0, wallet.getBalanceIn("ruble"), 0);
+        Assert.assertEquals(2. * OPERATIONS, wallet.getTotal("dollar"), 1e-9);
+        Assert.assertNull("expected null result for unknown wallet",
+                bank.execute(id + "unknown", operations, false));
+    }
+
+    @Test
+    public void test09() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        try (BinaryBankServer server = new BinaryBankServer(bank, 0, workers);
+             BinaryBankClient client = new BinaryBankClient(server.getAddress())) {
+            Assert.assertTrue(client.createIndividual(name, surname, passport));
+            Assert.assertFalse(client.createIndividual(name, surname, passport));
+            final Person person = client.getIndividual(passport);
+            Assert.assertEquals(surname, person.getSurName());
+            Assert.assertTrue(client.isExists(person));
+            Assert.assertNull(client.getWallet(person, getId(passport, subId)));
+            final Wallet wallet = client.createWallet(getId(passport, subId));
+            wallet.addCurrency("ruble");
+            wallet.depositMinor(150, "ruble");
+            Assert.assertEquals(1.5, wallet.getBalanceIn("ruble"), 0);
+            Assert.assertEquals(1.5, bank.getWallet(person, getId(passport, subId)).getBalanceIn("ruble"), 0);
+            Assert.assertEquals(getId(passport, subId), client.getAllIds(person).iterator().next());
+            try {
+                wallet.withdraw(2);
+                Assert.fail("expected an error, because not enough money in a wallet");
+            } catch (WalletException e) {
+                System.err.println(e.getMessage());
+                Assert.assertEquals(WalletException.Reason.NOT_ENOUGH_MONEY, e.getReason());
+            }
+            Assert.assertEquals(WalletException.Reason.NO_SUCH_CURRENCY, wallet.execute(
+                    List.of(WalletOperation.deposit(1, "dollar")), false).getReason(0));
+            wallet.withdraw(1.5);
+
+            final double rmi = throughput((Bank) Naming.lookup(URL), getId(passport, subId + "rmi"));
+            final double binary = throughput(client, getId(passport, subId + "binary"));
+            final List<CompletableFuture<Boolean>> pipelined = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < THREADS * OPERATIONS; i++) {
+                pipelined.add(client.callAsync(BinaryProtocol.IS_EXISTS,
+                        out -> BinaryProtocol.writeString(out, passport), DataInputStream::readBoolean));
+            }
+            for (CompletableFuture<Boolean> exists : pipelined) {
+                Assert.assertTrue(exists.join());
+            }
+            final double pipelinedThroughput = (double) THREADS * OPERATIONS / (System.nanoTime() - start)
+                    * TimeUnit.SECONDS.toNanos(1);
+            System.err.printf("%s: %d threads, %.0f operations per second over RMI, %.0f over binary protocol, "
+                            + "%.0f pipelined from one thread%n",
+                    testName.getMethodName(), THREADS, rmi, binary, pipelinedThroughput);
+
+            // requests rejected by the workers fail, and the selector keeps serving connections
+            workers.shutdown();
+            try (BinaryBankClient other = new BinaryBankClient(server.getAddress())) {
+                for (BinaryBankClient each : List.of(client, other)) {
+                    try {
+                        each.isExists(person);
+                        Assert.fail("expected an error, because workers are shut down");
+                    } catch (RemoteException e) {
+                        System.err.println(e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void test10() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final int operations = 200;
+        for (int connections : new int[]{1, 16, 64}) {
+            final Bank rmi = (Bank) Naming.lookup(URL);
+            report("rmi", connections, latencies(connections, operations,
+                    i -> rmi, getId(passport, subId + "rmi" + connections)));
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                final ExecutorService workers = mode.newExecutor();
+                try (BinaryBankServer server = new BinaryBankServer(bank, 0, workers)) {
+                    final List<BinaryBankClient> clients = new ArrayList<>();
+                    try {
+                        for (int i = 0; i < connections; i++) {
+                            clients.add(new BinaryBankClient(server.getAddress()));
+                        }
+                        report(mode.name().toLowerCase(), connections, latencies(connections, operations,
+                                clients::get, getId(passport, subId + mode + connections)));
+                    } finally {
+                        for (BinaryBankClient client : clients) {
+                            client.close();
+                        }
+                    }
+                } finally {
+                    workers.shutdown();
+                }
+            }
+        }
+        System.err.println("virtual threads are " + (ExecutionMode.isVirtualSupported() ? "" : "not ")
+                + "supported by this JDK");
+    }
+
+    @Test
+    public void test11() throws RemoteException, MalformedURLException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final int wallets = 5;
+        final int workflows = 100;
+        final Bank rmi = (Bank) Naming.lookup(URL);
+        try (AsyncBank async = new AsyncBank(rmi, THREADS, OPERATIONS)) {
+            final List<AsyncWallet> asyncWallets = new ArrayList<>();
+            final List<Wallet> syncWallets = new ArrayList<>();
+            for (int i = 0; i < wallets; i++) {
+                final AsyncWallet wallet = async.createWallet(getId(passport, subId + i)).join();
+                wallet.addCurrency("ruble").join();
+                asyncWallets.add(wallet);
+                syncWallets.add(wallet.getWallet());
+            }
+            try {
+                asyncWallets.get(0).withdraw(1, "ruble").join();
+                Assert.fail("expected an error, because not enough money in a wallet");
+            } catch (CompletionException e) {
+                Assert.assertTrue("expected WalletException, got " + e.getCause(),
+                        e.getCause() instanceof WalletException);
+            }
+
+            final long[] serial = new long[workflows];
+            for (int i = 0; i < workflows; i++) {
+                final long start = System.nanoTime();
+                for (Wallet wallet : syncWallets) {
+                    wallet.deposit(wallet.getBalanceIn("ruble") < OPERATIONS ? 1 : 0, "ruble");
+                }
+                serial[i] = System.nanoTime() - start;
+            }
+            final long[] concurrent = new long[workflows];
+            for (int i = 0; i < workflows; i++) {
+                final long start = System.nanoTime();
+                CompletableFuture.allOf(asyncWallets.stream()
+                        .map(wallet -> wallet.getBalanceIn("ruble")
+                                .thenCompose(balance -> wallet.deposit(balance < OPERATIONS ? 1 : 0, "ruble")))
+                        .toArray(CompletableFuture[]::new)).join();
+                concurrent[i] = System.nanoTime() - start;
+            }
+            for (AsyncWallet wallet : asyncWallets) {
+                Assert.assertEquals(2. * workflows, wallet.getBalanceIn("ruble").join(), 0);
+            }
+            Arrays.sort(serial);
+            Arrays.sort(concurrent);
+            System.err.printf("%s: workflow over %d wallets, p50 %.3f ms serial, %.3f ms async, "
+                            + "p99 %.3f ms serial, %.3f ms async%n", testName.getMethodName(), wallets,
+                    percentile(serial, 0.5) / 1e6, percentile(concurrent, 0.5) / 1e6,
+                    percentile(serial, 0.99) / 1e6, percentile(concurrent, 0.99) / 1e6);
+        }
+    }
+
+    @Test
+    public void test12() throws IOException {
+        setPersonData(testName.getMethodName());
+        final Path file = Files.createTempFile("bank", ".journal");
+        try {
+            final String id = getId(passport, subId);
+            final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+            final long records;
+            final long commits;
+            final long time;
+            try (Journal journal = new Journal(file)) {
+                final RemoteBank journaled = new RemoteBank(PORT, journal);
+                Assert.assertTrue(journaled.createIndividual(name, surname, passport));
+                final Wallet wallet = journaled.createWallet(id);
+                wallet.addCurrency("ruble");
+                wallet.addCurrency("dollar");
+                wallet.setRate("dollar", "ruble", 1. / 60);
+                try {
+                    wallet.withdraw(1, "ruble");
+                    Assert.fail("expected an error, because not enough money in a wallet");
+                } catch (WalletException e) {
+                    System.err.println(e.getMessage());
+                }
+                final long start = System.nanoTime();
+                final Collection<Callable<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    tasks.add(() -> {
+                        for (int j = 0; j < OPERATIONS / 10; j++) {
+                            wallet.deposit(60, "ruble");
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> result : executors.invokeAll(tasks)) {
+                    result.get();
+                }
+                time = System.nanoTime() - start;
+                wallet.convertTo(600, "ruble", "dollar");
+                wallet.depositMinor(150, "dollar");
+                Assert.assertFalse(wallet.execute(List.of(WalletOperation.deposit(1, "ruble"),
+                        WalletOperation.withdraw(1e9, "dollar")), true).isCommitted());
+                wallet.execute(List.of(WalletOperation.withdraw(1, "ruble"),
+                        WalletOperation.withdraw(1e9, "dollar")), false);
+                try {
+                    journaled.createWallet(id + "script").start(new Scanner(
+                            "add currency ruble\ndeposit 5 ruble\nwithdraw 1e9 ruble\ndeposit 7 ruble\n"));
+                    Assert.fail("expected an error, because not enough money in a wallet");
+                } catch (WalletException e) {
+                    System.err.println(e.getMessage());
+                }
+                // a non-atomic batch throwing partway keeps the operations before the throwing one
+                final Wallet batch = journaled.createWallet(id + "batch");
+                batch.addCurrency("ruble");
+                try {
+                    batch.execute(List.of(WalletOperation.deposit(3, "ruble"),
+                            WalletOperation.of(WalletOperation.Type.ADD_CURRENCY, 0, null, null),
+                            WalletOperation.deposit(4, "ruble")), false);
+                    Assert.fail("expected an error, because a currency is null");
+                } catch (NullPointerException e) {
+                    Assert.assertEquals(3, batch.getBalanceIn("ruble"), 0);
+                }
+                // ticks of a rate feed are journaled, ticks of currencies not in the wallet are skipped
+                Assert.assertEquals(1, (int) journaled.setRates(id, List.of(new RateTable.Tick("dollar", "ruble",
+                        1. / 50), new RateTable.Tick("euro", "ruble", 1. / 90))));
+                records = journal.getRecords();
+                commits = journal.getCommits();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new AssertionError("Concurrent deposits failed", e);
+            } finally {
+                executors.shutdown();
+            }
+            System.err.printf("%s: %d records in %d commits, %.0f journaled deposits per second%n",
+                    testName.getMethodName(), records, commits,
+                    THREADS * (OPERATIONS / 10) / (time / 1e9));
+            Assert.assertTrue("expected group commits, " + records + " records in " + commits + " commits",
+                    commits <= records);
+
+            // torn record left by a crash
+            Files.write(file, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+            try (Journal journal = new Journal(file)) {
+                final Bank recovered = new RemoteBank(PORT, journal);
+                final Person person = recovered.getIndividual(passport);
+                Assert.assertNotNull(person);
+                Assert.assertEquals(surname, person.getSurName());
+                final Wallet wallet = recovered.getWallet(person, id);
+                Assert.assertNotNull(wallet);
+                Assert.assertEquals(OPERATIONS * 60. - 600 - 1, wallet.getBalanceIn("ruble"), 1e-9);
+                Assert.assertEquals(11.5, wallet.getBalanceIn("dollar"), 1e-9);
+                Assert.assertEquals(OPERATIONS * 60. - 600 - 1 + 11.5 * 50, wallet.getTotal("ruble"), 1e-6);
+                Assert.assertEquals(5, recovered.getWallet(person, id + "script").getBalanceIn("ruble"), 0);
+                Assert.assertEquals(3, recovered.getWallet(person, id + "batch").getBalanceIn("ruble"), 0);
+                wallet.deposit(1, "ruble");
+            }
+            try (Journal journal = new Journal(file)) {
+                final Bank recovered = new RemoteBank(PORT, journal);
+                Assert.assertEquals(OPERATIONS * 60. - 600,
+                        recovered.createWallet(id).getBalanceIn("ruble"), 1e-9);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void test13() throws IOException {
+        setPersonData(testName.getMethodName());
+        final Path directory = Files.createTempDirectory("bank");
+        final Path file = directory.resolve("bank.snapshot");
+        final Path journalFile = directory.resolve("bank.journal");
+        try {
+            final RemoteBank source = new RemoteBank(PORT);
+            Assert.assertTrue(source.createIndividual(name, surname, passport));
+            for (int i = 0; i < MAX_WALLETS; i++) {
+                final Wallet wallet = source.createWallet(getId(passport, subId + i));
+                wallet.addCurrency("ruble");
+                wallet.addCurrency("dollar");
+                wallet.setRate("dollar", "ruble", 1. / 60);
+                wallet.deposit(i, "dollar");
+            }
+            source.writeSnapshot(file);
+            final Bank loaded = new RemoteBank(PORT, new Snapshot(file), null);
+            final Person person = loaded.getIndividual(passport);
+            Assert.assertEquals(name, person.getName());
+            Assert.assertEquals(source.getAllIds(person), loaded.getAllIds(person));
+            for (int i = 0; i < MAX_WALLETS; i++) {
+                final Wallet wallet = loaded.getWallet(person, getId(passport, subId + i));
+                Assert.assertEquals(i, wallet.getBalanceIn("dollar"), 0);
+                Assert.assertEquals(60. * i, wallet.getTotal("ruble"), 1e-9);
+            }
+            Assert.assertNull(loaded.getWallet(person, getId(passport, subId + "unknown")));
+
+            final String id = getId(passport, subId);
+            final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+            try (Journal journal = new Journal(journalFile)) {
+                final RemoteBank journaled = new RemoteBank(PORT, new Snapshot(file), journal);
+                final Wallet wallet = journaled.createWallet(id);
+                wallet.addCurrency("ruble");
+                journaled.getWallet(person, getId(passport, subId + 1)).deposit(1, "dollar");
+                final Collection<Callable<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    tasks.add(() -> {
+                        for (int j = 0; j < OPERATIONS / 10; j++) {
+                            wallet.deposit(1, "ruble");
+                        }
+                        return null;
+                    });
+                }
+                final List<Future<Void>> results = new ArrayList<>();
+                for (Callable<Void> task : tasks) {
+                    results.add(executors.submit(task));
+                }
+                journaled.writeSnapshot(file);
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+                wallet.withdraw(1, "ruble");
+            } catch (InterruptedException | ExecutionException e) {
+                throw new AssertionError("Concurrent deposits failed", e);
+            } finally {
+                executors.shutdown();
+            }
+            try (Journal journal = new Journal(journalFile)) {
+                final Bank recovered = new RemoteBank(PORT, new Snapshot(file), journal);
+                Assert.assertEquals(OPERATIONS - 1, recovered.getWallet(person, id).getBalanceIn("ruble"), 0);
+                Assert.assertEquals(2, recovered.getWallet(person, getId(passport, subId + 1))
+                        .getBalanceIn("dollar"), 0);
+                final String last = getId(passport, subId + (MAX_WALLETS - 1));
+                Assert.assertEquals(MAX_WALLETS - 1, recovered.getWallet(person, last).getBalanceIn("dollar"), 0);
+                Assert.assertTrue("records reflected by the snapshot are dropped", journal.base() > 0);
+                Assert.assertTrue(Files.size(journalFile) < journal.position());
+            }
+        } finally {
+            for (String name : new String[]{"bank.snapshot", "bank.journal"}) {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void test14() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final String url = URL + "Lazy";
+        final AtomicLong clock = new AtomicLong();
+        final long idle = TimeUnit.MILLISECONDS.toNanos(200);
+        try (ExportManager exports = new ExportManager(PORT, idle, clock::get)) {
+            final RemoteBank lazy = new RemoteBank(PORT, null, null, exports);
+            UnicastRemoteObject.exportObject(lazy, PORT);
+            Naming.rebind(url, lazy);
+            try {
+                final Bank remote = (Bank) Naming.lookup(url);
+                for (int i = 0; i < MAX_INDIVIDUALS; i++) {
+                    Assert.assertTrue(remote.createIndividual(name, surname, passport + i));
+                }
+                Assert.assertEquals("persons are not exported until fetched", 0, exports.getExported());
+                final Person person = remote.getIndividual(passport + 0);
+                Assert.assertEquals(name, person.getName());
+                Assert.assertEquals(1, exports.getExported());
+                Wallet wallet = remote.createWallet(getId(passport + 0, subId));
+                wallet.addCurrency("ruble");
+                wallet.deposit(10, "ruble");
+                Assert.assertEquals(2, exports.getExported());
+                Assert.assertEquals(Set.of(getId(passport + 0, subId)), remote.getAllIds(person));
+
+                // a wallet in use is not unexported
+                for (int i = 0; i < 5; i++) {
+                    clock.addAndGet(idle / 2);
+                    wallet.deposit(1, "ruble");
+                    exports.sweep();
+                }
+                Assert.assertEquals(1, exports.getExported());
+                Assert.assertEquals(1, exports.getUnexports());
+
+                clock.addAndGet(idle);
+                // RMI counts a call in progress until its reply is written, after the client has it
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                for (exports.sweep(); exports.getExported() > 0; exports.sweep()) {
+                    Assert.assertTrue("idle wallet is not unexported", System.nanoTime() < deadline);
+                    Thread.yield();
+                }
+                Assert.assertEquals(2, exports.getUnexports());
+                try {
+                    wallet.getBalanceIn("ruble");
+                    Assert.fail("expected unexported wallet");
+                } catch (NoSuchObjectException e) {
+                    System.err.println("unexported: " + e.getMessage());
+                }
+                wallet = remote.getWallet(remote.getIndividual(passport + 0), getId(passport + 0, subId));
+                Assert.assertEquals(15, wallet.getBalanceIn("ruble"), 0);
+                Assert.assertEquals(2, exports.getExported());
+            } finally {
+                Naming.unbind(url);
+                UnicastRemoteObject.unexportObject(lazy, true);
+            }
+        }
+    }
+
+    @Test
+    public void test15() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final OffHeapBank local = new OffHeapBank(PORT, null, new OffHeapStore(16));
+        Assert.assertTrue(local.createIndividual(name, surname, passport));
+        final Person person = local.getIndividual(passport);
+        Assert.assertNull(local.getWallet(person, getId(passport, subId)));
+        final String[] currencies = {"ruble", "dollar", "euro", "yen", "pound", "franc", "peso", "rand"};
+        final Wallet wallet = local.createWallet(getId(passport, subId));
+        Assert.assertEquals(wallet, local.createWallet(getId(passport, subId)));
+        final Wallet expected = new ConcurrentWallet();
+        for (Wallet target : new Wallet[]{wallet, expected}) {
+            for (int i = 0; i < currencies.length; i++) {
+                target.addCurrency(currencies[i]);
+                target.deposit(i + 1, currencies[i]);
+                if (i > 0) {
+                    target.setRate(currencies[0], currencies[i], i + 1);
+                }
+            }
+        }
+        local.createWallet(getId(passport, subId + 1)).addCurrency("ruble");
+        Assert.assertEquals(Set.of(getId(passport, subId), getId(passport, subId + 1)), local.getAllIds(person));
+        Assert.assertEquals(expected.getTotal("ruble"),
+                local.getWallet(person, getId(passport, subId)).getTotal("ruble"), 1e-9);
+        final BatchResult result = local.execute(getId(passport, subId), List.of(
+                WalletOperation.addCurrency("lira"),
+                WalletOperation.deposit(100, "lira"),
+                WalletOperation.withdraw(1000, "ruble")), true);
+        Assert.assertFalse(result.isSuccessful(2));
+        Assert.assertEquals(1, wallet.getBalanceIn("ruble"), 0);
+        Assert.assertNull(local.getAllIds(new RemotePerson(name, surname, passport + "unknown")));
+
+        try (ExportManager exports = new ExportManager(PORT, 1, TimeUnit.MINUTES)) {
+            final OffHeapBank lazy = new OffHeapBank(PORT, exports);
+            final String url = URL + "OffHeap";
+            UnicastRemoteObject.exportObject(lazy, PORT);
+            Naming.rebind(url, lazy);
+            try {
+                final Bank remote = (Bank) Naming.lookup(url);
+                remote.createIndividual(name, surname, passport);
+                remote.createWallet(getId(passport, subId)).addCurrency("ruble");
+                remote.getWallet(remote.getIndividual(passport), getId(passport, subId)).deposit(5, "ruble");
+                Assert.assertEquals("views of one wallet share an export", 2, exports.getExported());
+                Assert.assertEquals(5, lazy.getWallet(person, getId(passport, subId)).getBalanceIn("ruble"), 0);
+            } finally {
+                Naming.unbind(url);
+                UnicastRemoteObject.unexportObject(lazy, true);
+            }
+        }
+
+        final int wallets = Integer.getInteger("footprint.wallets", 100 * MAX_WALLETS);
+        try (ExportManager exports = new ExportManager(PORT, 1, TimeUnit.MINUTES)) {
+            footprint(new RemoteBank(PORT, null, null, exports), wallets);
+        } catch (OutOfMemoryError e) {
+            // wallets of RemoteBank may not fit the heap, OffHeapBank keeps them off it
+        }
+        final OffHeapBank offHeap = new OffHeapBank(PORT, null);
+        footprint(offHeap, wallets);
+        Assert.assertEquals(wallets, offHeap.size());
+    }
+
+    @Test
+    public void test16() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final RemoteBank local = new RemoteBank(PORT);
+        final Person person = new RemotePerson(name, surname, passport);
+        local.createWallet(getId(passport, subId));
+        Assert.assertEquals("wallet created before the person is listed",
+                List.of(getId(passport, subId)), local.getAllIds(person, null, 10));
+        local.createWallet(passport);
+        local.createWallet(passport + "0:" + subId);
+        local.createWallet(getId(passport, subId + ":a"));
+        local.createWallet(getId(passport, ""));
+        Assert.assertEquals(List.of(passport, getId(passport, ""), getId(passport, subId),
+                getId(passport, subId + ":a")), local.getAllIds(person, null, 10));
+        Assert.assertEquals(List.of(getId(passport, subId + ":a")),
+                local.getAllIds(person, getId(passport, subId), 10));
+        Assert.assertNull(local.getAllIds(new RemotePerson(name, surname, passport + "1"), null, 10));
+
+        final int wallets = 10 * MAX_WALLETS;
+        Assert.assertTrue(bank.createIndividual(name, surname, passport));
+        for (int i = 0; i < wallets; i++) {
+            bank.createWallet(getId(passport, Integer.toString(i)));
+        }
+        final Bank remote = (Bank) Naming.lookup(URL);
+        final Person remotePerson = remote.getIndividual(passport);
+        final Set<String> all = remote.getAllIds(remotePerson);
+        Assert.assertEquals(wallets, all.size());
+        final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        try (BinaryBankServer server = new BinaryBankServer(bank, 0, workers);
+             BinaryBankClient client = new BinaryBankClient(server.getAddress())) {
+            final List<String> paged = pages(remote, remotePerson, MAX_WALLETS);
+            Assert.assertEquals(List.copyOf(all), paged);
+            Assert.assertEquals(paged, pages(client, client.getIndividual(passport), MAX_WALLETS / 3));
+        } finally {
+            workers.shutdown();
+        }
+
+        final Path directory = Files.createTempDirectory("bank");
+        final Path file = directory.resolve("bank.snapshot");
+        try {
+            local.writeSnapshot(file);
+            final RemoteBank loaded = new RemoteBank(PORT, new Snapshot(file), null);
+            loaded.getWallet(person, getId(passport, subId));
+            loaded.createWallet(getId(passport, "1"));
+            Assert.assertEquals(List.of(passport, getId(passport, ""), getId(passport, "1"),
+                    getId(passport, subId), getId(passport, subId + ":a")), pages(loaded, person, 2));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void test17() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final Path directory = Files.createTempDirectory("bank");
+        final Path file = directory.resolve("bank.journal");
+        final String from = getId(passport, subId);
+        final String to = getId(passport, subId + 1);
+        final Person person = new RemotePerson(name, surname, passport);
+        try {
+            try (Journal journaled = new Journal(file)) {
+                for (Bank local : new Bank[]{new RemoteBank(PORT), new OffHeapBank(PORT, null),
+                        new RemoteBank(PORT, journaled)}) {
+                    final Wallet source = local.createWallet(from);
+                    source.addCurrency("ruble");
+                    source.deposit(1000, "ruble");
+                    final Wallet target = local.createWallet(to);
+                    target.addCurrency("dollar");
+                    Assert.assertThrows(WalletException.class,
+                            () -> local.transfer(from, to, 600, "ruble", "dollar"));
+                    target.addCurrency("ruble");
+                    target.setRate("dollar", "ruble", 1. / 60);
+                    Assert.assertEquals(10, local.transfer(from, to, 600, "ruble", "dollar"), 1e-9);
+                    Assert.assertEquals(100, local.transfer(from, to, 100, "ruble"), 0);
+                    Assert.assertThrows(WalletException.class, () -> local.transfer(from, to, 301, "ruble"));
+                    Assert.assertThrows(WalletException.class,
+                            () -> local.transfer(from, to, 1, "ruble", "euro"));
+                    Assert.assertNull(local.transfer(from, to + "unknown", 1, "ruble"));
+                    Assert.assertEquals(50, local.transfer(from, from, 50, "ruble"), 0);
+                    Assert.assertEquals(300, source.getBalanceIn("ruble"), 0);
+                    Assert.assertEquals(10, target.getBalanceIn("dollar"), 1e-9);
+                    Assert.assertEquals(100, target.getBalanceIn("ruble"), 0);
+                    for (double amount : new double[]{-100, 0, Double.NaN, Double.POSITIVE_INFINITY}) {
+                        final WalletException e = Assert.assertThrows(WalletException.class,
+                                () -> local.transfer(from, to, amount, "ruble", "dollar"));
+                        Assert.assertEquals(WalletException.Reason.ILLEGAL_AMOUNT, e.getReason());
+                    }
+                    Assert.assertEquals(300, source.getBalanceIn("ruble"), 0);
+                    Assert.assertEquals(10, target.getBalanceIn("dollar"), 1e-9);
+
+                    // the rate of the source wallet is used when the target wallet does not define one
+                    source.addCurrency("euro");
+                    source.setRate("euro", "ruble", 1. / 100);
+                    target.addCurrency("euro");
+                    Assert.assertEquals(1, local.transfer(from, to, 100, "ruble", "euro"), 1e-9);
+                }
+            }
+            try (Journal journal = new Journal(file)) {
+                final Bank recovered = new RemoteBank(PORT, journal);
+                Assert.assertEquals(200, recovered.getWallet(person, from).getBalanceIn("ruble"), 0);
+                Assert.assertEquals(1, recovered.getWallet(person, to).getBalanceIn("euro"), 1e-9);
+            }
+
+            // a transfer is undone if it cannot be appended to the journal
+            final Path broken = directory.resolve("broken.journal");
+            final Journal journal = new Journal(broken);
+            try {
+                final RemoteBank local = new RemoteBank(PORT, journal);
+                final Wallet source = local.createWallet(from);
+                source.addCurrency("ruble");
+                source.deposit(1000, "ruble");
+                local.createWallet(to).addCurrency("ruble");
+                journal.close(); // the next write fails, its record is not forced
+                Assert.assertThrows(RemoteException.class, () -> local.transfer(from, to, 100, "ruble"));
+                Assert.assertEquals(900, source.getBalanceIn("ruble"), 0);
+                // the journal is broken, so the record is not appended and the transfer is undone
+                Assert.assertThrows(RemoteException.class, () -> local.transfer(from, to, 100, "ruble"));
+                Assert.assertEquals(900, source.getBalanceIn("ruble"), 0);
+                Assert.assertEquals(100, local.getWallet(person, to).getBalanceIn("ruble"), 0);
+            } finally {
+                Files.deleteIfExists(broken);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+
+        final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        try (BinaryBankServer server = new BinaryBankServer(bank, 0, workers);
+             BinaryBankClient client = new BinaryBankClient(server.getAddress())) {
+            final Bank remote = (Bank) Naming.lookup(URL);
+            final Wallet source = remote.createWallet(from);
+            source.addCurrency("ruble");
+            source.deposit(2 * OPERATIONS, "ruble");
+            final Wallet target = remote.createWallet(to);
+            target.addCurrency("ruble");
+            for (int i = 0; i < OPERATIONS / 2; i++) {
+                source.withdraw(1, "ruble");
+                target.deposit(1, "ruble");
+                remote.transfer(from, to, 1, "ruble");
+            }
+            for (int i = 0; i < OPERATIONS; i++) {
+                client.transfer(to, from, 1, "ruble");
+            }
+            Assert.assertEquals(2 * OPERATIONS, source.getBalanceIn("ruble"), 0);
+            Assert.assertEquals(0, target.getBalanceIn("ruble"), 0);
+        } finally {
+            workers.shutdown();
+        }
+
+        final Bank local = new RemoteBank(PORT);
+        for (int i = 0; i < MAX_WALLETS; i++) {
+            final Wallet wallet = local.createWallet(getId(passport, Integer.toString(i)));
+            wallet.addCurrency("ruble");
+            wallet.deposit(OPERATIONS, "ruble");
+        }
+        for (int threads : new int[]{1, THREADS}) {
+            transfers(local, threads, random -> random.nextInt(2));
+            transfers(local, threads, random -> random.nextInt(MAX_WALLETS));
+        }
+        double total = 0;
+        for (int i = 0; i < MAX_WALLETS; i++) {
+            total += local.getWallet(person, getId(passport, Integer.toString(i))).getBalanceIn("ruble");
+        }
+        Assert.assertEquals((double) MAX_WALLETS * OPERATIONS, total, 1e-6);
+    }
+
+    @Test
+    public void test18() throws IOException, NotBoundException {
+        setPersonData(testName.getMethodName());
+        final List<String> urls = new ArrayList<>();
+        final List<Shard> shards = new ArrayList<>();
+        for (int port = PORT + 2; port < PORT + 5; port++) {
+            LocateRegistry.createRegistry(port);
+            final Shard shard = new RemoteBank(port);
+            UnicastRemoteObject.exportObject(shard, port);
+            Naming.rebind(ShardServer.url(port), shard);
+            urls.add(ShardServer.url(port));
+            shards.add(shard);
+        }
+        final HashRing ring = new HashRing(urls, HashRing.DEFAULT_VIRTUAL_NODES);
+        final int[] shares = new int[urls.size()];
+        for (int i = 0; i < 10 * MAX_INDIVIDUALS; i++) {
+            shares[urls.indexOf(ring.shardOf(passport + i))]++;
+        }
+        for (int share : shares) {
+            Assert.assertTrue("uneven shares " + Arrays.toString(shares), share > 2 * MAX_INDIVIDUALS);
+        }
+
+        // the fourth shard runs in another process
+        final int port = PORT + 5;
+        final Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), ShardServer.class.getName(), "1",
+                Integer.toString(port)).redirectErrorStream(true).start();
+        try {
+            final Scanner output = new Scanner(process.getInputStream());
+            Assert.assertEquals("Shard started " + ShardServer.url(port), output.nextLine());
+
+            final ShardedBank router = new ShardedBank(ring);
+            for (int i = 0; i < MAX_INDIVIDUALS; i++) {
+                Assert.assertTrue(router.createIndividual(name, surname, passport + i));
+                final Wallet wallet = router.createWallet(getId(passport + i, subId));
+                wallet.addCurrency("ruble");
+                wallet.deposit(i, "ruble");
+            }
+            for (int i = 0; i < MAX_INDIVIDUALS; i++) {
+                final Person person = new RemotePerson(name, surname, passport + i);
+                Assert.assertEquals(shards.get(urls.indexOf(ring.shardOf(passport + i))),
+                        shards.stream().filter(shard -> isExists(shard, person)).findFirst().orElseThrow());
+            }
+
+            final HashRing grown = ring.with(ShardServer.url(port));
+            int expected = 0;
+            for (int i = 0; i < MAX_INDIVIDUALS; i++) {
+                final String owner = grown.shardOf(passport + i);
+                if (!owner.equals(ring.shardOf(passport + i))) {
+                    Assert.assertEquals("only passports of the new shard move", ShardServer.url(port), owner);
+                    expected++;
+                }
+            }
+
+            // deposits racing with the move of their passport are either moved or fail with reason MOVED
+            int racing = 0;
+            while (grown.shardOf(passport + "race" + racing).equals(ring.shardOf(passport + "race" + racing))) {
+                racing++;
+            }
+            final String racingPassport = passport + "race" + racing;
+            final String racingId = getId(racingPassport, subId);
+            Assert.assertTrue(router.createIndividual(name, surname, racingPassport));
+            router.createWallet(racingId).addCurrency("ruble");
+            final Person racingPerson = router.getIndividual(racingPassport);
+            final AtomicLong deposited = new AtomicLong();
+            final CountDownLatch writing = new CountDownLatch(1);
+            final CountDownLatch resharded = new CountDownLatch(1);
+            final ExecutorService writer = Executors.newSingleThreadExecutor();
+            final Future<Void> writes = writer.submit(() -> {
+                Wallet wallet = router.getWallet(racingPerson, racingId);
+                for (int after = 0; after < 100; after += resharded.getCount() == 0 ? 1 : 0) {
+                    try {
+                        wallet.deposit(1, "ruble");
+                        deposited.incrementAndGet();
+                        writing.countDown();
+                    } catch (WalletException | NoSuchObjectException e) {
+                        Assert.assertTrue(!(e instanceof WalletException moved)
+                                || moved.getReason() == WalletException.Reason.MOVED);
+                        wallet = router.getWallet(racingPerson, racingId);
+                    }
+                }
+                return null;
+            });
+            final int moved;
+            try {
+                Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+                moved = router.reshard(grown);
+                resharded.countDown();
+                writes.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new AssertionError("Deposits racing with resharding failed", e);
+            } finally {
+                writer.shutdown();
+            }
+            Assert.assertEquals(deposited.get(), router.getWallet(racingPerson, racingId).getBalanceIn("ruble"), 0);
+            Assert.assertEquals(expected + 1, moved);
+            for (int i = 0; i < MAX_INDIVIDUALS; i++) {
+                final Person person = router.getIndividual(passport + i);
+                Assert.assertEquals(name, person.getName());
+                Assert.assertEquals(i, router.getWallet(person, getId(passport + i, subId)).getBalanceIn("ruble"), 0);
+                Assert.assertEquals(Set.of(getId(passport + i, subId)), router.getAllIds(person));
+            }
+            int left = 0;
+            for (Shard shard : shards) {
+                left += shard.getPassports().size();
+            }
+            Assert.assertEquals(MAX_INDIVIDUALS + 1 - moved, left);
+
+            int other = 1;
+            while (grown.shardOf(passport + other).equals(grown.shardOf(passport + 0))) {
+                other++;
+            }
+            final String from = getId(passport + other, subId);
+            Assert.assertEquals(other, router.transfer(from, getId(passport + 0, subId), other, "ruble"), 0);
+            Assert.assertThrows(WalletException.class,
+                    () -> router.transfer(from, getId(passport + 0, subId), 1, "ruble"));
+            Assert.assertThrows(WalletException.class,
+                    () -> router.transfer(getId(passport + 0, subId), from, 1, "ruble", "dollar"));
+            final Person person = router.getIndividual(passport + 0);
+            Assert.assertEquals(other, router.getWallet(person, getId(passport + 0, subId)).getBalanceIn("ruble"), 0);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    @Test
+    public void test19() throws IOException, InterruptedException {
+        setPersonData(testName.getMethodName());
+        final Path directory = Files.createTempDirectory("bank");
+        final Path file = directory.resolve("primary.journal");
+        final Path[] copies = {directory.resolve("follower1.journal"), directory.resolve("follower2.journal")};
+        final Person person = new RemotePerson(name, surname, passport);
+        final int wallets = MAX_WALLETS / 10;
+        try (Journal journal = new Journal(file);
+             ReplicationServer server = new ReplicationServer(journal, 0)) {
+            final Bank primary = new RemoteBank(PORT, journal);
+            try (Follower first = new Follower(server.getAddress(), copies[0], PORT, null)) {
+                Assert.assertTrue(primary.createIndividual(name, surname, passport));
+                for (int i = 0; i < wallets; i++) {
+                    final Wallet wallet = primary.createWallet(getId(passport, Integer.toString(i)));
+                    wallet.addCurrency("ruble");
+                    wallet.addCurrency("dollar");
+                    wallet.setRate("dollar", "ruble", 1. / 60);
+                    wallet.deposit(OPERATIONS, "ruble");
+                }
+                Follower second = new Follower(server.getAddress(), copies[1], PORT, null);
+                try {
+                    final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+                    for (int i = 0; i < THREADS; i++) {
+                        executors.submit(() -> {
+                            final Random random = ThreadLocalRandom.current();
+                            for (int j = 0; j < OPERATIONS / THREADS; j++) {
+                                final String from = getId(passport, Integer.toString(random.nextInt(wallets)));
+                                final String to = getId(passport, Integer.toString(random.nextInt(wallets)));
+                                try {
+                                    primary.transfer(from, to, 1, "ruble", j % 2 == 0 ? "ruble" : "dollar");
+                                } catch (WalletException e) {
+                                    // the wallet ran out of money
+                                }
+                            }
+                            return null;
+                        });
+                    }
+                    executors.shutdown();
+                    Assert.assertTrue(executors.awaitTermination(1, TimeUnit.MINUTES));
+                    awaitReplicated(first, journal);
+                    awaitReplicated(second, journal);
+                    assertReplicated(primary, first.getBank(), person, wallets);
+                    assertReplicated(primary, second.getBank(), person, wallets);
+
+                    final String id = getId(passport, "0");
+                    Assert.assertThrows(RemoteException.class, () -> first.getBank().createWallet(id + "new"));
+                    Assert.assertThrows(RemoteException.class,
+                            () -> first.getBank().createIndividual(name, surname, passport + "new"));
+                    Assert.assertThrows(RemoteException.class,
+                            () -> first.getBank().getWallet(person, id).deposit(1, "ruble"));
+                    Assert.assertThrows(RemoteException.class,
+                            () -> first.getBank().transfer(id, getId(passport, "1"), 1, "ruble"));
+
+                    // a restarted follower receives records following the end of its copy of the journal
+                    second.close();
+                    for (int i = 0; i < wallets; i++) {
+                        primary.getWallet(person, getId(passport, Integer.toString(i))).deposit(1, "ruble");
+                    }
+                    second = new Follower(server.getAddress(), copies[1], PORT, null);
+                    awaitReplicated(second, journal);
+                    Assert.assertEquals(wallets, second.getAppliedRecords());
+                    assertReplicated(primary, second.getBank(), person, wallets);
+
+                    final Wallet source = primary.getWallet(person, id);
+                    final Wallet copy = first.getBank().getWallet(person, id);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        source.deposit(1, "ruble");
+                        final double expected = source.getBalanceIn("ruble");
+                        while (copy.getBalanceIn("ruble") != expected) {
+                            Thread.yield();
+                        }
+                    }
+
+                    // a record which cannot be applied fails the follower instead of being skipped
+                    final long before = journal.position();
+                    journal.await(journal.append(BinaryProtocol.OPERATION,
+                            out -> BinaryProtocol.writeString(out, id + "unknown")));
+                    source.deposit(1, "ruble");
+                    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (!first.isFailed()) {
+                        Assert.assertTrue("follower is not failed", System.nanoTime() < deadline);
+                        Thread.sleep(1);
+                    }
+                    Assert.assertTrue(first.getFailure() instanceof IOException);
+                    Assert.assertEquals(before, first.getPosition());
+                    Assert.assertEquals(source.getBalanceIn("ruble") - 1, copy.getBalanceIn("ruble"), 0);
+                } finally {
+                    second.close();
+                }
+            }
+        } finally {
+            for (Path copy : copies) {
+                Files.deleteIfExists(copy);
+            }
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void test20() throws RemoteException, MalformedURLException, NotBoundException, InterruptedException {
+        setPersonData(testName.getMethodName());
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1_000_000; i++) {
+            histogram.record(i);
+        }
+        for (double percentile : new double[]{50, 99, 99.9}) {
+            final double expected = percentile * 10_000;
+            Assert.assertEquals(expected, histogram.getValueAtPercentile(percentile), expected / 100);
+        }
+        Assert.assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+
+        final Bank remote = (Bank) Naming.lookup(URL);
+        final Map<LoadGenerator.Operation, Integer> mix = Map.of(LoadGenerator.Operation.CREATE, 1,
+                LoadGenerator.Operation.DEPOSIT, 4, LoadGenerator.Operation.WITHDRAW, 4,
+                LoadGenerator.Operation.CONVERT, 1, LoadGenerator.Operation.GET_TOTAL, 10);
+        final LoadGenerator.Report closed = new LoadGenerator(remote, new LoadGenerator.Options(THREADS, mix,
+                MAX_WALLETS, 0.99, LoadGenerator.Pacing.CLOSED, 0, Duration.ofMillis(500), Duration.ofSeconds(2)))
+                .run();
+        Assert.assertEquals(0, closed.errors());
+        Assert.assertEquals(closed.operations(), closed.response().getCount());
+        Assert.assertEquals(mix.keySet(), closed.byOperation().keySet());
+        Assert.assertEquals(closed.operations(),
+                closed.byOperation().values().stream().mapToLong(LatencyHistogram::getCount).sum());
+        Assert.assertTrue(closed.response().getValueAtPercentile(50) <= closed.response().getValueAtPercentile(99));
+
+        // a target rate well below the closed loop throughput keeps response times close to service times
+        final double rate = closed.throughput() / 4;
+        final LoadGenerator.Report open = new LoadGenerator(remote, new LoadGenerator.Options(THREADS, mix,
+                MAX_WALLETS, 0, LoadGenerator.Pacing.OPEN, rate, Duration.ofMillis(500), Duration.ofSeconds(2)))
+                .run();
+        Assert.assertEquals(rate, open.throughput(), rate / 10);
+        Assert.assertTrue(open.response().getValueAtPercentile(50) >= open.service().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void test21() throws IOException, JMException {
+        setPersonData(testName.getMethodName());
+        final RemoteBank local = new RemoteBank(0);
+        final BankMetrics metrics = local.getMetrics();
+        local.createIndividual(name, surname, passport);
+        final Person person = local.getIndividual(passport);
+        final Wallet wallet = local.createWallet(getId(passport, subId));
+        wallet.addCurrency("ruble");
+        wallet.deposit(100, "ruble");
+        Assert.assertThrows(WalletException.class, () -> wallet.withdraw(1000, "ruble"));
+        Assert.assertThrows(WalletException.class, () -> wallet.deposit(1, "dollar"));
+        Assert.assertEquals(100, local.getWallet(person, getId(passport, subId)).getBalanceIn("ruble"), 0);
+
+        Assert.assertEquals(1, metrics.getCalls(BankMetrics.Method.CREATE_WALLET));
+        Assert.assertEquals(1, metrics.getCalls(BankMetrics.Method.GET_WALLET));
+        Assert.assertEquals(2, metrics.getCalls(BankMetrics.Method.DEPOSIT));
+        Assert.assertEquals(1, metrics.getErrors(BankMetrics.Method.DEPOSIT));
+        Assert.assertEquals(1, metrics.getErrors(BankMetrics.Method.WITHDRAW));
+        Assert.assertEquals(1, metrics.getErrors(WalletException.Reason.NOT_ENOUGH_MONEY));
+        Assert.assertEquals(1, metrics.getErrors(WalletException.Reason.NO_SUCH_CURRENCY));
+        Assert.assertEquals(1, metrics.getWallets());
+        Assert.assertEquals(1, metrics.getPersons());
+        Assert.assertEquals(2, metrics.getExportedObjects());
+        Assert.assertTrue(metrics.getLatencyNanos(BankMetrics.Method.DEPOSIT, 100) > 0);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = metrics.register(testName.getMethodName());
+        try {
+            // an MXBean exposes maps as tables of key and value rows
+            final TabularData calls = (TabularData) server.getAttribute(objectName, "Calls");
+            Assert.assertEquals(2L, calls.get(new Object[]{"Wallet.deposit"}).get("value"));
+            final TabularData reasons = (TabularData) server.getAttribute(objectName, "ErrorsByReason");
+            Assert.assertEquals(1L, reasons.get(new Object[]{"NOT_ENOUGH_MONEY"}).get("value"));
+            Assert.assertEquals(0L, reasons.get(new Object[]{"REMOTE"}).get("value"));
+            Assert.assertEquals(1L, server.getAttribute(objectName, "Wallets"));
+            Assert.assertEquals(2L, server.getAttribute(objectName, "ExportedObjects"));
+            server.invoke(objectName, "reset", null, null);
+            Assert.assertEquals(0, metrics.getCalls(BankMetrics.Method.DEPOSIT));
+        } finally {
+            metrics.unregister();
+        }
+        Assert.assertFalse(server.isRegistered(objectName));
+
+        // a journaled wallet keeps reasons of errors
+        final Path file = Files.createTempFile("bank", ".journal");
+        try (Journal journal = new Journal(file)) {
+            final RemoteBank journaled = new RemoteBank(0, journal);
+            final BankMetrics journaledMetrics = journaled.getMetrics();
+            final Wallet journaledWallet = journaled.createWallet(getId(passport, subId));
+            journaledWallet.addCurrency("ruble");
+            Assert.assertThrows(WalletException.class, () -> journaledWallet.withdraw(1, "ruble"));
+            Assert.assertThrows(WalletException.class, () -> journaledWallet.deposit(1, "dollar"));
+            final BatchResult result = journaledWallet.execute(List.of(WalletOperation.withdraw(1, "ruble")), false);
+            Assert.assertEquals(WalletException.Reason.NOT_ENOUGH_MONEY, result.getReason(0));
+            Assert.assertEquals(1, journaledMetrics.getErrors(WalletException.Reason.NOT_ENOUGH_MONEY));
+            Assert.assertEquals(1, journaledMetrics.getErrors(WalletException.Reason.NO_SUCH_CURRENCY));
+            Assert.assertEquals(0, journaledMetrics.getErrors(WalletException.Reason.OTHER));
+        } finally {
+            Files.delete(file);
+        }
+
+        for (int i = 0; i < 100 * OPERATIONS; i++) {
+            wallet.getTotal("ruble");
+        }
+        Assert.assertEquals(100 * OPERATIONS, metrics.getCalls(BankMetrics.Method.GET_TOTAL));
+        Assert.assertTrue(metrics.getLatencyNanos(BankMetrics.Method.GET_TOTAL, 50)
+                <= metrics.getLatencyNanos(BankMetrics.Method.GET_TOTAL, 99));
+
+        local.removePassport(passport);
+        Assert.assertEquals(0, metrics.getWallets());
+        Assert.assertEquals(0, metrics.getPersons());
+        Assert.assertEquals(0, metrics.getExportedObjects());
+    }
+
+    /**
+     * Waits until the follower applies all records of the journal of the primary
+     */
+    private static void awaitReplicated(final Follower follower, final Journal journal) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (follower.getPosition() < journal.position()) {
+            Assert.assertTrue("follower is behind for too long", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, follower.getLagMillis());
+    }
+
+    private static void assertReplicated(final Bank primary, final Bank follower, final Person person,
+                                         int wallets) throws RemoteException {
+        Assert.assertTrue(follower.isExists(person));
+        for (int i = 0; i < wallets; i++) {
+            final String id = getId(passport, Integer.toString(i));
+            final Wallet expected = primary.getWallet(person, id);
+            final Wallet actual = follower.getWallet(person, id);
+            Assert.assertEquals(expected.getBalanceIn("ruble"), actual.getBalanceIn("ruble"), 0);
+            Assert.assertEquals(expected.getBalanceIn("dollar"), actual.getBalanceIn("dollar"), 0);
+            Assert.assertEquals(expected.getTotal("ruble"), actual.getTotal("ruble"), 0);
+        }
+    }
+
+    private static boolean isExists(final Bank bank, final Person person) {
+        try {
+            return bank.isExists(person);
+        } catch (final RemoteException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Runs transfers of 1 between random wallets from the provided number of threads
+     */
+    private static void transfers(final Bank bank, int threads, final ToIntFunction<Random> wallets) {
+        final ExecutorService executors = Executors.newFixedThreadPool(threads);
+        final Collection<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                final Random random = ThreadLocalRandom.current();
+                for (int j = 0; j < 100 * OPERATIONS / threads; j++) {
+                    final String from = getId(passport, Integer.toString(wallets.applyAsInt(random)));
+                    final String to = getId(passport, Integer.toString(wallets.applyAsInt(random)));
+                    try {
+                        bank.transfer(from, to, 1, "ruble");
+                    } catch (WalletException e) {
+                        // the wallet ran out of money
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : executors.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Concurrent transfers failed", e);
+        } finally {
+            executors.shutdown();
+        }
+    }
+
+    /**
+     * Reads all ids of the person by pages of the provided size
+     */
+    private static List<String> pages(final Bank bank, final Person person, int size) throws RemoteException {
+        final List<String> ids = new ArrayList<>();
+        List<String> page = bank.getAllIds(person, null, size);
+        while (true) {
+            ids.addAll(page);
+            if (page.size() < size) {
+                return ids;
+            }
+            page = bank.getAllIds(person, page.get(page.size() - 1), size);
+        }
+    }
+
+    /**
+     * Creates wallets with two currencies, each of its own passport, and checks the last one
+     */
+    private static void footprint(final Bank bank, int wallets) throws RemoteException {
+        for (int i = 0; i < wallets; i++) {
+            final Wallet wallet = bank.createWallet(getId(passport + i, subId));
+            wallet.addCurrency("ruble");
+            wallet.addCurrency("dollar");
+            wallet.setRate("dollar", "ruble", 1. / 60);
+            wallet.deposit(i, "dollar");
+        }
+        final String last = passport + (wallets - 1);
+        bank.createIndividual(name, surname, last);
+        Assert.assertEquals(wallets - 1, bank.getWallet(bank.getIndividual(last), getId(last, subId))
+                .getBalanceIn("dollar"), 0);
+        Assert.assertEquals(Set.of(getId(last, subId)), bank.getAllIds(bank.getIndividual(last)));
+    }
+
+    /**
+     * Runs deposits and balance requests on one wallet from the provided number of connections
+     *
+     * @return latencies of all requests in nanoseconds, sorted
+     */
+    private static long[] latencies(int connections, int operations, final IntFunction<Bank> banks,
+                                    final String id) throws RemoteException {
+        banks.apply(0).createWallet(id).addCurrency("ruble");
+        final long[] latencies = new long[connections * operations];
+        final ExecutorService executors = Executors.newFixedThreadPool(connections);
+        final Collection<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            final int connection = i;
+            tasks.add(() -> {
+                final Wallet wallet = banks.apply(connection).createWallet(id);
+                for (int j = 0; j < operations; j++) {
+                    final long start = System.nanoTime();
+                    if (j % 2 == 0) {
+                        wallet.deposit(1, "ruble");
+                    } else {
+                        wallet.getBalanceIn("ruble");
+                    }
+                    latencies[connection * operations + j] = System.nanoTime() - start;
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : executors.invokeAll(tasks)) {
+                result.get();
+            }
+            Assert.assertEquals((double) connections * operations / 2,
+                    banks.apply(0).createWallet(id).getBalanceIn("ruble"), 0);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Concurrent operations failed", e);
+        } finally {
+            executors.shutdown();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void report(final String mode, int connections, final long[] latencies) {
+        System.err.printf("%s: %-8s %3d connections, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                testName.getMethodName(), mode, connections, percentile(latencies, 0.5) / 1e6,
+                percentile(latencies, 0.99) / 1e6, latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static long percentile(final long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    /**
+     * Runs the same load as {@link #test07()} through the provided bank
+     *
+     * @return number of wallet operations per second
+     */
+    private static double throughput(final Bank bank, final String id) throws RemoteException {
+        final Wallet wallet = bank.createWallet(id);
+        wallet.addCurrency("ruble");
+        final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
+        final Collection<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < OPERATIONS; j++) {
+                    wallet.deposit(2, "ruble");
+                    wallet.withdraw(1, "ruble");
+                    wallet.getTotal("ruble");
+                }
+                return null;
+            });
+        }
+        try {
+            final long start = System.nanoTime();
+            for (Future<Void> result : executors.invokeAll(tasks)) {
+                result.get();
+            }
+            final long elapsed = System.nanoTime() - start;
+            Assert.assertEquals("expected that no deposit or withdrawal is lost",
+                    (double) THREADS * OPERATIONS, wallet.getBalanceIn("ruble"), 0);
+            return 3. * THREADS * OPERATIONS / elapsed * TimeUnit.SECONDS.toNanos(1);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError("Concurrent operations failed", e);
+        } finally {
+            executors.shutdown();
+        }
+    }
+
     @AfterClass
     public static void afterAllMethods() throws RemoteException, MalformedURLException, NotBoundException {
         Naming.unbind(URL);
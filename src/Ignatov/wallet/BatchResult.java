@@ -0,0 +1,139 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Results of a batch executed by {@link Wallet#execute(java.util.List, boolean)}.
+ * For every executed operation it holds the returned value or the message and the reason of its error.
+ * Results are kept in columns, so the whole batch is transmitted as three arrays
+ */
+public final class BatchResult implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final boolean committed;
+    private final Double[] values;
+    private final String[] errors;
+    private final WalletException.Reason[] reasons;
+
+    private BatchResult(boolean committed, final Double[] values, final String[] errors,
+                        final WalletException.Reason[] reasons) {
+        this.committed = committed;
+        this.values = values;
+        this.errors = errors;
+        this.reasons = reasons;
+    }
+
+    /**
+     * Checks whether changes of operations were kept in the wallet. It is false only for an all-or-nothing batch
+     * which failed, then all its changes are rolled back
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Checks whether all operations succeeded
+     */
+    public boolean isSuccessful() {
+        return committed && Arrays.stream(errors).allMatch(error -> error == null);
+    }
+
+    /**
+     * Gets the number of executed operations. An all-or-nothing batch stops after the first failed operation,
+     * so it can be less than the number of operations
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Checks whether the operation with provided index succeeded
+     */
+    public boolean isSuccessful(int index) {
+        return errors[index] == null;
+    }
+
+    /**
+     * Gets the value returned by the operation with provided index
+     *
+     * @return balance for {@link WalletOperation.Type#GET_BALANCE}, total for {@link WalletOperation.Type#GET_TOTAL},
+     * null for other operations and failed ones
+     */
+    public Double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the error message of the operation with provided index
+     *
+     * @return message of the {@link WalletException} or null if the operation succeeded
+     */
+    public String getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * Gets the reason of the error of the operation with provided index
+     *
+     * @return reason of the {@link WalletException} or null if the operation succeeded
+     */
+    public WalletException.Reason getReason(int index) {
+        return reasons[index];
+    }
+
+    /**
+     * Throws the error of the operation with provided index, with its message and reason, if it failed
+     *
+     * @throws WalletException if the operation failed
+     */
+    void checkSuccessful(int index) {
+        if (errors[index] != null) {
+            throw new WalletException(reasons[index], errors[index]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder(committed ? "committed" : "rolled back");
+        for (int i = 0; i < size(); i++) {
+            result.append(", ").append(i).append(": ").append(errors[i] == null ? values[i] : errors[i]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Collector of results of operations in the order they are executed
+     */
+    static final class Builder {
+        private Double[] values;
+        private String[] errors;
+        private WalletException.Reason[] reasons;
+        private int size = 0;
+
+        Builder(int capacity) {
+            values = new Double[capacity];
+            errors = new String[capacity];
+            reasons = new WalletException.Reason[capacity];
+        }
+
+        void succeeded(final Double value) {
+            values[size++] = value;
+        }
+
+        void failed(final WalletException e) {
+            failed(e.getReason(), e.getMessage());
+        }
+
+        void failed(final WalletException.Reason reason, final String message) {
+            reasons[size] = reason;
+            errors[size++] = message;
+        }
+
+        BatchResult build(boolean committed) {
+            return new BatchResult(committed, Arrays.copyOf(values, size), Arrays.copyOf(errors, size),
+                    Arrays.copyOf(reasons, size));
+        }
+    }
+}
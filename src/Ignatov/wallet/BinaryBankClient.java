@@ -0,0 +1,435 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static liptSoft.Ignatov.wallet.BinaryProtocol.*;
+
+/**
+ * Client of {@link BinaryBankServer} implementing {@link Bank} and {@link Wallet} over one connection.
+ * <p>
+ * Calls of any number of threads are pipelined: a request is written as soon as it is made,
+ * and a reader thread completes the waiting call when the response with its id arrives.
+ * {@link WalletException} is thrown by the client as it is thrown by the server, other failures
+ * and connection errors are reported as {@link RemoteException}, like RMI does
+ */
+public class BinaryBankClient implements Bank, AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final SocketChannel channel;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ConcurrentMap<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Thread reader;
+
+    private volatile IOException failure;
+
+    /**
+     * Connects to a server
+     *
+     * @param address address of {@link BinaryBankServer}
+     * @throws IOException if the server cannot be reached
+     */
+    public BinaryBankClient(final InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        reader = new Thread(this::readResponses, "binary-bank-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Wallet createWallet(final String id) throws RemoteException {
+        return wallet(call(CREATE_WALLET, out -> writeString(out, id), DataInputStream::readInt));
+    }
+
+    @Override
+    public Wallet getWallet(final Person person, final String id) throws RemoteException {
+        final String passport = person == null ? null : person.getPassport();
+        return wallet(call(GET_WALLET, out -> {
+            writeString(out, passport);
+            writeString(out, id);
+        }, DataInputStream::readInt));
+    }
+
+    @Override
+    public boolean createIndividual(final String name, final String surname, final String passport)
+            throws RemoteException {
+        return call(CREATE_INDIVIDUAL, out -> {
+            writeString(out, name);
+            writeString(out, surname);
+            writeString(out, passport);
+        }, DataInputStream::readBoolean);
+    }
+
+    @Override
+    public Person getIndividual(final String passport) throws RemoteException {
+        return call(GET_INDIVIDUAL, out -> writeString(out, passport),
+                in -> in.readBoolean() ? new RemotePerson(readString(in), readString(in), readString(in)) : null);
+    }
+
+    @Override
+    public Set<String> getAllIds(final Person person) throws RemoteException {
+        final String passport = person == null ? null : person.getPassport();
+        return call(GET_ALL_IDS, out -> writeString(out, passport), in -> {
+            final int size = in.readInt();
+            if (size < 0) {
+                return null;
+            }
+            final Set<String> ids = new TreeSet<>();
+            for (int i = 0; i < size; i++) {
+                ids.add(readString(in));
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    public List<String> getAllIds(final Person person, final String after, int limit) throws RemoteException {
+        final String passport = person == null ? null : person.getPassport();
+        return call(GET_ALL_IDS_PAGE, out -> {
+            writeString(out, passport);
+            writeString(out, after);
+            out.writeInt(limit);
+        }, in -> {
+            final int size = in.readInt();
+            if (size < 0) {
+                return null;
+            }
+            final List<String> ids = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ids.add(readString(in));
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    public boolean isExists(final Person person) throws RemoteException {
+        if (person == null || person.getPassport() == null) {
+            return false;
+        }
+        return call(IS_EXISTS, out -> writeString(out, person.getPassport()), DataInputStream::readBoolean);
+    }
+
+    @Override
+    public BatchResult execute(final String id, final List<WalletOperation> operations, boolean atomic)
+            throws RemoteException {
+        if (id == null || operations == null) {
+            return null;
+        }
+        return call(EXECUTE, out -> {
+            writeString(out, id);
+            out.writeBoolean(atomic);
+            writeOperations(out, operations);
+        }, in -> in.readBoolean() ? readResult(in) : null);
+    }
+
+    @Override
+    public Double transfer(final String fromId, final String toId, double amount, final String currency)
+            throws RemoteException {
+        return transfer(fromId, toId, amount, currency, currency);
+    }
+
+    @Override
+    public Double transfer(final String fromId, final String toId, double amount, final String currency,
+                           final String targetCurrency) throws RemoteException {
+        return call(TRANSFER, out -> {
+            writeString(out, fromId);
+            writeString(out, toId);
+            out.writeDouble(amount);
+            writeString(out, currency);
+            writeString(out, targetCurrency);
+        }, in -> in.readBoolean() ? in.readDouble() : null);
+    }
+
+    /**
+     * Sends a request without waiting for the response
+     *
+     * @return future completed with the decoded response, or with {@link WalletException}
+     * or {@link RemoteException} if the request fails
+     */
+    <T> CompletableFuture<T> callAsync(byte code, final Encoder encoder, final Decoder<T> decoder) {
+        final int id = nextId.getAndIncrement();
+        final FrameOutput out = new FrameOutput(id, code);
+        final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        try {
+            encoder.write(out);
+            final ByteBuffer request = out.toBuffer();
+            pending.put(id, response);
+            if (failure != null) {
+                throw failure;
+            }
+            writeLock.lock();
+            try {
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            return CompletableFuture.failedFuture(new RemoteException("Cannot send request", e));
+        }
+        return response.thenApply(frame -> decode(frame, decoder));
+    }
+
+    private <T> T call(byte code, final Encoder encoder, final Decoder<T> decoder) throws RemoteException {
+        try {
+            return callAsync(code, encoder, decoder).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WalletException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof RemoteException cause) {
+                throw cause;
+            }
+            throw new RemoteException("Request failed", e.getCause());
+        }
+    }
+
+    private static <T> T decode(final byte[] frame, final Decoder<T> decoder) {
+        final DataInputStream in = payload(frame);
+        try {
+            return switch (code(frame)) {
+                case OK -> decoder.read(in);
+                case WALLET_ERROR -> {
+                    final String message = readString(in);
+                    throw new WalletException(readReason(in), message);
+                }
+                default -> throw new CompletionException(new RemoteException(readString(in)));
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readResponses() {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= Integer.BYTES) {
+                    final int length = buffer.getInt(buffer.position());
+                    if (length < HEADER - Integer.BYTES || length > MAX_FRAME) {
+                        throw new IOException("Illegal frame length " + length);
+                    }
+                    if (buffer.remaining() < Integer.BYTES + length) {
+                        if (buffer.capacity() < Integer.BYTES + length) {
+                            final ByteBuffer larger = ByteBuffer.allocate(Integer.BYTES + length);
+                            larger.put(buffer);
+                            buffer = larger;
+                            buffer.flip();
+                        }
+                        break;
+                    }
+                    final byte[] frame = new byte[Integer.BYTES + length];
+                    buffer.get(frame);
+                    final CompletableFuture<byte[]> response = pending.remove(requestId(frame));
+                    if (response != null) {
+                        response.complete(frame);
+                    }
+                }
+                buffer.compact();
+            }
+            failure = new IOException("Connection closed by server");
+        } catch (IOException e) {
+            failure = e;
+        }
+        final RemoteException error = new RemoteException("Connection is lost", failure);
+        pending.values().forEach(response -> response.completeExceptionally(error));
+        pending.clear();
+    }
+
+    private Wallet wallet(int handle) {
+        return handle < 0 ? null : new BinaryWallet(handle);
+    }
+
+    /**
+     * Stub of a wallet on the server
+     */
+    private final class BinaryWallet implements Wallet {
+        private final int handle;
+
+        private BinaryWallet(int handle) {
+            this.handle = handle;
+        }
+
+        private Double apply(final WalletOperation operation) throws RemoteException {
+            return call(OPERATION, out -> {
+                out.writeInt(handle);
+                writeOperation(out, operation);
+            }, in -> in.readBoolean() ? in.readDouble() : null);
+        }
+
+        private void run(byte code, final Encoder encoder) throws RemoteException {
+            call(code, out -> {
+                out.writeInt(handle);
+                encoder.write(out);
+            }, in -> null);
+        }
+
+        private <T> T get(byte code, final Encoder encoder, final Decoder<T> decoder) throws RemoteException {
+            return call(code, out -> {
+                out.writeInt(handle);
+                encoder.write(out);
+            }, decoder);
+        }
+
+        @Override
+        public void start(final Scanner in) throws RemoteException {
+            throw new RemoteException("Commands cannot be read on the server from a local Scanner");
+        }
+
+        @Override
+        public void deposit(double amount) throws RemoteException {
+            apply(WalletOperation.deposit(amount));
+        }
+
+        @Override
+        public void deposit(double amount, final String currency) throws RemoteException {
+            apply(WalletOperation.deposit(amount, currency));
+        }
+
+        @Override
+        public void addCurrency(final String currency) throws RemoteException {
+            apply(WalletOperation.addCurrency(currency));
+        }
+
+        @Override
+        public void withdraw(double amount) throws RemoteException {
+            apply(WalletOperation.withdraw(amount));
+        }
+
+        @Override
+        public void withdraw(double amount, final String currency) throws RemoteException {
+            apply(WalletOperation.withdraw(amount, currency));
+        }
+
+        @Override
+        public void setRate(final String currency1, final String currency2, double rate) throws RemoteException {
+            apply(WalletOperation.setRate(currency1, currency2, rate));
+        }
+
+        @Override
+        public void convertTo(double amount, final String currency1, final String currency2)
+                throws RemoteException {
+            apply(WalletOperation.convert(amount, currency1, currency2));
+        }
+
+        @Override
+        public void showBalance() throws RemoteException {
+            run(SHOW_BALANCE, out -> {
+            });
+        }
+
+        @Override
+        public void showTotalIn(final String currency) throws RemoteException {
+            run(SHOW_TOTAL, out -> writeString(out, currency));
+        }
+
+        @Override
+        public void showTotalIn() throws RemoteException {
+            run(SHOW_TOTAL, out -> writeString(out, null));
+        }
+
+        @Override
+        public boolean isEmpty() throws RemoteException {
+            return get(IS_EMPTY, out -> {
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public void clearWallet() throws RemoteException {
+            apply(WalletOperation.clear());
+        }
+
+        @Override
+        public Double getBalanceIn(final String currency) throws RemoteException {
+            return apply(WalletOperation.getBalance(currency));
+        }
+
+        @Override
+        public Double getTotal(final String currency) throws RemoteException {
+            return apply(WalletOperation.getTotal(currency));
+        }
+
+        @Override
+        public void depositMinor(long amount, final String currency) throws RemoteException {
+            run(DEPOSIT_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency);
+            });
+        }
+
+        @Override
+        public void withdrawMinor(long amount, final String currency) throws RemoteException {
+            run(WITHDRAW_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency);
+            });
+        }
+
+        @Override
+        public void convertToMinor(long amount, final String currency1, final String currency2)
+                throws RemoteException {
+            run(CONVERT_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency1);
+                writeString(out, currency2);
+            });
+        }
+
+        @Override
+        public long getBalanceMinorIn(final String currency) throws RemoteException {
+            return get(GET_BALANCE_MINOR, out -> writeString(out, currency), DataInputStream::readLong);
+        }
+
+        @Override
+        public long getTotalMinor(final String currency) throws RemoteException {
+            return get(GET_TOTAL_MINOR, out -> writeString(out, currency), DataInputStream::readLong);
+        }
+
+        @Override
+        public BatchResult execute(final List<WalletOperation> operations, boolean atomic) throws RemoteException {
+            return get(EXECUTE_ON_WALLET, out -> {
+                out.writeBoolean(atomic);
+                writeOperations(out, operations);
+            }, BinaryProtocol::readResult);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static liptSoft.Ignatov.wallet.BinaryProtocol.*;
+
+/**
+ * Front end of a {@link Bank} speaking {@link BinaryProtocol} instead of RMI.
+ * <p>
+ * One thread runs a {@link Selector} over all connections: it accepts clients, cuts incoming bytes into frames
+ * and writes queued responses. Every request is executed on the provided executor and its response is sent
+ * as soon as it is ready, so a client may pipeline requests on one connection and get responses out of order.
+ * Requests of one connection are executed concurrently, like RMI calls of different client threads;
+ * a client which needs an order waits for the response before sending the next request.
+ * <p>
+ * Wallets are referred by int handles given out when a client creates or gets a wallet
+ */
+public class BinaryBankServer implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Bank bank;
+    private final Executor workers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread loop;
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentMap<String, Integer> handles = new ConcurrentHashMap<>(); // wallet id -> handle
+    private final ConcurrentMap<Integer, Wallet> wallets = new ConcurrentHashMap<>(); // handle -> wallet
+    private final AtomicInteger nextHandle = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Starts a server accepting clients on the provided address
+     *
+     * @param bank    bank executing requests
+     * @param address address to listen on
+     * @param workers executor running requests. It is not shut down by {@link #close()}
+     * @throws IOException if the address cannot be bound
+     */
+    public BinaryBankServer(final Bank bank, final InetSocketAddress address, final Executor workers)
+            throws IOException {
+        this.bank = bank;
+        this.workers = workers;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        loop = new Thread(this::run, "binary-bank-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Starts a server accepting clients on the provided port of the loopback interface
+     *
+     * @see #BinaryBankServer(Bank, InetSocketAddress, Executor)
+     */
+    public BinaryBankServer(final Bank bank, int port, final Executor workers) throws IOException {
+        this(bank, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), workers);
+    }
+
+    /**
+     * Gets the address the server listens on
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("Cannot select connections. " + e.getMessage());
+                return;
+            }
+            for (Connection connection = writable.poll(); connection != null; connection = writable.poll()) {
+                connection.enableWrite();
+            }
+            final Set<SelectionKey> keys = selector.selectedKeys();
+            for (SelectionKey key : keys) {
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        final Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            keys.clear();
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Executes the request and encodes the response
+     */
+    private ByteBuffer handle(final byte[] frame) {
+        final int requestId = requestId(frame);
+        try {
+            final FrameOutput out = new FrameOutput(requestId, OK);
+            respond(code(frame), payload(frame), out);
+            return out.toBuffer();
+        } catch (WalletException e) {
+            return walletError(requestId, e);
+        } catch (IOException | RuntimeException e) {
+            return error(requestId, FAILURE, e.toString());
+        }
+    }
+
+    private static ByteBuffer error(int requestId, byte status, final String message) {
+        final FrameOutput out = new FrameOutput(requestId, status);
+        try {
+            writeString(out, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toBuffer();
+    }
+
+    private static ByteBuffer walletError(int requestId, final WalletException e) {
+        final FrameOutput out = new FrameOutput(requestId, WALLET_ERROR);
+        try {
+            writeString(out, e.getMessage());
+            writeReason(out, e.getReason());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toBuffer();
+    }
+
+    private void respond(byte code, final DataInputStream in, final FrameOutput out) throws IOException {
+        switch (code) {
+            case CREATE_WALLET -> {
+                final String id = readString(in);
+                out.writeInt(handleOf(id, bank.createWallet(id)));
+            }
+            case GET_WALLET -> {
+                final Person person = person(readString(in));
+                final String id = readString(in);
+                out.writeInt(handleOf(id, bank.getWallet(person, id)));
+            }
+            case CREATE_INDIVIDUAL -> out.writeBoolean(bank.createIndividual(readString(in), readString(in),
+                    readString(in)));
+            case GET_INDIVIDUAL -> {
+                final Person person = bank.getIndividual(readString(in));
+                out.writeBoolean(person != null);
+                if (person != null) {
+                    writeString(out, person.getName());
+                    writeString(out, person.getSurName());
+                    writeString(out, person.getPassport());
+                }
+            }
+            case GET_ALL_IDS -> {
+                final Set<String> ids = bank.getAllIds(person(readString(in)));
+                if (ids == null) {
+                    out.writeInt(-1);
+                } else {
+                    final String[] copy = ids.toArray(new String[0]);
+                    out.writeInt(copy.length);
+                    for (String id : copy) {
+                        writeString(out, id);
+                    }
+                }
+            }
+            case GET_ALL_IDS_PAGE -> {
+                final List<String> ids = bank.getAllIds(person(readString(in)), readString(in), in.readInt());
+                out.writeInt(ids == null ? -1 : ids.size());
+                if (ids != null) {
+                    for (String id : ids) {
+                        writeString(out, id);
+                    }
+                }
+            }
+            case IS_EXISTS -> out.writeBoolean(bank.isExists(person(readString(in))));
+            case EXECUTE -> {
+                final String id = readString(in);
+                final boolean atomic = in.readBoolean();
+                final BatchResult result = bank.execute(id, readOperations(in), atomic);
+                out.writeBoolean(result != null);
+                if (result != null) {
+                    writeResult(out, result);
+                }
+            }
+            case TRANSFER -> {
+                final Double credited = bank.transfer(readString(in), readString(in), in.readDouble(),
+                        readString(in), readString(in));
+                out.writeBoolean(credited != null);
+                if (credited != null) {
+                    out.writeDouble(credited);
+                }
+            }
+            default -> respondWallet(code, wallet(in.readInt()), in, out);
+        }
+    }
+
+    private void respondWallet(byte code, final Wallet wallet, final DataInputStream in, final FrameOutput out)
+            throws IOException {
+        switch (code) {
+            case OPERATION -> {
+                final BatchResult result = wallet.execute(List.of(readOperation(in)), false);
+                result.checkSuccessful(0);
+                final Double value = result.getValue(0);
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    out.writeDouble(value);
+                }
+            }
+            case IS_EMPTY -> out.writeBoolean(wallet.isEmpty());
+            case SHOW_BALANCE -> wallet.showBalance();
+            case SHOW_TOTAL -> {
+                final String currency = readString(in);
+                if (currency == null) {
+                    wallet.showTotalIn();
+                } else {
+                    wallet.showTotalIn(currency);
+                }
+            }
+            case DEPOSIT_MINOR -> wallet.depositMinor(in.readLong(), readString(in));
+            case WITHDRAW_MINOR -> wallet.withdrawMinor(in.readLong(), readString(in));
+            case CONVERT_MINOR -> wallet.convertToMinor(in.readLong(), readString(in), readString(in));
+            case GET_BALANCE_MINOR -> out.writeLong(wallet.getBalanceMinorIn(readString(in)));
+            case GET_TOTAL_MINOR -> out.writeLong(wallet.getTotalMinor(readString(in)));
+            case EXECUTE_ON_WALLET -> {
+                final boolean atomic = in.readBoolean();
+                writeResult(out, wallet.execute(readOperations(in), atomic));
+            }
+            default -> throw new IOException("Unknown operation " + code);
+        }
+    }
+
+    private static Person person(final String passport) {
+        return passport == null ? null : new RemotePerson(null, null, passport);
+    }
+
+    private int handleOf(final String id, final Wallet wallet) {
+        if (wallet == null) {
+            return -1;
+        }
+        return handles.computeIfAbsent(id, key -> {
+            final int handle = nextHandle.getAndIncrement();
+            wallets.put(handle, wallet);
+            return handle;
+        });
+    }
+
+    private Wallet wallet(int handle) throws RemoteException {
+        final Wallet wallet = wallets.get(handle);
+        if (wallet == null) {
+            throw new RemoteException("Unknown wallet handle " + handle);
+        }
+        return wallet;
+    }
+
+    /**
+     * Connection with one client. The input buffer is used only by the selector thread,
+     * responses are written by workers and the selector thread under the write lock
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> responses = new ArrayDeque<>(); // guarded by writeLock
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private Connection(final SocketChannel channel, final SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Connection closed");
+            }
+            in.flip();
+            while (in.remaining() >= Integer.BYTES) {
+                final int length = in.getInt(in.position());
+                if (length < HEADER - Integer.BYTES || length > MAX_FRAME) {
+                    throw new IOException("Illegal frame length " + length);
+                }
+                if (in.remaining() < Integer.BYTES + length) {
+                    if (in.capacity() < Integer.BYTES + length) {
+                        in = ByteBuffer.allocate(Integer.BYTES + length).put(in);
+                        return;
+                    }
+                    break;
+                }
+                final byte[] frame = new byte[Integer.BYTES + length];
+                in.get(frame);
+                try {
+                    workers.execute(() -> send(handle(frame)));
+                } catch (RejectedExecutionException e) {
+                    // answered by the selector thread, which keeps serving other connections
+                    send(error(requestId(frame), FAILURE, "Request rejected, workers are busy or shut down"));
+                }
+            }
+            in.compact();
+        }
+
+        /**
+         * Sends a response from a worker. If no responses are queued, the worker writes it by itself,
+         * and the selector thread is woken up only when the socket buffer is full
+         */
+        private void send(final ByteBuffer response) {
+            writeLock.lock();
+            try {
+                if (responses.isEmpty()) {
+                    channel.write(response);
+                    if (!response.hasRemaining()) {
+                        return;
+                    }
+                }
+                responses.add(response);
+            } catch (IOException e) {
+                return; // the selector thread closes the connection when it fails to read
+            } finally {
+                writeLock.unlock();
+            }
+            writable.add(this);
+            selector.wakeup();
+        }
+
+        private void enableWrite() {
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Writes queued responses until the socket buffer is full
+         */
+        private void write() throws IOException {
+            writeLock.lock();
+            try {
+                for (ByteBuffer response = responses.peek(); response != null; response = responses.peek()) {
+                    channel.write(response);
+                    if (response.hasRemaining()) {
+                        return;
+                    }
+                    responses.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
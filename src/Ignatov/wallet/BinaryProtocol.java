@@ -0,0 +1,210 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol of {@link BinaryBankServer} and {@link BinaryBankClient}.
+ * <p>
+ * Every message is a frame {@code <length: int> <request id: int> <code: byte> <payload>}, where length
+ * counts bytes after itself. The code of a request is an operation, the code of a response is a status,
+ * and the response has the id of its request, so a client can send requests without waiting for responses
+ * and match responses arriving in any order. Strings are written as a presence flag and modified UTF-8,
+ * numbers in big-endian order
+ */
+final class BinaryProtocol {
+
+    static final int MAX_FRAME = 1 << 24;
+    static final int HEADER = 9; // length, request id and code
+
+    // Bank operations
+    static final byte CREATE_WALLET = 1; // id -> wallet handle or -1
+    static final byte GET_WALLET = 2; // passport, id -> wallet handle or -1
+    static final byte CREATE_INDIVIDUAL = 3; // name, surname, passport -> boolean
+    static final byte GET_INDIVIDUAL = 4; // passport -> present flag, name, surname, passport
+    static final byte GET_ALL_IDS = 5; // passport -> number of ids or -1, ids
+    static final byte IS_EXISTS = 6; // passport -> boolean
+    static final byte EXECUTE = 7; // id, atomic, operations -> present flag, batch result
+    static final byte GET_ALL_IDS_PAGE = 8; // passport, cursor or null, limit -> number of ids or -1, ids
+    static final byte TRANSFER = 9; // from id, to id, amount, currency, target currency -> present flag, double
+
+    // Wallet operations, their payload starts with the wallet handle
+    static final byte OPERATION = 16; // operation -> present flag, double
+    static final byte IS_EMPTY = 17; // -> boolean
+    static final byte SHOW_BALANCE = 18;
+    static final byte SHOW_TOTAL = 19; // currency or null
+    static final byte DEPOSIT_MINOR = 20; // amount, currency
+    static final byte WITHDRAW_MINOR = 21; // amount, currency
+    static final byte CONVERT_MINOR = 22; // amount, currency 1, currency 2
+    static final byte GET_BALANCE_MINOR = 23; // currency -> long
+    static final byte GET_TOTAL_MINOR = 24; // currency -> long
+    static final byte EXECUTE_ON_WALLET = 25; // atomic, operations -> batch result
+
+    // Response statuses
+    static final byte OK = 0;
+    static final byte WALLET_ERROR = 1; // message and reason of WalletException
+    static final byte FAILURE = 2; // message of another error
+
+    private static final WalletOperation.Type[] TYPES = WalletOperation.Type.values();
+    private static final WalletException.Reason[] REASONS = WalletException.Reason.values();
+
+    /**
+     * Utility class
+     */
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Encoder of the payload of a message
+     */
+    @FunctionalInterface
+    interface Encoder {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Decoder of the payload of a message
+     */
+    @FunctionalInterface
+    interface Decoder<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Writer of one frame. The length is filled in by {@link #toBuffer()}
+     */
+    static final class FrameOutput extends DataOutputStream {
+        FrameOutput(int requestId, byte code) {
+            super(new ByteArrayOutputStream(64));
+            try {
+                writeInt(0);
+                writeInt(requestId);
+                writeByte(code);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        ByteBuffer toBuffer() {
+            final ByteBuffer buffer = ByteBuffer.wrap(((ByteArrayOutputStream) out).toByteArray());
+            buffer.putInt(0, buffer.capacity() - Integer.BYTES);
+            return buffer;
+        }
+    }
+
+    /**
+     * Reader of the payload of one frame
+     */
+    static DataInputStream payload(final byte[] frame) {
+        return new DataInputStream(new ByteArrayInputStream(frame, HEADER, frame.length - HEADER));
+    }
+
+    static int requestId(final byte[] frame) {
+        return ByteBuffer.wrap(frame).getInt(Integer.BYTES);
+    }
+
+    static byte code(final byte[] frame) {
+        return frame[HEADER - 1];
+    }
+
+    static void writeString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeOperation(final DataOutputStream out, final WalletOperation operation) throws IOException {
+        out.writeByte(operation.getType().ordinal());
+        out.writeDouble(operation.getAmount());
+        writeString(out, operation.getCurrency1());
+        writeString(out, operation.getCurrency2());
+    }
+
+    static WalletOperation readOperation(final DataInputStream in) throws IOException {
+        final int type = in.readUnsignedByte();
+        if (type >= TYPES.length) {
+            throw new IOException("Unknown operation type " + type);
+        }
+        return WalletOperation.of(TYPES[type], in.readDouble(), readString(in), readString(in));
+    }
+
+    static void writeReason(final DataOutputStream out, final WalletException.Reason reason) throws IOException {
+        out.writeByte(reason.ordinal());
+    }
+
+    static WalletException.Reason readReason(final DataInputStream in) throws IOException {
+        final int reason = in.readUnsignedByte();
+        if (reason >= REASONS.length) {
+            throw new IOException("Unknown error reason " + reason);
+        }
+        return REASONS[reason];
+    }
+
+    static void writeOperations(final DataOutputStream out, final List<WalletOperation> operations)
+            throws IOException {
+        out.writeInt(operations.size());
+        for (WalletOperation operation : operations) {
+            writeOperation(out, operation);
+        }
+    }
+
+    static List<WalletOperation> readOperations(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0 || size > MAX_FRAME) {
+            throw new IOException("Illegal number of operations " + size);
+        }
+        final List<WalletOperation> operations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            operations.add(readOperation(in));
+        }
+        return operations;
+    }
+
+    static void writeResult(final DataOutputStream out, final BatchResult result) throws IOException {
+        out.writeBoolean(result.isCommitted());
+        out.writeInt(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            writeString(out, result.getError(i));
+            if (result.getError(i) != null) {
+                writeReason(out, result.getReason(i));
+            }
+            final Double value = result.getValue(i);
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    static BatchResult readResult(final DataInputStream in) throws IOException {
+        final boolean committed = in.readBoolean();
+        final int size = in.readInt();
+        if (size < 0 || size > MAX_FRAME) {
+            throw new IOException("Illegal size of batch result " + size);
+        }
+        final BatchResult.Builder result = new BatchResult.Builder(size);
+        for (int i = 0; i < size; i++) {
+            final String error = readString(in);
+            final WalletException.Reason reason = error == null ? null : readReason(in);
+            final Double value = in.readBoolean() ? in.readDouble() : null;
+            if (error == null) {
+                result.succeeded(value);
+            } else {
+                result.failed(reason, error);
+            }
+        }
+        return result.build(committed);
+    }
+}
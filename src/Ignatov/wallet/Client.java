@@ -6,6 +6,7 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 
@@ -68,12 +69,21 @@ public class Client {
             } else {
                 System.out.println("Wallet already exists");
             }
-            wallet.addCurrency(args[4]);
-
-            print(args[4], wallet.getBalanceIn(args[4]));
-            System.out.printf("Adding %s %s...\n", args[5], args[4]);
-            wallet.deposit(Double.parseDouble(args[5]));
-            print(args[4], wallet.getBalanceIn(args[4]));
+            final BatchResult result = wallet.execute(List.of(
+                    WalletOperation.addCurrency(args[4]),
+                    WalletOperation.getBalance(args[4]),
+                    WalletOperation.deposit(Double.parseDouble(args[5])),
+                    WalletOperation.getBalance(args[4])), false);
+            for (int i = 0; i < result.size(); i++) {
+                if (i == 2) {
+                    System.out.printf("Adding %s %s...\n", args[5], args[4]);
+                }
+                if (!result.isSuccessful(i)) {
+                    System.err.println(result.getError(i));
+                } else if (result.getValue(i) != null) {
+                    print(args[4], result.getValue(i));
+                }
+            }
         } catch (RemoteException e) {
             System.err.println(e.getMessage());
         }
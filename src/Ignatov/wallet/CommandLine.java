@@ -0,0 +1,256 @@
+package liptSoft.Ignatov.wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser of one wallet command which works in place on a window of a {@link ByteBuffer}.
+ * Tokens are kept as offsets into the buffer, and amounts are parsed from bytes, so parsing a correct command
+ * does not create strings. Words are split exactly as {@link AbstractWallet#start(java.util.Scanner)} splits them
+ * with {@code String.split(" ")}, and errors have the same messages
+ */
+final class CommandLine {
+
+    static final int ADD_CURRENCY = 1;
+    static final int DEPOSIT = 2;
+    static final int WITHDRAW = 3;
+    static final int SET_RATE = 4;
+    static final int CONVERT = 5;
+    static final int SHOW_BALANCE = 6;
+    static final int SHOW_TOTAL = 7;
+    static final int NOTHING = 8; // 'show' with unknown second word does nothing
+
+    /**
+     * Token index meaning the currency added first
+     */
+    static final int FIRST_CURRENCY = -1;
+
+    private static final int MAX_TOKENS = 5;
+    private static final int MAX_FAST_DIGITS = 15; // 10^15 < 2^53, so mantissa is exact
+    private static final double[] POWERS_OF_TEN = new double[23]; // exactly representable powers
+
+    private static final byte[] ADD = ascii("add");
+    private static final byte[] DEPOSIT_WORD = ascii("deposit");
+    private static final byte[] WITHDRAW_WORD = ascii("withdraw");
+    private static final byte[] SET = ascii("set");
+    private static final byte[] CONVERT_WORD = ascii("convert");
+    private static final byte[] SHOW = ascii("show");
+    private static final byte[] BALANCE = ascii("balance");
+    private static final byte[] TOTAL = ascii("total");
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private ByteBuffer buffer;
+    private int count;
+
+    int operation;
+    double amount;
+    int currency1; // token index of the first currency of the command or FIRST_CURRENCY
+    int currency2; // token index of the second currency of the command
+
+    /**
+     * Parses the command in bytes {@code [from, to)} of the buffer. The line terminator should be excluded
+     *
+     * @throws WalletException if command is illegal
+     */
+    void parse(final ByteBuffer buffer, int from, int to) {
+        this.buffer = buffer;
+        split(from, to);
+        currency1 = FIRST_CURRENCY;
+        currency2 = FIRST_CURRENCY;
+        if (count == 0) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND, "Unknown command ''");
+        }
+        if (is(0, ADD)) {
+            require(count == 3, "add", "add currency <currency>");
+            operation = ADD_CURRENCY;
+            currency1 = 2;
+        } else if (is(0, DEPOSIT_WORD) || is(0, WITHDRAW_WORD)) {
+            final boolean deposit = is(0, DEPOSIT_WORD);
+            require(count == 2 || count == 3, deposit ? "deposit" : "withdraw",
+                    deposit ? "deposit <amount> [currency]" : "withdraw <amount> [currency]");
+            operation = deposit ? DEPOSIT : WITHDRAW;
+            amount = parseAmount(buffer, starts[1], ends[1]);
+            currency1 = count == 3 ? 2 : FIRST_CURRENCY;
+        } else if (is(0, SET)) {
+            require(count == 5, "set", "set rate <currency 1> <currency 2> <rate>");
+            operation = SET_RATE;
+            amount = parseRate(starts[4], ends[4]);
+            currency1 = 2;
+            currency2 = 3;
+        } else if (is(0, CONVERT_WORD)) {
+            require(count == 5, "convert", "convert <amount> <currency 1> to <currency 2>");
+            operation = CONVERT;
+            amount = parseAmount(buffer, starts[1], ends[1]);
+            currency1 = 2;
+            currency2 = 4;
+        } else if (is(0, SHOW)) {
+            require(count != 1, "show", "Have a look at usages of 'show balance' and 'show total' commands");
+            if (is(1, BALANCE)) {
+                require(count == 2, "show balance", "show balance");
+                operation = SHOW_BALANCE;
+            } else if (is(1, TOTAL)) {
+                require(count == 2 || count == 4, "show total", "show total in [currency]");
+                operation = SHOW_TOTAL;
+                currency1 = count == 4 ? 3 : FIRST_CURRENCY;
+            } else {
+                operation = NOTHING;
+            }
+        } else {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND, "Unknown command '" + text(0) + "'");
+        }
+    }
+
+    int start(int token) {
+        return starts[token];
+    }
+
+    int end(int token) {
+        return ends[token];
+    }
+
+    /**
+     * Decodes the token. Used only when a string is really needed, for example for a new currency
+     */
+    String text(int token) {
+        return decode(buffer, starts[token], ends[token]);
+    }
+
+    /**
+     * Parses a decimal amount in bytes {@code [from, to)} of the buffer as {@link Double#parseDouble(String)} does.
+     * Plain decimals with at most 15 significant digits are parsed from bytes, others through a string
+     *
+     * @throws WalletException if bytes are not a double number
+     */
+    static double parseAmount(final ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            final byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if ((mantissa != 0 || b != '0') && ++significantDigits > MAX_FAST_DIGITS) {
+                    break;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == to && digits > 0 && fractionDigits < POWERS_OF_TEN.length) {
+            final double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        final String value = decode(buffer, from, to);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                    "'" + value + "' is not a double number. " + e.getMessage());
+        }
+    }
+
+    static String decode(final ByteBuffer buffer, int from, int to) {
+        return StandardCharsets.UTF_8.decode(buffer.slice(from, to - from)).toString();
+    }
+
+    /**
+     * Parses rate {@code <double>:<double>} split as {@code String.split(":")} splits it
+     */
+    private double parseRate(int from, int to) {
+        int parts = from == to ? 1 : 0; // number of parts without trailing empty ones
+        int firstEnd = to;
+        int secondEnd = to;
+        int index = 0;
+        int partStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ':') {
+                if (index == 0) {
+                    firstEnd = i;
+                } else if (index == 1) {
+                    secondEnd = i;
+                }
+                index++;
+                if (i > partStart) {
+                    parts = index;
+                }
+                partStart = i + 1;
+            }
+        }
+        if (parts != 2) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                    "illegal rate. Format: <double>:<double>");
+        }
+        return parseAmount(buffer, from, firstEnd) / parseAmount(buffer, firstEnd + 1, secondEnd);
+    }
+
+    private void split(int from, int to) {
+        if (from == to) {
+            starts[0] = from;
+            ends[0] = to;
+            count = 1;
+            return;
+        }
+        int tokens = 0;
+        int nonEmpty = 0;
+        int tokenStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ' ') {
+                if (tokens < MAX_TOKENS) {
+                    starts[tokens] = tokenStart;
+                    ends[tokens] = i;
+                }
+                tokens++;
+                if (i > tokenStart) {
+                    nonEmpty = tokens;
+                }
+                tokenStart = i + 1;
+            }
+        }
+        count = nonEmpty; // String.split removes trailing empty strings
+    }
+
+    private boolean is(int token, final byte[] word) {
+        final int start = starts[token];
+        if (ends[token] - start != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buffer.get(start + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void require(boolean condition, final String command, final String usage) {
+        if (!condition) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_COMMAND,
+                    "illegal command " + command + ". Usage: " + usage);
+        }
+    }
+
+    private static byte[] ascii(final String word) {
+        return word.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,154 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reader of wallet commands working on a {@link ByteBuffer} window instead of {@link java.util.Scanner}.
+ * Lines are found and parsed in place by {@link CommandLine}, and currencies are resolved against
+ * the currency table of the {@link ArrayWallet} straight from bytes, so correct commands
+ * with known currencies are executed without creating strings.
+ * <p>
+ * Lines are split by {@link LineReader}. When a currency cannot be resolved, the command is passed
+ * to the string methods of the wallet, so errors are reported in the same order and with the same messages
+ */
+public class CommandReader {
+
+    private final ArrayWallet wallet;
+
+    private final CommandLine line = new CommandLine();
+
+    private final Currencies tokens = new Currencies() {
+        @Override
+        public int slot(int token) {
+            return wallet.slotOf(buffer, line.start(token), line.end(token));
+        }
+
+        @Override
+        public String name(int token) {
+            return line.text(token);
+        }
+    };
+
+    private ByteBuffer buffer; // buffer of the command being executed
+
+    /**
+     * CommandReader constructor
+     *
+     * @param wallet wallet which executes commands
+     */
+    public CommandReader(final ArrayWallet wallet) {
+        this.wallet = wallet;
+    }
+
+    /**
+     * Reads commands from the channel until its end and executes them
+     *
+     * @param in channel with commands in UTF-8
+     * @throws WalletException if a command fails or the channel cannot be read
+     */
+    public void execute(final ReadableByteChannel in) {
+        try {
+            LineReader.read(in, this::execute);
+        } catch (IOException e) {
+            throw new WalletException("Cannot read commands. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses and executes the command in bytes {@code [from, to)} of the buffer
+     *
+     * @throws WalletException if the command is illegal or fails
+     */
+    void execute(final ByteBuffer buffer, int from, int to) {
+        line.parse(buffer, from, to);
+        this.buffer = buffer;
+        execute(wallet, line.operation, line.amount, line.currency1, line.currency2, tokens);
+    }
+
+    /**
+     * Executes a parsed command on the wallet
+     *
+     * @param currency1 first currency of the command or {@link CommandLine#FIRST_CURRENCY}
+     * @param currency2 second currency of the command
+     * @param currencies resolver of currencies of the command to slots of the wallet
+     * @throws WalletException if the command fails
+     */
+    static void execute(final ArrayWallet wallet, int operation, double amount,
+                        int currency1, int currency2, final Currencies currencies) {
+        switch (operation) {
+            case CommandLine.ADD_CURRENCY -> {
+                if (currencies.slot(currency1) < 0) {
+                    wallet.addCurrency(currencies.name(currency1));
+                }
+            }
+            case CommandLine.DEPOSIT -> {
+                final int slot = slot(wallet, currency1, currencies);
+                if (slot < 0) {
+                    wallet.deposit(amount, currencies.name(currency1));
+                } else {
+                    wallet.deposit(slot, amount);
+                }
+            }
+            case CommandLine.WITHDRAW -> {
+                final int slot = slot(wallet, currency1, currencies);
+                if (slot < 0) {
+                    wallet.withdraw(amount, currencies.name(currency1));
+                } else {
+                    wallet.withdraw(slot, amount);
+                }
+            }
+            case CommandLine.SET_RATE -> {
+                final int slot1 = currencies.slot(currency1);
+                final int slot2 = currencies.slot(currency2);
+                if (slot1 < 0 || slot2 < 0) {
+                    wallet.setRate(currencies.name(currency1), currencies.name(currency2), amount);
+                } else {
+                    wallet.setRate(slot1, slot2, amount);
+                }
+            }
+            case CommandLine.CONVERT -> {
+                final int source = currencies.slot(currency1);
+                final int target = currencies.slot(currency2);
+                if (source < 0 || target < 0) {
+                    wallet.convertTo(amount, currencies.name(currency1), currencies.name(currency2));
+                } else {
+                    wallet.convertTo(amount, source, target);
+                }
+            }
+            case CommandLine.SHOW_BALANCE -> wallet.showBalance();
+            case CommandLine.SHOW_TOTAL -> {
+                final int slot = slot(wallet, currency1, currencies);
+                if (slot < 0) {
+                    wallet.showTotalIn(currencies.name(currency1));
+                } else {
+                    wallet.showTotalIn(slot);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static int slot(final ArrayWallet wallet, int currency, final Currencies currencies) {
+        return currency == CommandLine.FIRST_CURRENCY ? wallet.firstSlot() : currencies.slot(currency);
+    }
+
+    /**
+     * Resolver of currencies mentioned in commands
+     */
+    interface Currencies {
+        /**
+         * Gets the slot of the currency in the wallet
+         *
+         * @return slot or -1 if there is no such currency in the wallet
+         */
+        int slot(int currency);
+
+        /**
+         * Gets a string representation of the currency
+         */
+        String name(int currency);
+    }
+}
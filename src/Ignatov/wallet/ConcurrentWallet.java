@@ -0,0 +1,743 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe implementation of {@link Wallet} for wallets shared by several RMI threads.
+ * <p>
+ * Deposits and withdrawals of one currency do not block each other: each balance is a cell updated by CAS,
+ * and withdrawal checks the balance and subtracts in the same CAS. Operations touching several cells
+ * or the set of currencies (adding currencies, setting rates, converting, clearing) are serialized by
+ * the write mode of a {@link StampedLock}. {@link #getTotal(String)} and {@link #showBalance()} only use
+ * optimistic reads and retry if such an operation happened meanwhile, so readers never block writers
+ * <p>
+ * Rates are kept in an immutable {@link RateTable}. Setting rates, one by {@link #setRate} or a batch of ticks
+ * of a {@link RateFeed} by {@link #setRates}, publishes a new version of the table by one volatile write,
+ * so conversions and totals read a consistent set of rates without locking. A wallet created with
+ * a {@link RateHistory} also records every change of rates there, so {@link #getTotal(String, Instant)} values
+ * the current balances at the rates of any past instant
+ * <p>
+ * An all-or-nothing batch holds the write lock while it is executed, so it is isolated from other operations
+ * with several cells. Deposits and withdrawals stay lock-free: a deposit never reads balances, and a rollback
+ * of the batch undoes only its own changes, so deposits running meanwhile are kept. A withdrawal checks after
+ * its CAS whether a batch started, and if so it is undone and repeated once the batch ends, so it never spends
+ * changes of a batch before they are committed
+ * <p>
+ * A wallet moved to another bank is retired by {@link #retire()}: every balance is swapped with a marker
+ * in one atomic step, so each deposit or withdrawal either is in the moved state or fails
+ */
+public class ConcurrentWallet extends AbstractWallet {
+
+    private static final Cell[] EMPTY = new Cell[0];
+
+    private static final int OPTIMISTIC_TRIES = 4;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final ConcurrentMap<String, Cell> cells = new ConcurrentHashMap<>();
+
+    private volatile Cell[] order = EMPTY; // cells in the order currencies were added, replaced on every change
+
+    private volatile RateTable rates = RateTable.EMPTY; // has rows of all cells, written before order
+
+    private final RateHistory history; // null if rates are not recorded
+
+    private volatile Thread batchOwner; // thread executing an all-or-nothing batch under the write lock
+
+    private volatile long batches; // odd while a batch is executed, changed when it starts and ends
+
+    private Transaction transaction; // changes of the current batch, accessed only by its owner
+
+    private boolean retired; // the wallet is moved to another bank, accessed under the write lock
+
+    /**
+     * ConcurrentWallet constructor
+     *
+     * @param logging whether print balance after each command
+     */
+    public ConcurrentWallet(boolean logging) {
+        this(logging, null);
+    }
+
+    /**
+     * ConcurrentWallet constructor
+     *
+     * @param logging whether print balance after each command
+     * @param history history recording rates set in this wallet, may be shared by wallets, or null
+     */
+    public ConcurrentWallet(boolean logging, final RateHistory history) {
+        super(logging);
+        this.history = history;
+    }
+
+    /**
+     * Default constructor
+     */
+    public ConcurrentWallet() {
+        this(false);
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) {
+        final Cell cell = getCellRequireNonNull(currency);
+        recordChange(cell, cell.add(amount), amount);
+        logBalance();
+    }
+
+    @Override
+    public void addCurrency(final String currency) {
+        final long stamp = writeLock();
+        try {
+            if (cells.containsKey(currency)) {
+                return;
+            }
+            final RateTable withCurrency = rates.withCurrency(currency);
+            final Cell cell = new Cell(currency, withCurrency.indexOf(currency));
+            rates = withCurrency;
+            final Cell[] current = order;
+            final Cell[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = cell;
+            cells.put(currency, cell);
+            order = updated;
+        } finally {
+            unlockWrite(stamp);
+        }
+        logBalance();
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) {
+        final Cell cell = getCellRequireNonNull(currency);
+        if (batchOwner == Thread.currentThread()) {
+            recordChange(cell, cell.subtract(amount), -amount);
+        } else {
+            withdraw(cell, amount);
+        }
+        logBalance();
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) {
+        final long stamp = writeLock();
+        try {
+            getCellRequireNonNull(currency1);
+            getCellRequireNonNull(currency2);
+            rates = rates.with(currency1, currency2, rate);
+            recordRates(List.of(new RateTable.Tick(currency1, currency2, rate)));
+        } finally {
+            unlockWrite(stamp);
+        }
+        logBalance();
+    }
+
+    /**
+     * Sets rates of the ticks as {@link #setRate} sets them, publishing them as one new version of the rates,
+     * so readers see either all or none of them. Ticks of currencies which are not in this wallet are skipped
+     *
+     * @return number of applied ticks
+     */
+    public int setRates(final Collection<RateTable.Tick> ticks) {
+        final int applied;
+        final long stamp = writeLock();
+        try {
+            final List<RateTable.Tick> known = new ArrayList<>(ticks.size());
+            for (RateTable.Tick tick : ticks) {
+                if (cells.containsKey(tick.currency1()) && cells.containsKey(tick.currency2())) {
+                    known.add(tick);
+                }
+            }
+            applied = known.size();
+            if (applied > 0) {
+                rates = rates.with(known);
+                recordRates(known);
+            }
+        } finally {
+            unlockWrite(stamp);
+        }
+        logBalance();
+        return applied;
+    }
+
+    /**
+     * Returns the current version of rates of this wallet
+     */
+    public RateTable getRates() {
+        return rates;
+    }
+
+    /**
+     * Returns the history recording rates of this wallet or null if it is not kept
+     */
+    public RateHistory getRateHistory() {
+        return history;
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) {
+        final long stamp = writeLock();
+        try {
+            final Cell from = getCellRequireNonNull(currency1);
+            final Cell to = getCellRequireNonNull(currency2);
+            final double rate = rates.get(to.index, from.index);
+            if (Double.isNaN(rate)) {
+                throw undefinedRate(currency1, currency2);
+            }
+            recordChange(from, from.subtract(amount), -amount);
+            recordChange(to, to.add(rate * amount), rate * amount);
+        } finally {
+            unlockWrite(stamp);
+        }
+        logBalance();
+    }
+
+    @Override
+    public void showBalance() {
+        if (batchOwner == Thread.currentThread()) {
+            for (Cell cell : order) {
+                printBalance(cell.get(), cell.currency);
+            }
+            return;
+        }
+        final State state = state();
+        for (int i = 0; i < state.currencies().length; i++) {
+            printBalance(state.balances()[i], state.currencies()[i]);
+        }
+    }
+
+    @Override
+    protected String firstCurrency() {
+        final Cell[] current = order;
+        if (current.length == 0) {
+            throw emptyWallet(); // not isEmpty(), a currency may be added meanwhile
+        }
+        return current[0].currency;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return order.length == 0;
+    }
+
+    @Override
+    public void clearWallet() {
+        final long stamp = writeLock();
+        try {
+            cells.clear();
+            order = EMPTY;
+            rates = rates.cleared();
+        } finally {
+            unlockWrite(stamp);
+        }
+        logBalance();
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) {
+        return getCellRequireNonNull(currency).get();
+    }
+
+    @Override
+    public Double getTotal(final String currency) {
+        return total(currency, null);
+    }
+
+    /**
+     * Returns the total of the current balances in the currency at the rates recorded at the instant
+     *
+     * @throws WalletException       if the currency is not in this wallet or a rate was not set before the instant
+     * @throws IllegalStateException if the wallet keeps no {@link RateHistory}
+     */
+    public Double getTotal(final String currency, final Instant at) {
+        if (history == null) {
+            throw new IllegalStateException("Rate history is not kept by this wallet");
+        }
+        return total(currency, at);
+    }
+
+    /**
+     * Sums the balances at the current rates or, if the instant is not null, at the rates recorded at it
+     */
+    private double total(final String currency, final Instant at) {
+        if (batchOwner == Thread.currentThread()) {
+            return sum(currency, order, rates, at);
+        }
+        return read(() -> sum(currency, order, rates, at));
+    }
+
+    @Override
+    public BatchResult execute(final List<WalletOperation> operations, boolean atomic) {
+        if (!atomic) {
+            return super.execute(operations, false);
+        }
+        final long stamp = lock.writeLock();
+        if (retired) {
+            lock.unlockWrite(stamp);
+            throw moved();
+        }
+        batches++;
+        batchOwner = Thread.currentThread();
+        try {
+            final BatchResult result = super.execute(operations, true);
+            if (result.isCommitted() && transaction != null && history != null) {
+                history.record(transaction.ticks);
+            }
+            return result;
+        } finally {
+            transaction = null;
+            batchOwner = null;
+            batches++;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Withdraws amount of the currency from this wallet and deposits it to another wallet in the target
+     * currency, converted at the rate of the other wallet or, if it does not define one, of this wallet.
+     * Both wallets are write-locked, so neither of them is cleared or changes its rates meanwhile.
+     * Callers serialize transfers touching the same wallet, else transfers in opposite directions deadlock.
+     * The completion runs while both wallets are still locked; if it throws, the transfer is undone
+     *
+     * @return amount deposited in the target currency
+     * @throws IOException if the completion fails
+     */
+    double transferTo(final ConcurrentWallet to, double amount, final String currency, final String target,
+                      final Completion completion) throws IOException {
+        checkTransferAmount(amount);
+        final long stamp = writeLock();
+        final long toStamp = to == this ? 0 : to.writeLock();
+        try {
+            final Cell source = getCellRequireNonNull(currency);
+            final Cell destination = to.getCellRequireNonNull(target);
+            double rate = to.rates.get(target, currency);
+            if (Double.isNaN(rate) && cells.containsKey(target)) {
+                rate = rates.get(target, currency);
+            }
+            if (Double.isNaN(rate)) {
+                throw undefinedRate(currency, target);
+            }
+            final double credited = credited(rate, amount);
+            final long sourceBits = source.subtract(amount);
+            final long destinationBits = destination.add(credited);
+            try {
+                completion.complete(credited);
+            } catch (final IOException | RuntimeException e) {
+                destination.undo(destinationBits, credited);
+                source.undo(sourceBits, -amount);
+                throw e;
+            }
+            return credited;
+        } finally {
+            to.unlockWrite(toStamp);
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Completion of a transfer, such as appending it to a journal
+     */
+    @FunctionalInterface
+    interface Completion {
+        void complete(double credited) throws IOException;
+    }
+
+    /**
+     * Currencies in the order they were added, their balances and rates, where {@code rates[i][j]} is the rate
+     * of the i-th currency to the j-th one or NaN if it is undefined
+     */
+    record State(String[] currencies, double[] balances, double[][] rates) implements Serializable {
+    }
+
+    /**
+     * Copies the state without blocking writers. Operations with several cells are never seen halfway,
+     * deposits and withdrawals running meanwhile may be seen or not
+     */
+    State state() {
+        return read(() -> {
+            final Cell[] snapshot = order;
+            final double[] balances = new double[snapshot.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                balances[i] = snapshot[i].get();
+            }
+            return state(snapshot, rates, balances);
+        });
+    }
+
+    /**
+     * Retires the wallet moved to another bank and returns its final state. Every deposit or withdrawal
+     * running meanwhile is either in the state or fails, as all later operations do, with a {@link WalletException}
+     * of reason {@link WalletException.Reason#MOVED}
+     *
+     * @throws WalletException if the wallet is already retired
+     */
+    State retire() {
+        final long stamp = writeLock();
+        try {
+            retired = true;
+            final Cell[] snapshot = order;
+            final double[] balances = new double[snapshot.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                balances[i] = Double.longBitsToDouble(snapshot[i].retire());
+            }
+            return state(snapshot, rates, balances);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    private static State state(final Cell[] snapshot, final RateTable table, final double[] balances) {
+        final String[] currencies = new String[snapshot.length];
+        final double[][] rates = new double[snapshot.length][snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            currencies[i] = snapshot[i].currency;
+            for (int j = 0; j < snapshot.length; j++) {
+                rates[i][j] = table.get(snapshot[i].index, snapshot[j].index);
+            }
+        }
+        return new State(currencies, balances, rates);
+    }
+
+    /**
+     * Creates a wallet with the state copied by {@link #state()}
+     */
+    static ConcurrentWallet of(final State state) {
+        final ConcurrentWallet wallet = new ConcurrentWallet();
+        final Cell[] cells = new Cell[state.currencies().length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new Cell(state.currencies()[i], i);
+            cells[i].bits = Double.doubleToRawLongBits(state.balances()[i]);
+            wallet.cells.put(cells[i].currency, cells[i]);
+        }
+        wallet.rates = RateTable.of(state.currencies(), state.rates());
+        wallet.order = cells;
+        return wallet;
+    }
+
+    /**
+     * Starts recording changes of the current batch. Called by the batch owner under the write lock
+     */
+    @Override
+    protected Checkpoint checkpoint() {
+        transaction = new Transaction();
+        return transaction;
+    }
+
+    /**
+     * Takes the write lock unless the current thread executes a batch and already holds it
+     *
+     * @return stamp of the write lock or 0 if it was not taken
+     */
+    private long writeLock() {
+        if (batchOwner == Thread.currentThread()) {
+            return 0;
+        }
+        final long stamp = lock.writeLock();
+        if (retired) {
+            lock.unlockWrite(stamp);
+            throw moved();
+        }
+        return stamp;
+    }
+
+    private void unlockWrite(long stamp) {
+        if (stamp != 0) {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Withdraws amount from the cell outside a batch. If a batch runs or starts meanwhile, the balance may contain
+     * its changes, which are not committed yet, so the withdrawal is undone and repeated once the batch ends
+     */
+    private void withdraw(final Cell cell, double amount) {
+        while (true) {
+            final long version = batches;
+            if ((version & 1) == 0) {
+                final long previousBits;
+                try {
+                    previousBits = cell.subtract(amount);
+                } catch (final WalletException e) {
+                    if (batches == version) {
+                        throw e;
+                    }
+                    awaitBatch(); // the balance may be short only because of the batch
+                    continue;
+                }
+                if (batches == version) {
+                    return;
+                }
+                try {
+                    cell.undo(previousBits, -amount);
+                } catch (final WalletException e) {
+                    return; // the wallet is retired and moved with the withdrawal applied
+                }
+            }
+            awaitBatch();
+        }
+    }
+
+    /**
+     * Waits until the batch holding the write lock ends
+     */
+    private void awaitBatch() {
+        lock.unlockRead(lock.readLock());
+    }
+
+    private void recordChange(final Cell cell, long previousBits, double amount) {
+        if (batchOwner == Thread.currentThread()) {
+            transaction.record(cell, previousBits, amount);
+        }
+    }
+
+    /**
+     * Records the ticks in the history, or in the current batch until it is committed
+     */
+    private void recordRates(final List<RateTable.Tick> ticks) {
+        if (history == null) {
+            return;
+        }
+        if (batchOwner == Thread.currentThread()) {
+            transaction.ticks.addAll(ticks);
+        } else {
+            history.record(ticks);
+        }
+    }
+
+    /**
+     * Reads the wallet by the reader under an optimistic stamp, retrying if a writer changed the wallet meanwhile.
+     * After a few failed tries the reader runs under the read lock, so a stream of writers cannot starve it
+     */
+    private <T> T read(final Supplier<T> reader) {
+        for (int i = 0; i < OPTIMISTIC_TRIES; i++) {
+            final long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    final T value = reader.get();
+                    if (lock.validate(stamp)) {
+                        return value;
+                    }
+                } catch (final RuntimeException e) {
+                    // a currency or a rate may be missing only because the wallet was changed meanwhile
+                    if (lock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+        final long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Sums the balances of the cells in the currency at the rates of the table or, if the instant is not null,
+     * of the history. The cells are read from order before the rates, so the rates have rows of all of them
+     */
+    private double sum(final String currency, final Cell[] cells, final RateTable rates, final Instant at) {
+        final int target = getCellRequireNonNull(currency).index;
+        double sum = 0;
+        for (Cell cell : cells) {
+            final double rate = at == null ? rates.get(cell.index, target)
+                    : history.getRate(cell.currency, currency, at);
+            if (Double.isNaN(rate)) {
+                throw undefinedRate(currency, cell.currency);
+            }
+            sum += cell.get() / rate;
+        }
+        return sum;
+    }
+
+    private Cell getCellRequireNonNull(final String currency) {
+        final Cell cell = cells.get(currency);
+        if (cell == null) {
+            throw noSuchCurrency(currency);
+        }
+        return cell;
+    }
+
+    /**
+     * Balance of one currency and the row of its rates. The balance is kept as raw bits of a double updated by CAS
+     */
+    private static final class Cell {
+        private static final VarHandle BITS;
+        private static final long RETIRED = 0x7ff0_0000_dead_beefL; // signaling NaN, which no arithmetic yields
+
+        static {
+            try {
+                BITS = MethodHandles.lookup().findVarHandle(Cell.class, "bits", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final String currency;
+        private final int index; // row of the currency in rates
+        private volatile long bits = Double.doubleToRawLongBits(0.);
+
+        private Cell(final String currency, int index) {
+            this.currency = currency;
+            this.index = index;
+        }
+
+        private double get() {
+            final long current = bits;
+            if (current == RETIRED) {
+                throw moved();
+            }
+            return Double.longBitsToDouble(current);
+        }
+
+        /**
+         * Swaps the balance with the retired marker, later changes of the balance fail
+         *
+         * @return bits of the balance before
+         */
+        private long retire() {
+            return (long) BITS.getAndSet(this, RETIRED);
+        }
+
+        /**
+         * Adds amount to the balance
+         *
+         * @return bits of the balance before the change
+         */
+        private long add(double amount) {
+            long current = bits;
+            while (true) {
+                if (current == RETIRED) {
+                    throw moved();
+                }
+                final long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amount);
+                final long witness = (long) BITS.compareAndExchange(this, current, updated);
+                if (witness == current) {
+                    return current;
+                }
+                current = witness;
+            }
+        }
+
+        /**
+         * Undoes adding amount to the balance which had the bits before. If the balance was not changed since then,
+         * the bits are restored exactly, else amount is subtracted
+         */
+        private void undo(long previousBits, double amount) {
+            revert(Double.doubleToRawLongBits(Double.longBitsToDouble(previousBits) + amount), previousBits, amount);
+        }
+
+        /**
+         * Restores the previous bits if the balance still has the changed bits, else subtracts amount
+         */
+        private void revert(long changedBits, long previousBits, double amount) {
+            if (!BITS.compareAndSet(this, changedBits, previousBits)) {
+                add(-amount);
+            }
+        }
+
+        /**
+         * Subtracts amount from the balance if it is not less than amount
+         *
+         * @return bits of the balance before the change
+         */
+        private long subtract(double amount) {
+            long current = bits;
+            while (true) {
+                if (current == RETIRED) {
+                    throw moved();
+                }
+                final double balance = Double.longBitsToDouble(current);
+                if (balance < amount) {
+                    throw notEnoughMoney();
+                }
+                final long updated = Double.doubleToRawLongBits(balance - amount);
+                final long witness = (long) BITS.compareAndExchange(this, current, updated);
+                if (witness == current) {
+                    return current;
+                }
+                current = witness;
+            }
+        }
+    }
+
+    /**
+     * Changes made by an all-or-nothing batch: the set of currencies and rates before it, changes of balances
+     * and rates to record in the history once it is committed. Deposits and withdrawals may change a balance
+     * while the batch runs, so the saved bits are restored only if nobody else changed the balance since
+     * the batch first did, else the sum of the changes of the batch is subtracted
+     */
+    private final class Transaction implements Checkpoint {
+        private final Cell[] savedOrder = order;
+        private final Set<Cell> saved = new HashSet<>(Arrays.asList(savedOrder));
+        private final RateTable savedRates = rates;
+        private final Map<Cell, Change> changes = new HashMap<>();
+        private final List<RateTable.Tick> ticks = new ArrayList<>();
+
+        private void record(final Cell cell, long previousBits, double amount) {
+            final long bits = Double.doubleToRawLongBits(Double.longBitsToDouble(previousBits) + amount);
+            final Change change = changes.get(cell);
+            if (change == null) {
+                changes.put(cell, new Change(previousBits, bits, amount));
+            } else {
+                change.interleaved |= change.bits != previousBits;
+                change.bits = bits;
+                change.amount += amount;
+            }
+        }
+
+        @Override
+        public void restore() {
+            changes.forEach((cell, change) -> {
+                if (change.interleaved) {
+                    cell.add(-change.amount);
+                } else {
+                    cell.revert(change.bits, change.originalBits, change.amount);
+                }
+            });
+            // cells present before the batch stay in the map, so concurrent deposits never miss them
+            for (Cell cell : order) {
+                if (!saved.contains(cell)) {
+                    cells.remove(cell.currency, cell);
+                }
+            }
+            for (Cell cell : savedOrder) {
+                cells.put(cell.currency, cell);
+            }
+            rates = savedRates;
+            order = savedOrder;
+        }
+    }
+
+    /**
+     * Changes of one balance by a batch: bits before the first of them and after the last one and their sum
+     */
+    private static final class Change {
+        private final long originalBits;
+        private long bits;
+        private double amount;
+        private boolean interleaved; // another operation changed the balance between changes of the batch
+
+        private Change(long originalBits, long bits, double amount) {
+            this.originalBits = originalBits;
+            this.bits = bits;
+            this.amount = amount;
+        }
+    }
+}
@@ -24,6 +24,16 @@ public class Currency implements Comparable<Currency> {
         rates.put(currency, 1.);
     }
 
+    /**
+     * Copy constructor. The copy has its own rates, so changes of rates of one currency do not affect the other
+     * @param other currency to copy
+     */
+    public Currency(Currency other) {
+        this.currency = other.currency;
+        this.orderingNumber = other.orderingNumber;
+        rates = new HashMap<>(other.rates);
+    }
+
     /**
      * Adds rate from this currency and provided currency
      * @param currency currency for adding rate
@@ -0,0 +1,155 @@
+package liptSoft.Ignatov.wallet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table giving currencies of a wallet dense int slots in the order they are added.
+ * Lookups use open addressing over {@link String#hashCode()}, which is cached by the string,
+ * so resolving a currency never allocates. ASCII currencies can also be resolved straight from bytes
+ * of a command, because the hash of ASCII bytes is computed the same way as the hash of the string
+ */
+final class CurrencyTable {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names = new String[INITIAL_CAPACITY]; // slot -> currency
+    private int[] table = new int[INITIAL_CAPACITY * 2]; // hash bucket -> slot + 1, 0 if free
+    private int size = 0;
+
+    /**
+     * Gets the slot of the provided currency
+     *
+     * @param currency string representation of currency
+     * @return slot of the currency or -1 if there is no such currency in the table
+     */
+    int slotOf(final String currency) {
+        final int mask = table.length - 1;
+        for (int i = spread(currency.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final int slot = table[i] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (names[slot].equals(currency)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of the currency written in bytes {@code [from, to)} of the buffer in UTF-8
+     *
+     * @return slot of the currency or -1 if there is no such currency in the table
+     */
+    int slotOf(final ByteBuffer buffer, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            final byte b = buffer.get(i);
+            if (b < 0) {
+                return slotOf(CommandLine.decode(buffer, from, to));
+            }
+            hash = 31 * hash + b;
+        }
+        final int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            final int slot = table[i] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (equals(names[slot], buffer, from, to)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Adds the provided currency to the table
+     *
+     * @param currency string representation of currency
+     * @return slot of the added currency or -1 if such currency is already in the table
+     */
+    int add(final String currency) {
+        if (slotOf(currency) >= 0) {
+            return -1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            rehash(table.length * 2);
+        }
+        final int slot = size++;
+        names[slot] = currency;
+        insert(table, slot);
+        return slot;
+    }
+
+    /**
+     * Gets a string representation of the currency in the provided slot
+     */
+    String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Gets the number of currencies in the table. Slots are numbers from 0 to size - 1
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots the table can hold without growing
+     */
+    int capacity() {
+        return names.length;
+    }
+
+    /**
+     * Creates an independent copy of this table with the same slots
+     */
+    CurrencyTable copy() {
+        final CurrencyTable copy = new CurrencyTable();
+        copy.names = names.clone();
+        copy.table = table.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    private void rehash(int tableCapacity) {
+        final int[] newTable = new int[tableCapacity];
+        for (int slot = 0; slot < size; slot++) {
+            insert(newTable, slot);
+        }
+        table = newTable;
+    }
+
+    private void insert(final int[] target, int slot) {
+        final int mask = target.length - 1;
+        int i = spread(names[slot].hashCode()) & mask;
+        while (target[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        target[i] = slot + 1;
+    }
+
+    private static boolean equals(final String name, final ByteBuffer buffer, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != buffer.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
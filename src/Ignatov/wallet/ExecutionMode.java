@@ -0,0 +1,84 @@
+package liptSoft.Ignatov.wallet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads executing requests of {@link BinaryBankServer}.
+ * <p>
+ * Virtual threads are created through {@code Executors.newVirtualThreadPerTaskExecutor()}, which is looked up
+ * at runtime, so the bank still compiles and runs on a JDK without them. There the virtual mode falls back
+ * to the bounded pool of {@link #PLATFORM}: a platform thread per request would let many clients exhaust
+ * the memory and the scheduler of the server, which is exactly the load virtual threads are chosen for.
+ * Wallets and the bank guard shared state with CAS, {@link java.util.concurrent.locks.StampedLock} and
+ * {@link java.util.concurrent.locks.ReentrantLock}, so a blocked request does not pin its carrier thread
+ */
+public enum ExecutionMode {
+    /**
+     * Fixed pool of platform threads, one per processor. Requests wait in a queue when all threads are busy
+     */
+    PLATFORM,
+    /**
+     * Virtual thread per request, or the pool of {@link #PLATFORM} on a JDK without virtual threads
+     */
+    VIRTUAL;
+
+    private static final MethodHandle VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    /**
+     * Creates an executor of requests for this mode
+     */
+    public ExecutorService newExecutor() {
+        if (this == VIRTUAL && VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invokeExact();
+            } catch (UnsupportedOperationException e) {
+                // virtual threads are a disabled preview feature of this JDK
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot create virtual threads", e);
+            }
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                threadFactory("bank-worker-"));
+    }
+
+    /**
+     * Checks whether the running JDK has virtual threads
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Parses a mode ignoring case
+     *
+     * @throws IllegalArgumentException if there is no such mode
+     */
+    public static ExecutionMode parse(final String mode) {
+        return valueOf(mode.toUpperCase(Locale.ROOT));
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        final AtomicInteger number = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static MethodHandle findVirtualExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package liptSoft.Ignatov.wallet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Exports remote objects of a {@link RemoteBank} when clients fetch them and unexports them when they are idle.
+ * <p>
+ * An object is exported as a proxy, which records the time of every remote call in its own volatile field, so
+ * calls never wait for each other or for the sweep. A background sweep scans exported objects and unexports
+ * objects unused for the idle period, so they leave the RMI object table and DGC bookkeeping. A client calling
+ * an unexported object gets {@link NoSuchObjectException} and fetches it from the bank again, which exports it
+ * again. An object is not unexported while a call to it is in progress
+ */
+public final class ExportManager implements AutoCloseable {
+
+    private final int port;
+    private final long idleNanos;
+    private final LongSupplier clock; // nanoseconds
+    private final ReentrantLock lock = new ReentrantLock(); // held by exports and by close, never by calls
+    private final Map<Remote, Export> exported = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper; // null if sweep is called by the owner
+    private final AtomicLong exports = new AtomicLong();
+    private final AtomicLong unexports = new AtomicLong();
+
+    /**
+     * ExportManager constructor
+     *
+     * @param port port where objects accept calls
+     * @param idle time after the last call when an object is unexported
+     * @param unit unit of idle time
+     */
+    public ExportManager(int port, long idle, final TimeUnit unit) {
+        this(port, unit.toNanos(idle), System::nanoTime, true);
+    }
+
+    /**
+     * ExportManager constructor for tests, which sweep explicitly
+     *
+     * @param port      port where objects accept calls
+     * @param idleNanos time after the last call when an object is unexported
+     * @param clock     source of time in nanoseconds
+     */
+    ExportManager(int port, long idleNanos, final LongSupplier clock) {
+        this(port, idleNanos, clock, false);
+    }
+
+    private ExportManager(int port, long idleNanos, final LongSupplier clock, boolean sweeping) {
+        this.port = port;
+        this.idleNanos = idleNanos;
+        this.clock = clock;
+        if (!sweeping) {
+            sweeper = null;
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "export-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), idleNanos / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Exports an object unless it is exported already
+     *
+     * @param object object to export
+     * @param type   remote interface of the object
+     * @return exported proxy, which is returned to clients instead of the object
+     * @throws RemoteException if the object cannot be exported
+     */
+    <T extends Remote> T export(final T object, final Class<T> type) throws RemoteException {
+        Export export = exported.get(object);
+        if (export != null) {
+            export.lastUse = clock.getAsLong();
+            return type.cast(export.proxy);
+        }
+        lock.lock();
+        try {
+            export = exported.get(object);
+            if (export != null) {
+                export.lastUse = clock.getAsLong();
+                return type.cast(export.proxy);
+            }
+            export = new Export(clock.getAsLong());
+            final T created = type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    handler(object, export)));
+            UnicastRemoteObject.exportObject(created, port);
+            export.proxy = created;
+            exported.put(object, export);
+            exports.incrementAndGet();
+            return created;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of objects exported now
+     */
+    public int getExported() {
+        return exported.size();
+    }
+
+    /**
+     * Returns the number of exports since creation, including exports of objects unexported earlier
+     */
+    public long getExports() {
+        return exports.get();
+    }
+
+    /**
+     * Returns the number of objects unexported because they were idle
+     */
+    public long getUnexports() {
+        return unexports.get();
+    }
+
+    /**
+     * Stops sweeping and unexports all objects
+     */
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        lock.lock();
+        try {
+            for (Export export : exported.values()) {
+                unexport(export.proxy, true);
+            }
+            exported.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unexports objects idle for the idle period. Calls and exports of other objects are not blocked
+     */
+    void sweep() {
+        final long now = clock.getAsLong();
+        for (Map.Entry<Remote, Export> entry : exported.entrySet()) {
+            final Export export = entry.getValue();
+            if (now - export.lastUse >= idleNanos && unexport(export.proxy, false)
+                    && exported.remove(entry.getKey(), export)) {
+                unexports.incrementAndGet();
+            }
+        }
+    }
+
+    private InvocationHandler handler(final Remote object, final Export export) {
+        return (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> "Exported " + object;
+                };
+            }
+            export.lastUse = clock.getAsLong();
+            try {
+                return method.invoke(object, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Exported proxy of an object and the time of its last use
+     */
+    private static final class Export {
+        private Remote proxy; // set before the export is published
+        private volatile long lastUse;
+
+        private Export(long lastUse) {
+            this.lastUse = lastUse;
+        }
+    }
+
+    /**
+     * @return whether the object is unexported, it is not when a call is in progress and force is false
+     */
+    private static boolean unexport(final Remote proxy, boolean force) {
+        try {
+            return UnicastRemoteObject.unexportObject(proxy, force);
+        } catch (NoSuchObjectException e) {
+            return true;
+        }
+    }
+}
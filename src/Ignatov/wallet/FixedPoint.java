@@ -0,0 +1,180 @@
+package liptSoft.Ignatov.wallet;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point arithmetic for amounts kept as {@code long} minor units.
+ * Rates are kept as {@code long} numbers scaled by {@link #RATE_ONE}.
+ * All rounding is half-even; intermediate products are computed in 128 bits,
+ * and only products which do not fit in a {@code long} fall back to {@link BigInteger}
+ */
+public final class FixedPoint {
+
+    /**
+     * Number of minor units digits used when the scale of a currency is not provided
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+    /**
+     * Maximal number of minor units digits of a currency
+     */
+    public static final int MAX_SCALE = 18;
+
+    /**
+     * Number of fractional digits of a fixed-point rate
+     */
+    public static final int RATE_DIGITS = 9;
+
+    /**
+     * Fixed-point representation of rate 1
+     */
+    public static final long RATE_ONE = 1_000_000_000L;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+    // a scaled amount is within 2^-52 of its decimal value relatively, so one further from a tie is rounded right
+    private static final double TIE_TOLERANCE = 0x1p-40;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Utility class
+     */
+    private FixedPoint() {
+    }
+
+    /**
+     * Gets 10 in the provided power
+     *
+     * @param scale power from 0 to {@link #MAX_SCALE}
+     */
+    public static long pow10(int scale) {
+        return POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Checks that the provided scale can be used for minor units
+     *
+     * @return the provided scale
+     */
+    public static int checkScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Expected scale from 0 to " + MAX_SCALE + ", found " + scale);
+        }
+        return scale;
+    }
+
+    /**
+     * Converts amount to minor units with the provided scale, rounding half-even.
+     * Amount is taken as its shortest decimal representation, so 2.675 is 267.5 cents, not 267.4999...
+     * The amount is scaled and rounded in doubles, only amounts close to a tie are rounded by {@link BigDecimal}
+     */
+    public static long toMinor(double amount, int scale) {
+        if (!Double.isFinite(amount)) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT, "'" + amount + "' is not a finite amount");
+        }
+        final double scaled = amount * POWERS_OF_TEN[scale]; // powers up to 10^18 are exact doubles
+        if (Math.abs(scaled) >= 0x1p63) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT, "Amount " + amount + " is too large");
+        }
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5) > Math.abs(scaled) * TIE_TOLERANCE) {
+            return (long) Math.rint(scaled);
+        }
+        try {
+            return BigDecimal.valueOf(amount).movePointRight(scale).setScale(0, RoundingMode.HALF_EVEN)
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT, "Amount " + amount + " is too large");
+        }
+    }
+
+    /**
+     * Converts minor units with the provided scale to a double amount
+     */
+    public static double toDouble(long minor, int scale) {
+        return (double) minor / POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Converts rate to the fixed-point representation, rounding half-even
+     */
+    public static long toRate(double rate) {
+        if (!Double.isFinite(rate) || rate <= 0) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT, "Expected positive rate, found " + rate);
+        }
+        long fixed = toMinor(rate, RATE_DIGITS);
+        if (fixed == 0) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Rate " + rate + " is less than " + 1. / RATE_ONE);
+        }
+        return fixed;
+    }
+
+    /**
+     * Converts an amount in minor units of the currency with scale {@code fromScale}
+     * to minor units of the currency with scale {@code toScale} by the fixed-point rate
+     *
+     * @param amount amount in minor units of the source currency
+     * @param rate   fixed-point number of target currency units in one source currency unit
+     * @return converted amount rounded half-even
+     */
+    public static long convert(long amount, long rate, int fromScale, int toScale) {
+        if (toScale >= fromScale) {
+            long factor = POWERS_OF_TEN[toScale - fromScale];
+            long hi = Math.multiplyHigh(rate, factor);
+            long scaledRate = rate * factor;
+            if (hi == 0 && scaledRate >= 0) {
+                return mulDiv(amount, scaledRate, RATE_ONE);
+            }
+            return slowMulDiv(BigInteger.valueOf(amount).multiply(BigInteger.valueOf(rate))
+                    .multiply(BigInteger.valueOf(factor)), BigInteger.valueOf(RATE_ONE));
+        }
+        long divisor = POWERS_OF_TEN[fromScale - toScale];
+        long hi = Math.multiplyHigh(RATE_ONE, divisor);
+        long scaledDivisor = RATE_ONE * divisor;
+        if (hi == 0 && scaledDivisor >= 0) {
+            return mulDiv(amount, rate, scaledDivisor);
+        }
+        return slowMulDiv(BigInteger.valueOf(amount).multiply(BigInteger.valueOf(rate)),
+                BigInteger.valueOf(RATE_ONE).multiply(BigInteger.valueOf(divisor)));
+    }
+
+    /**
+     * Computes {@code a * b / c} rounding half-even. Divisor should be positive
+     */
+    public static long mulDiv(long a, long b, long c) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        if ((hi != 0 || lo < 0) && (hi != -1 || lo >= 0)) {
+            return slowMulDiv(BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)), BigInteger.valueOf(c));
+        }
+        long quotient = lo / c;
+        long remainder = lo % c;
+        if (remainder == 0) {
+            return quotient;
+        }
+        long rest = Math.abs(remainder);
+        long other = c - rest;
+        if (rest > other || rest == other && (quotient & 1) != 0) {
+            quotient += Long.signum(lo);
+        }
+        return quotient;
+    }
+
+    private static long slowMulDiv(BigInteger product, BigInteger divisor) {
+        try {
+            return new BigDecimal(product).divide(new BigDecimal(divisor), 0, RoundingMode.HALF_EVEN)
+                    .longValueExact();
+        } catch (ArithmeticException e) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Amount is too large: " + product + " / " + divisor);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.Arrays;
+
+/**
+ * Class implementing {@link Wallet} interface over fixed-point money.
+ * Balances are kept as {@code long} minor units with a per-currency scale
+ * and rates as fixed-point {@code long} numbers (see {@link FixedPoint}),
+ * so sums are exact and conversions are rounded half-even to minor units of the target currency.
+ * Operations with doubles round the amount to minor units of the currency first
+ */
+public class FixedPointWallet extends AbstractWallet {
+
+    private static final long UNDEFINED_RATE = 0;
+
+    private CurrencyTable currencies = new CurrencyTable();
+
+    private final int defaultScale;
+
+    private long[] balances; // slot -> amount in minor units
+
+    private int[] scales; // slot -> number of minor units digits
+
+    private long[] rates; // rates[to * stride + from] is the fixed-point number of currency 'to' in currency 'from'
+
+    private int stride;
+
+    /**
+     * FixedPointWallet constructor
+     *
+     * @param logging      whether print balance after each command
+     * @param defaultScale scale of currencies added without providing a scale
+     */
+    public FixedPointWallet(boolean logging, int defaultScale) {
+        super(logging);
+        this.defaultScale = FixedPoint.checkScale(defaultScale);
+        allocate(currencies.capacity());
+    }
+
+    /**
+     * Default constructor. Currencies have {@link FixedPoint#DEFAULT_SCALE} unless provided
+     */
+    public FixedPointWallet() {
+        this(false, FixedPoint.DEFAULT_SCALE);
+    }
+
+    @Override
+    public void addCurrency(final String currency) {
+        addCurrency(currency, defaultScale);
+    }
+
+    /**
+     * Adds provided currency to this wallet
+     *
+     * @param currency provided currency
+     * @param scale    number of minor units digits of the currency, for example 2 for cents
+     */
+    public void addCurrency(final String currency, int scale) {
+        FixedPoint.checkScale(scale);
+        final int slot = currencies.add(currency);
+        if (slot < 0) {
+            return;
+        }
+        if (currencies.capacity() != stride) {
+            grow(currencies.capacity());
+        }
+        balances[slot] = 0;
+        scales[slot] = scale;
+        for (int other = 0; other < slot; other++) {
+            rates[slot * stride + other] = UNDEFINED_RATE;
+            rates[other * stride + slot] = UNDEFINED_RATE;
+        }
+        rates[slot * stride + slot] = FixedPoint.RATE_ONE;
+        logBalance();
+    }
+
+    /**
+     * Gets the number of minor units digits of a provided currency
+     */
+    public int getScale(final String currency) {
+        return scales[requireSlot(currency)];
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) {
+        depositMinor(FixedPoint.toMinor(amount, getScale(currency)), currency);
+    }
+
+    @Override
+    public void depositMinor(long amount, final String currency) {
+        final int slot = requireSlot(currency);
+        balances[slot] = add(balances[slot], amount);
+        logBalance();
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) {
+        withdrawMinor(FixedPoint.toMinor(amount, getScale(currency)), currency);
+    }
+
+    @Override
+    public void withdrawMinor(long amount, final String currency) {
+        final int slot = requireSlot(currency);
+        if (balances[slot] < amount) {
+            throw notEnoughMoney();
+        }
+        balances[slot] = subtract(balances[slot], amount);
+        logBalance();
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) {
+        final int slot1 = requireSlot(currency1);
+        final int slot2 = requireSlot(currency2);
+        final long direct = FixedPoint.toRate(rate);
+        final long inverse = FixedPoint.toRate(1. / rate);
+        rates[slot1 * stride + slot2] = direct;
+        rates[slot2 * stride + slot1] = inverse;
+        logBalance();
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) {
+        convertToMinor(FixedPoint.toMinor(amount, getScale(currency1)), currency1, currency2);
+    }
+
+    @Override
+    public void convertToMinor(long amount, final String currency1, final String currency2) {
+        final int from = requireSlot(currency1);
+        if (balances[from] < amount) {
+            throw notEnoughMoney();
+        }
+        final int to = requireSlot(currency2);
+        final long converted = convert(amount, from, to, currency1, currency2);
+        balances[from] -= amount;
+        balances[to] = add(balances[to], converted);
+        logBalance();
+    }
+
+    @Override
+    public void showBalance() {
+        for (int slot = 0; slot < currencies.size(); slot++) {
+            printBalance(FixedPoint.toDouble(balances[slot], scales[slot]), currencies.name(slot));
+        }
+    }
+
+    @Override
+    protected String firstCurrency() {
+        return currencies.name(0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return currencies.size() == 0;
+    }
+
+    @Override
+    public void clearWallet() {
+        currencies.clear();
+        logBalance();
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) {
+        final int slot = requireSlot(currency);
+        return FixedPoint.toDouble(balances[slot], scales[slot]);
+    }
+
+    @Override
+    public long getBalanceMinorIn(final String currency) {
+        return balances[requireSlot(currency)];
+    }
+
+    @Override
+    public Double getTotal(final String currency) {
+        return FixedPoint.toDouble(getTotalMinor(currency), getScale(currency));
+    }
+
+    /**
+     * Gets a wallet balance converted to minor units of a provided currency.
+     * Every balance is converted and rounded separately, then the results are summed exactly
+     */
+    @Override
+    public long getTotalMinor(final String currency) {
+        final int target = requireSlot(currency);
+        long sum = 0;
+        for (int slot = 0; slot < currencies.size(); slot++) {
+            sum = add(sum, convert(balances[slot], slot, target, currencies.name(slot), currency));
+        }
+        return sum;
+    }
+
+    /**
+     * Copies balances of this wallet in minor units to the provided array in the order currencies were added
+     *
+     * @param target array for balances, its length should be at least the number of currencies
+     * @return the number of copied balances
+     */
+    public int copyBalances(final long[] target) {
+        final int size = currencies.size();
+        System.arraycopy(balances, 0, target, 0, size);
+        return size;
+    }
+
+    @Override
+    protected Checkpoint checkpoint() {
+        final CurrencyTable savedCurrencies = currencies.copy();
+        final long[] savedBalances = balances.clone();
+        final int[] savedScales = scales.clone();
+        final long[] savedRates = rates.clone();
+        final int savedStride = stride;
+        return () -> {
+            currencies = savedCurrencies;
+            balances = savedBalances;
+            scales = savedScales;
+            rates = savedRates;
+            stride = savedStride;
+        };
+    }
+
+    private long convert(long amount, int from, int to, final String currency1, final String currency2) {
+        if (from == to) {
+            return amount;
+        }
+        final long rate = rates[to * stride + from];
+        if (rate == UNDEFINED_RATE) {
+            throw undefinedRate(currency1, currency2);
+        }
+        return FixedPoint.convert(amount, rate, scales[from], scales[to]);
+    }
+
+    private static long add(long amount1, long amount2) {
+        final long sum = amount1 + amount2;
+        if (((amount1 ^ sum) & (amount2 ^ sum)) < 0) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Amount is too large: " + amount1 + " + " + amount2);
+        }
+        return sum;
+    }
+
+    private static long subtract(long amount1, long amount2) {
+        try {
+            return Math.subtractExact(amount1, amount2);
+        } catch (ArithmeticException e) {
+            throw new WalletException(WalletException.Reason.ILLEGAL_AMOUNT,
+                    "Amount is too large: " + amount1 + " - " + amount2);
+        }
+    }
+
+    private int requireSlot(final String currency) {
+        final int slot = currencies.slotOf(currency);
+        if (slot < 0) {
+            throw noSuchCurrency(currency);
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        stride = capacity;
+        balances = new long[capacity];
+        scales = new int[capacity];
+        rates = new long[capacity * capacity];
+    }
+
+    private void grow(int capacity) {
+        final int oldStride = stride;
+        final long[] oldRates = rates;
+        balances = Arrays.copyOf(balances, capacity);
+        scales = Arrays.copyOf(scales, capacity);
+        stride = capacity;
+        rates = new long[capacity * capacity];
+        for (int row = 0; row < oldStride; row++) {
+            System.arraycopy(oldRates, row * oldStride, rates, row * stride, oldStride);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only copy of a primary {@link RemoteBank} kept up to date by a {@link ReplicationServer}.
+ * <p>
+ * The follower keeps its own copy of the journal of the primary, byte for byte, so positions of records
+ * are the same in both journals and a restarted follower asks the primary for records following the end
+ * of its copy. Records arrive in batches, each batch is applied to the bank in order and then appended to
+ * the copy with one write, so the copy holds only applied records. The bank of the follower answers reads
+ * and rejects changes.
+ * <p>
+ * The follower reconnects to the primary when the connection is lost and asks for the first record it has
+ * not applied. A record which cannot be applied or a copy which cannot be written fails the follower: it
+ * stops following and reports the failure by {@link #getFailure()}. Its lag is the number of bytes
+ * of records durable at the primary and not applied yet, and the time since the oldest of them is known
+ */
+public final class Follower implements AutoCloseable {
+
+    private static final long RECONNECT_MILLIS = 100;
+
+    private final InetSocketAddress primary;
+    private final Journal journal;
+    private final RemoteBank bank;
+    private final Thread thread;
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile Exception failure; // stopped following, null if the follower works
+
+    private volatile long applied; // end of the last applied record
+    private volatile long primaryEnd; // end of records durable at the primary, as known to the follower
+    private volatile long behindSince; // time when the follower fell behind the primary or 0
+    private volatile long appliedRecords;
+    private volatile long batches;
+
+    /**
+     * Recovers the bank from the snapshot and the copy of the journal and starts following the primary
+     *
+     * @param primary  address of the replication server of the primary
+     * @param file     file of the copy of the journal of the primary
+     * @param port     port of exported wallets
+     * @param snapshot snapshot of the primary or null
+     * @throws IOException if the copy of the journal cannot be read
+     */
+    public Follower(final InetSocketAddress primary, final Path file, int port, final Snapshot snapshot)
+            throws IOException {
+        this.primary = primary;
+        journal = new Journal(file);
+        bank = new RemoteBank(port, snapshot, journal, null, true);
+        applied = primaryEnd = journal.position();
+        thread = new Thread(this::follow, "follower-" + primary);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the read-only bank
+     */
+    public RemoteBank getBank() {
+        return bank;
+    }
+
+    /**
+     * Returns the end of the last applied record, which is the position of its end in the journal of the primary
+     */
+    public long getPosition() {
+        return applied;
+    }
+
+    /**
+     * Returns the number of bytes of records durable at the primary and not applied yet
+     */
+    public long getLagBytes() {
+        return Math.max(0, primaryEnd - applied);
+    }
+
+    /**
+     * Returns milliseconds since the follower received the oldest record it has not applied yet, or 0 if
+     * it has applied all known records of the primary
+     */
+    public long getLagMillis() {
+        final long since = behindSince;
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    /**
+     * Returns the number of records applied since the follower started
+     */
+    public long getAppliedRecords() {
+        return appliedRecords;
+    }
+
+    /**
+     * Returns the number of non-empty batches received since the follower started
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns whether the follower stopped following the primary because of a failure
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Returns the failure which stopped following the primary: a record which cannot be applied or a copy of
+     * the journal which cannot be written, or null if the follower works
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops following the primary and closes the copy of the journal
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        final Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        LockSupport.unpark(thread); // not interrupted, an interrupt closes the file channel of the journal
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private void follow() {
+        while (!closed && failure == null) {
+            try (Socket connection = new Socket(primary.getAddress(), primary.getPort())) {
+                socket = connection;
+                if (closed) {
+                    return;
+                }
+                connection.setTcpNoDelay(true);
+                final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                out.writeLong(applied);
+                out.flush();
+                receive(new DataInputStream(new BufferedInputStream(connection.getInputStream())));
+            } catch (final IOException e) {
+                // the primary is unavailable or the connection is lost
+            } catch (final RuntimeException e) {
+                failure = e;
+            }
+            if (failure != null) {
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RECONNECT_MILLIS));
+        }
+    }
+
+    private void receive(final DataInputStream in) throws IOException {
+        byte[] batch = new byte[0];
+        while (!closed) {
+            final long end = in.readLong();
+            final int length = in.readInt();
+            primaryEnd = end;
+            if (behindSince == 0 && end > applied) {
+                behindSince = System.nanoTime();
+            }
+            if (length == 0) {
+                continue;
+            }
+            if (batch.length < length) {
+                batch = new byte[length];
+            }
+            in.readFully(batch, 0, length);
+            final int count = check(batch, length);
+            // the records are durable at the primary, so they are visible before the copy is forced,
+            // a restarted follower receives again the records lost by its copy
+            final int done = apply(applied, batch, length);
+            if (done > 0) {
+                store(batch, done, done == length ? count : check(batch, done));
+            }
+            batches++;
+            if (failure != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends applied records to the copy of the journal and waits until they are durable, failing the
+     * follower if the copy cannot be written
+     */
+    private void store(final byte[] batch, int length, int count) {
+        try {
+            journal.await(journal.append(batch, length, count));
+        } catch (final IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Checks lengths and checksums of the records of a batch
+     *
+     * @return number of the records
+     */
+    private static int check(final byte[] batch, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(batch, 0, length);
+        final CRC32 crc = new CRC32();
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            final int size = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (size < 1 || size > buffer.remaining()) {
+                throw new IOException("Malformed record from the primary");
+            }
+            crc.reset();
+            crc.update(batch, buffer.position(), size);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupted record from the primary");
+            }
+            buffer.position(buffer.position() + size);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Applies the records of a batch in order, failing the follower at the first record which cannot be applied
+     *
+     * @return number of bytes of the applied records
+     */
+    private int apply(long start, final byte[] batch, int length) {
+        int offset = 0;
+        try {
+            while (offset < length) {
+                final int size = ByteBuffer.wrap(batch, offset, Integer.BYTES).getInt();
+                final int record = offset + Journal.RECORD_HEADER;
+                final long end = start + record + size;
+                bank.replay(end, batch[record], new DataInputStream(new ByteArrayInputStream(batch, record + 1,
+                        size - 1)));
+                offset = record + size;
+                if (end >= primaryEnd) {
+                    behindSince = 0; // before the position, so a reader seeing the position sees no lag
+                }
+                applied = end;
+                appliedRecords++;
+            }
+        } catch (final IOException | RuntimeException e) {
+            failure = e;
+        }
+        return offset;
+    }
+}
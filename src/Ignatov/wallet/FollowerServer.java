@@ -0,0 +1,65 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Starts a {@link Follower} of a primary bank started by {@link Server} with a replication port and binds
+ * its read-only bank in a registry of the local host, so clients may read balances from it
+ */
+public class FollowerServer {
+    private static final int DEFAULT_PORT = 8890;
+
+    /**
+     * Utility class
+     */
+    private FollowerServer() {
+    }
+
+    /**
+     * Starts the follower and prints its URL and lag every second
+     *
+     * @param args host and replication port of the primary, file of the copy of the journal and optional port
+     *             of the registry, 8890 by default
+     */
+    public static void main(final String... args) {
+        final InetSocketAddress primary;
+        final Path file;
+        final int port;
+        try {
+            primary = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+            file = Path.of(args[2]);
+            port = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+        } catch (final ArrayIndexOutOfBoundsException | NullPointerException | IllegalArgumentException e) {
+            System.err.println("Illegal arguments. Usage: FollowerServer <primary host> <replication port> "
+                    + "<journal file> [port]");
+            return;
+        }
+        try {
+            LocateRegistry.createRegistry(port);
+            final Follower follower = new Follower(primary, file, port, null);
+            UnicastRemoteObject.exportObject(follower.getBank(), port);
+            Naming.rebind(ShardServer.url(port), follower.getBank());
+            System.out.println("Follower started " + ShardServer.url(port));
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(1000);
+                System.out.printf("lag %d bytes, %d ms, %d records applied%n", follower.getLagBytes(),
+                        follower.getLagMillis(), follower.getAppliedRecords());
+            }
+        } catch (final RemoteException e) {
+            System.err.println("Cannot export object: " + e.getMessage());
+        } catch (final MalformedURLException e) {
+            System.err.println("Malformed URL. " + e.getMessage());
+        } catch (final IOException e) {
+            System.err.println("Cannot start the follower: " + e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
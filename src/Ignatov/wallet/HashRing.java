@@ -0,0 +1,121 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable consistent hash ring assigning passports to shards.
+ * <p>
+ * Every shard owns the provided number of virtual nodes, points of the ring at hashes of the shard name
+ * and the node number, and a passport belongs to the shard of the first point following its hash.
+ * Adding or removing a shard reassigns only passports of the ranges preceding its points, about
+ * {@code 1 / shards} of all passports, and virtual nodes spread these ranges evenly over other shards
+ */
+public final class HashRing {
+
+    /**
+     * Number of virtual nodes of a shard keeping shares of shards within a few percent
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> shards;
+    private final int virtualNodes;
+    private final long[] points; // sorted hashes of virtual nodes
+    private final String[] owners; // shard of each point
+
+    /**
+     * HashRing constructor
+     *
+     * @param shards       names of shards, for example URLs of their banks
+     * @param virtualNodes number of points of every shard
+     */
+    public HashRing(final Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Expected shards and a positive number of virtual nodes");
+        }
+        this.shards = List.copyOf(shards);
+        this.virtualNodes = virtualNodes;
+        final long[] nodes = new long[this.shards.size() * virtualNodes];
+        final String[] nodeOwners = new String[nodes.length];
+        final Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < this.shards.size(); i++) {
+            for (int j = 0; j < virtualNodes; j++) {
+                final int node = i * virtualNodes + j;
+                nodes[node] = hash(this.shards.get(i) + "#" + j);
+                order[node] = node;
+            }
+        }
+        Arrays.sort(order, (node1, node2) -> Long.compare(nodes[node1], nodes[node2]));
+        points = new long[nodes.length];
+        owners = new String[nodes.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = nodes[order[i]];
+            owners[i] = this.shards.get(order[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * Returns the shard owning the passport
+     */
+    public String shardOf(final String passport) {
+        int index = Arrays.binarySearch(points, hash(passport));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Returns names of shards
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns a ring with one more shard and the same number of virtual nodes
+     */
+    public HashRing with(final String shard) {
+        final List<String> updated = new ArrayList<>(shards);
+        if (!updated.contains(shard)) {
+            updated.add(shard);
+        }
+        return new HashRing(updated, virtualNodes);
+    }
+
+    /**
+     * Returns a ring without the shard and with the same number of virtual nodes
+     */
+    public HashRing without(final String shard) {
+        final List<String> updated = new ArrayList<>(shards);
+        updated.remove(shard);
+        return new HashRing(updated, virtualNodes);
+    }
+
+    /**
+     * 64-bit FNV-1a of UTF-16 characters followed by the MurmurHash3 finalizer, which spreads similar
+     * keys, such as names of nodes of one shard, over the ring
+     */
+    private static long hash(final String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof HashRing ring && ring.shards.equals(shards) && ring.virtualNodes == virtualNodes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(shards, virtualNodes);
+    }
+}
@@ -0,0 +1,493 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of changes of a {@link RemoteBank}.
+ * <p>
+ * The file is {@code <magic: int> <base: long>} followed by records. Every record is
+ * {@code <length: int> <crc: int> <type: byte> <payload>}, where length counts the type and the payload and
+ * crc is CRC-32 of them. Types are operation codes of {@link BinaryProtocol} and payloads have the same layout
+ * as its requests, except that wallet operations start with the wallet id instead of a handle. A torn or
+ * corrupted record at the end of the file, left by a crash, is cut off when the journal is recovered, which
+ * happens in the same pass as {@link #replay(Handler)}.
+ * <p>
+ * Positions of records are logical: the end of a record is the number of bytes of records appended before it
+ * and of itself since the journal was created. {@link #checkpoint(long)} drops records reflected by
+ * a snapshot by moving later records to a new file whose base is the position of the first of them, so
+ * positions do not change and the file holds only records written since the last snapshot.
+ * <p>
+ * Appending only copies the record to memory. {@link #await(long)} makes it durable with group commit:
+ * the first waiting thread writes all records appended so far and forces the file once, while
+ * threads appending meanwhile wait for the next write, so concurrent writers share one {@code force()}
+ */
+public final class Journal implements AutoCloseable {
+
+    static final int RECORD_HEADER = 8; // length and crc
+
+    private static final int MAGIC = 0x574a524e;
+    private static final int HEADER = Integer.BYTES + Long.BYTES; // magic and base
+
+    private final Path file;
+    private final ReentrantReadWriteLock segment = new ReentrantReadWriteLock(); // guards swapping the file
+    private FileChannel channel; // replaced by checkpoints while flushing is set
+    private long base; // position of the first record of the file
+    private long recovered = -1; // end of the records found on opening, -1 until the journal is recovered
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 12);
+    private long appended; // end of the last appended record
+    private long durable; // end of the last record forced to the disk
+    private boolean flushing;
+    private IOException failure;
+    private long records;
+    private long commits;
+
+    /**
+     * Opens or creates a journal
+     *
+     * @param file file of the journal
+     * @throws IOException if the file cannot be read or created
+     */
+    public Journal(final Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeHeader(channel, 0);
+                channel.force(false);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a journal: " + file);
+            }
+            base = header.getLong(Integer.BYTES);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Handler of records read from the journal
+     */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param end position of the end of the record, as returned by {@link #append}
+         */
+        void accept(long end, byte type, DataInputStream payload) throws IOException;
+    }
+
+    /**
+     * Passes records found on opening to the handler in order they were appended. The first call recovers
+     * the journal in the same pass
+     *
+     * @throws IOException if the file cannot be read
+     */
+    void replay(final Handler handler) throws IOException {
+        lock.lock();
+        try {
+            if (recovered < 0) {
+                recover(handler);
+            } else {
+                scan(handler, recovered);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops records ending at or before the position, which a snapshot reflects. Later records are copied
+     * to a new file replacing the current one, appending continues meanwhile and only writing appended records
+     * waits. If the journal ends before the position, it becomes empty and continues at the position, so
+     * records appended later follow the records reflected by the snapshot
+     *
+     * @param position end of a record or a position after the end of the journal
+     * @throws IOException if the new file cannot be written, the journal is left as it was
+     */
+    void checkpoint(long position) throws IOException {
+        await(Math.min(position, position()));
+        final long end;
+        lock.lock();
+        try {
+            while (flushing) {
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new IOException("Journal is broken", failure);
+            }
+            if (position <= base) {
+                return;
+            }
+            if (position > durable && appended > durable) {
+                throw new IllegalStateException("Records are appended after the end of the journal "
+                        + durable + " and before the checkpoint " + position);
+            }
+            end = Math.max(position, durable);
+            flushing = true; // no records are written until the file is replaced
+        } finally {
+            lock.unlock();
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel next = null;
+        try {
+            next = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeHeader(next, position);
+            next.position(HEADER);
+            long copied = 0;
+            while (copied < end - position) {
+                final long transferred = channel.transferTo(position - base + HEADER + copied,
+                        end - position - copied, next);
+                if (transferred == 0) {
+                    throw new IOException("Journal file is shorter than its records: " + file);
+                }
+                copied += transferred;
+            }
+            next.force(false);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException | RuntimeException e) {
+            if (next != null) {
+                next.close();
+            }
+            Files.deleteIfExists(temporary);
+            lock.lock();
+            try {
+                flushing = false;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        final FileChannel previous = channel;
+        segment.writeLock().lock();
+        try {
+            channel = next;
+            base = position;
+        } finally {
+            segment.writeLock().unlock();
+        }
+        previous.close();
+        lock.lock();
+        try {
+            if (durable < position) {
+                appended = durable = position;
+            }
+            flushing = false;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record without waiting until it is written
+     *
+     * @return position to wait for with {@link #await(long)}
+     * @throws IOException if the journal failed to write earlier records
+     */
+    long append(byte type, final BinaryProtocol.Encoder payload) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeByte(type);
+        payload.write(out);
+        final byte[] record = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER, record.length - RECORD_HEADER);
+        ByteBuffer.wrap(record).putInt(record.length - RECORD_HEADER).putInt((int) crc.getValue());
+        lock.lock();
+        try {
+            recover(null);
+            if (failure != null) {
+                throw new IOException("Journal is broken", failure);
+            }
+            pending.writeBytes(record);
+            appended += record.length;
+            records++;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends whole records copied from another journal without waiting until they are written
+     *
+     * @param records bytes of the records
+     * @param length  number of bytes of the records
+     * @param count   number of the records
+     * @return position to wait for with {@link #await(long)}
+     * @throws IOException if the journal failed to write earlier records
+     */
+    long append(final byte[] records, int length, int count) throws IOException {
+        lock.lock();
+        try {
+            recover(null);
+            if (failure != null) {
+                throw new IOException("Journal is broken", failure);
+            }
+            pending.write(records, 0, length);
+            appended += length;
+            this.records += count;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record ending at the position is forced to the disk
+     *
+     * @throws IOException if the record cannot be written
+     */
+    void await(long position) throws IOException {
+        lock.lock();
+        try {
+            recover(null);
+            while (durable < position) {
+                if (failure != null) {
+                    throw new IOException("Journal is broken", failure);
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                final ByteBuffer batch = ByteBuffer.wrap(pending.toByteArray());
+                pending.reset();
+                final long target = appended;
+                final FileChannel out = channel;
+                IOException error = null;
+                lock.unlock();
+                try {
+                    while (batch.hasRemaining()) {
+                        out.write(batch);
+                    }
+                    out.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+                flushing = false;
+                if (error == null) {
+                    durable = target;
+                    commits++;
+                } else {
+                    failure = error;
+                }
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until records following the position are forced to the disk or the timeout elapses
+     *
+     * @return end of the records forced to the disk
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    long awaitDurable(long position, long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            recoverUnchecked();
+            while (durable <= position && nanos > 0 && failure == null) {
+                nanos = flushed.awaitNanos(nanos);
+            }
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads bytes of records starting at the position until the buffer is full or the file ends.
+     * Records forced to the disk are never changed, so they are read while other records are written
+     *
+     * @return number of read bytes
+     * @throws IOException if the file cannot be read or records at the position were dropped by a checkpoint
+     */
+    int read(long position, final ByteBuffer buffer) throws IOException {
+        segment.readLock().lock();
+        try {
+            if (position < base) {
+                throw new IOException("Records before " + base + " are dropped by a checkpoint");
+            }
+            int total = 0;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position - base + HEADER + total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        } finally {
+            segment.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the end of the last appended record
+     */
+    long position() {
+        lock.lock();
+        try {
+            recoverUnchecked();
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the position of the first record kept in the file, the position of the last checkpoint
+     */
+    long base() {
+        segment.readLock().lock();
+        try {
+            return base;
+        } finally {
+            segment.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of records appended since opening
+     */
+    public long getRecords() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of {@code force()} calls since opening
+     */
+    public long getCommits() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes appended records and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        final long end;
+        lock.lock();
+        try {
+            end = recovered < 0 ? -1 : appended;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (end >= 0) {
+                await(end);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Finds the end of valid records unless it is already found, passing the records to the handler, then
+     * cuts off the rest of the file. Called holding the lock
+     */
+    private void recover(final Handler handler) throws IOException {
+        if (recovered >= 0) {
+            return;
+        }
+        final long end = scan(handler, base + channel.size() - HEADER);
+        channel.truncate(end - base + HEADER);
+        channel.position(end - base + HEADER);
+        recovered = appended = durable = end;
+    }
+
+    private void recoverUnchecked() {
+        try {
+            recover(null);
+        } catch (final IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private static void writeHeader(final FileChannel channel, long base) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putLong(base).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Reads valid records from the start of the file until the limit
+     *
+     * @return end of the last valid record
+     */
+    private long scan(final Handler handler, long limit) throws IOException {
+        final CRC32 crc = new CRC32();
+        long position = base;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.skipNBytes(HEADER);
+            while (position + RECORD_HEADER < limit) {
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                if (length < 1 || length > limit - position - RECORD_HEADER) {
+                    break;
+                }
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                position += RECORD_HEADER + length;
+                if (handler != null) {
+                    handler.accept(position, record[0],
+                            new DataInputStream(new ByteArrayInputStream(record, 1, length - 1)));
+                }
+            }
+        }
+        return position;
+    }
+}
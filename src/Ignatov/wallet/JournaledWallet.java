@@ -0,0 +1,382 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static liptSoft.Ignatov.wallet.BinaryProtocol.*;
+
+/**
+ * {@link Wallet} of a {@link RemoteBank} writing its changes to a {@link Journal}.
+ * <p>
+ * A change is applied to the wallet and appended to the journal under the lock of the wallet, so records of
+ * one wallet are in the order the changes were applied, and replaying them gives the same balances.
+ * The lock is a stripe of the bank, which takes the locks of both wallets of a transfer.
+ * Failed changes are not appended. The call returns after its record is forced to the disk,
+ * waiting for it outside the lock, so writers to one wallet still share group commits
+ */
+final class JournaledWallet implements Wallet {
+
+    static final byte START = 64; // journal record of a script: wallet id, length, UTF-8 bytes
+    static final byte SET_RATES = 65; // journal record of ticks: wallet id, number of ticks, ticks
+
+    private final String id;
+    private final ConcurrentWallet wallet;
+    private final Journal journal;
+    private final ReentrantLock lock;
+    private final boolean readOnly;
+
+    /**
+     * JournaledWallet constructor
+     *
+     * @param id       id of the wallet in the bank
+     * @param wallet   wallet keeping the balances
+     * @param journal  journal of the bank
+     * @param lock     lock guarding changes of the wallet
+     * @param readOnly whether the wallet is a copy of a wallet of a primary bank, which is changed only
+     *                 by records of its journal
+     */
+    JournaledWallet(final String id, final ConcurrentWallet wallet, final Journal journal,
+                    final ReentrantLock lock, boolean readOnly) {
+        this.id = id;
+        this.wallet = wallet;
+        this.journal = journal;
+        this.lock = lock;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public void start(final Scanner in) throws RemoteException {
+        checkWritable();
+        final StringBuilder script = new StringBuilder();
+        while (in.hasNextLine()) {
+            script.append(in.nextLine()).append('\n');
+        }
+        final byte[] bytes = script.toString().getBytes(StandardCharsets.UTF_8);
+        final long position;
+        lock.lock();
+        try {
+            try {
+                wallet.start(new Scanner(script.toString()));
+            } finally {
+                // commands before a failed one are applied, replaying the script fails at the same command
+                position = append(START, out -> {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    @Override
+    public void deposit(double amount) throws RemoteException {
+        apply(WalletOperation.deposit(amount));
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) throws RemoteException {
+        apply(WalletOperation.deposit(amount, currency));
+    }
+
+    @Override
+    public void addCurrency(final String currency) throws RemoteException {
+        apply(WalletOperation.addCurrency(currency));
+    }
+
+    @Override
+    public void withdraw(double amount) throws RemoteException {
+        apply(WalletOperation.withdraw(amount));
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) throws RemoteException {
+        apply(WalletOperation.withdraw(amount, currency));
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) throws RemoteException {
+        apply(WalletOperation.setRate(currency1, currency2, rate));
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) throws RemoteException {
+        apply(WalletOperation.convert(amount, currency1, currency2));
+    }
+
+    @Override
+    public void showBalance() throws RemoteException {
+        wallet.showBalance();
+    }
+
+    @Override
+    public void showTotalIn(final String currency) throws RemoteException {
+        wallet.showTotalIn(currency);
+    }
+
+    @Override
+    public void showTotalIn() throws RemoteException {
+        wallet.showTotalIn();
+    }
+
+    @Override
+    public boolean isEmpty() throws RemoteException {
+        return wallet.isEmpty();
+    }
+
+    @Override
+    public void clearWallet() throws RemoteException {
+        apply(WalletOperation.clear());
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) throws RemoteException {
+        return wallet.getBalanceIn(currency);
+    }
+
+    @Override
+    public Double getTotal(final String currency) throws RemoteException {
+        return wallet.getTotal(currency);
+    }
+
+    @Override
+    public void depositMinor(long amount, final String currency) throws RemoteException {
+        checkWritable();
+        final long position;
+        lock.lock();
+        try {
+            wallet.depositMinor(amount, currency);
+            position = append(DEPOSIT_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency);
+            });
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    @Override
+    public void withdrawMinor(long amount, final String currency) throws RemoteException {
+        checkWritable();
+        final long position;
+        lock.lock();
+        try {
+            wallet.withdrawMinor(amount, currency);
+            position = append(WITHDRAW_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency);
+            });
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    @Override
+    public void convertToMinor(long amount, final String currency1, final String currency2)
+            throws RemoteException {
+        checkWritable();
+        final long position;
+        lock.lock();
+        try {
+            wallet.convertToMinor(amount, currency1, currency2);
+            position = append(CONVERT_MINOR, out -> {
+                out.writeLong(amount);
+                writeString(out, currency1);
+                writeString(out, currency2);
+            });
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    @Override
+    public long getBalanceMinorIn(final String currency) throws RemoteException {
+        return wallet.getBalanceMinorIn(currency);
+    }
+
+    @Override
+    public long getTotalMinor(final String currency) throws RemoteException {
+        return wallet.getTotalMinor(currency);
+    }
+
+    @Override
+    public BatchResult execute(final List<WalletOperation> operations, boolean atomic) throws RemoteException {
+        if (operations.stream().allMatch(JournaledWallet::isRead)) {
+            return wallet.execute(operations, atomic);
+        }
+        checkWritable();
+        final BatchResult result;
+        final long position;
+        lock.lock();
+        try {
+            try {
+                result = wallet.execute(operations, atomic);
+            } finally {
+                // a non-atomic batch keeps operations before a throwing one, and its replay throws there too
+                position = append(EXECUTE_ON_WALLET, out -> {
+                    out.writeBoolean(atomic);
+                    writeOperations(out, operations);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+        return result;
+    }
+
+    /**
+     * Sets rates of the ticks by {@link ConcurrentWallet#setRates} and appends them as one record, so rates
+     * of a {@link RateFeed} survive a restart and reach followers. Ticks are not appended if none of them
+     * is applied
+     *
+     * @return number of applied ticks
+     */
+    int setRates(final Collection<RateTable.Tick> ticks) throws RemoteException {
+        checkWritable();
+        final List<RateTable.Tick> copy = List.copyOf(ticks);
+        final int applied;
+        final long position;
+        lock.lock();
+        try {
+            applied = wallet.setRates(copy);
+            if (applied == 0) {
+                return 0;
+            }
+            position = append(SET_RATES, out -> {
+                out.writeInt(copy.size());
+                for (RateTable.Tick tick : copy) {
+                    writeString(out, tick.currency1());
+                    writeString(out, tick.currency2());
+                    out.writeDouble(tick.rate());
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+        return applied;
+    }
+
+    /**
+     * Returns the wallet keeping the balances. It is changed by the bank holding the lock of this wallet
+     */
+    ConcurrentWallet wallet() {
+        return wallet;
+    }
+
+    /**
+     * Writes the state of the wallet to a snapshot
+     *
+     * @return end of the last journal record reflected by the state
+     */
+    long save(final DataOutputStream out) throws IOException {
+        final ConcurrentWallet.State state;
+        final long position;
+        lock.lock();
+        try {
+            state = wallet.state();
+            position = journal.position();
+        } finally {
+            lock.unlock();
+        }
+        Snapshot.writeWallet(out, state);
+        return position;
+    }
+
+    /**
+     * Applies a record of this wallet read from the journal
+     *
+     * @throws IOException if the record is malformed
+     */
+    void replay(byte type, final DataInputStream in) throws IOException {
+        try {
+            switch (type) {
+                case OPERATION -> wallet.execute(List.of(readOperation(in)), false);
+                case DEPOSIT_MINOR -> wallet.depositMinor(in.readLong(), readString(in));
+                case WITHDRAW_MINOR -> wallet.withdrawMinor(in.readLong(), readString(in));
+                case CONVERT_MINOR -> wallet.convertToMinor(in.readLong(), readString(in), readString(in));
+                case EXECUTE_ON_WALLET -> {
+                    final boolean atomic = in.readBoolean();
+                    final List<WalletOperation> operations = readOperations(in);
+                    try {
+                        wallet.execute(operations, atomic);
+                    } catch (final RuntimeException e) {
+                        // the batch threw in the same way when it was journaled
+                    }
+                }
+                case SET_RATES -> {
+                    final int count = in.readInt();
+                    final List<RateTable.Tick> ticks = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        ticks.add(new RateTable.Tick(readString(in), readString(in), in.readDouble()));
+                    }
+                    wallet.setRates(ticks);
+                }
+                case START -> {
+                    final byte[] script = new byte[in.readInt()];
+                    in.readFully(script);
+                    wallet.start(new Scanner(new String(script, StandardCharsets.UTF_8)));
+                }
+                default -> throw new IOException("Unknown journal record " + type);
+            }
+        } catch (final WalletException e) {
+            // the command failed in the same way when it was journaled
+        }
+    }
+
+    private void apply(final WalletOperation operation) throws RemoteException {
+        checkWritable();
+        final long position;
+        lock.lock();
+        try {
+            wallet.execute(List.of(operation), false).checkSuccessful(0);
+            position = append(OPERATION, out -> writeOperation(out, operation));
+        } finally {
+            lock.unlock();
+        }
+        await(position);
+    }
+
+    private void checkWritable() throws RemoteException {
+        if (readOnly) {
+            throw new RemoteException("Wallet of a follower is read-only, changes are accepted by the primary");
+        }
+    }
+
+    private long append(byte type, final Encoder payload) throws RemoteException {
+        try {
+            return journal.append(type, out -> {
+                writeString(out, id);
+                payload.write(out);
+            });
+        } catch (final IOException e) {
+            throw new RemoteException("Cannot write journal of wallet " + id, e);
+        }
+    }
+
+    private void await(long position) throws RemoteException {
+        try {
+            journal.await(position);
+        } catch (final IOException e) {
+            throw new RemoteException("Cannot write journal of wallet " + id, e);
+        }
+    }
+
+    private static boolean isRead(final WalletOperation operation) {
+        return operation.getType() == WalletOperation.Type.GET_BALANCE
+                || operation.getType() == WalletOperation.Type.GET_TOTAL;
+    }
+}
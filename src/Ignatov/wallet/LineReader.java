@@ -0,0 +1,78 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits a channel into lines in a {@link ByteBuffer} window, which grows when a line does not fit it.
+ * Lines are terminated with '\n', '\r' or "\r\n", and the last line may be unterminated. Every line is passed
+ * to the consumer as a range of the window without copying, empty lines included
+ */
+final class LineReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Consumer of lines
+     */
+    @FunctionalInterface
+    interface Line {
+        /**
+         * Takes the line in bytes {@code [from, to)} of the buffer, which are valid until the method returns
+         */
+        void accept(ByteBuffer buffer, int from, int to);
+    }
+
+    private LineReader() {
+    }
+
+    /**
+     * Reads lines of the channel until its end
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    static void read(final ReadableByteChannel in, final Line line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean skipLineFeed = false; // previous window ended with '\r'
+        while (true) {
+            final boolean end = in.read(buffer) < 0;
+            buffer.flip();
+            int lineStart = buffer.position();
+            if (skipLineFeed && lineStart < buffer.limit()) {
+                if (buffer.get(lineStart) == '\n') {
+                    lineStart++;
+                }
+                skipLineFeed = false;
+            }
+            for (int i = lineStart; i < buffer.limit(); i++) {
+                final byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    line.accept(buffer, lineStart, i);
+                    if (b == '\r') {
+                        if (i + 1 == buffer.limit()) {
+                            skipLineFeed = true;
+                        } else if (buffer.get(i + 1) == '\n') {
+                            i++;
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            if (end) {
+                if (lineStart < buffer.limit()) {
+                    line.accept(buffer, lineStart, buffer.limit());
+                }
+                return;
+            }
+            buffer.position(lineStart);
+            if (lineStart == 0 && buffer.limit() == buffer.capacity()) {
+                final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+}
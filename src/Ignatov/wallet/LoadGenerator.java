@@ -0,0 +1,454 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator calling a {@link Bank} and its wallets from concurrent clients through the {@link Bank} and
+ * {@link Wallet} interfaces, usually over RMI, and reporting throughput and percentiles of latencies.
+ * <p>
+ * Every call is an operation drawn from a weighted mix on a wallet drawn from a uniform or Zipf distribution.
+ * Wallets are created and given money before the measurement. A closed loop runs a call of every client
+ * after the previous one returns, optionally paced to a target rate. An open loop issues calls at
+ * the target rate regardless of earlier calls, and clients are threads executing them.
+ * <p>
+ * Latency of a paced call is measured from the time the call was scheduled, not from the time it was sent,
+ * so a stalled server is charged for calls its clients could not send meanwhile. This corrects coordinated
+ * omission, which hides stalls from latencies measured by the clients themselves. The report has both
+ * the corrected response time and the service time, measured from sending a call. Without pacing they
+ * are the same
+ */
+public final class LoadGenerator {
+
+    private static final String PASSPORT = "load";
+    private static final double INITIAL_BALANCE = 1e9;
+
+    /**
+     * Operation of the mix
+     */
+    public enum Operation {
+        CREATE, DEPOSIT, WITHDRAW, CONVERT, GET_TOTAL;
+
+        /**
+         * Returns the operation by its name in any case, with or without underscores
+         */
+        public static Operation parse(final String name) {
+            final String normalized = name.replace("_", "").toUpperCase(Locale.ROOT);
+            for (Operation operation : values()) {
+                if (operation.name().replace("_", "").equals(normalized)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+
+    /**
+     * Pacing of calls
+     */
+    public enum Pacing {
+        /**
+         * Every client runs a call after its previous call returns
+         */
+        CLOSED,
+        /**
+         * Calls are issued at the target rate and wait for a free client
+         */
+        OPEN
+    }
+
+    /**
+     * Options of a run
+     *
+     * @param clients  number of concurrent clients
+     * @param mix      weights of operations, operations without a weight are not run
+     * @param wallets  number of wallets calls are spread over
+     * @param zipf     exponent of the Zipf distribution of wallets or 0 for the uniform distribution
+     * @param pacing   pacing of calls
+     * @param rate     target number of calls per second of all clients, or 0 for a closed loop without pacing
+     * @param warmup   time of calls before the measurement
+     * @param duration time of the measurement
+     */
+    public record Options(int clients, Map<Operation, Integer> mix, int wallets, double zipf, Pacing pacing,
+                          double rate, Duration warmup, Duration duration) {
+        public Options {
+            if (clients < 1 || wallets < 1 || zipf < 0 || rate < 0) {
+                throw new IllegalArgumentException("Expected positive numbers of clients and wallets and "
+                        + "non-negative Zipf exponent and rate");
+            }
+            if (pacing == Pacing.OPEN && rate == 0) {
+                throw new IllegalArgumentException("Open loop needs a target rate");
+            }
+            if (mix.isEmpty() || mix.values().stream().anyMatch(weight -> weight < 0)
+                    || mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+                throw new IllegalArgumentException("Expected non-negative weights of operations, not all zero");
+            }
+            mix = Map.copyOf(mix);
+        }
+    }
+
+    /**
+     * Results of a run
+     *
+     * @param operations  completed calls of the measurement
+     * @param errors      calls of the measurement which threw exceptions
+     * @param seconds     seconds from the start of the measurement to the completion of its last call, at least
+     *                    its duration, so calls completing late are not counted in a shorter time
+     * @param response    latencies from scheduling calls, corrected for coordinated omission
+     * @param service     latencies from sending calls
+     * @param byOperation latencies from scheduling calls of every operation of the mix
+     */
+    public record Report(long operations, long errors, double seconds, LatencyHistogram response,
+                         LatencyHistogram service, Map<Operation, LatencyHistogram> byOperation) {
+
+        /**
+         * Returns completed calls per second
+         */
+        public double throughput() {
+            return operations / seconds;
+        }
+
+        /**
+         * Prints throughput and percentiles of latencies in microseconds
+         */
+        public void print(final PrintStream out) {
+            out.printf(Locale.US, "%d operations in %.1f s, %.0f ops/s, %d errors%n", operations, seconds,
+                    throughput(), errors);
+            out.printf("%-12s %10s %10s %10s %10s %10s%n", "latency, us", "count", "p50", "p99", "p99.9", "max");
+            for (Map.Entry<Operation, LatencyHistogram> entry : byOperation.entrySet()) {
+                print(out, entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue());
+            }
+            print(out, "response", response);
+            print(out, "service", service);
+        }
+
+        private static void print(final PrintStream out, final String name, final LatencyHistogram histogram) {
+            out.printf(Locale.US, "%-12s %10d %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+        }
+    }
+
+    private final Bank bank;
+    private final Options options;
+    private final Operation[] operations; // operations repeated by their weights
+    private final double[] zipf; // cumulative probabilities of wallets or null
+    private final AtomicLong created = new AtomicLong();
+    private Wallet[] wallets;
+
+    /**
+     * LoadGenerator constructor
+     *
+     * @param bank    bank to call
+     * @param options options of runs
+     */
+    public LoadGenerator(final Bank bank, final Options options) {
+        this.bank = bank;
+        this.options = options;
+        final List<Operation> weighted = new ArrayList<>();
+        options.mix().forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        operations = weighted.toArray(new Operation[0]);
+        zipf = options.zipf() == 0 ? null : zipf(options.wallets(), options.zipf());
+    }
+
+    /**
+     * Creates wallets, runs calls for the warmup and the measurement and reports the measurement
+     *
+     * @throws RemoteException if the wallets cannot be created
+     * @throws InterruptedException if the thread is interrupted while waiting for clients
+     */
+    public Report run() throws RemoteException, InterruptedException {
+        prepare();
+        final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+            final Recorder created = new Recorder();
+            recorders.add(created);
+            return created;
+        });
+        final long start = System.nanoTime();
+        final long from = start + options.warmup().toNanos();
+        final long to = from + options.duration().toNanos();
+        final ExecutorService clients = Executors.newFixedThreadPool(options.clients());
+        try {
+            if (options.pacing() == Pacing.CLOSED) {
+                final long interval = options.rate() == 0 ? 0 : (long) (1e9 * options.clients() / options.rate());
+                for (int i = 0; i < options.clients(); i++) {
+                    final long first = start + (interval == 0 ? 0 : interval * i / options.clients());
+                    clients.execute(() -> closedLoop(recorder.get(), first, interval, from, to));
+                }
+            } else {
+                openLoop(clients, recorder, start, from, to);
+            }
+        } finally {
+            clients.shutdown();
+        }
+        final long timeout = options.warmup().plus(options.duration()).toSeconds() + 60;
+        if (!clients.awaitTermination(timeout, TimeUnit.SECONDS)) {
+            clients.shutdownNow();
+            throw new IllegalStateException("Clients have not finished in time");
+        }
+
+        final Recorder total = new Recorder();
+        for (Recorder part : recorders) {
+            total.add(part);
+        }
+        final Map<Operation, LatencyHistogram> byOperation = new EnumMap<>(Operation.class);
+        for (Operation operation : options.mix().keySet()) {
+            byOperation.put(operation, total.byOperation.get(operation));
+        }
+        return new Report(total.response.getCount(), total.errors, (Math.max(total.last, to) - from) / 1e9,
+                total.response, total.service, byOperation);
+    }
+
+    /**
+     * Creates the wallets with rubles and dollars and a rate between them
+     */
+    private void prepare() throws RemoteException {
+        wallets = new Wallet[options.wallets()];
+        bank.createIndividual(PASSPORT, PASSPORT, PASSPORT);
+        for (int i = 0; i < wallets.length; i++) {
+            final Wallet wallet = bank.createWallet(id(i));
+            wallet.execute(List.of(WalletOperation.addCurrency("ruble"), WalletOperation.addCurrency("dollar"),
+                    WalletOperation.setRate("dollar", "ruble", 1. / 60),
+                    WalletOperation.deposit(INITIAL_BALANCE, "ruble")), false);
+            wallets[i] = wallet;
+        }
+    }
+
+    private void closedLoop(final Recorder recorder, long first, long interval, long from, long to) {
+        final SplittableRandom random = new SplittableRandom();
+        long scheduled = first;
+        while (true) {
+            if (interval == 0) {
+                scheduled = System.nanoTime();
+            } else {
+                park(scheduled);
+            }
+            if (scheduled >= to) {
+                return;
+            }
+            call(recorder, random, scheduled, scheduled >= from);
+            scheduled += interval;
+        }
+    }
+
+    /**
+     * Issues calls at the target rate to the clients, a call waits in the queue of the executor until a client
+     * is free
+     */
+    private void openLoop(final ExecutorService clients, final ThreadLocal<Recorder> recorder, long start,
+                          long from, long to) {
+        final SplittableRandom random = new SplittableRandom();
+        final double interval = 1e9 / options.rate();
+        for (long i = 0; ; i++) {
+            final long scheduled = start + (long) (i * interval);
+            if (scheduled >= to) {
+                return;
+            }
+            park(scheduled);
+            final SplittableRandom split = random.split();
+            clients.execute(() -> call(recorder.get(), split, scheduled, scheduled >= from));
+        }
+    }
+
+    private void call(final Recorder recorder, final SplittableRandom random, long scheduled, boolean measured) {
+        final Operation operation = operations[random.nextInt(operations.length)];
+        final int wallet = wallet(random);
+        final long sent = System.nanoTime();
+        boolean failed = false;
+        try {
+            switch (operation) {
+                case CREATE -> bank.createWallet(PASSPORT + wallet + ":" + created.incrementAndGet());
+                case DEPOSIT -> wallets[wallet].deposit(1, "ruble");
+                case WITHDRAW -> wallets[wallet].withdraw(1, "ruble");
+                case CONVERT -> wallets[wallet].convertTo(60, "ruble", "dollar");
+                case GET_TOTAL -> wallets[wallet].getTotal("ruble");
+            }
+        } catch (final RemoteException | RuntimeException e) {
+            failed = true;
+        }
+        if (measured) {
+            final long done = System.nanoTime();
+            recorder.response.record(done - scheduled);
+            recorder.service.record(done - sent);
+            recorder.byOperation.get(operation).record(done - scheduled);
+            recorder.last = Math.max(recorder.last, done);
+            if (failed) {
+                recorder.errors++;
+            }
+        }
+    }
+
+    private int wallet(final SplittableRandom random) {
+        if (zipf == null) {
+            return random.nextInt(options.wallets());
+        }
+        final int position = Arrays.binarySearch(zipf, random.nextDouble());
+        return Math.min(position < 0 ? -position - 1 : position, zipf.length - 1);
+    }
+
+    /**
+     * Returns cumulative probabilities of ranks of the Zipf distribution
+     */
+    private static double[] zipf(int n, double exponent) {
+        final double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static String id(int wallet) {
+        return PASSPORT + wallet + ":0";
+    }
+
+    private static void park(long deadline) {
+        for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /**
+     * Latencies recorded by a thread
+     */
+    private static final class Recorder {
+        private final LatencyHistogram response = new LatencyHistogram();
+        private final LatencyHistogram service = new LatencyHistogram();
+        private final Map<Operation, LatencyHistogram> byOperation = new EnumMap<>(Operation.class);
+        private long errors;
+        private long last = Long.MIN_VALUE; // completion of the last measured call
+
+        private Recorder() {
+            for (Operation operation : Operation.values()) {
+                byOperation.put(operation, new LatencyHistogram());
+            }
+        }
+
+        private void add(final Recorder other) {
+            response.add(other.response);
+            service.add(other.service);
+            for (Operation operation : Operation.values()) {
+                byOperation.get(operation).add(other.byOperation.get(operation));
+            }
+            errors += other.errors;
+            last = Math.max(last, other.last);
+        }
+    }
+
+    /**
+     * Runs the load generator against a bank bound in a registry and prints the report
+     *
+     * @param args options {@code --name value}: url (//localhost:8888/bank), clients (10),
+     *             mix (create=1,deposit=4,withdraw=4,convert=1,getTotal=10), wallets (1000),
+     *             keys (uniform or zipf with an optional exponent as zipf:0.99, uniform by default),
+     *             pacing (closed or open), rate (calls per second, required by the open loop),
+     *             warmup (seconds, 5) and duration (seconds, 30)
+     */
+    public static void main(final String... args) {
+        String url = "//localhost:8888/bank";
+        int clients = 10;
+        String mix = "create=1,deposit=4,withdraw=4,convert=1,getTotal=10";
+        int wallets = 1000;
+        String keys = "uniform";
+        String pacing = "closed";
+        double rate = 0;
+        double warmup = 5;
+        double duration = 30;
+        final Options options;
+        try {
+            if (args.length % 2 != 0) {
+                throw new IllegalArgumentException("Expected a value of every option");
+            }
+            for (int i = 0; i < args.length; i += 2) {
+                final String value = args[i + 1];
+                switch (args[i]) {
+                    case "--url" -> url = value;
+                    case "--clients" -> clients = Integer.parseInt(value);
+                    case "--mix" -> mix = value;
+                    case "--wallets" -> wallets = Integer.parseInt(value);
+                    case "--keys" -> keys = value;
+                    case "--pacing" -> pacing = value;
+                    case "--rate" -> rate = Double.parseDouble(value);
+                    case "--warmup" -> warmup = Double.parseDouble(value);
+                    case "--duration" -> duration = Double.parseDouble(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            options = new Options(clients, parseMix(mix), wallets, parseKeys(keys),
+                    Pacing.valueOf(pacing.toUpperCase(Locale.ROOT)), rate, seconds(warmup), seconds(duration));
+        } catch (final NullPointerException | IllegalArgumentException e) {
+            System.err.println("Illegal arguments. " + e.getMessage() + ". Usage: LoadGenerator [--url <url>] "
+                    + "[--clients <n>] [--mix <operation>=<weight>,...] [--wallets <n>] [--keys uniform|zipf[:<s>]] "
+                    + "[--pacing closed|open] [--rate <calls per second>] [--warmup <s>] [--duration <s>]");
+            return;
+        }
+        try {
+            final Bank bank = (Bank) Naming.lookup(url);
+            new LoadGenerator(bank, options).run().print(System.out);
+        } catch (final NotBoundException e) {
+            System.err.println("Bank is not bound. " + e.getMessage());
+        } catch (final MalformedURLException e) {
+            System.err.println("Bank URL is invalid. " + e.getMessage());
+        } catch (final RemoteException e) {
+            System.err.println("Cannot prepare wallets: " + e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<Operation, Integer> parseMix(final String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            final String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected <operation>=<weight>, got " + part);
+            }
+            weights.put(Operation.parse(pair[0].trim()), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    private static double parseKeys(final String keys) {
+        if (keys.equals("uniform")) {
+            return 0;
+        }
+        if (keys.equals("zipf")) {
+            return 0.99;
+        }
+        if (keys.startsWith("zipf:")) {
+            return Double.parseDouble(keys.substring("zipf:".length()));
+        }
+        throw new IllegalArgumentException("Unknown distribution of keys " + keys);
+    }
+
+    private static Duration seconds(double seconds) {
+        return Duration.ofNanos((long) (seconds * 1e9));
+    }
+}
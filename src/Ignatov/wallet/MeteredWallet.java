@@ -0,0 +1,308 @@
+package liptSoft.Ignatov.wallet;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Scanner;
+
+import static liptSoft.Ignatov.wallet.BankMetrics.Method.*;
+
+/**
+ * {@link Wallet} of a {@link RemoteBank} recording its calls to {@link BankMetrics}. Wraps the wallet keeping
+ * the balances, which the bank unwraps for transfers, snapshots and its journal
+ */
+final class MeteredWallet implements Wallet {
+
+    private final Wallet wallet;
+    private final BankMetrics metrics;
+
+    /**
+     * MeteredWallet constructor
+     *
+     * @param wallet  wallet keeping the balances
+     * @param metrics metrics of the bank
+     */
+    MeteredWallet(final Wallet wallet, final BankMetrics metrics) {
+        this.wallet = wallet;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the wrapped wallet
+     */
+    Wallet wallet() {
+        return wallet;
+    }
+
+    @Override
+    public void start(final Scanner in) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.start(in);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(START, e);
+            throw e;
+        } finally {
+            metrics.record(START, start);
+        }
+    }
+
+    @Override
+    public void deposit(double amount) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.deposit(amount);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(DEPOSIT, e);
+            throw e;
+        } finally {
+            metrics.record(DEPOSIT, start);
+        }
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.deposit(amount, currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(DEPOSIT, e);
+            throw e;
+        } finally {
+            metrics.record(DEPOSIT, start);
+        }
+    }
+
+    @Override
+    public void addCurrency(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.addCurrency(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(ADD_CURRENCY, e);
+            throw e;
+        } finally {
+            metrics.record(ADD_CURRENCY, start);
+        }
+    }
+
+    @Override
+    public void withdraw(double amount) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.withdraw(amount);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(WITHDRAW, e);
+            throw e;
+        } finally {
+            metrics.record(WITHDRAW, start);
+        }
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.withdraw(amount, currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(WITHDRAW, e);
+            throw e;
+        } finally {
+            metrics.record(WITHDRAW, start);
+        }
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.setRate(currency1, currency2, rate);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(SET_RATE, e);
+            throw e;
+        } finally {
+            metrics.record(SET_RATE, start);
+        }
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.convertTo(amount, currency1, currency2);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(CONVERT_TO, e);
+            throw e;
+        } finally {
+            metrics.record(CONVERT_TO, start);
+        }
+    }
+
+    @Override
+    public void showBalance() throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.showBalance();
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(SHOW_BALANCE, e);
+            throw e;
+        } finally {
+            metrics.record(SHOW_BALANCE, start);
+        }
+    }
+
+    @Override
+    public void showTotalIn(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.showTotalIn(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(SHOW_TOTAL_IN, e);
+            throw e;
+        } finally {
+            metrics.record(SHOW_TOTAL_IN, start);
+        }
+    }
+
+    @Override
+    public void showTotalIn() throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.showTotalIn();
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(SHOW_TOTAL_IN, e);
+            throw e;
+        } finally {
+            metrics.record(SHOW_TOTAL_IN, start);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.isEmpty();
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(IS_EMPTY, e);
+            throw e;
+        } finally {
+            metrics.record(IS_EMPTY, start);
+        }
+    }
+
+    @Override
+    public void clearWallet() throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.clearWallet();
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(CLEAR_WALLET, e);
+            throw e;
+        } finally {
+            metrics.record(CLEAR_WALLET, start);
+        }
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.getBalanceIn(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(GET_BALANCE_IN, e);
+            throw e;
+        } finally {
+            metrics.record(GET_BALANCE_IN, start);
+        }
+    }
+
+    @Override
+    public Double getTotal(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.getTotal(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(GET_TOTAL, e);
+            throw e;
+        } finally {
+            metrics.record(GET_TOTAL, start);
+        }
+    }
+
+    @Override
+    public void depositMinor(long amount, final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.depositMinor(amount, currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(DEPOSIT_MINOR, e);
+            throw e;
+        } finally {
+            metrics.record(DEPOSIT_MINOR, start);
+        }
+    }
+
+    @Override
+    public void withdrawMinor(long amount, final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.withdrawMinor(amount, currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(WITHDRAW_MINOR, e);
+            throw e;
+        } finally {
+            metrics.record(WITHDRAW_MINOR, start);
+        }
+    }
+
+    @Override
+    public void convertToMinor(long amount, final String currency1, final String currency2) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            wallet.convertToMinor(amount, currency1, currency2);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(CONVERT_TO_MINOR, e);
+            throw e;
+        } finally {
+            metrics.record(CONVERT_TO_MINOR, start);
+        }
+    }
+
+    @Override
+    public long getBalanceMinorIn(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.getBalanceMinorIn(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(GET_BALANCE_MINOR_IN, e);
+            throw e;
+        } finally {
+            metrics.record(GET_BALANCE_MINOR_IN, start);
+        }
+    }
+
+    @Override
+    public long getTotalMinor(final String currency) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.getTotalMinor(currency);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(GET_TOTAL_MINOR, e);
+            throw e;
+        } finally {
+            metrics.record(GET_TOTAL_MINOR, start);
+        }
+    }
+
+    @Override
+    public BatchResult execute(final List<WalletOperation> operations, boolean atomic) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            return wallet.execute(operations, atomic);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(WALLET_EXECUTE, e);
+            throw e;
+        } finally {
+            metrics.record(WALLET_EXECUTE, start);
+        }
+    }
+}
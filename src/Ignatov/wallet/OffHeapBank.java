@@ -0,0 +1,173 @@
+package liptSoft.Ignatov.wallet;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link Bank} keeping wallets in an {@link OffHeapStore}. Persons are kept on the heap as in {@link RemoteBank}.
+ * <p>
+ * Wallets are {@link OffHeapWallet} views created when they are fetched, so they are exported to RMI clients
+ * through an {@link ExportManager}, which unexports idle views. A bank without a manager does not export
+ * wallets and serves local callers only, for example {@link BinaryBankServer}
+ */
+public class OffHeapBank implements Bank {
+    private final int port;
+    private final OffHeapStore store;
+    private final ExportManager exports;
+    private final ConcurrentMap<String, Person> persons = new ConcurrentHashMap<>(); // passport -> Person
+
+    /**
+     * OffHeapBank constructor
+     *
+     * @param port    the port where the bank accepts clients
+     * @param exports manager exporting wallets and persons when clients fetch them, or null to serve
+     *                local callers only
+     */
+    public OffHeapBank(final int port, final ExportManager exports) {
+        this(port, exports, new OffHeapStore());
+    }
+
+    OffHeapBank(final int port, final ExportManager exports, final OffHeapStore store) {
+        this.port = port;
+        this.exports = exports;
+        this.store = store;
+    }
+
+    @Override
+    public Wallet createWallet(String id) throws RemoteException {
+        if (Objects.isNull(id)) {
+            return null;
+        }
+        return fetch(store.create(id, WalletIndex.passport(id)));
+    }
+
+    @Override
+    public Wallet getWallet(Person person, String id) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(id)) {
+            return null;
+        }
+        return fetch(store.find(id));
+    }
+
+    @Override
+    public boolean createIndividual(String name, String surname, String passport) throws RemoteException {
+        if (Objects.isNull(passport)) {
+            return false;
+        }
+        final Person person = new RemotePerson(name, surname, passport);
+        if (persons.putIfAbsent(passport, person) != null) {
+            return false;
+        }
+        if (exports == null) {
+            UnicastRemoteObject.exportObject(person, port);
+        }
+        return true;
+    }
+
+    @Override
+    public Person getIndividual(String passport) throws RemoteException {
+        if (Objects.isNull(passport)) {
+            return null;
+        }
+        final Person person = persons.get(passport);
+        return person == null || exports == null ? person : exports.export(person, Person.class);
+    }
+
+    @Override
+    public Set<String> getAllIds(Person person) throws RemoteException {
+        if (Objects.isNull(person) || !persons.containsKey(person.getPassport())) {
+            return null;
+        }
+        final List<String> ids = store.ids(person.getPassport());
+        return ids == null ? new ConcurrentSkipListSet<>() : new ConcurrentSkipListSet<>(ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The store links wallets of a passport in the order of creation, so ids are sorted for every page
+     */
+    @Override
+    public List<String> getAllIds(Person person, String after, int limit) throws RemoteException {
+        if (Objects.isNull(person) || !persons.containsKey(person.getPassport())) {
+            return null;
+        }
+        final List<String> ids = store.ids(person.getPassport());
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        ids.sort(WalletIndex.ORDER);
+        int from = after == null ? 0 : Collections.binarySearch(ids, after, WalletIndex.ORDER);
+        from = from < 0 ? -from - 1 : after == null ? from : from + 1;
+        final int to = (int) Math.min(ids.size(), (long) from + Math.max(limit, 0));
+        return new ArrayList<>(ids.subList(from, to));
+    }
+
+    @Override
+    public boolean isExists(Person person) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+            return false;
+        }
+        return persons.containsKey(person.getPassport());
+    }
+
+    @Override
+    public BatchResult execute(String id, List<WalletOperation> operations, boolean atomic) {
+        if (Objects.isNull(id) || Objects.isNull(operations)) {
+            return null;
+        }
+        final int handle = store.find(id);
+        return handle < 0 ? null : new OffHeapWallet(store, handle).execute(operations, atomic);
+    }
+
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency) {
+        return transfer(fromId, toId, amount, currency, currency);
+    }
+
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency, String targetCurrency) {
+        if (Objects.isNull(fromId) || Objects.isNull(toId) || Objects.isNull(currency)
+                || Objects.isNull(targetCurrency)) {
+            return null;
+        }
+        AbstractWallet.checkTransferAmount(amount);
+        final int from = store.find(fromId);
+        final int to = store.find(toId);
+        if (from < 0 || to < 0) {
+            return null;
+        }
+        return new OffHeapWallet(store, from).transferTo(new OffHeapWallet(store, to), amount, currency,
+                targetCurrency);
+    }
+
+    /**
+     * Returns the number of wallets
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Returns the number of bytes of wallet records and ids allocated outside the heap
+     */
+    public long getOffHeapBytes() {
+        return store.offHeapBytes();
+    }
+
+    private Wallet fetch(int handle) throws RemoteException {
+        if (handle < 0) {
+            return null;
+        }
+        final Wallet wallet = new OffHeapWallet(store, handle);
+        return exports == null ? wallet : exports.export(wallet, Wallet.class);
+    }
+}
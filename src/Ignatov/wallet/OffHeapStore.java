@@ -0,0 +1,600 @@
+package liptSoft.Ignatov.wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wallet records kept outside the heap in direct {@link ByteBuffer} slabs.
+ * <p>
+ * A wallet has a stable int handle. Its record lives in the size class of the least power of two currencies
+ * fitting it, and moves to the next class when a currency does not fit:
+ * <pre>
+ * id offset: long, id length: int, number of currencies: int, next wallet of the group: int, padding: int
+ * currency symbols: int[capacity], padded to 8 bytes
+ * balances: double[capacity]
+ * rates: double[capacity * capacity], rates[i * capacity + j] is the rate of currency i to currency j,
+ *        NaN if it is undefined
+ * </pre>
+ * Ids and groups are UTF-8 bytes in an append-only arena, currencies are symbols shared by all wallets.
+ * The heap keeps only the address of each record and open addressing indexes of ids and of group heads,
+ * 24 to 40 bytes per wallet and 32 to 64 bytes per group, so neither the number of objects nor the GC work
+ * grows with the number of wallets or groups.
+ * <p>
+ * Records are guarded by striped locks: the caller takes {@link #lock(int)} of a handle around accessing
+ * its record. Wallets of one group, a passport, are linked through their records
+ */
+final class OffHeapStore {
+
+    static final int MAX_CURRENCIES = 1 << 8;
+
+    private static final int KEY_OFFSET = 0;
+    private static final int KEY_LENGTH = 8;
+    private static final int COUNT = 12;
+    private static final int NEXT = 16;
+    private static final int HEADER = 24;
+    private static final int CLASS_SHIFT = 56;
+    private static final long OFFSET_MASK = (1L << CLASS_SHIFT) - 1;
+    private static final int STRIPES = 1 << 10;
+    private static final int CHUNK_BITS = 16;
+    private static final int DEFAULT_SLAB_BITS = 22;
+
+    private final int slabBits;
+    private final Slabs[] classes = new Slabs[Integer.numberOfTrailingZeros(MAX_CURRENCIES) + 1];
+    private final Slabs keys;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private long[] table = new long[1 << 10]; // (hash << 32) | (handle + 1), 0 if the cell is empty
+    private volatile long[][] addresses = new long[0][]; // handle -> size class and offset of the record
+    private int size;
+    private long[] heads = new long[1 << 4]; // (hash << 32) | (last created wallet + 1), 0 if the cell is empty
+    private long[] groups = new long[1 << 4]; // offset of the length and the bytes of the group of a head
+    private int groupCount;
+
+    private final ConcurrentMap<String, Integer> symbols = new ConcurrentHashMap<>();
+    private final ReentrantLock symbolLock = new ReentrantLock();
+    private volatile String[] names = new String[16];
+    private int symbolCount;
+
+    /**
+     * Creates a store with slabs of the provided size
+     *
+     * @param slabBits binary logarithm of the size of one slab in bytes
+     */
+    OffHeapStore(int slabBits) {
+        this.slabBits = slabBits;
+        for (int k = 0; k < classes.length; k++) {
+            classes[k] = new Slabs(recordSize(1 << k));
+        }
+        keys = new Slabs(0);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Creates a store with 4 MB slabs
+     */
+    OffHeapStore() {
+        this(DEFAULT_SLAB_BITS);
+    }
+
+    /**
+     * Returns the handle of a wallet or -1 if there is no such wallet
+     */
+    int find(final String id) {
+        final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        indexLock.readLock().lock();
+        try {
+            return find(id.hashCode(), key);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates an empty wallet unless it exists
+     *
+     * @param group group of the wallet, whose wallets are listed by {@link #ids(String)}
+     * @return handle of the wallet
+     */
+    int create(final String id, final String group) {
+        final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        final int hash = id.hashCode();
+        final byte[] groupKey = group.getBytes(StandardCharsets.UTF_8);
+        final int groupHash = group.hashCode();
+        indexLock.writeLock().lock();
+        try {
+            final int existing = find(hash, key);
+            if (existing >= 0) {
+                return existing;
+            }
+            final int handle = size;
+            final long keyOffset = keys.allocate(key.length);
+            keys.buffer(keyOffset).put(keys.offset(keyOffset), key);
+            final long address = classes[0].allocate(classes[0].recordSize);
+            final ByteBuffer record = classes[0].buffer(address);
+            final int base = classes[0].offset(address);
+            record.putLong(base + KEY_OFFSET, keyOffset);
+            record.putInt(base + KEY_LENGTH, key.length);
+            record.putInt(base + COUNT, 0);
+            record.putInt(base + NEXT, putHead(groupHash, groupKey, handle));
+            if ((handle >>> CHUNK_BITS) == addresses.length) {
+                final long[][] grown = Arrays.copyOf(addresses, addresses.length + 1);
+                grown[addresses.length] = new long[1 << CHUNK_BITS];
+                addresses = grown;
+            }
+            setAddress(handle, address);
+            size++;
+            if (size * 2 > table.length) {
+                rehash();
+            }
+            insert(table, hash, handle);
+            return handle;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns ids of wallets of the group, the last created first, or null if the group has no wallets
+     */
+    List<String> ids(final String group) {
+        final byte[] key = group.getBytes(StandardCharsets.UTF_8);
+        int handle;
+        indexLock.readLock().lock();
+        try {
+            final int cell = headCell(group.hashCode(), key);
+            if (heads[cell] == 0) {
+                return null;
+            }
+            handle = (int) heads[cell] - 1;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        final List<String> ids = new ArrayList<>();
+        while (handle >= 0) {
+            final ReentrantLock lock = lock(handle);
+            lock.lock();
+            try {
+                ids.add(id(handle));
+                final long address = address(handle);
+                handle = buffer(address).getInt(offset(address) + NEXT);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of wallets
+     */
+    int size() {
+        indexLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap
+     */
+    long offHeapBytes() {
+        long bytes = keys.allocated();
+        for (Slabs slabs : classes) {
+            bytes += slabs.allocated();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the lock guarding the record of a wallet
+     */
+    ReentrantLock lock(int handle) {
+        return stripes[handle & (STRIPES - 1)];
+    }
+
+    /**
+     * Returns the locks guarding the records of two wallets in the order a caller accessing both takes them,
+     * or the same lock twice if the records share it
+     */
+    ReentrantLock[] locks(int handle1, int handle2) {
+        final int stripe1 = handle1 & (STRIPES - 1);
+        final int stripe2 = handle2 & (STRIPES - 1);
+        return new ReentrantLock[]{stripes[Math.min(stripe1, stripe2)], stripes[Math.max(stripe1, stripe2)]};
+    }
+
+    /**
+     * Returns the symbol of a currency, creating it if there is none
+     */
+    int symbol(final String currency) {
+        final Integer symbol = symbols.get(currency);
+        if (symbol != null) {
+            return symbol;
+        }
+        symbolLock.lock();
+        try {
+            return symbols.computeIfAbsent(currency, c -> {
+                if (symbolCount == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                names[symbolCount] = c;
+                return symbolCount++;
+            });
+        } finally {
+            symbolLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the symbol of a currency or -1 if no wallet ever had it
+     */
+    int symbolOf(final String currency) {
+        final Integer symbol = symbols.get(currency);
+        return symbol == null ? -1 : symbol;
+    }
+
+    String name(int symbol) {
+        return names[symbol];
+    }
+
+    // Accessors of a record, the caller holds the lock of the handle
+
+    String id(int handle) {
+        final long address = address(handle);
+        final ByteBuffer record = buffer(address);
+        final int base = offset(address);
+        final long keyOffset = record.getLong(base + KEY_OFFSET);
+        final byte[] key = new byte[record.getInt(base + KEY_LENGTH)];
+        keys.buffer(keyOffset).get(keys.offset(keyOffset), key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    int count(int handle) {
+        final long address = address(handle);
+        return buffer(address).getInt(offset(address) + COUNT);
+    }
+
+    /**
+     * Returns the slot of a currency in the wallet or -1 if the wallet has no such currency
+     */
+    int slot(int handle, int symbol) {
+        final long address = address(handle);
+        final ByteBuffer record = buffer(address);
+        final int base = offset(address);
+        final int count = record.getInt(base + COUNT);
+        for (int slot = 0; slot < count; slot++) {
+            if (record.getInt(base + HEADER + slot * Integer.BYTES) == symbol) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int symbolAt(int handle, int slot) {
+        final long address = address(handle);
+        return buffer(address).getInt(offset(address) + HEADER + slot * Integer.BYTES);
+    }
+
+    double balance(int handle, int slot) {
+        final long address = address(handle);
+        return buffer(address).getDouble(offset(address) + balanceOffset(capacity(address), slot));
+    }
+
+    void setBalance(int handle, int slot, double balance) {
+        final long address = address(handle);
+        buffer(address).putDouble(offset(address) + balanceOffset(capacity(address), slot), balance);
+    }
+
+    double rate(int handle, int from, int to) {
+        final long address = address(handle);
+        return buffer(address).getDouble(offset(address) + rateOffset(capacity(address), from, to));
+    }
+
+    void setRate(int handle, int from, int to, double rate) {
+        final long address = address(handle);
+        buffer(address).putDouble(offset(address) + rateOffset(capacity(address), from, to), rate);
+    }
+
+    /**
+     * Adds a currency with zero balance and undefined rates, moving the record to a bigger size class if needed
+     *
+     * @return slot of the currency
+     * @throws WalletException if the wallet has {@link #MAX_CURRENCIES} currencies already
+     */
+    int addCurrency(int handle, int symbol) {
+        final int count = count(handle);
+        if (count == capacity(address(handle))) {
+            if (count == MAX_CURRENCIES) {
+                throw new WalletException("Expected at most " + MAX_CURRENCIES + " currencies in a wallet");
+            }
+            move(handle, Integer.numberOfTrailingZeros(count) + 1, count);
+        }
+        final long address = address(handle);
+        final ByteBuffer record = buffer(address);
+        final int base = offset(address);
+        final int capacity = capacity(address);
+        record.putInt(base + HEADER + count * Integer.BYTES, symbol);
+        record.putDouble(base + balanceOffset(capacity, count), 0);
+        for (int other = 0; other < count; other++) {
+            record.putDouble(base + rateOffset(capacity, count, other), Double.NaN);
+            record.putDouble(base + rateOffset(capacity, other, count), Double.NaN);
+        }
+        record.putDouble(base + rateOffset(capacity, count, count), 1);
+        record.putInt(base + COUNT, count + 1);
+        return count;
+    }
+
+    /**
+     * Removes all currencies of the wallet
+     */
+    void clear(int handle) {
+        final long address = address(handle);
+        buffer(address).putInt(offset(address) + COUNT, 0);
+    }
+
+    /**
+     * Copies the record of the wallet
+     */
+    byte[] save(int handle) {
+        final long address = address(handle);
+        final byte[] record = new byte[recordSize(capacity(address))];
+        buffer(address).get(offset(address), record);
+        return record;
+    }
+
+    /**
+     * Brings the record of the wallet back to a copy made by {@link #save(int)}
+     */
+    void restore(int handle, final byte[] record) {
+        final int sizeClass = Integer.numberOfTrailingZeros(capacityOf(record.length));
+        long address = address(handle);
+        if ((int) (address >>> CLASS_SHIFT) != sizeClass) {
+            classes[(int) (address >>> CLASS_SHIFT)].free(address & OFFSET_MASK);
+            address = (long) sizeClass << CLASS_SHIFT | classes[sizeClass].allocate(record.length);
+            setAddress(handle, address);
+        }
+        buffer(address).put(offset(address), record);
+    }
+
+    private void move(int handle, int sizeClass, int count) {
+        final long address = address(handle);
+        final ByteBuffer record = buffer(address);
+        final int base = offset(address);
+        final int capacity = capacity(address);
+        final Slabs target = classes[sizeClass];
+        final long moved = (long) sizeClass << CLASS_SHIFT | target.allocate(target.recordSize);
+        final ByteBuffer to = buffer(moved);
+        final int toBase = offset(moved);
+        final int toCapacity = capacity(moved);
+        to.put(toBase, record, base, HEADER + count * Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            to.putDouble(toBase + balanceOffset(toCapacity, i), record.getDouble(base + balanceOffset(capacity, i)));
+            for (int j = 0; j < count; j++) {
+                to.putDouble(toBase + rateOffset(toCapacity, i, j),
+                        record.getDouble(base + rateOffset(capacity, i, j)));
+            }
+        }
+        setAddress(handle, moved);
+        classes[(int) (address >>> CLASS_SHIFT)].free(address & OFFSET_MASK);
+    }
+
+    private int find(int hash, final byte[] key) {
+        final long[] cells = table;
+        final int mask = cells.length - 1;
+        for (int i = CurrencyTable.spread(hash) & mask; cells[i] != 0; i = (i + 1) & mask) {
+            if ((int) (cells[i] >>> 32) == hash) {
+                final int handle = (int) cells[i] - 1;
+                final ReentrantLock lock = lock(handle);
+                lock.lock();
+                try {
+                    if (Arrays.equals(key, id(handle).getBytes(StandardCharsets.UTF_8))) {
+                        return handle;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes the wallet the head of its group, the caller holds the write lock of the index
+     *
+     * @return previous head of the group or -1 if the group is new
+     */
+    private int putHead(int hash, final byte[] group, int handle) {
+        final int cell = headCell(hash, group);
+        final int head = (int) heads[cell] - 1;
+        heads[cell] = (long) hash << 32 | (handle + 1);
+        if (head < 0) {
+            final long offset = keys.allocate(Integer.BYTES + group.length);
+            keys.buffer(offset).putInt(keys.offset(offset), group.length)
+                    .put(keys.offset(offset) + Integer.BYTES, group);
+            groups[cell] = offset;
+            if (++groupCount * 2 > heads.length) {
+                rehashHeads();
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Returns the cell of the group in the index of heads or the empty cell where it is to be inserted
+     */
+    private int headCell(int hash, final byte[] group) {
+        final int mask = heads.length - 1;
+        int i = CurrencyTable.spread(hash) & mask;
+        while (heads[i] != 0 && ((int) (heads[i] >>> 32) != hash || !isGroup(groups[i], group))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private boolean isGroup(long offset, final byte[] group) {
+        final ByteBuffer buffer = keys.buffer(offset);
+        final int base = keys.offset(offset);
+        if (buffer.getInt(base) != group.length) {
+            return false;
+        }
+        for (int i = 0; i < group.length; i++) {
+            if (buffer.get(base + Integer.BYTES + i) != group[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashHeads() {
+        final long[] grownHeads = new long[heads.length * 2];
+        final long[] grownGroups = new long[heads.length * 2];
+        final int mask = grownHeads.length - 1;
+        for (int cell = 0; cell < heads.length; cell++) {
+            if (heads[cell] != 0) {
+                int i = CurrencyTable.spread((int) (heads[cell] >>> 32)) & mask;
+                while (grownHeads[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                grownHeads[i] = heads[cell];
+                grownGroups[i] = groups[cell];
+            }
+        }
+        heads = grownHeads;
+        groups = grownGroups;
+    }
+
+    private void rehash() {
+        final long[] grown = new long[table.length * 2];
+        for (long cell : table) {
+            if (cell != 0) {
+                insert(grown, (int) (cell >>> 32), (int) cell - 1);
+            }
+        }
+        table = grown;
+    }
+
+    private static void insert(final long[] cells, int hash, int handle) {
+        final int mask = cells.length - 1;
+        int i = CurrencyTable.spread(hash) & mask;
+        while (cells[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        cells[i] = (long) hash << 32 | (handle + 1);
+    }
+
+    private long address(int handle) {
+        return addresses[handle >>> CHUNK_BITS][handle & ((1 << CHUNK_BITS) - 1)];
+    }
+
+    private void setAddress(int handle, long address) {
+        addresses[handle >>> CHUNK_BITS][handle & ((1 << CHUNK_BITS) - 1)] = address;
+    }
+
+    private ByteBuffer buffer(long address) {
+        return classes[(int) (address >>> CLASS_SHIFT)].buffer(address & OFFSET_MASK);
+    }
+
+    private int offset(long address) {
+        return (int) (address & ((1L << slabBits) - 1));
+    }
+
+    private static int capacity(long address) {
+        return 1 << (int) (address >>> CLASS_SHIFT);
+    }
+
+    private static int recordSize(int capacity) {
+        return balanceOffset(capacity, capacity) + capacity * capacity * Double.BYTES;
+    }
+
+    private static int capacityOf(int recordSize) {
+        int capacity = 1;
+        while (recordSize(capacity) != recordSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int balanceOffset(int capacity, int slot) {
+        return HEADER + (capacity * Integer.BYTES + Double.BYTES - 1) / Double.BYTES * Double.BYTES
+                + slot * Double.BYTES;
+    }
+
+    private static int rateOffset(int capacity, int from, int to) {
+        return balanceOffset(capacity, capacity) + (from * capacity + to) * Double.BYTES;
+    }
+
+    /**
+     * Records of one size allocated in direct buffers of the slab size. Offsets are global over all buffers,
+     * a record never crosses a buffer boundary
+     */
+    private final class Slabs {
+        private final int recordSize;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile ByteBuffer[] buffers = new ByteBuffer[0];
+        private long top; // offset of the next new record
+        private long[] free = new long[16];
+        private int freeCount;
+
+        private Slabs(int recordSize) {
+            this.recordSize = recordSize;
+        }
+
+        private long allocate(int size) {
+            lock.lock();
+            try {
+                if (freeCount > 0 && size == recordSize) {
+                    return free[--freeCount];
+                }
+                final long mask = (1L << slabBits) - 1;
+                if ((top & mask) + size > mask + 1) {
+                    top = ((top >>> slabBits) + 1) << slabBits;
+                }
+                if ((top >>> slabBits) == buffers.length) {
+                    final ByteBuffer[] grown = Arrays.copyOf(buffers, buffers.length + 1);
+                    grown[buffers.length] = ByteBuffer.allocateDirect(1 << slabBits);
+                    buffers = grown;
+                }
+                final long offset = top;
+                top += size;
+                return offset;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void free(long offset) {
+            lock.lock();
+            try {
+                if (freeCount == free.length) {
+                    free = Arrays.copyOf(free, free.length * 2);
+                }
+                free[freeCount++] = offset;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ByteBuffer buffer(long offset) {
+            return buffers[(int) (offset >>> slabBits)];
+        }
+
+        private int offset(long offset) {
+            return (int) (offset & ((1L << slabBits) - 1));
+        }
+
+        private long allocated() {
+            return (long) buffers.length << slabBits;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thin {@link Wallet} view of a record of an {@link OffHeapStore}. The view holds only the store and
+ * the handle of the wallet, so views are created on demand and two views of one wallet are equal.
+ * Every operation runs under the lock of the record, an all-or-nothing batch holds it for the whole batch
+ */
+public class OffHeapWallet extends AbstractWallet {
+
+    private final OffHeapStore store;
+    private final int handle;
+
+    /**
+     * OffHeapWallet constructor
+     *
+     * @param store  store of the wallet
+     * @param handle handle of the wallet in the store
+     */
+    OffHeapWallet(final OffHeapStore store, int handle) {
+        super(false);
+        this.store = store;
+        this.handle = handle;
+    }
+
+    @Override
+    public void deposit(double amount, final String currency) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            final int slot = slotRequireNonNull(currency);
+            store.setBalance(handle, slot, store.balance(handle, slot) + amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addCurrency(final String currency) {
+        final int symbol = store.symbol(currency);
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            if (store.slot(handle, symbol) < 0) {
+                store.addCurrency(handle, symbol);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void withdraw(double amount, final String currency) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            final int slot = slotRequireNonNull(currency);
+            final double balance = store.balance(handle, slot);
+            if (balance < amount) {
+                throw notEnoughMoney();
+            }
+            store.setBalance(handle, slot, balance - amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setRate(final String currency1, final String currency2, double rate) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            final int slot1 = slotRequireNonNull(currency1);
+            final int slot2 = slotRequireNonNull(currency2);
+            store.setRate(handle, slot1, slot2, rate);
+            store.setRate(handle, slot2, slot1, 1. / rate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void convertTo(double amount, final String currency1, final String currency2) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            final int from = slotRequireNonNull(currency1);
+            final int to = slotRequireNonNull(currency2);
+            final double rate = store.rate(handle, to, from);
+            if (Double.isNaN(rate)) {
+                throw undefinedRate(currency1, currency2);
+            }
+            final double balance = store.balance(handle, from);
+            if (balance < amount) {
+                throw notEnoughMoney();
+            }
+            store.setBalance(handle, from, balance - amount);
+            store.setBalance(handle, to, store.balance(handle, to) + rate * amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void showBalance() {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            for (int slot = 0; slot < store.count(handle); slot++) {
+                printBalance(store.balance(handle, slot), store.name(store.symbolAt(handle, slot)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected String firstCurrency() {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            checkNonEmpty();
+            return store.name(store.symbolAt(handle, 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            return store.count(handle) == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clearWallet() {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            store.clear(handle);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Double getBalanceIn(final String currency) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            return store.balance(handle, slotRequireNonNull(currency));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Double getTotal(final String currency) {
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            final int target = slotRequireNonNull(currency);
+            double sum = 0;
+            for (int slot = 0; slot < store.count(handle); slot++) {
+                final double rate = store.rate(handle, slot, target);
+                if (Double.isNaN(rate)) {
+                    throw undefinedRate(currency, store.name(store.symbolAt(handle, slot)));
+                }
+                sum += store.balance(handle, slot) / rate;
+            }
+            return sum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BatchResult execute(final List<WalletOperation> operations, boolean atomic) {
+        if (!atomic) {
+            return super.execute(operations, false);
+        }
+        final ReentrantLock lock = store.lock(handle);
+        lock.lock();
+        try {
+            return super.execute(operations, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws amount of the currency from this wallet and deposits it to another wallet of the store
+     * in the target currency, converted at the rate of the other wallet or, if it does not define one,
+     * of this wallet
+     *
+     * @return amount deposited in the target currency
+     */
+    double transferTo(final OffHeapWallet to, double amount, final String currency, final String target) {
+        checkTransferAmount(amount);
+        final ReentrantLock[] locks = store.locks(handle, to.handle);
+        locks[0].lock();
+        locks[1].lock();
+        try {
+            final int source = slotRequireNonNull(currency);
+            final int destination = to.slotRequireNonNull(target);
+            double rate = Double.NaN;
+            final int currencyInTarget = to.store.slot(to.handle, store.symbolOf(currency));
+            if (currencyInTarget >= 0) {
+                rate = store.rate(to.handle, destination, currencyInTarget);
+            }
+            final int targetInSource = store.slot(handle, store.symbolOf(target));
+            if (Double.isNaN(rate) && targetInSource >= 0) {
+                rate = store.rate(handle, targetInSource, source);
+            }
+            if (Double.isNaN(rate)) {
+                throw undefinedRate(currency, target);
+            }
+            final double credited = credited(rate, amount);
+            final double balance = store.balance(handle, source);
+            if (balance < amount) {
+                throw notEnoughMoney();
+            }
+            store.setBalance(handle, source, balance - amount);
+            store.setBalance(to.handle, destination, store.balance(to.handle, destination) + credited);
+            return credited;
+        } finally {
+            locks[1].unlock();
+            locks[0].unlock();
+        }
+    }
+
+    /**
+     * Copies the record. Called by an all-or-nothing batch holding the lock of the record
+     */
+    @Override
+    protected Checkpoint checkpoint() {
+        final byte[] record = store.save(handle);
+        return () -> store.restore(handle, record);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof OffHeapWallet wallet && wallet.store == store && wallet.handle == handle;
+    }
+
+    @Override
+    public int hashCode() {
+        return handle;
+    }
+
+    private int slotRequireNonNull(final String currency) {
+        final int symbol = store.symbolOf(currency);
+        final int slot = symbol < 0 ? -1 : store.slot(handle, symbol);
+        if (slot < 0) {
+            throw noSuchCurrency(currency);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,384 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Destination of lines printed by wallets, see {@link AbstractWallet#setOutput(OutputSink)}.
+ * <p>
+ * Balances are printed as {@code new Formatter(Locale.US).format("%.2f %s", amount, currency)} followed by
+ * the line separator, and the output is the same byte for byte. Amounts are formatted by hand into a reusable
+ * buffer, only amounts close to a tie of rounding, very large amounts, infinities and NaN go to a
+ * {@link Formatter}, which rounds the shortest decimal representation of the amount half up.
+ * <p>
+ * The {@link #console() console} sink writes every line to the current {@link System#out} at once. Other sinks
+ * write UTF-8 to a stream in chunks of their capacity, either on the printing thread or, for asynchronous
+ * sinks, on a writer thread of their own, so printing blocks only when the writer falls two chunks behind.
+ * Lines reach the stream when a chunk is full, on {@link #flush()} and on {@link #close()}. A sink may be
+ * shared by wallets and threads, lines of different threads are not mixed
+ */
+public final class OutputSink implements Flushable, Closeable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int PENDING = 2; // chunks waiting for the writer of an asynchronous sink
+    private static final double MAX_FAST = 1e10; // larger amounts lose cents in amount * 100
+    private static final double TIE = 1e-3; // margin around .5 cents far beyond rounding errors of amount * 100
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final OutputSink CONSOLE = new OutputSink(null, 0, false);
+
+    private final OutputStream out; // null for the current System.out
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] buffer;
+    private int size;
+    private byte[] line = new byte[64];
+
+    private final BlockingQueue<Chunk> pending;
+    private final BlockingQueue<byte[]> free;
+    private final Thread writer;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * Chunk of output handed to the writer thread. A chunk with a latch is written, the stream is flushed
+     * and the latch is released, a chunk without bytes stops the writer
+     */
+    private record Chunk(byte[] bytes, int length, CountDownLatch flushed) {
+    }
+
+    /**
+     * Synchronous sink with a buffer of 64 KB
+     *
+     * @param out stream receiving UTF-8 lines, not closed by the sink
+     */
+    public OutputSink(final OutputStream out) {
+        this(out, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * OutputSink constructor
+     *
+     * @param out      stream receiving UTF-8 lines, not closed by the sink
+     * @param capacity size of chunks written to the stream in bytes
+     * @param async    whether chunks are written by a writer thread of the sink
+     */
+    public OutputSink(final OutputStream out, int capacity, boolean async) {
+        if (capacity < 0 || capacity == 0 && out != null) {
+            throw new IllegalArgumentException("Expected positive capacity, got " + capacity);
+        }
+        this.out = out;
+        this.capacity = capacity;
+        this.buffer = new byte[capacity];
+        if (async) {
+            pending = new ArrayBlockingQueue<>(PENDING);
+            free = new ArrayBlockingQueue<>(PENDING + 1);
+            writer = new Thread(this::write, "output-sink");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            pending = null;
+            free = null;
+            writer = null;
+        }
+    }
+
+    /**
+     * Returns the sink writing every line to the current {@link System#out} immediately, used by wallets
+     * by default
+     */
+    public static OutputSink console() {
+        return CONSOLE;
+    }
+
+    /**
+     * Prints an amount with two decimals and a currency as a line
+     *
+     * @throws UncheckedIOException if the stream failed
+     */
+    public void printBalance(double amount, final String currency) {
+        lock.lock();
+        try {
+            final int length = formatAmount(amount);
+            ensureLine(length + 1);
+            line[length] = ' ';
+            emit(appendLine(length + 1, currency));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prints a line
+     *
+     * @throws UncheckedIOException if the stream failed
+     */
+    public void println(final String text) {
+        lock.lock();
+        try {
+            emit(appendLine(0, text));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes buffered lines to the stream and flushes it, waiting for the writer of an asynchronous sink
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            if (writer == null) {
+                writeBuffer();
+                (out != null ? out : System.out).flush();
+                return;
+            }
+            final CountDownLatch flushed = new CountDownLatch(1);
+            handOff(flushed);
+            flushed.await();
+            checkFailure();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing output");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the sink and stops its writer thread. The stream is not closed, the console sink is only flushed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            flush();
+            if (writer != null) {
+                closed = true;
+                pending.put(new Chunk(null, 0, null));
+                writer.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing output");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Formats the amount as {@code %.2f} of {@link Locale#US} to the start of the line
+     *
+     * @return length of the amount
+     */
+    private int formatAmount(double amount) {
+        final double abs = Math.abs(amount);
+        final double scaled = abs * 100;
+        final double cents = Math.floor(scaled);
+        if (!(abs < MAX_FAST) || Math.abs(scaled - cents - 0.5) < TIE) {
+            return appendText(0, new Formatter(Locale.US).format("%.2f", amount).toString());
+        }
+        final long rounded = (long) cents + (scaled - cents > 0.5 ? 1 : 0);
+        int length = 0;
+        if (Double.doubleToRawLongBits(amount) < 0) {
+            line[length++] = '-'; // -0.0 and small negative amounts are printed as -0.00 as well
+        }
+        long units = rounded / 100;
+        int digits = 1;
+        for (long rest = units / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            line[i] = (byte) ('0' + units % 10);
+            units /= 10;
+        }
+        length += digits;
+        final int fraction = (int) (rounded % 100);
+        line[length++] = '.';
+        line[length++] = (byte) ('0' + fraction / 10);
+        line[length++] = (byte) ('0' + fraction % 10);
+        return length;
+    }
+
+    /**
+     * Appends the text and the line separator to the line
+     *
+     * @return length of the line
+     */
+    private int appendLine(int length, final String text) {
+        length = appendText(length, text);
+        ensureLine(length + LINE_SEPARATOR.length);
+        System.arraycopy(LINE_SEPARATOR, 0, line, length, LINE_SEPARATOR.length);
+        return length + LINE_SEPARATOR.length;
+    }
+
+    private int appendText(int length, final String text) {
+        ensureLine(length + text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x80) {
+                final byte[] bytes = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensureLine(length + bytes.length);
+                System.arraycopy(bytes, 0, line, length, bytes.length);
+                return length + bytes.length;
+            }
+            line[length++] = (byte) c;
+        }
+        return length;
+    }
+
+    private void ensureLine(int length) {
+        if (length > line.length) {
+            line = Arrays.copyOf(line, Math.max(length, 2 * line.length));
+        }
+    }
+
+    private void emit(int length) {
+        checkFailureUnchecked();
+        if (out == null) {
+            console(length);
+            return;
+        }
+        if (size + length > buffer.length) {
+            flushBuffer();
+        }
+        if (length > buffer.length) {
+            writeLine(length);
+            return;
+        }
+        System.arraycopy(line, 0, buffer, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes the line to System.out with one call, so it is not mixed with output of other threads. Lines
+     * which are not ASCII are printed as strings, encoded by the charset of System.out
+     */
+    private void console(int length) {
+        final PrintStream stdout = System.out;
+        for (int i = 0; i < length; i++) {
+            if (line[i] < 0) {
+                stdout.print(new String(line, 0, length, StandardCharsets.UTF_8));
+                stdout.flush();
+                return;
+            }
+        }
+        stdout.write(line, 0, length);
+        stdout.flush();
+    }
+
+    /**
+     * Writes a line longer than the buffer after the buffered lines, which are already written or handed off
+     */
+    private void writeLine(int length) {
+        try {
+            if (writer == null) {
+                out.write(line, 0, length);
+            } else {
+                pending.put(new Chunk(Arrays.copyOf(line, length), length, null));
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while writing output"));
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            if (writer == null) {
+                writeBuffer();
+            } else {
+                handOff(null);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while writing output"));
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (size > 0) {
+            out.write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * Passes the buffer to the writer thread and takes a free one
+     */
+    private void handOff(final CountDownLatch flushed) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Output sink is closed");
+        }
+        pending.put(new Chunk(buffer, size, flushed));
+        final byte[] next = free.poll();
+        buffer = next != null ? next : new byte[capacity];
+        size = 0;
+    }
+
+    private void write() {
+        while (true) {
+            final Chunk chunk;
+            try {
+                chunk = pending.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            if (chunk.bytes() == null) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    out.write(chunk.bytes(), 0, chunk.length());
+                    if (chunk.flushed() != null) {
+                        out.flush();
+                    }
+                }
+            } catch (final IOException e) {
+                failure = e;
+            } finally {
+                if (chunk.flushed() != null) {
+                    chunk.flushed().countDown();
+                }
+                if (chunk.bytes().length == capacity) {
+                    free.offer(chunk.bytes());
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final IOException e = failure;
+        if (e != null) {
+            throw new IOException("Output failed", e);
+        }
+    }
+
+    private void checkFailureUnchecked() {
+        final IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException("Output failed", e);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Feed of rates read from a file or from clients of a port of the local host. Every line is a tick written
+ * as the script command {@code set rate <currency 1> <currency 2> <rate>} and parsed in place by
+ * {@link CommandLine}, illegal lines are counted and skipped.
+ * <p>
+ * Ticks are coalesced for a window: a tick replaces the pending tick of the same pair of currencies in either
+ * direction, so only the last rate of a pair is published. When the window ends, pending ticks are passed to
+ * the target as one batch, for example to {@link ConcurrentWallet#setRates}, which publishes the batch as one
+ * new version of its {@link RateTable}. A wallet of a {@link RemoteBank} takes batches by
+ * {@link RemoteBank#setRates}, which also journals them. Ticks are read and batches are published by two
+ * threads of the feed, so a slow target does not stop reading
+ */
+public final class RateFeed implements Closeable {
+
+    private final long window;
+    private final Consumer<List<RateTable.Tick>> target;
+    private final Closeable source;
+    private final InetSocketAddress address;
+    private final CommandLine line = new CommandLine();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Thread reader;
+    private final Thread publisher;
+    private Map<Pair, RateTable.Tick> pending = new LinkedHashMap<>(); // guarded by lock
+    private volatile SocketChannel client;
+    private volatile boolean finished; // the source ended, ticks are not added anymore
+    private volatile long ticks; // written by the reader only
+    private volatile long errors; // written by the reader only
+    private volatile long batches; // written by the publisher only
+    private volatile long published; // written by the publisher only
+
+    /**
+     * Source of lines, which passes every channel it reads to {@link #read(ReadableByteChannel)}
+     */
+    @FunctionalInterface
+    private interface Source {
+        void read(RateFeed feed) throws IOException;
+    }
+
+    /**
+     * Pair of currencies in the order of their names, the key of coalesced ticks
+     */
+    private record Pair(String first, String second) {
+        static Pair of(final RateTable.Tick tick) {
+            return tick.currency1().compareTo(tick.currency2()) <= 0
+                    ? new Pair(tick.currency1(), tick.currency2()) : new Pair(tick.currency2(), tick.currency1());
+        }
+    }
+
+    private RateFeed(final String name, final Closeable source, final InetSocketAddress address,
+                     final Duration window, final Consumer<List<RateTable.Tick>> target, final Source read) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Expected positive window, got " + window);
+        }
+        this.window = window.toNanos();
+        this.target = target;
+        this.source = source;
+        this.address = address;
+        reader = new Thread(() -> {
+            try {
+                read.read(this);
+            } catch (final IOException e) {
+                if (!(e instanceof ClosedChannelException)) {
+                    System.err.println("Rate feed stopped: " + e.getMessage());
+                }
+            } finally {
+                finished = true;
+            }
+        }, name + "-reader");
+        publisher = new Thread(this::publish, name + "-publisher");
+        reader.setDaemon(true);
+        publisher.setDaemon(true);
+        reader.start();
+        publisher.start();
+    }
+
+    /**
+     * Reads ticks from the file until its end
+     *
+     * @param window time for which ticks are coalesced
+     * @param target consumer of batches of ticks, called by a thread of the feed
+     * @throws IOException if the file cannot be opened
+     */
+    public static RateFeed open(final Path file, final Duration window,
+                                final Consumer<List<RateTable.Tick>> target) throws IOException {
+        final FileChannel channel = FileChannel.open(file);
+        return new RateFeed("rate-feed", channel, null, window, target, feed -> feed.read(channel));
+    }
+
+    /**
+     * Reads ticks from clients connecting to the port of the local host one after another, until the feed
+     * is closed
+     *
+     * @param port   port of the loopback address or 0 for any free port, see {@link #getAddress()}
+     * @param window time for which ticks are coalesced
+     * @param target consumer of batches of ticks, called by a thread of the feed
+     * @throws IOException if the port cannot be bound
+     */
+    public static RateFeed listen(int port, final Duration window,
+                                  final Consumer<List<RateTable.Tick>> target) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (final IOException e) {
+            server.close();
+            throw e;
+        }
+        return new RateFeed("rate-feed-" + port, server, (InetSocketAddress) server.getLocalAddress(), window,
+                target, feed -> feed.accept(server));
+    }
+
+    /**
+     * Returns the address the feed listens to or null if it reads a file
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the number of ticks read
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the number of illegal lines skipped
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of batches passed to the target
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns the number of ticks passed to the target, ticks replaced by later ticks of their pairs are not
+     * passed
+     */
+    public long getPublishedTicks() {
+        return published;
+    }
+
+    /**
+     * Waits until the source ends and the last batch is passed to the target
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Stops reading and waits until the ticks read are passed to the target
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+        final SocketChannel current = client;
+        if (current != null) {
+            current.close();
+        }
+        try {
+            reader.join();
+            publisher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the rate feed");
+        }
+    }
+
+    private void accept(final ServerSocketChannel server) throws IOException {
+        while (true) {
+            try (SocketChannel accepted = server.accept()) {
+                client = accepted;
+                if (!server.isOpen()) {
+                    throw new ClosedChannelException(); // closed before the client was published
+                }
+                read(accepted);
+            } catch (final ClosedChannelException e) {
+                if (!server.isOpen()) {
+                    throw e;
+                }
+            } catch (final IOException e) {
+                System.err.println("Rate feed client failed: " + e.getMessage());
+            } finally {
+                client = null;
+            }
+        }
+    }
+
+    /**
+     * Reads lines of the channel until its end
+     */
+    private void read(final ReadableByteChannel in) throws IOException {
+        LineReader.read(in, this::tick);
+    }
+
+    /**
+     * Parses the tick in bytes {@code [from, to)} of the buffer and adds it to pending ticks. Empty lines
+     * are skipped
+     */
+    private void tick(final ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        final RateTable.Tick tick;
+        try {
+            line.parse(buffer, from, to);
+            if (line.operation != CommandLine.SET_RATE) {
+                errors++;
+                return;
+            }
+            tick = new RateTable.Tick(line.text(line.currency1), line.text(line.currency2), line.amount);
+        } catch (final WalletException e) {
+            errors++;
+            return;
+        }
+        lock.lock();
+        try {
+            pending.put(Pair.of(tick), tick);
+        } finally {
+            lock.unlock();
+        }
+        ticks++;
+    }
+
+    private void publish() {
+        try {
+            while (true) {
+                final boolean last = finished; // read before taking ticks, so the last ones are not missed
+                final Map<Pair, RateTable.Tick> batch;
+                lock.lock();
+                try {
+                    batch = pending;
+                    if (!batch.isEmpty()) {
+                        pending = new LinkedHashMap<>();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!batch.isEmpty()) {
+                    try {
+                        target.accept(new ArrayList<>(batch.values()));
+                    } catch (final RuntimeException e) {
+                        System.err.println("Rate feed target failed: " + e.getMessage());
+                    }
+                    batches++;
+                    published += batch.size();
+                }
+                if (last) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.sleep(window);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.Arrays;
+
+/**
+ * Rate engine treating rates set between currencies as edges of a graph.
+ * Currencies are dense slots (see {@link CurrencyTable}); a missing rate is derived through the path
+ * with the fewest conversions, and among paths of the same length the one found earlier is kept.
+ * All rates are kept in a dense matrix, so every lookup is one array read.
+ * <p>
+ * Paths from every currency form a tree: each pair keeps the currency preceding the target on its path,
+ * and its rate is the rate of the last edge times the rate of the preceding pair. When a rate is set between
+ * currencies which had no rate, all pairs are relaxed through the new edge in O(n<sup>2</sup>). When an existing
+ * rate changes, paths stay the same and only pairs whose path goes through the edge are multiplied again,
+ * also in O(n<sup>2</sup>), so both cases keep the same paths among ones of the same length.
+ * Every change of a derived rate is reported to the {@link Listener}
+ */
+final class RateGraph {
+
+    /**
+     * Listener of changes of derived rates
+     */
+    interface Listener {
+        /**
+         * Called when the number of currency {@code to} in one currency {@code from} changes
+         *
+         * @param oldRate previous rate, NaN if currencies were not connected
+         * @param newRate new rate
+         */
+        void rateChanged(int to, int from, double oldRate, double newRate);
+    }
+
+    private static final Listener NO_LISTENER = (to, from, oldRate, newRate) -> {
+    };
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private int stride;
+    private int size = 0;
+
+    private double[] direct; // direct[to * stride + from] is the rate set explicitly, NaN if it was not set
+    private double[] rates; // rates[to * stride + from] is the number of 'to' in one 'from', NaN if there is no path
+    private int[] hops; // hops[to * stride + from] is the number of conversions on the path
+    private int[] previous; // previous[to * stride + from] is the currency before 'to' on the path, -1 if none
+
+    // scratch space of updates, sized by stride so updates do not allocate
+    private int[] hopsToA;
+    private int[] hopsToB;
+    private int[] previousFromA;
+    private int[] previousFromB;
+    private int[] orderFromA;
+    private int[] orderFromB;
+    private int[] counts;
+    private boolean[] changed;
+
+    private final Listener listener;
+
+    /**
+     * RateGraph constructor
+     *
+     * @param capacity number of currencies the graph can hold without growing
+     * @param listener listener of changes of derived rates
+     */
+    RateGraph(int capacity, final Listener listener) {
+        this.listener = listener;
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * RateGraph constructor
+     *
+     * @param capacity number of currencies the graph can hold without growing
+     */
+    RateGraph(int capacity) {
+        this(capacity, NO_LISTENER);
+    }
+
+    private RateGraph(final RateGraph other) {
+        listener = other.listener;
+        stride = other.stride;
+        size = other.size;
+        direct = other.direct.clone();
+        rates = other.rates.clone();
+        hops = other.hops.clone();
+        previous = other.previous.clone();
+        allocateScratch(stride);
+    }
+
+    /**
+     * Creates an independent copy of this graph reporting changes to the same listener
+     */
+    RateGraph copy() {
+        return new RateGraph(this);
+    }
+
+    /**
+     * Adds a currency without rates
+     *
+     * @return slot of the added currency
+     */
+    int add() {
+        if (size == stride) {
+            grow(stride * 2);
+        }
+        final int slot = size++;
+        for (int other = 0; other < slot; other++) {
+            reset(slot * stride + other);
+            reset(other * stride + slot);
+        }
+        final int diagonal = slot * stride + slot;
+        direct[diagonal] = 1;
+        rates[diagonal] = 1;
+        hops[diagonal] = 0;
+        previous[diagonal] = -1;
+        return slot;
+    }
+
+    /**
+     * Gets the number of currency {@code to} in one currency {@code from}
+     *
+     * @return rate or NaN if currencies are not connected
+     */
+    double rate(int to, int from) {
+        return rates[to * stride + from];
+    }
+
+    /**
+     * Gets the rate set explicitly between currencies
+     *
+     * @return rate or NaN if it was not set
+     */
+    double directRate(int to, int from) {
+        return direct[to * stride + from];
+    }
+
+    /**
+     * Sets the number of currency {@code a} in one currency {@code b}, and the inverse rate
+     */
+    void setRate(int a, int b, double rate) {
+        if (a == b) {
+            return;
+        }
+        final boolean known = !Double.isNaN(direct[a * stride + b]);
+        direct[a * stride + b] = rate;
+        direct[b * stride + a] = 1. / rate;
+        if (known) {
+            recomputeThrough(a, b);
+        } else {
+            relax(a, b);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Relaxes all pairs through the new edge between a and b. A shortest path uses the new edge at most once,
+     * so paths to and from its ends are taken before the update. A pair whose path gets shorter continues
+     * the path of the pair ending before it, which is updated first, as targets are visited in the order
+     * of their distance from the end of the edge
+     */
+    private void relax(int a, int b) {
+        for (int x = 0; x < size; x++) {
+            hopsToA[x] = hops[a * stride + x];
+            hopsToB[x] = hops[b * stride + x];
+            previousFromA[x] = previous[x * stride + a];
+            previousFromB[x] = previous[x * stride + b];
+        }
+        final int reachableFromA = sortByHops(hopsToA, orderFromA);
+        final int reachableFromB = sortByHops(hopsToB, orderFromB);
+        for (int from = 0; from < size; from++) {
+            if (hopsToA[from] != UNREACHABLE) { // from -> a -> b -> to
+                for (int i = 0; i < reachableFromB; i++) {
+                    final int to = orderFromB[i];
+                    relax(to, from, hopsToA[from] + 1 + hopsToB[to], to == b ? a : previousFromB[to]);
+                }
+            }
+            if (hopsToB[from] != UNREACHABLE) { // from -> b -> a -> to
+                for (int i = 0; i < reachableFromA; i++) {
+                    final int to = orderFromA[i];
+                    relax(to, from, hopsToB[from] + 1 + hopsToA[to], to == a ? b : previousFromA[to]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the path to the pair through the preceding currency if it has fewer conversions
+     */
+    private void relax(int to, int from, int pathHops, int before) {
+        final int index = to * stride + from;
+        if (pathHops < hops[index]) {
+            final double oldRate = rates[index];
+            hops[index] = pathHops;
+            previous[index] = before;
+            rates[index] = direct[to * stride + before] * rates[before * stride + from];
+            fireRateChanged(to, from, oldRate, rates[index]);
+        }
+    }
+
+    /**
+     * Multiplies again rates of pairs whose path goes through the edge between a and b. Targets are visited
+     * in the order of their distance from the source, so the preceding pair of a path is updated first
+     */
+    private void recomputeThrough(int a, int b) {
+        for (int from = 0; from < size; from++) {
+            if (hops[a * stride + from] == UNREACHABLE) {
+                continue;
+            }
+            for (int x = 0; x < size; x++) {
+                hopsToA[x] = hops[x * stride + from];
+            }
+            final int reachable = sortByHops(hopsToA, orderFromA);
+            changed[from] = false;
+            for (int i = 1; i < reachable; i++) { // the first one is the source itself
+                final int to = orderFromA[i];
+                final int index = to * stride + from;
+                final int before = previous[index];
+                changed[to] = changed[before] || to == b && before == a || to == a && before == b;
+                if (changed[to]) {
+                    final double oldRate = rates[index];
+                    rates[index] = direct[to * stride + before] * rates[before * stride + from];
+                    fireRateChanged(to, from, oldRate, rates[index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts currencies by the number of conversions by counting
+     *
+     * @return number of sorted currencies, unreachable ones are skipped
+     */
+    private int sortByHops(final int[] hopsOf, final int[] order) {
+        Arrays.fill(counts, 0, size + 1, 0);
+        for (int x = 0; x < size; x++) {
+            if (hopsOf[x] != UNREACHABLE) {
+                counts[hopsOf[x] + 1]++;
+            }
+        }
+        for (int h = 0; h < size; h++) {
+            counts[h + 1] += counts[h];
+        }
+        for (int x = 0; x < size; x++) {
+            if (hopsOf[x] != UNREACHABLE) {
+                order[counts[hopsOf[x]]++] = x;
+            }
+        }
+        return counts[size];
+    }
+
+    private void fireRateChanged(int to, int from, double oldRate, double newRate) {
+        if (Double.doubleToLongBits(oldRate) != Double.doubleToLongBits(newRate)) {
+            listener.rateChanged(to, from, oldRate, newRate);
+        }
+    }
+
+    private void reset(int index) {
+        direct[index] = Double.NaN;
+        rates[index] = Double.NaN;
+        hops[index] = UNREACHABLE;
+        previous[index] = -1;
+    }
+
+    private void allocate(int capacity) {
+        stride = capacity;
+        direct = new double[capacity * capacity];
+        rates = new double[capacity * capacity];
+        hops = new int[capacity * capacity];
+        previous = new int[capacity * capacity];
+        allocateScratch(capacity);
+    }
+
+    private void allocateScratch(int capacity) {
+        hopsToA = new int[capacity];
+        hopsToB = new int[capacity];
+        previousFromA = new int[capacity];
+        previousFromB = new int[capacity];
+        orderFromA = new int[capacity];
+        orderFromB = new int[capacity];
+        counts = new int[capacity + 1];
+        changed = new boolean[capacity];
+    }
+
+    private void grow(int capacity) {
+        final int oldStride = stride;
+        final double[] oldDirect = direct;
+        final double[] oldRates = rates;
+        final int[] oldHops = hops;
+        final int[] oldPrevious = previous;
+        allocate(capacity);
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(oldDirect, row * oldStride, direct, row * stride, size);
+            System.arraycopy(oldRates, row * oldStride, rates, row * stride, size);
+            System.arraycopy(oldHops, row * oldStride, hops, row * stride, size);
+            System.arraycopy(oldPrevious, row * oldStride, previous, row * stride, size);
+        }
+    }
+}
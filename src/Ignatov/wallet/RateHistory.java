@@ -0,0 +1,319 @@
+package liptSoft.Ignatov.wallet;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * History of rates of pairs of currencies, which answers what the rate between currencies was at an instant.
+ * <p>
+ * Every pair has a series of ticks kept in columns of primitives: timestamps in milliseconds, rates as given
+ * and whether a rate is given from the second currency of the pair to the first one. The latest ticks of a pair
+ * are kept in plain arrays, and every {@value #BLOCK} ticks are sealed into a block of bytes, where a timestamp
+ * is the variable-length difference of its delta from the previous delta and a rate is the non-zero bytes of its
+ * XOR with the previous rate. Ticks once a minute with rates changing in the last digits take 4-8 bytes, so
+ * a month of minute ticks of a pair takes about 300 KB.
+ * <p>
+ * A lookup finds the block by binary search over the first timestamps of blocks and decodes at most one block.
+ * The history is safe for concurrent use, writers of one history are serialized
+ */
+public final class RateHistory {
+
+    private static final int BLOCK = 256;
+    private static final int INITIAL = 8;
+    private static final int MAX_TICK_BYTES = 10 + 1 + Long.BYTES; // varint of a timestamp, header and a rate
+
+    private final Clock clock;
+    private final Map<Pair, Series> series = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long ticks; // guarded by the write lock
+
+    /**
+     * Pair of currencies in the order of their names
+     */
+    private record Pair(String first, String second) {
+    }
+
+    /**
+     * History with timestamps of the system clock in UTC
+     */
+    public RateHistory() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * RateHistory constructor
+     *
+     * @param clock clock of timestamps of {@link #record(String, String, double)}
+     */
+    public RateHistory(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Records the rate from currency1 to currency2 set now, see {@link #record(String, String, double, Instant)}
+     */
+    public void record(final String currency1, final String currency2, double rate) {
+        record(currency1, currency2, rate, clock.millis());
+    }
+
+    /**
+     * Records the rate from currency1 to currency2 set at the instant, which also sets the inverse rate from
+     * currency2 to currency1. Ticks are recorded in the order of their instants, a tick earlier than the last
+     * tick of its pair is recorded at the instant of the last tick. Rates of a currency to itself are not recorded
+     *
+     * @param rate the number of units of currency1 per unit of currency2
+     */
+    public void record(final String currency1, final String currency2, double rate, final Instant at) {
+        record(currency1, currency2, rate, at.toEpochMilli());
+    }
+
+    /**
+     * Records the ticks set now as one change, see {@link #record(String, String, double, Instant)}
+     */
+    public void record(final Iterable<RateTable.Tick> ticks) {
+        final long now = clock.millis();
+        for (RateTable.Tick tick : ticks) {
+            record(tick.currency1(), tick.currency2(), tick.rate(), now);
+        }
+    }
+
+    /**
+     * Returns the rate from currency1 to currency2 set by the last tick of the pair not later than the instant
+     *
+     * @return the number of units of currency1 per unit of currency2, 1 if the currencies are the same,
+     * NaN if the rate was not set before the instant
+     */
+    public double getRate(final String currency1, final String currency2, final Instant at) {
+        if (currency1.equals(currency2)) {
+            return 1;
+        }
+        final boolean ordered = currency1.compareTo(currency2) < 0;
+        final Series pair = series.get(ordered ? new Pair(currency1, currency2) : new Pair(currency2, currency1));
+        if (pair == null) {
+            return Double.NaN;
+        }
+        lock.readLock().lock();
+        try {
+            return pair.get(at.toEpochMilli(), ordered);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of recorded ticks
+     */
+    public long getTicks() {
+        lock.readLock().lock();
+        try {
+            return ticks;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of arrays of ticks, without the objects of pairs
+     */
+    public long getBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Series pair : series.values()) {
+                bytes += pair.bytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void record(final String currency1, final String currency2, double rate, long time) {
+        if (currency1.equals(currency2)) {
+            return;
+        }
+        final boolean inverted = currency1.compareTo(currency2) > 0;
+        final Pair pair = inverted ? new Pair(currency2, currency1) : new Pair(currency1, currency2);
+        lock.writeLock().lock();
+        try {
+            series.computeIfAbsent(pair, p -> new Series()).add(time, rate, inverted);
+            ticks++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the rate in the requested direction
+     *
+     * @param inverse whether the rate is from the second currency of the pair to the first one
+     * @param ordered whether the rate is requested from the first currency of the pair to the second one
+     */
+    private static double rate(double rate, boolean inverse, boolean ordered) {
+        return inverse == ordered ? 1. / rate : rate;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Ticks of one pair: sealed blocks and the columns of the latest ticks
+     */
+    private final class Series {
+        private long[] starts = new long[0]; // block -> timestamp of its first tick
+        private byte[][] blocks = new byte[0][];
+        private int sealed;
+        private long[] times = new long[INITIAL];
+        private double[] rates = new double[INITIAL];
+        private boolean[] inverted = new boolean[INITIAL]; // whether the rate is from the second currency
+        private int size;
+        private long last = Long.MIN_VALUE;
+
+        private void add(long time, double rate, boolean inverse) {
+            if (size == BLOCK) {
+                seal();
+            }
+            if (size == times.length) {
+                final int capacity = Math.min(BLOCK, 2 * size);
+                times = Arrays.copyOf(times, capacity);
+                rates = Arrays.copyOf(rates, capacity);
+                inverted = Arrays.copyOf(inverted, capacity);
+            }
+            last = Math.max(last, time);
+            times[size] = last;
+            rates[size] = rate;
+            inverted[size] = inverse;
+            size++;
+        }
+
+        /**
+         * Returns the rate of the last tick not later than the time, from the first currency to the second
+         * if ordered, else from the second to the first
+         */
+        private double get(long time, boolean ordered) {
+            if (size > 0 && times[0] <= time) {
+                int low = 0;
+                int high = size - 1;
+                while (low < high) { // the last tick not later than the time
+                    final int middle = (low + high + 1) >>> 1;
+                    if (times[middle] <= time) {
+                        low = middle;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+                return rate(rates[low], inverted[low], ordered);
+            }
+            int block = Arrays.binarySearch(starts, 0, sealed, time);
+            if (block < 0) {
+                block = -block - 2;
+            } else {
+                while (block + 1 < sealed && starts[block + 1] == time) {
+                    block++;
+                }
+            }
+            return block < 0 ? Double.NaN : find(block, time, ordered);
+        }
+
+        /**
+         * Decodes the block until the first tick later than the time
+         */
+        private double find(int block, long time, boolean ordered) {
+            final byte[] bytes = blocks[block];
+            long current = starts[block];
+            long delta = 0;
+            long bits = 0;
+            boolean inverse = false;
+            int position = 0;
+            boolean first = true;
+            while (position < bytes.length) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                final long deltaOfDelta = unzigzag(value >>> 1);
+                final long next = first ? current : current + delta + deltaOfDelta;
+                if (next > time) {
+                    break;
+                }
+                if (!first) {
+                    delta += deltaOfDelta;
+                }
+                current = next;
+                first = false;
+                inverse = (value & 1) != 0;
+                final int header = bytes[position++] & 0xFF;
+                final int length = header & 0xF;
+                long xor = 0;
+                for (int i = 0; i < length; i++) {
+                    xor |= (bytes[position++] & 0xFFL) << (8 * i);
+                }
+                bits ^= xor << (8 * (header >>> 4));
+            }
+            return rate(Double.longBitsToDouble(bits), inverse, ordered);
+        }
+
+        /**
+         * Encodes the columns into a block and empties them
+         */
+        private void seal() {
+            final byte[] scratch = new byte[size * MAX_TICK_BYTES];
+            int position = 0;
+            long previous = times[0];
+            long delta = 0;
+            long bits = 0;
+            for (int i = 0; i < size; i++) {
+                final long current = times[i] - previous;
+                long value = zigzag(i == 0 ? 0 : current - delta) << 1 | (inverted[i] ? 1 : 0);
+                if (i > 0) {
+                    delta = current;
+                }
+                previous = times[i];
+                while ((value & ~0x7FL) != 0) {
+                    scratch[position++] = (byte) (value & 0x7F | 0x80);
+                    value >>>= 7;
+                }
+                scratch[position++] = (byte) value;
+                final long next = Double.doubleToRawLongBits(rates[i]);
+                final long xor = next ^ bits;
+                bits = next;
+                final int skipped = xor == 0 ? 0 : Long.numberOfTrailingZeros(xor) / 8;
+                final int length = xor == 0 ? 0 : Long.BYTES - Long.numberOfLeadingZeros(xor) / 8 - skipped;
+                scratch[position++] = (byte) (skipped << 4 | length);
+                for (int j = 0; j < length; j++) {
+                    scratch[position++] = (byte) (xor >>> (8 * (skipped + j)));
+                }
+            }
+            if (sealed == blocks.length) {
+                final int capacity = Math.max(4, 2 * sealed);
+                starts = Arrays.copyOf(starts, capacity);
+                blocks = Arrays.copyOf(blocks, capacity);
+            }
+            starts[sealed] = times[0];
+            blocks[sealed] = Arrays.copyOf(scratch, position);
+            sealed++;
+            size = 0;
+        }
+
+        private long bytes() {
+            long bytes = (long) starts.length * Long.BYTES + (long) times.length * (Long.BYTES + Double.BYTES + 1);
+            for (int i = 0; i < sealed; i++) {
+                bytes += blocks[i].length;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable versioned table of rates between currencies, where {@code get(currency1, currency2)} is the number
+ * of units of {@code currency1} per unit of {@code currency2}, as set by {@link Wallet#setRate}:
+ * {@code set rate dollar ruble 1:60} stores 1/60.
+ * <p>
+ * Every currency has a row of the table, indexed in the order currencies are added. Changing rates creates
+ * a new table with the next version, which copies only the index and the rows it changes and shares the other
+ * rows, which are never modified after the table is published. Readers take the table from a volatile field
+ * once and see a consistent set of rates without locking
+ */
+public final class RateTable {
+
+    /**
+     * Table without currencies
+     */
+    public static final RateTable EMPTY = new RateTable(0, Map.of(), new double[0][]);
+
+    private final long version;
+    private final Map<String, Integer> index; // currency -> row
+    private final double[][] rates; // row -> rates to currencies, NaN if undefined; rows may be shorter than index
+
+    private RateTable(long version, final Map<String, Integer> index, final double[][] rates) {
+        this.version = version;
+        this.index = index;
+        this.rates = rates;
+    }
+
+    /**
+     * Rate set by a tick of a rate feed, applied as {@code setRate(currency1, currency2, rate)}
+     *
+     * @param currency1 currency whose rate is set
+     * @param currency2 currency in which the rate is given
+     * @param rate      the number of units of currency1 per unit of currency2
+     */
+    public record Tick(String currency1, String currency2, double rate) {
+    }
+
+    /**
+     * Returns the version of the table, the number of changes since the empty table
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the number of currencies of the table
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the rate from currency1 to currency2, 1 for a currency and itself unless it was set
+     *
+     * @return the number of units of currency1 per unit of currency2 or NaN if the rate is undefined
+     */
+    public double get(final String currency1, final String currency2) {
+        final double rate = get(indexOf(currency1), indexOf(currency2));
+        return Double.isNaN(rate) && currency1.equals(currency2) ? 1 : rate;
+    }
+
+    /**
+     * Returns a table with the rates of the ticks in addition to the rates of this table. Later ticks
+     * of the same pair of currencies win
+     */
+    public RateTable with(final Collection<Tick> ticks) {
+        final Builder builder = new Builder();
+        for (Tick tick : ticks) {
+            builder.set(tick.currency1(), tick.currency2(), tick.rate());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a table with the rate from currency1 to currency2 and the inverse rate from currency2 to currency1
+     */
+    public RateTable with(final String currency1, final String currency2, double rate) {
+        final Builder builder = new Builder();
+        builder.set(currency1, currency2, rate);
+        return builder.build();
+    }
+
+    /**
+     * Returns a table with a row for the currency, which has no rates yet besides its rate to itself
+     */
+    RateTable withCurrency(final String currency) {
+        final Builder builder = new Builder();
+        builder.row(currency);
+        return builder.build();
+    }
+
+    /**
+     * Returns a table without currencies and with the next version
+     */
+    RateTable cleared() {
+        return new RateTable(version + 1, Map.of(), new double[0][]);
+    }
+
+    /**
+     * Creates a table of currencies in the order of their rows
+     *
+     * @param rates {@code rates[i][j]} is the rate of the i-th currency to the j-th one or NaN if it is undefined
+     */
+    static RateTable of(final String[] currencies, final double[][] rates) {
+        final Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < currencies.length; i++) {
+            index.put(currencies[i], i);
+        }
+        final double[][] rows = new double[currencies.length][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rates[i].clone();
+            if (Double.isNaN(rows[i][i])) {
+                rows[i][i] = 1;
+            }
+        }
+        return new RateTable(0, index, rows);
+    }
+
+    /**
+     * Returns the row of the currency or -1
+     */
+    int indexOf(final String currency) {
+        final Integer row = index.get(currency);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Returns the rate between currencies of rows, NaN if it is undefined or a row is out of the table
+     */
+    double get(int row, int column) {
+        if (row < 0 || column < 0 || row >= rates.length) {
+            return Double.NaN;
+        }
+        final double[] rates = this.rates[row];
+        return column < rates.length ? rates[column] : Double.NaN;
+    }
+
+    /**
+     * Next version of the table. Copies the index when a currency is added and every changed row once
+     */
+    private final class Builder {
+        private Map<String, Integer> index = RateTable.this.index;
+        private double[][] rates = RateTable.this.rates.clone();
+        private boolean[] copied = new boolean[rates.length];
+
+        private void set(final String currency1, final String currency2, double rate) {
+            final int row1 = row(currency1);
+            final int row2 = row(currency2);
+            writable(row1)[row2] = rate;
+            writable(row2)[row1] = 1. / rate;
+        }
+
+        private int row(final String currency) {
+            final Integer row = index.get(currency);
+            if (row != null) {
+                return row;
+            }
+            if (index == RateTable.this.index) {
+                index = new HashMap<>(index);
+            }
+            final int added = index.size();
+            index.put(currency, added);
+            rates = Arrays.copyOf(rates, added + 1);
+            copied = Arrays.copyOf(copied, added + 1);
+            writable(added)[added] = 1;
+            return added;
+        }
+
+        /**
+         * Returns a row which is not shared with published tables, as long as all currencies
+         */
+        private double[] writable(int row) {
+            final double[] current = rates[row];
+            if (current == null || !copied[row] || current.length < index.size()) {
+                final double[] copy = current == null ? new double[0] : current;
+                final double[] updated = Arrays.copyOf(copy, index.size());
+                Arrays.fill(updated, copy.length, updated.length, Double.NaN);
+                rates[row] = updated;
+                copied[row] = true;
+            }
+            return rates[row];
+        }
+
+        private RateTable build() {
+            return new RateTable(version + 1, index, rates);
+        }
+    }
+}
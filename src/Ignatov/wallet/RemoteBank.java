@@ -1,21 +1,62 @@
 package liptSoft.Ignatov.wallet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import liptSoft.Ignatov.wallet.BankMetrics.Method;
+
+import static liptSoft.Ignatov.wallet.BinaryProtocol.*;
 
 /**
- * Class implementing {@link Bank}
+ * Class implementing {@link Bank}.
+ * <p>
+ * A bank with a {@link Journal} appends every created individual, created wallet and change of a wallet
+ * to it, and a call returns after its record is durable. A new bank with the same journal replays
+ * the records, recovering the state of the bank before a restart or a crash.
+ * <p>
+ * A bank started from a {@link Snapshot} loads persons and ids of wallets only, and each wallet is read from
+ * the snapshot when it is accessed first. Records of the journal reflected by the snapshot are skipped, and
+ * writing a snapshot drops them from the journal, so recovery reads only records written since the snapshot.
+ * <p>
+ * By default wallets and persons are exported when they are created. A bank with an {@link ExportManager}
+ * exports them when clients fetch them, and the manager unexports them when they are idle.
+ * <p>
+ * Calls of the bank and its wallets are recorded to {@link BankMetrics} of the bank
  */
-public class RemoteBank implements Bank {
+public class RemoteBank implements Shard {
+    private static final int STRIPES = 1 << 10;
+
     private final int port;
-    private final ConcurrentMap<String, Set<String>> personIds = new ConcurrentHashMap<>(); // Passport -> ids
+    private final Journal journal;
+    private final Snapshot snapshot; // wallets which are not accessed yet are read from it, may be null
+    private final ExportManager exports; // exports objects fetched by clients, null if objects are exported eagerly
     private final ConcurrentMap<String, Person> persons = new ConcurrentHashMap<>(); // passport -> Person
-    private final ConcurrentMap<String, Wallet> wallets = new ConcurrentHashMap<>(); // id -> wallet
+    private final WalletIndex wallets; // id -> wallet, ordered by passport and sub id
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES]; // locks of wallets by hashes of ids
+    // read by creations of persons and wallets while they are journaled and published, written by snapshots
+    private final ReentrantReadWriteLock creations = new ReentrantReadWriteLock();
+    private final boolean follower; // applies records of the journal of a primary, rejects changes of clients
+    private final LongAdder exported = new LongAdder(); // objects exported eagerly
+    private final BankMetrics metrics;
 
     /**
      * RemoteBank constructor
@@ -23,44 +64,166 @@ public class RemoteBank implements Bank {
      */
     public RemoteBank(final int port) {
         this.port = port;
+        this.journal = null;
+        this.snapshot = null;
+        this.exports = null;
+        this.follower = false;
+        this.wallets = new WalletIndex(List.of());
+        this.metrics = new BankMetrics(wallets::size, persons::size, this::exported);
+        initStripes();
+    }
+
+    /**
+     * Creates a bank recovered from the journal, which appends all later changes to it
+     *
+     * @param port    the port where the bank accepts clients
+     * @param journal journal of the bank
+     * @throws IOException if the journal cannot be read
+     */
+    public RemoteBank(final int port, final Journal journal) throws IOException {
+        this(port, null, journal);
+    }
+
+    /**
+     * Creates a bank recovered from the snapshot and the journal, which appends all later changes to it
+     *
+     * @param port     the port where the bank accepts clients
+     * @param snapshot snapshot of the bank or null
+     * @param journal  journal of the bank or null
+     * @throws IOException if the journal cannot be read
+     */
+    public RemoteBank(final int port, final Snapshot snapshot, final Journal journal) throws IOException {
+        this(port, snapshot, journal, null);
+    }
+
+    /**
+     * Creates a bank recovered from the snapshot and the journal, which exports objects through the manager
+     *
+     * @param port     the port where the bank accepts clients
+     * @param snapshot snapshot of the bank or null
+     * @param journal  journal of the bank or null
+     * @param exports  manager exporting wallets and persons when clients fetch them, or null to export them
+     *                 when they are created
+     * @throws IOException if the journal cannot be read
+     */
+    public RemoteBank(final int port, final Snapshot snapshot, final Journal journal, final ExportManager exports)
+            throws IOException {
+        this(port, snapshot, journal, exports, false);
+    }
+
+    /**
+     * Creates a bank recovered from the snapshot and the journal
+     *
+     * @param follower whether the bank is a read-only copy of a primary bank, which receives records of
+     *                 the journal of the primary through {@link #replay(long, byte, DataInputStream)}
+     */
+    RemoteBank(final int port, final Snapshot snapshot, final Journal journal, final ExportManager exports,
+               boolean follower) throws IOException {
+        this.port = port;
+        this.follower = follower;
+        this.journal = journal;
+        this.snapshot = snapshot;
+        this.exports = exports;
+        this.wallets = new WalletIndex(snapshot == null ? List.of() : snapshot.ids());
+        this.metrics = new BankMetrics(wallets::size, persons::size, this::exported);
+        initStripes();
+        if (snapshot != null) {
+            for (String[] person : snapshot.persons()) {
+                addIndividual(person[0], person[1], person[2]);
+            }
+        }
+        if (journal != null) {
+            if (snapshot != null && journal.base() > Math.max(0, snapshot.base())) {
+                throw new IOException("Journal starts at " + journal.base() + " after the snapshot, records "
+                        + "between them are lost");
+            }
+            journal.replay(this::replay);
+            if (snapshot != null && journal.position() < snapshot.base()) {
+                journal.checkpoint(snapshot.base()); // later records follow the ones reflected by the snapshot
+            }
+        }
     }
 
     @Override
     public Wallet createWallet(String id) throws RemoteException {
-        if (Objects.isNull(id)) {
-            return null;
-        }
-        final String[] parts = id.split(":");
-        final String passport = parts[0];
-        final Wallet wallet = new WalletImpl();
-        if (wallets.putIfAbsent(id, wallet) == null) {
-            UnicastRemoteObject.exportObject(wallet, port);
-            if (personIds.putIfAbsent(passport, new ConcurrentSkipListSet<>()) != null) {
-                personIds.get(passport).add(id);
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(id)) {
+                return null;
             }
-            return wallet;
-        } else {
-            return wallets.get(id);
+            final Wallet existing = wallet(id);
+            if (existing != null) {
+                return fetch(existing);
+            }
+            checkWritable();
+            if (journal != null) {
+                // appended before the wallet is visible, so the record precedes records of its changes
+                return fetch(create(CREATE_WALLET, out -> writeString(out, id), () -> addWallet(id)));
+            }
+            return fetch(addWallet(id));
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.CREATE_WALLET, e);
+            throw e;
+        } finally {
+            metrics.record(Method.CREATE_WALLET, start);
         }
     }
 
+    private Wallet addWallet(final String id) throws RemoteException {
+        final Wallet wallet = metered(journal == null ? new ConcurrentWallet()
+                : new JournaledWallet(id, new ConcurrentWallet(), journal, stripes[stripe(id)], follower));
+        final Wallet previous = wallets.putIfAbsent(id, wallet);
+        if (previous != null) {
+            return previous;
+        }
+        export(wallet);
+        return wallet;
+    }
+
     @Override
-    public Wallet getWallet(Person person, String id) {
-        if (Objects.isNull(person) || Objects.isNull(id)) {
-            return null;
+    public Wallet getWallet(Person person, String id) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(person) || Objects.isNull(id)) {
+                return null;
+            }
+            return fetch(wallet(id));
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.GET_WALLET, e);
+            throw e;
+        } finally {
+            metrics.record(Method.GET_WALLET, start);
         }
-        return wallets.get(id);
     }
 
     @Override
     public boolean createIndividual(String name, String surname, String passport) throws RemoteException {
-        if (Objects.isNull(passport)) {
-            return false;
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(passport)) {
+                return false;
+            }
+            checkWritable();
+            if (journal != null && !persons.containsKey(passport)) {
+                return create(CREATE_INDIVIDUAL, out -> {
+                    writeString(out, name);
+                    writeString(out, surname);
+                    writeString(out, passport);
+                }, () -> addIndividual(name, surname, passport));
+            }
+            return addIndividual(name, surname, passport);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.CREATE_INDIVIDUAL, e);
+            throw e;
+        } finally {
+            metrics.record(Method.CREATE_INDIVIDUAL, start);
         }
+    }
+
+    private boolean addIndividual(String name, String surname, String passport) throws RemoteException {
         Person person = new RemotePerson(name, surname, passport);
         if (persons.putIfAbsent(passport, person) == null) {
-            UnicastRemoteObject.exportObject(person, port);
-            personIds.putIfAbsent(passport, new ConcurrentSkipListSet<>());
+            export(person);
             return true;
         }else {
             return false;
@@ -68,26 +231,471 @@ public class RemoteBank implements Bank {
     }
 
     @Override
-    public Person getIndividual(String passport) {
-        if (Objects.isNull(passport)) {
+    public Person getIndividual(String passport) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(passport)) {
+                return null;
+            }
+            final Person person = persons.get(passport);
+            return person == null || exports == null ? person : exports.export(person, Person.class);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.GET_INDIVIDUAL, e);
+            throw e;
+        } finally {
+            metrics.record(Method.GET_INDIVIDUAL, start);
+        }
+    }
+    @Override
+    public Set<String> getAllIds(Person person) throws RemoteException {
+        final List<String> ids = getAllIds(person, null, Integer.MAX_VALUE);
+        return ids == null ? null : new LinkedHashSet<>(ids);
+    }
+
+    @Override
+    public List<String> getAllIds(Person person, String after, int limit) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+                return null;
+            }
+            final String passport = person.getPassport();
+            final List<String> ids = wallets.ids(passport, after, limit);
+            return ids.isEmpty() && after == null && !persons.containsKey(passport) ? null : ids;
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.GET_ALL_IDS, e);
+            throw e;
+        } finally {
+            metrics.record(Method.GET_ALL_IDS, start);
+        }
+    }
+
+    @Override
+    public boolean isExists(Person person) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+                return false;
+            }
+            return persons.containsKey(person.getPassport());
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.IS_EXISTS, e);
+            throw e;
+        } finally {
+            metrics.record(Method.IS_EXISTS, start);
+        }
+    }
+
+    @Override
+    public BatchResult execute(String id, List<WalletOperation> operations, boolean atomic) throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(id) || Objects.isNull(operations)) {
+                return null;
+            }
+            final Wallet wallet = wallet(id);
+            return wallet == null ? null : unwrap(wallet).execute(operations, atomic);
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.EXECUTE, e);
+            throw e;
+        } finally {
+            metrics.record(Method.EXECUTE, start);
+        }
+    }
+
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency) throws RemoteException {
+        return transfer(fromId, toId, amount, currency, currency);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The transfer takes the locks of stripes of both wallets in the order of stripes, so transfers never
+     * deadlock and transfers between other wallets mostly take other stripes. A bank with a journal appends
+     * one record of the transfer, so it is recovered as a whole
+     */
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency, String targetCurrency)
+            throws RemoteException {
+        final long start = System.nanoTime();
+        try {
+            if (Objects.isNull(fromId) || Objects.isNull(toId) || Objects.isNull(currency)
+                    || Objects.isNull(targetCurrency)) {
+                return null;
+            }
+            AbstractWallet.checkTransferAmount(amount); // before any lock, so no balance is touched
+            checkWritable();
+            final Wallet from = wallet(fromId);
+            final Wallet to = wallet(toId);
+            if (from == null || to == null) {
+                return null;
+            }
+            final int stripe1 = Math.min(stripe(fromId), stripe(toId));
+            final int stripe2 = Math.max(stripe(fromId), stripe(toId));
+            final double credited;
+            final long[] position = {-1};
+            stripes[stripe1].lock();
+            stripes[stripe2].lock();
+            try {
+                // a transfer which cannot be appended is undone, so the journal never misses an applied one
+                credited = balances(from).transferTo(balances(to), amount, currency, targetCurrency, value -> {
+                    if (journal != null) {
+                        position[0] = journal.append(TRANSFER, out -> {
+                            writeString(out, fromId);
+                            writeString(out, toId);
+                            out.writeDouble(amount);
+                            writeString(out, currency);
+                            out.writeDouble(value);
+                            writeString(out, targetCurrency);
+                        });
+                    }
+                });
+            } catch (final IOException e) {
+                throw new RemoteException("Cannot write journal, the transfer is not applied", e);
+            } finally {
+                stripes[stripe2].unlock();
+                stripes[stripe1].unlock();
+            }
+            if (journal != null) {
+                try {
+                    journal.await(position[0]);
+                } catch (final IOException e) {
+                    throw new RemoteException("Cannot force journal, the transfer is applied but may be lost "
+                            + "on restart", e);
+                }
+            }
+            return credited;
+        } catch (final RemoteException | RuntimeException e) {
+            metrics.failed(Method.TRANSFER, e);
+            throw e;
+        } finally {
+            metrics.record(Method.TRANSFER, start);
+        }
+    }
+
+    /**
+     * Sets rates of the ticks in the wallet as one new version of its rates, see
+     * {@link ConcurrentWallet#setRates}. A bank with a journal appends the ticks as one record, so rates
+     * set by a {@link RateFeed} survive a restart and reach followers
+     *
+     * @return number of applied ticks or null if there is no such wallet
+     * @throws RemoteException if the bank is a follower or the journal cannot be written
+     */
+    public Integer setRates(final String id, final Collection<RateTable.Tick> ticks) throws RemoteException {
+        if (Objects.isNull(id) || Objects.isNull(ticks)) {
+            return null;
+        }
+        checkWritable();
+        final Wallet wallet = wallet(id);
+        if (wallet == null) {
             return null;
         }
-        return persons.get(passport);
+        return unwrap(wallet) instanceof JournaledWallet journaled ? journaled.setRates(ticks)
+                : balances(wallet).setRates(ticks);
     }
+
+    @Override
+    public Set<String> getPassports() {
+        final Set<String> passports = wallets.passports();
+        passports.addAll(persons.keySet());
+        return passports;
+    }
+
     @Override
-    public Set<String> getAllIds(Person person) {
-        if (Objects.isNull(person)) {
+    public Passport exportPassport(final String passport) throws RemoteException {
+        final Map<String, ConcurrentWallet.State> states = new HashMap<>();
+        for (String id : wallets.ids(passport, null, Integer.MAX_VALUE)) {
+            states.put(id, balances(wallet(id)).state());
+        }
+        final RemotePerson person = (RemotePerson) persons.get(passport);
+        if (person == null && states.isEmpty()) {
             return null;
         }
-        return personIds.get(((RemotePerson) person).getPassport());
+        return person == null ? new Passport(passport, false, null, null, states)
+                : new Passport(passport, true, person.getName(), person.getSurName(), states);
+    }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Passports are not moved to or from a bank with a journal or a snapshot
+     */
+    @Override
+    public void importPassport(final Passport passport) throws RemoteException {
+        checkMovable();
+        if (passport.individual()) {
+            addIndividual(passport.name(), passport.surname(), passport.passport());
+        }
+        for (Map.Entry<String, ConcurrentWallet.State> entry : passport.wallets().entrySet()) {
+            final Wallet wallet = metered(ConcurrentWallet.of(entry.getValue()));
+            if (wallets.putIfAbsent(entry.getKey(), wallet) == null) {
+                export(wallet);
+            }
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Passports are not moved to or from a bank with a journal or a snapshot
+     */
     @Override
-    public boolean isExists(Person person) throws RemoteException {
-        if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
-            return false;
+    public Passport removePassport(final String passport) throws RemoteException {
+        checkMovable();
+        final RemotePerson person = (RemotePerson) persons.remove(passport);
+        if (person != null) {
+            unexport(person);
+        }
+        final Map<String, ConcurrentWallet.State> states = new HashMap<>();
+        for (String id : wallets.ids(passport, null, Integer.MAX_VALUE)) {
+            final Wallet wallet = wallets.remove(id);
+            if (wallet != null) {
+                states.put(id, balances(wallet).retire());
+                unexport(wallet);
+            }
+        }
+        if (person == null && states.isEmpty()) {
+            return null;
+        }
+        return person == null ? new Passport(passport, false, null, null, states)
+                : new Passport(passport, true, person.getName(), person.getSurName(), states);
+    }
+
+    /**
+     * Writes a snapshot of the bank while it keeps serving clients. Each wallet is copied in a consistent
+     * state, but wallets are copied at different moments. Creating persons and wallets waits only while
+     * the end of the journal and the persons are taken. When the snapshot is written, the journal drops
+     * the records written before the snapshot started
+     *
+     * @param file snapshot file, replaced when the new snapshot is complete
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(final Path file) throws IOException {
+        final long base;
+        final List<String[]> people = new ArrayList<>();
+        // every record before the base is applied: changes of wallets are applied before they are appended
+        // under the locks of the wallets, created objects are published before the lock is released
+        creations.writeLock().lock();
+        try {
+            base = journal == null ? -1 : journal.position();
+            for (Person person : persons.values()) {
+                final RemotePerson remote = (RemotePerson) person;
+                people.add(new String[]{remote.getName(), remote.getSurName(), remote.getPassport()});
+            }
+        } finally {
+            creations.writeLock().unlock();
+        }
+        final Map<String, Snapshot.WalletSource> sources = new HashMap<>();
+        if (snapshot != null) {
+            for (String id : snapshot.ids()) {
+                sources.put(id, out -> {
+                    final Wallet wallet = wallets.get(id);
+                    return wallet == null ? snapshot.copy(id, out) : save(wallet, out);
+                });
+            }
+        }
+        wallets.forEach((id, wallet) -> sources.put(id, out -> save(wallet, out)));
+        Snapshot.write(file, base, people, sources);
+        if (journal != null) {
+            journal.checkpoint(base);
+        }
+    }
+
+    /**
+     * Returns metrics of calls of the bank and its wallets
+     */
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static ConcurrentWallet balances(final Wallet wallet) {
+        final Wallet unwrapped = unwrap(wallet);
+        return unwrapped instanceof JournaledWallet journaled ? journaled.wallet() : (ConcurrentWallet) unwrapped;
+    }
+
+    private Wallet metered(final Wallet wallet) {
+        return new MeteredWallet(wallet, metrics);
+    }
+
+    private static Wallet unwrap(final Wallet wallet) {
+        return wallet instanceof MeteredWallet metered ? metered.wallet() : wallet;
+    }
+
+    private static int stripe(final String id) {
+        final int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private void initStripes() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private static long save(final Wallet wallet, final DataOutputStream out) throws IOException {
+        if (unwrap(wallet) instanceof JournaledWallet journaled) {
+            return journaled.save(out);
+        }
+        Snapshot.writeWallet(out, balances(wallet).state());
+        return -1;
+    }
+
+    /**
+     * Returns a wallet, reading it from the snapshot if it is accessed first
+     *
+     * @return wallet or null if there is no such wallet
+     */
+    private Wallet wallet(final String id) throws RemoteException {
+        final Wallet wallet = wallets.get(id);
+        if (wallet != null || snapshot == null) {
+            return wallet;
+        }
+        final ConcurrentWallet loaded = snapshot.load(id);
+        if (loaded == null) {
+            return null;
+        }
+        final Wallet hydrated = metered(journal == null ? loaded : new JournaledWallet(id, loaded, journal,
+                stripes[stripe(id)], follower));
+        final Wallet previous = wallets.putIfAbsent(id, hydrated);
+        if (previous != null) {
+            return previous;
+        }
+        export(hydrated);
+        return hydrated;
+    }
+
+    /**
+     * Exports a created object unless objects are exported when clients fetch them
+     */
+    private void export(final Remote object) throws RemoteException {
+        if (exports == null) {
+            UnicastRemoteObject.exportObject(object, port);
+            exported.increment();
+        }
+    }
+
+    /**
+     * Unexports a removed object unless objects are exported when clients fetch them, then the manager
+     * unexports it when it is idle
+     */
+    private void unexport(final Remote object) {
+        if (exports == null) {
+            try {
+                UnicastRemoteObject.unexportObject(object, true);
+                exported.decrement();
+            } catch (final NoSuchObjectException e) {
+                // not exported
+            }
+        }
+    }
+
+    private long exported() {
+        return exports == null ? exported.sum() : exports.getExported();
+    }
+
+    private void checkWritable() throws RemoteException {
+        if (follower) {
+            throw new RemoteException("Follower is read-only, changes are accepted by the primary");
+        }
+    }
+
+    private void checkMovable() throws RemoteException {
+        if (journal != null || snapshot != null) {
+            throw new RemoteException("Passports of a bank with a journal or a snapshot cannot be moved");
+        }
+    }
+
+    /**
+     * Returns a wallet to a client, exporting it if objects are exported when clients fetch them
+     */
+    private Wallet fetch(final Wallet wallet) throws RemoteException {
+        return wallet == null || exports == null ? wallet : exports.export(wallet, Wallet.class);
+    }
+
+    /**
+     * Applies a record read from the journal or received from the primary
+     *
+     * @param end position of the end of the record in the journal
+     */
+    void replay(long end, byte type, final DataInputStream in) throws IOException {
+        if (snapshot != null && end <= snapshot.base()) {
+            return;
+        }
+        switch (type) {
+            case CREATE_WALLET -> {
+                final String id = readString(in);
+                if (snapshot == null || !snapshot.contains(id)) {
+                    addWallet(id);
+                }
+            }
+            case CREATE_INDIVIDUAL -> addIndividual(readString(in), readString(in), readString(in));
+            case TRANSFER -> {
+                // a snapshot may reflect the transfer in one wallet only, so each wallet is checked separately
+                final String fromId = readString(in);
+                final String toId = readString(in);
+                final double amount = in.readDouble();
+                final String currency = readString(in);
+                final double credited = in.readDouble();
+                final String targetCurrency = readString(in);
+                try {
+                    if (snapshot == null || end > snapshot.position(fromId)) {
+                        balances(journaled(fromId)).withdraw(amount, currency);
+                    }
+                    if (snapshot == null || end > snapshot.position(toId)) {
+                        balances(journaled(toId)).deposit(credited, targetCurrency);
+                    }
+                } catch (final WalletException e) {
+                    throw new IOException("Journal record of a transfer cannot be applied", e);
+                }
+            }
+            default -> {
+                final String id = readString(in);
+                if (snapshot != null && end <= snapshot.position(id)) {
+                    return;
+                }
+                journaled(id).replay(type, in);
+            }
+        }
+    }
+
+    private JournaledWallet journaled(final String id) throws IOException {
+        final Wallet wallet = wallet(id);
+        if (wallet == null) {
+            throw new IOException("Journal record of an unknown wallet");
+        }
+        return (JournaledWallet) unwrap(wallet);
+    }
+
+    /**
+     * Object published by {@link #create(byte, Encoder, Creation)}
+     */
+    @FunctionalInterface
+    private interface Creation<T> {
+        T publish() throws RemoteException;
+    }
+
+    /**
+     * Appends a record of a created object and publishes the object holding the read lock of creations,
+     * so a snapshot reflecting the record has the object, then waits until the record is durable
+     */
+    private <T> T create(byte type, final Encoder payload, final Creation<T> creation) throws RemoteException {
+        final T created;
+        final long position;
+        creations.readLock().lock();
+        try {
+            position = journal.append(type, payload);
+            created = creation.publish();
+        } catch (final IOException e) {
+            throw new RemoteException("Cannot write journal", e);
+        } finally {
+            creations.readLock().unlock();
+        }
+        try {
+            journal.await(position);
+        } catch (final IOException e) {
+            throw new RemoteException("Cannot write journal", e);
         }
-        return persons.containsKey(person.getPassport());
+        return created;
     }
-}
\ No newline at end of file
+}
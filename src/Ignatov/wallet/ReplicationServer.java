@@ -0,0 +1,145 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the {@link Journal} of a primary {@link RemoteBank} to {@link Follower} processes.
+ * <p>
+ * A follower connects and sends the position its copy of the journal ends at. The server sends frames
+ * {@code <durable end: long> <length: int> <records>} with whole records forced to the disk of the primary,
+ * so a follower never applies a change the primary may lose in a crash. A frame carries all records
+ * written since the previous one up to 64 KB, and an idle stream gets an empty frame every 100 ms, which
+ * tells the follower the end of the journal of the primary. Every follower is served by its own thread
+ */
+public final class ReplicationServer implements AutoCloseable {
+
+    private static final int MAX_BATCH = 1 << 16;
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    private final Journal journal;
+    private final ServerSocket server;
+    private final ExecutorService executor;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts accepting followers
+     *
+     * @param journal journal of the primary bank
+     * @param port    port accepting followers or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public ReplicationServer(final Journal journal, int port) throws IOException {
+        this.journal = journal;
+        server = new ServerSocket(port);
+        final AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "replication-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::accept);
+    }
+
+    /**
+     * Returns the address accepting followers
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    /**
+     * Returns the number of connected followers
+     */
+    public int getFollowers() {
+        return followers.size();
+    }
+
+    /**
+     * Stops accepting followers and disconnects them
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : followers) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                followers.add(socket);
+                executor.execute(() -> stream(socket));
+            } catch (final IOException e) {
+                // the server is closed
+            }
+        }
+    }
+
+    private void stream(final Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                    MAX_BATCH + Long.BYTES + Integer.BYTES));
+            long position = in.readLong();
+            ByteBuffer batch = ByteBuffer.allocate(MAX_BATCH);
+            while (!Thread.currentThread().isInterrupted()) {
+                final long durable = journal.awaitDurable(position, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (durable < position) {
+                    throw new IOException("Follower is ahead of the primary");
+                }
+                batch.clear().limit((int) Math.min(batch.capacity(), durable - position));
+                journal.read(position, batch);
+                int length = wholeRecords(batch);
+                if (length == 0 && batch.position() > Journal.RECORD_HEADER) {
+                    // a record longer than a batch is sent alone
+                    batch = ByteBuffer.allocate(Journal.RECORD_HEADER + batch.getInt(0));
+                    journal.read(position, batch);
+                    length = batch.position();
+                }
+                out.writeLong(durable);
+                out.writeInt(length);
+                out.write(batch.array(), 0, length);
+                out.flush();
+                position += length;
+                if (batch.capacity() > MAX_BATCH) {
+                    batch = ByteBuffer.allocate(MAX_BATCH);
+                }
+            }
+        } catch (final IOException e) {
+            // the follower disconnected
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of whole records at the start of the read bytes
+     */
+    private static int wholeRecords(final ByteBuffer batch) {
+        int end = 0;
+        while (end + Journal.RECORD_HEADER <= batch.position()
+                && end + Journal.RECORD_HEADER + batch.getInt(end) <= batch.position()) {
+            end += Journal.RECORD_HEADER + batch.getInt(end);
+        }
+        return end;
+    }
+}
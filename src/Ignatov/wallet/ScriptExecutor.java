@@ -0,0 +1,316 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor of big command scripts for {@link ArrayWallet}.
+ * <p>
+ * The script file is memory-mapped with {@link FileChannel#map} in regions cut at line ends, and every region
+ * is divided into chunks of equal size. Chunks are parsed by {@link CommandLine} on a pool of threads:
+ * each task finds the first line starting in its chunk by itself and stores parsed commands in columns,
+ * with currencies interned into a symbol table of the chunk. Only applying commands to the wallet is sequential,
+ * and it goes in the original order while the following chunks are being parsed.
+ * <p>
+ * Commands are executed as {@link ArrayWallet#start(java.nio.channels.ReadableByteChannel)} executes them:
+ * the first illegal or failed command stops the script with a {@link WalletException}, and all commands before it
+ * are applied
+ */
+public class ScriptExecutor {
+
+    private static final int MAX_REGION = 1 << 30;
+    private static final int DEFAULT_CHUNK = 1 << 22;
+
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * ScriptExecutor constructor
+     *
+     * @param threads number of threads parsing commands
+     */
+    public ScriptExecutor(int threads) {
+        this(threads, DEFAULT_CHUNK);
+    }
+
+    /**
+     * Default constructor. Commands are parsed on all available processors
+     */
+    public ScriptExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    ScriptExecutor(int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Number of threads and size of chunks should be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Executes commands of the script on the wallet
+     *
+     * @param wallet wallet which executes commands
+     * @param script file with commands in UTF-8, one per line
+     * @return time spent on every stage
+     * @throws WalletException if a command fails or the file cannot be read
+     */
+    public Report execute(final ArrayWallet wallet, final Path script) {
+        final long start = System.nanoTime();
+        final LongAdder parseNanos = new LongAdder();
+        final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        final int window = threads * 2;
+        long mapNanos = 0;
+        long applyNanos = 0;
+        long stallNanos = 0;
+        long commands = 0;
+        long bytes = 0;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "script-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            MappedByteBuffer region = null;
+            int limit = 0;
+            int from = 0;
+            while (true) {
+                while (pending.size() < window) {
+                    if (from == limit) {
+                        if (position == size) {
+                            break;
+                        }
+                        final long mapStart = System.nanoTime();
+                        region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                Math.min(size - position, MAX_REGION));
+                        limit = position + region.capacity() == size ? region.capacity() : cut(region);
+                        position += limit;
+                        bytes += limit;
+                        from = 0;
+                        mapNanos += System.nanoTime() - mapStart;
+                    }
+                    final ByteBuffer chunkRegion = region;
+                    final int chunkFrom = from;
+                    final int chunkTo = (int) Math.min(limit, (long) from + chunkSize);
+                    final int chunkLimit = limit;
+                    pending.add(pool.submit(() -> parse(chunkRegion, chunkFrom, chunkTo, chunkLimit, parseNanos)));
+                    from = chunkTo;
+                }
+                final Future<Chunk> next = pending.poll();
+                if (next == null) {
+                    break;
+                }
+                final long waitStart = System.nanoTime();
+                final Chunk chunk = next.get();
+                final long applyStart = System.nanoTime();
+                stallNanos += applyStart - waitStart;
+                try {
+                    commands += chunk.apply(wallet);
+                } finally {
+                    applyNanos += System.nanoTime() - applyStart;
+                }
+            }
+        } catch (IOException e) {
+            throw new WalletException("Cannot read commands. " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalletException("Cannot read commands. Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new WalletException("Cannot read commands. " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Report(bytes, commands, threads, mapNanos, parseNanos.sum(), applyNanos, stallNanos,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Finds the end of the last complete line of a region which is not the end of the file
+     */
+    private static int cut(final ByteBuffer region) {
+        for (int i = region.capacity() - 1; i >= 0; i--) {
+            final byte b = region.get(i);
+            // '\r' at the end of a region may be the first half of "\r\n"
+            if (b == '\n' || b == '\r' && i + 1 < region.capacity()) {
+                return i + 1;
+            }
+        }
+        throw new WalletException("Cannot read commands. Line is longer than " + MAX_REGION + " bytes");
+    }
+
+    /**
+     * Parses lines starting in bytes {@code [from, to)} of the region. The last line may end after {@code to}
+     */
+    private static Chunk parse(final ByteBuffer region, int from, int to, int limit, final LongAdder nanos) {
+        final long start = System.nanoTime();
+        final Chunk chunk = new Chunk(to - from);
+        final CommandLine line = new CommandLine();
+        int lineStart = from;
+        while (lineStart > 0 && lineStart < limit && !isLineStart(region, lineStart, limit)) {
+            lineStart++;
+        }
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && region.get(lineEnd) != '\n' && region.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            try {
+                line.parse(region, lineStart, lineEnd);
+            } catch (WalletException e) {
+                chunk.error = e;
+                break;
+            }
+            chunk.add(line, region);
+            lineStart = lineEnd + 1;
+            if (lineEnd + 1 < limit && region.get(lineEnd) == '\r' && region.get(lineEnd + 1) == '\n') {
+                lineStart++;
+            }
+        }
+        nanos.add(System.nanoTime() - start);
+        return chunk;
+    }
+
+    private static boolean isLineStart(final ByteBuffer region, int position, int limit) {
+        final byte previous = region.get(position - 1);
+        return previous == '\n' || previous == '\r' && (position == limit || region.get(position) != '\n');
+    }
+
+    /**
+     * Commands of one chunk in columns. Currencies are numbers in the symbol table of the chunk
+     */
+    private static final class Chunk implements CommandReader.Currencies {
+        private final CurrencyTable symbols = new CurrencyTable();
+        private int[] operations;
+        private double[] amounts;
+        private int[] currencies1;
+        private int[] currencies2;
+        private int size = 0;
+        private WalletException error; // error of the command after the last parsed one
+        private ArrayWallet wallet;
+        private int[] slots; // symbol -> slot in the wallet, -1 if not resolved yet
+
+        private Chunk(int bytes) {
+            final int capacity = Math.max(16, bytes / 24);
+            operations = new int[capacity];
+            amounts = new double[capacity];
+            currencies1 = new int[capacity];
+            currencies2 = new int[capacity];
+        }
+
+        private void add(final CommandLine line, final ByteBuffer region) {
+            if (size == operations.length) {
+                final int capacity = size * 2;
+                operations = Arrays.copyOf(operations, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                currencies1 = Arrays.copyOf(currencies1, capacity);
+                currencies2 = Arrays.copyOf(currencies2, capacity);
+            }
+            operations[size] = line.operation;
+            amounts[size] = line.amount;
+            currencies1[size] = symbol(line, line.currency1, region);
+            currencies2[size] = symbol(line, line.currency2, region);
+            size++;
+        }
+
+        private int symbol(final CommandLine line, int token, final ByteBuffer region) {
+            if (token == CommandLine.FIRST_CURRENCY) {
+                return CommandLine.FIRST_CURRENCY;
+            }
+            final int symbol = symbols.slotOf(region, line.start(token), line.end(token));
+            return symbol >= 0 ? symbol : symbols.add(line.text(token));
+        }
+
+        /**
+         * Applies commands to the wallet in order
+         *
+         * @return number of applied commands
+         * @throws WalletException if a command fails
+         */
+        private int apply(final ArrayWallet wallet) {
+            this.wallet = wallet;
+            slots = new int[symbols.size()];
+            Arrays.fill(slots, -1);
+            for (int i = 0; i < size; i++) {
+                CommandReader.execute(wallet, operations[i], amounts[i], currencies1[i], currencies2[i], this);
+            }
+            if (error != null) {
+                throw error;
+            }
+            return size;
+        }
+
+        @Override
+        public int slot(int symbol) {
+            if (slots[symbol] < 0) {
+                slots[symbol] = wallet.slotOf(symbols.name(symbol));
+            }
+            return slots[symbol];
+        }
+
+        @Override
+        public String name(int symbol) {
+            return symbols.name(symbol);
+        }
+    }
+
+    /**
+     * Time spent on stages of a script. Parsing runs on several threads, so its time is the sum over all of them;
+     * stall time is how long applying waited for parsing
+     */
+    public record Report(long bytes, long commands, int threads, long mapNanos, long parseNanos,
+                         long applyNanos, long stallNanos, long wallNanos) {
+
+        /**
+         * Gets the number of megabytes parsed per second by one thread
+         */
+        public double parseMegabytesPerSecond() {
+            return perSecond(bytes / 1e6, parseNanos);
+        }
+
+        /**
+         * Gets the number of commands applied per second
+         */
+        public double applyCommandsPerSecond() {
+            return perSecond(commands, applyNanos);
+        }
+
+        /**
+         * Gets the number of megabytes of the script executed per second
+         */
+        public double megabytesPerSecond() {
+            return perSecond(bytes / 1e6, wallNanos);
+        }
+
+        private static double perSecond(double amount, long nanos) {
+            return nanos == 0 ? 0 : amount * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d bytes, %d commands in %.1f ms (%.1f MB/s): "
+                            + "map %.1f ms, parse %.1f MB/s per thread on %d threads, apply %.0f commands/s, "
+                            + "stalled %.1f ms",
+                    bytes, commands, wallNanos / 1e6, megabytesPerSecond(), mapNanos / 1e6,
+                    parseMegabytesPerSecond(), threads, applyCommandsPerSecond(), stallNanos / 1e6);
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package liptSoft.Ignatov.wallet;
 
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import javax.management.JMException;
 /**
  * @author Ignatov Nikolay ({@link <a href="https://github.com/nikolyanikolya?tab=repositories"> github </a>})
  */
 public class Server {
     private static final int DEFAULT_PORT = 8888;
+    private static final int BINARY_PORT = 8889;
     private static final String URL = "//localhost:" + DEFAULT_PORT + "/bank";
     /**
      Utility class
@@ -18,17 +22,50 @@ public class Server {
     private Server() {
 
     }
+    /**
+     * Starts the bank with RMI and binary protocol front ends
+     *
+     * @param args optional execution mode of binary protocol requests: platform (default) or virtual,
+     *             optional journal file, which the bank is recovered from and writes its changes to,
+     *             and optional port streaming the journal to {@link Follower followers}
+     */
     public static void main(final String... args) {
-        final Bank bank = new RemoteBank(DEFAULT_PORT);
+        final ExecutionMode mode;
+        final int replicationPort;
+        try {
+            mode = args == null || args.length == 0 || args[0] == null
+                    ? ExecutionMode.PLATFORM : ExecutionMode.parse(args[0]);
+            replicationPort = args != null && args.length > 2 && args[2] != null ? Integer.parseInt(args[2]) : -1;
+        } catch (final IllegalArgumentException e) {
+            System.err.println("Illegal arguments. Usage: Server [platform|virtual] [journal file] "
+                    + "[replication port]");
+            return;
+        }
         try {
             LocateRegistry.createRegistry(DEFAULT_PORT);
+            final Journal journal = args != null && args.length > 1 && args[1] != null
+                    ? new Journal(Path.of(args[1])) : null;
+            final RemoteBank bank = journal != null
+                    ? new RemoteBank(DEFAULT_PORT, journal) : new RemoteBank(DEFAULT_PORT);
             UnicastRemoteObject.exportObject(bank, DEFAULT_PORT);
             Naming.rebind(URL, bank);
-            System.out.println("Server started");
+            new BinaryBankServer(bank, BINARY_PORT, mode.newExecutor());
+            if (journal != null && replicationPort >= 0) {
+                final ReplicationServer replication = new ReplicationServer(journal, replicationPort);
+                System.out.println("Replication started on port " + replication.getAddress().getPort());
+            }
+            System.out.println("Metrics registered as " + bank.getMetrics().register("bank"));
+            System.out.println("Server started, binary protocol requests run on " + mode.name().toLowerCase()
+                    + (mode == ExecutionMode.VIRTUAL && !ExecutionMode.isVirtualSupported()
+                    ? " (not supported by this JDK, the platform pool is used)" : "") + " threads");
         } catch (final RemoteException e) {
             System.err.println("Cannot export object: " + e.getMessage());
         } catch (final MalformedURLException e) {
             System.err.println("Malformed URL. " + e.getMessage());
+        } catch (final IOException e) {
+            System.err.println("Cannot start the bank: " + e.getMessage());
+        } catch (final JMException e) {
+            System.err.println("Cannot register metrics: " + e.getMessage());
         }
     }
 }
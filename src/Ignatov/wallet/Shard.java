@@ -0,0 +1,64 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link Bank} owning a slice of passports of a sharded bank. Passports are moved between shards
+ * by {@link ShardedBank#reshard(HashRing)}
+ */
+public interface Shard extends Bank {
+
+    /**
+     * Person and wallets of a passport moved between shards
+     *
+     * @param passport   passport
+     * @param individual whether the bank has a person with the passport, wallets may be created before it
+     * @param name       name of the person or null
+     * @param surname    surname of the person or null
+     * @param wallets    states of wallets by ids
+     */
+    record Passport(String passport, boolean individual, String name, String surname,
+                    Map<String, ConcurrentWallet.State> wallets) implements Serializable {
+    }
+
+    /**
+     * gets passports of all persons and wallets at the bank
+     *
+     * @return passports
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+    Set<String> getPassports() throws RemoteException;
+
+    /**
+     * Copies the person and wallets of the passport. Each wallet is copied in a consistent state
+     *
+     * @param passport passport
+     * @return copy or null if the bank has neither a person nor wallets with the passport
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+    Passport exportPassport(String passport) throws RemoteException;
+
+    /**
+     * Adds the person and wallets of a passport copied from another shard. Existing wallets are kept
+     *
+     * @param passport copy of the passport
+     * @throws RemoteException when errors occurred while executing interface methods or the bank does not
+     *                         support moving passports
+     */
+    void importPassport(Passport passport) throws RemoteException;
+
+    /**
+     * Removes the person and wallets of the passport and returns them as they were removed. Every change
+     * of the wallets running meanwhile is either in the returned copy or fails, as later calls to the removed
+     * wallets do, with a {@link WalletException} of reason {@link WalletException.Reason#MOVED}
+     *
+     * @param passport passport
+     * @return copy or null if the bank has neither a person nor wallets with the passport
+     * @throws RemoteException when errors occurred while executing interface methods or the bank does not
+     *                         support moving passports
+     */
+    Passport removePassport(String passport) throws RemoteException;
+}
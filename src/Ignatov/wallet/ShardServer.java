@@ -0,0 +1,59 @@
+package liptSoft.Ignatov.wallet;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Starts shards of a sharded bank, each with its own registry on consecutive ports of the host.
+ * Shards of one host may run in one process or in several processes with different first ports,
+ * clients reach them through a {@link ShardedBank} with a {@link HashRing} of their URLs
+ */
+public class ShardServer {
+    private static final int DEFAULT_PORT = 8888;
+
+    /**
+     * Utility class
+     */
+    private ShardServer() {
+    }
+
+    /**
+     * Returns URL of the shard with a registry on the port of the local host
+     */
+    public static String url(int port) {
+        return "//localhost:" + port + "/bank";
+    }
+
+    /**
+     * Starts shards and prints their URLs
+     *
+     * @param args number of shards and optional port of the first shard, 8888 by default
+     */
+    public static void main(final String... args) {
+        final int shards;
+        final int firstPort;
+        try {
+            shards = Integer.parseInt(args[0]);
+            firstPort = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        } catch (final ArrayIndexOutOfBoundsException | NullPointerException | NumberFormatException e) {
+            System.err.println("Illegal arguments. Usage: ShardServer <number of shards> [first port]");
+            return;
+        }
+        try {
+            for (int port = firstPort; port < firstPort + shards; port++) {
+                LocateRegistry.createRegistry(port);
+                final Shard shard = new RemoteBank(port);
+                UnicastRemoteObject.exportObject(shard, port);
+                Naming.rebind(url(port), shard);
+                System.out.println("Shard started " + url(port));
+            }
+        } catch (final RemoteException e) {
+            System.err.println("Cannot export object: " + e.getMessage());
+        } catch (final MalformedURLException e) {
+            System.err.println("Malformed URL. " + e.getMessage());
+        }
+    }
+}
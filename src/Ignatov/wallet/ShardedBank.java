@@ -0,0 +1,342 @@
+package liptSoft.Ignatov.wallet;
+
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link Bank} client routing calls to shards, banks owning slices of passports assigned by a {@link HashRing}
+ * of their RMI URLs. A call with a passport or a wallet id goes to the shard of the passport, wallets and
+ * persons are remote objects of that shard, so later calls to them go to it directly.
+ * <p>
+ * Stubs of shards are looked up once and cached. A stub of a restarted shard is looked up again
+ * <p>
+ * Calls with a passport hold the read lock of a stripe of passports, which resharding holds in write mode
+ * while it moves a passport, so routed calls wait for the move and then go to the new shard
+ */
+public class ShardedBank implements Bank {
+
+    private static final int STRIPES = 64; // power of two
+
+    private volatile HashRing ring;
+    private volatile HashRing next; // ring of the resharding in progress or null
+    private final Set<String> pending = ConcurrentHashMap.newKeySet(); // passports still to move by next
+    private final ConcurrentMap<String, Shard> stubs = new ConcurrentHashMap<>(); // URL -> shard
+    private final ReadWriteLock[] stripes = new ReadWriteLock[STRIPES];
+
+    /**
+     * ShardedBank constructor
+     *
+     * @param ring ring of URLs of shards
+     */
+    public ShardedBank(final HashRing ring) {
+        this.ring = ring;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Call of a shard
+     */
+    @FunctionalInterface
+    private interface ShardCall<T> {
+        T call(Shard shard) throws RemoteException;
+    }
+
+    @Override
+    public Wallet createWallet(String id) throws RemoteException {
+        if (Objects.isNull(id)) {
+            return null;
+        }
+        return route(WalletIndex.passport(id), shard -> shard.createWallet(id));
+    }
+
+    @Override
+    public Wallet getWallet(Person person, String id) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(id)) {
+            return null;
+        }
+        return route(WalletIndex.passport(id), shard -> shard.getWallet(person, id));
+    }
+
+    @Override
+    public boolean createIndividual(String name, String surname, String passport) throws RemoteException {
+        if (Objects.isNull(passport)) {
+            return false;
+        }
+        return route(passport, shard -> shard.createIndividual(name, surname, passport));
+    }
+
+    @Override
+    public Person getIndividual(String passport) throws RemoteException {
+        if (Objects.isNull(passport)) {
+            return null;
+        }
+        return route(passport, shard -> shard.getIndividual(passport));
+    }
+
+    @Override
+    public Set<String> getAllIds(Person person) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+            return null;
+        }
+        return route(person.getPassport(), shard -> shard.getAllIds(person));
+    }
+
+    @Override
+    public List<String> getAllIds(Person person, String after, int limit) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+            return null;
+        }
+        return route(person.getPassport(), shard -> shard.getAllIds(person, after, limit));
+    }
+
+    @Override
+    public boolean isExists(Person person) throws RemoteException {
+        if (Objects.isNull(person) || Objects.isNull(person.getPassport())) {
+            return false;
+        }
+        return route(person.getPassport(), shard -> shard.isExists(person));
+    }
+
+    @Override
+    public BatchResult execute(String id, List<WalletOperation> operations, boolean atomic)
+            throws RemoteException {
+        if (Objects.isNull(id) || Objects.isNull(operations)) {
+            return null;
+        }
+        return route(WalletIndex.passport(id), shard -> shard.execute(id, operations, atomic));
+    }
+
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency) throws RemoteException {
+        return transfer(fromId, toId, amount, currency, currency);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A transfer between wallets of one shard is done by the shard. A transfer between shards withdraws
+     * the amount from the source wallet and deposits it to the target one, so it is not isolated from other
+     * calls and converts no currencies. The amount is returned to the source wallet only if the deposit
+     * certainly did not run: it was refused by the target wallet or the target shard was not reached.
+     * Otherwise the call fails with a {@link RemoteException} reporting an unknown outcome
+     */
+    @Override
+    public Double transfer(String fromId, String toId, double amount, String currency, String targetCurrency)
+            throws RemoteException {
+        if (Objects.isNull(fromId) || Objects.isNull(toId) || Objects.isNull(currency)
+                || Objects.isNull(targetCurrency)) {
+            return null;
+        }
+        // a wallet moved meanwhile fails the transfer of its old shard with reason MOVED, without changes
+        final String source = ownerOf(WalletIndex.passport(fromId));
+        final String target = ownerOf(WalletIndex.passport(toId));
+        if (source.equals(target)) {
+            return route(WalletIndex.passport(fromId),
+                    shard -> shard.transfer(fromId, toId, amount, currency, targetCurrency));
+        }
+        if (!currency.equals(targetCurrency)) {
+            throw new WalletException(String.format("Expected the same currency of a transfer between shards, "
+                    + "got %s and %s", currency, targetCurrency));
+        }
+        final Boolean checked = apply(toId, WalletOperation.getBalance(currency));
+        if (checked == null) {
+            return null;
+        }
+        final Boolean withdrawn = apply(fromId, WalletOperation.withdraw(amount, currency));
+        if (withdrawn == null) {
+            return null;
+        }
+        try {
+            final Boolean deposited = apply(toId, WalletOperation.deposit(amount, currency));
+            if (deposited == null) {
+                throw new WalletException("Expected that wallet " + toId + " is in a bank");
+            }
+        } catch (final ConnectException | NoSuchObjectException | WalletException e) {
+            refund(fromId, amount, currency, e);
+            throw e;
+        } catch (final RemoteException | RuntimeException e) {
+            throw new RemoteException(String.format("Unknown outcome of the deposit of %s %s to %s, "
+                    + "the amount is withdrawn from %s", amount, currency, toId, fromId), e);
+        }
+        return amount;
+    }
+
+    /**
+     * Returns the amount of a transfer between shards to the source wallet after the deposit failed.
+     * A failed refund is attached to the failure of the deposit, which the caller throws
+     */
+    private void refund(final String fromId, double amount, final String currency, final Exception failure) {
+        try {
+            if (apply(fromId, WalletOperation.deposit(amount, currency)) == null) {
+                failure.addSuppressed(new WalletException("Cannot refund, wallet " + fromId + " is removed"));
+            }
+        } catch (final RemoteException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Returns the ring of URLs of shards
+     */
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Moves passports to the shards owning them by the new ring and routes later calls by it. Only passports
+     * whose shard changes are moved, about {@code 1 / shards} of all passports when a shard is added.
+     * Passports to move are listed while routed calls wait, later calls of other passports go to the new ring.
+     * A passport is removed from its old shard and then imported by the new one, while calls routed to it
+     * wait. Changes made meanwhile through wallets of the old shard are either moved or fail with reason
+     * {@link WalletException.Reason#MOVED}, then the wallet is fetched from the bank again.
+     * Resharding is not run concurrently with another resharding
+     *
+     * @param target new ring, which may add and remove shards
+     * @return number of moved passports
+     * @throws RemoteException if a shard cannot be reached or does not support moving passports
+     */
+    public int reshard(final HashRing target) throws RemoteException {
+        final Map<String, String> sources = new HashMap<>(); // passport -> URL of its old shard
+        for (ReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        try {
+            for (String url : ring.getShards()) {
+                for (String passport : shard(url).getPassports()) {
+                    if (!target.shardOf(passport).equals(url)) {
+                        sources.put(passport, url);
+                    }
+                }
+            }
+            pending.addAll(sources.keySet());
+            next = target;
+        } finally {
+            for (ReadWriteLock stripe : stripes) {
+                stripe.writeLock().unlock();
+            }
+        }
+        int count = 0;
+        try {
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                final String passport = entry.getKey();
+                final Lock lock = stripes[stripe(passport)].writeLock();
+                lock.lock();
+                try {
+                    if (move(passport, shard(entry.getValue()), shard(target.shardOf(passport)))) {
+                        count++;
+                    }
+                    pending.remove(passport);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            ring = target;
+        } finally {
+            next = null;
+            pending.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Moves the passport between shards. If the new shard fails to import it, it is imported back
+     *
+     * @return whether the old shard had the passport
+     */
+    private static boolean move(final String passport, final Shard source, final Shard target)
+            throws RemoteException {
+        final Shard.Passport removed = source.removePassport(passport);
+        if (removed == null) {
+            return false;
+        }
+        try {
+            target.importPassport(removed);
+        } catch (final RemoteException | RuntimeException e) {
+            try {
+                source.importPassport(removed);
+            } catch (final RemoteException | RuntimeException restore) {
+                e.addSuppressed(restore);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Applies an operation to a wallet
+     *
+     * @return true or null if there is no such wallet
+     * @throws WalletException if the operation fails
+     */
+    private Boolean apply(final String id, final WalletOperation operation) throws RemoteException {
+        final BatchResult result = execute(id, List.of(operation), false);
+        if (result == null) {
+            return null;
+        }
+        result.checkSuccessful(0);
+        return true;
+    }
+
+    /**
+     * Calls the shard of the passport. If its cached stub is stale, because the shard was restarted,
+     * the stub is looked up again and the call is repeated
+     */
+    private <T> T route(final String passport, final ShardCall<T> call) throws RemoteException {
+        final Lock lock = stripes[stripe(passport)].readLock();
+        lock.lock();
+        try {
+            final String url = ownerOf(passport);
+            try {
+                return call.call(shard(url));
+            } catch (final NoSuchObjectException | ConnectException e) {
+                stubs.remove(url);
+                return call.call(shard(url));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the URL of the shard owning the passport. While resharding, only passports still to move
+     * are owned by shards of the old ring
+     */
+    private String ownerOf(final String passport) {
+        final HashRing upcoming = next;
+        return upcoming != null && !pending.contains(passport) ? upcoming.shardOf(passport) : ring.shardOf(passport);
+    }
+
+    private static int stripe(final String passport) {
+        final int hash = passport.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private Shard shard(final String url) throws RemoteException {
+        Shard shard = stubs.get(url);
+        if (shard == null) {
+            try {
+                shard = (Shard) Naming.lookup(url);
+            } catch (final NotBoundException | MalformedURLException e) {
+                throw new RemoteException("Cannot find shard " + url, e);
+            }
+            stubs.put(url, shard);
+        }
+        return shard;
+    }
+}
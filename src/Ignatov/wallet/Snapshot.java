@@ -0,0 +1,270 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Point-in-time snapshot of a {@link RemoteBank} in a flat binary file, which is loaded through
+ * a {@link java.nio.MappedByteBuffer}.
+ * <p>
+ * The file is
+ * <pre>
+ * magic, version, journal base
+ * number of persons, (name, surname, passport)...
+ * wallet records: (number of currencies n, n currencies, n balances, n * n rates)...
+ * index: number of wallets, (id, record offset, record length, journal position)...
+ * offset of the index, magic
+ * </pre>
+ * Strings are a length, -1 for null, and UTF-8 bytes; rates of a wallet are its rate matrix by rows,
+ * NaN for undefined rates. Opening a snapshot reads persons and the index only, wallet records are read
+ * when the bank first accesses the wallet, so startup time depends on the size of the index.
+ * <p>
+ * Wallets are copied one by one while the bank keeps working. The journal position of a wallet is the end of
+ * the last journal record reflected by its copy, so a bank recovered from the snapshot and the journal skips
+ * these records and replays later ones. The journal base is the end of the journal when the snapshot started,
+ * all records up to it are reflected by the snapshot, so the journal drops them after the snapshot is written,
+ * see {@link Journal#checkpoint(long)}. Files larger than 2 GB are not supported
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x57534e50;
+    private static final int VERSION = 3;
+    private static final int TRAILER = Long.BYTES + Integer.BYTES;
+
+    private final ByteBuffer data;
+    private final long base;
+    private final List<String[]> persons = new ArrayList<>(); // name, surname, passport
+    private final Map<String, Entry> index = new HashMap<>(); // id -> wallet record
+
+    /**
+     * Position of a wallet record in the file
+     */
+    private record Entry(int offset, int length, long position) {
+    }
+
+    /**
+     * Opens a snapshot reading persons and the index of wallets
+     *
+     * @param file file written by {@link RemoteBank#writeSnapshot(Path)}
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public Snapshot(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is larger than 2 GB: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.limit() < 2 * Integer.BYTES + Long.BYTES + TRAILER || data.getInt(0) != MAGIC
+                || data.getInt(data.limit() - Integer.BYTES) != MAGIC) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        if (data.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + data.getInt(Integer.BYTES));
+        }
+        try {
+            final ByteBuffer in = data.duplicate().position(2 * Integer.BYTES);
+            base = in.getLong();
+            for (int i = in.getInt(); i > 0; i--) {
+                persons.add(new String[]{readString(in), readString(in), readString(in)});
+            }
+            in.position((int) data.getLong(data.limit() - TRAILER));
+            for (int i = in.getInt(); i > 0; i--) {
+                index.put(readString(in), new Entry(in.getInt(), in.getInt(), in.getLong()));
+            }
+        } catch (final RuntimeException e) {
+            throw new IOException("Corrupted snapshot: " + file, e);
+        }
+    }
+
+    /**
+     * Returns the end of the journal records all reflected by the snapshot, or -1 if the bank had no journal
+     */
+    long base() {
+        return base;
+    }
+
+    /**
+     * Returns persons as arrays of name, surname and passport
+     */
+    List<String[]> persons() {
+        return persons;
+    }
+
+    /**
+     * Returns ids of all wallets
+     */
+    Set<String> ids() {
+        return index.keySet();
+    }
+
+    /**
+     * Checks whether the snapshot has a wallet
+     */
+    boolean contains(final String id) {
+        return index.containsKey(id);
+    }
+
+    /**
+     * Returns the end of the last journal record reflected by the wallet, or -1 if it was not journaled
+     */
+    long position(final String id) {
+        final Entry entry = index.get(id);
+        return entry == null ? -1 : entry.position();
+    }
+
+    /**
+     * Reads a wallet from the file
+     *
+     * @return wallet or null if there is no such wallet
+     */
+    ConcurrentWallet load(final String id) {
+        final Entry entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        final ByteBuffer in = data.slice(entry.offset(), entry.length());
+        final int size = in.getInt();
+        final String[] currencies = new String[size];
+        for (int i = 0; i < size; i++) {
+            currencies[i] = readString(in);
+        }
+        final double[] balances = new double[size];
+        in.asDoubleBuffer().get(balances);
+        in.position(in.position() + size * Double.BYTES);
+        final double[][] rates = new double[size][size];
+        for (double[] row : rates) {
+            in.asDoubleBuffer().get(row);
+            in.position(in.position() + size * Double.BYTES);
+        }
+        return ConcurrentWallet.of(new ConcurrentWallet.State(currencies, balances, rates));
+    }
+
+    /**
+     * Source of the state of a wallet and the journal position it reflects
+     */
+    @FunctionalInterface
+    interface WalletSource {
+        long write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, forces it to the disk and moves it to the target, so an existing
+     * snapshot is replaced only by a complete one
+     *
+     * @param base    end of the journal records all reflected by the snapshot or -1
+     * @param persons persons as arrays of name, surname and passport
+     * @param wallets wallets by ids
+     */
+    static void write(final Path file, long base, final Collection<String[]> persons,
+                      final Map<String, WalletSource> wallets) throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(base);
+            out.writeInt(persons.size());
+            for (String[] person : persons) {
+                for (String field : person) {
+                    writeString(out, field);
+                }
+            }
+            final Map<String, Entry> entries = new HashMap<>();
+            for (Map.Entry<String, WalletSource> wallet : wallets.entrySet()) {
+                final int offset = size(out);
+                final long position = wallet.getValue().write(out);
+                entries.put(wallet.getKey(), new Entry(offset, size(out) - offset, position));
+            }
+            final long indexOffset = size(out);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().offset());
+                out.writeInt(entry.getValue().length());
+                out.writeLong(entry.getValue().position());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            size(out);
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a wallet record
+     */
+    static void writeWallet(final DataOutputStream out, final ConcurrentWallet.State state) throws IOException {
+        out.writeInt(state.currencies().length);
+        for (String currency : state.currencies()) {
+            writeString(out, currency);
+        }
+        for (double balance : state.balances()) {
+            out.writeDouble(balance);
+        }
+        for (double[] row : state.rates()) {
+            for (double rate : row) {
+                out.writeDouble(rate);
+            }
+        }
+    }
+
+    /**
+     * Copies a wallet record of this snapshot
+     *
+     * @return journal position of the wallet
+     */
+    long copy(final String id, final DataOutputStream out) throws IOException {
+        final Entry entry = index.get(id);
+        final byte[] record = new byte[entry.length()];
+        data.get(entry.offset(), record);
+        out.write(record);
+        return entry.position();
+    }
+
+    private static int size(final DataOutputStream out) throws IOException {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Snapshot is larger than 2 GB");
+        }
+        return out.size();
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -2,6 +2,7 @@ package liptSoft.Ignatov.wallet;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -133,4 +134,64 @@ public interface Wallet extends Remote {
 
     Double getTotal(final String currency) throws RemoteException;
 
+    /**
+     * Deposits amount of minor units (for example, cents) in the provided currency.
+     * The number of minor units in a currency unit depends on the currency scale
+     * @param amount number of minor units in the provided currency
+     * @param currency provided currency
+     * @throws RemoteException when errors occurred while executing interface methods
+     * @see FixedPoint
+     */
+
+    void depositMinor(long amount, final String currency) throws RemoteException;
+
+    /**
+     * Withdraws amount of minor units in the provided currency from this wallet
+     * @param amount number of minor units in the provided currency
+     * @param currency provided currency
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+
+    void withdrawMinor(long amount, final String currency) throws RemoteException;
+
+    /**
+     * Converts amount of minor units in currency 1 to currency 2 according to the rate.
+     * The result is rounded half-even to minor units of currency 2
+     * @param amount number of minor units to convert
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+
+    void convertToMinor(long amount, final String currency1, final String currency2) throws RemoteException;
+
+    /**
+     * Gets balance in minor units of a provided currency.
+     * Currency should be in the wallet, else method fails with an error
+     * @return number of minor units of the provided currency in this wallet
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+
+    long getBalanceMinorIn(final String currency) throws RemoteException;
+
+    /**
+     * Gets a wallet balance converted to minor units of a provided currency.
+     * Currency should be in the wallet, else method fails with an error
+     * @return number of minor units of the provided currency which this wallet is worth
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+
+    long getTotalMinor(final String currency) throws RemoteException;
+
+    /**
+     * Executes operations one by one in a single call, so a batch costs one round trip.
+     * If the batch is not atomic, every operation is executed and a failed one does not stop the following ones.
+     * If it is atomic, execution stops at the first failed operation and all changes of the batch are rolled back,
+     * also when an operation fails with an unexpected exception, which is then rethrown
+     * @param operations operations to execute in order
+     * @param atomic whether the batch is all-or-nothing
+     * @return value or error of every executed operation
+     * @throws RemoteException when errors occurred while executing interface methods
+     */
+
+    BatchResult execute(final List<WalletOperation> operations, boolean atomic) throws RemoteException;
+
 }
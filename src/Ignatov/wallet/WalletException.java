@@ -1,7 +1,31 @@
 package liptSoft.Ignatov.wallet;
 
 public class WalletException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Cause of a failed operation, counted by {@link BankMetrics}
+     */
+    public enum Reason {
+        NO_SUCH_CURRENCY, UNDEFINED_RATE, NOT_ENOUGH_MONEY, EMPTY_WALLET, ILLEGAL_COMMAND, ILLEGAL_AMOUNT, MOVED, OTHER
+    }
+
+    private final Reason reason;
+
     public WalletException(String message) {
+        this(Reason.OTHER, message);
+    }
+
+    public WalletException(Reason reason, String message) {
         super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * Returns the cause of the failed operation
+     */
+    public Reason getReason() {
+        return reason;
     }
 }
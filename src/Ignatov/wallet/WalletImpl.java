@@ -8,7 +8,7 @@ import java.util.function.BiFunction;
  *
  * @author Ignatov Nikolay ({@link <a href="https://github.com/nikolyanikolya?tab=repositories"> github </a>})
  */
-public class WalletImpl implements Wallet {
+public class WalletImpl extends AbstractWallet {
 
     private final TreeMap<Currency, Double> wallet = new TreeMap<>(Currency::compareTo); // Map from Currency to amount
 
@@ -16,8 +16,6 @@ public class WalletImpl implements Wallet {
 
     private int currencyNumber = 0;
 
-    private final boolean logging;
-
     /**
      * WalletImpl constructor
      *
@@ -25,7 +23,7 @@ public class WalletImpl implements Wallet {
      */
 
     public WalletImpl(boolean logging) {
-        this.logging = logging;
+        super(logging);
     }
 
     /**
@@ -33,93 +31,7 @@ public class WalletImpl implements Wallet {
      */
 
     public WalletImpl() {
-        this.logging = false;
-    }
-
-    @Override
-    public void start(final Scanner in) {
-        if (!isEmpty()) {
-            return;
-        }
-        while (in.hasNextLine()) {
-            final String command = in.nextLine();
-            final String[] commandWords = command.split(" ");
-            final int wordsNumber = commandWords.length;
-            switch (commandWords[0]) {
-                case "add" -> {
-                    if (wordsNumber == 3) {
-                        addCurrency(commandWords[2]);
-                    } else {
-                        throwWalletException("add", "add currency <currency>");
-                    }
-                }
-                case "deposit" -> {
-                    switch (wordsNumber) {
-                        case 3 -> deposit(toDouble(commandWords[1]), commandWords[2]);
-                        case 2 -> deposit(toDouble(commandWords[1]));
-                        default -> throwWalletException("deposit", "deposit <amount> [currency]");
-                    }
-                }
-                case "withdraw" -> {
-                    switch (wordsNumber) {
-                        case 3 -> withdraw(toDouble(commandWords[1]), commandWords[2]);
-                        case 2 -> withdraw(toDouble(commandWords[1]));
-                        default -> throwWalletException("withdraw", "withdraw <amount> [currency]");
-                    }
-                }
-                case "set" -> {
-                    if (wordsNumber == 5) {
-                        final String[] rateParts = commandWords[4].split(":");
-                        if (rateParts.length == 2) {
-                            double rate = toDouble(rateParts[0])
-                                    / toDouble(rateParts[1]);
-                            setRate(commandWords[2], commandWords[3], rate);
-                        } else {
-                            throw new WalletException("illegal rate. Format: <double>:<double>");
-                        }
-                    } else {
-                        throwWalletException("set", "set rate <currency 1> <currency 2> <rate>");
-                    }
-                }
-                case "convert" -> {
-                    if (wordsNumber == 5) {
-                        convertTo(toDouble(commandWords[1]), commandWords[2], commandWords[4]);
-                    } else {
-                        throwWalletException("convert", "convert <amount> <currency 1> to <currency 2>");
-                    }
-                }
-                case "show" -> {
-                    if (wordsNumber == 1) {
-                        throwWalletException("show",
-                                "Have a look at usages of 'show balance' and 'show total' commands");
-                    }
-                    switch (commandWords[1]) {
-                        case "balance" -> {
-                            if (wordsNumber == 2) {
-                                showBalance();
-                            } else {
-                                throwWalletException("show balance", "show balance");
-                            }
-                        }
-                        case "total" -> {
-                            switch (wordsNumber) {
-                                case 2 -> showTotalIn();
-                                case 4 -> showTotalIn(commandWords[3]);
-                                default -> throwWalletException("show total", "show total in [currency]");
-                            }
-                        }
-                    }
-                }
-                default -> throw new WalletException("Unknown command '" + commandWords[0] + "'");
-            }
-        }
-    }
-
-
-    @Override
-    public void deposit(double amount) {
-        checkNonEmpty();
-        deposit(amount, wallet.firstKey().getCurrency());
+        super(false);
     }
 
     @Override
@@ -138,12 +50,6 @@ public class WalletImpl implements Wallet {
         logBalance();
     }
 
-    @Override
-    public void withdraw(double amount) {
-        checkNonEmpty();
-        withdraw(amount, wallet.firstKey().getCurrency());
-    }
-
     @Override
     public void withdraw(double amount, final String currency) {
         changeAmount(amount, currency, (a, b) -> a - b, true);
@@ -171,14 +77,8 @@ public class WalletImpl implements Wallet {
     }
 
     @Override
-    public void showTotalIn(final String currency) {
-        printBalance(getTotal(currency), currency);
-    }
-
-    @Override
-    public void showTotalIn() {
-        checkNonEmpty();
-        showTotalIn(wallet.firstKey().getCurrency());
+    protected String firstCurrency() {
+        return wallet.firstKey().getCurrency();
     }
 
     @Override
@@ -211,60 +111,43 @@ public class WalletImpl implements Wallet {
         return sum;
     }
 
+    @Override
+    protected Checkpoint checkpoint() {
+        final TreeMap<Currency, Double> savedWallet = new TreeMap<>(Currency::compareTo);
+        wallet.forEach((currency, amount) -> savedWallet.put(new Currency(currency), amount));
+        final int savedCurrencyNumber = currencyNumber;
+        return () -> {
+            wallet.clear();
+            currencies.clear();
+            wallet.putAll(savedWallet);
+            savedWallet.keySet().forEach(currency -> currencies.put(currency.getCurrency(), currency));
+            currencyNumber = savedCurrencyNumber;
+        };
+    }
+
     private void changeAmount(double amount, final String currency,
                               BiFunction<Double, Double, Double> function, boolean requiredGreater) {
         final var walletCurrency = getCurrencyRequireNonNull(currency);
         double oldAmount = wallet.get(walletCurrency);
         if (requiredGreater && oldAmount < amount) {
-            throw new WalletException("Not enough money in this currency to do an operation");
+            throw notEnoughMoney();
         }
         wallet.put(walletCurrency, function.apply(oldAmount, amount));
         logBalance();
     }
 
-    private void printBalance(double sum, final String currency) {
-        System.out.println(new Formatter(Locale.US).format("%.2f %s", sum, currency));
-    }
-
-    private void throwWalletException(final String command, final String usage) {
-        throw new WalletException("illegal command " + command + ". Usage: " + usage);
-    }
-
     private Currency getCurrencyRequireNonNull(final String currency) {
         var walletCurrency = currencies.get(currency);
         if (walletCurrency == null) {
-            throw new WalletException(String.format("Expected that currency %s is in a wallet", currency));
+            throw noSuchCurrency(currency);
         }
         return walletCurrency;
     }
 
-    private void logBalance() {
-        if (logging) {
-            System.out.println("----------------Balance--------------");
-            showBalance();
-            System.out.println("--------------------------------------");
-        }
-    }
-
-    private Double toDouble(final String value) {
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            throw new WalletException("'" + value + "' is not a double number. " + e.getMessage());
-        }
-    }
-
     private Double getRequireNonNullRate(Double rate, final String currency1, final String currency2) {
         if (rate == null) {
-            throw new WalletException(String.format("Expected defined rate from %s to %s",
-                    currency1, currency2));
+            throw undefinedRate(currency1, currency2);
         }
         return rate;
     }
-
-    private void checkNonEmpty() {
-        if (isEmpty()) {
-            throw new WalletException("Expected that there are at least one currency in a wallet");
-        }
-    }
 }
@@ -0,0 +1,176 @@
+package liptSoft.Ignatov.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Wallets of a {@link RemoteBank} ordered by passport and sub id.
+ * <p>
+ * An id is {@code passport:subId}, the passport is the part before the first colon. Ids are compared as
+ * strings where the colon precedes any other character, which orders them by passport and then by sub id,
+ * so wallets of a passport are a contiguous range starting at the passport itself. The index keys ids
+ * as they are, without parsing them into separate keys.
+ * <p>
+ * Ids of wallets stored in a {@link Snapshot} and not loaded yet are kept in a sorted array, and scans merge
+ * them with loaded wallets
+ */
+final class WalletIndex {
+
+    static final Comparator<String> ORDER = WalletIndex::compare;
+
+    private final ConcurrentSkipListMap<String, Wallet> wallets = new ConcurrentSkipListMap<>(ORDER);
+    private final String[] stored;
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder loadedStored = new LongAdder(); // loaded wallets which are also in stored
+
+    /**
+     * WalletIndex constructor
+     *
+     * @param stored ids of wallets which are not loaded yet
+     */
+    WalletIndex(final Collection<String> stored) {
+        this.stored = stored.toArray(new String[0]);
+        Arrays.sort(this.stored, ORDER);
+    }
+
+    /**
+     * Returns a loaded wallet or null
+     */
+    Wallet get(final String id) {
+        return wallets.get(id);
+    }
+
+    /**
+     * Adds a loaded wallet unless the index has one with the same id
+     *
+     * @return wallet with the same id or null if the wallet is added
+     */
+    Wallet putIfAbsent(final String id, final Wallet wallet) {
+        final Wallet previous = wallets.putIfAbsent(id, wallet);
+        if (previous == null) {
+            count(id, 1);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes a loaded wallet
+     *
+     * @return removed wallet or null
+     */
+    Wallet remove(final String id) {
+        final Wallet removed = wallets.remove(id);
+        if (removed != null) {
+            count(id, -1);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of wallets, including wallets which are not loaded yet, without scanning the index
+     */
+    long size() {
+        return loaded.sum() - loadedStored.sum() + stored.length;
+    }
+
+    /**
+     * Returns passports of all wallets, including wallets which are not loaded yet
+     */
+    Set<String> passports() {
+        final Set<String> passports = new HashSet<>();
+        for (String id : wallets.keySet()) {
+            passports.add(passport(id));
+        }
+        for (String id : stored) {
+            passports.add(passport(id));
+        }
+        return passports;
+    }
+
+    /**
+     * Performs the action for every loaded wallet
+     */
+    void forEach(final BiConsumer<String, Wallet> action) {
+        wallets.forEach(action);
+    }
+
+    /**
+     * Returns ids of the passport, including wallets which are not loaded yet, in the order of the index
+     *
+     * @param after id returned last on the previous page or null for the first page
+     * @param limit maximal number of ids
+     * @return ids of the passport following after, fewer than limit only on the last page
+     */
+    List<String> ids(final String passport, final String after, int limit) {
+        final boolean first = after == null || ORDER.compare(after, passport) < 0;
+        final String from = first ? passport : after;
+        final Iterator<String> loaded = wallets.tailMap(from, first).keySet().iterator();
+        int position = Arrays.binarySearch(stored, from, ORDER);
+        position = position < 0 ? -position - 1 : first ? position : position + 1;
+
+        final List<String> ids = new ArrayList<>();
+        String next = next(loaded, passport);
+        String nextStored = position < stored.length && belongs(stored[position], passport) ? stored[position] : null;
+        while (ids.size() < limit && (next != null || nextStored != null)) {
+            final int order = next == null ? 1 : nextStored == null ? -1 : ORDER.compare(next, nextStored);
+            ids.add(order <= 0 ? next : nextStored);
+            if (order <= 0) {
+                next = next(loaded, passport);
+            }
+            if (order >= 0) {
+                position++;
+                nextStored = position < stored.length && belongs(stored[position], passport)
+                        ? stored[position] : null;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the passport of an id
+     */
+    static String passport(final String id) {
+        final int colon = id.indexOf(':');
+        return colon < 0 ? id : id.substring(0, colon);
+    }
+
+    private void count(final String id, int delta) {
+        loaded.add(delta);
+        if (stored.length > 0 && Arrays.binarySearch(stored, id, ORDER) >= 0) {
+            loadedStored.add(delta);
+        }
+    }
+
+    private static String next(final Iterator<String> ids, final String passport) {
+        if (ids.hasNext()) {
+            final String id = ids.next();
+            return belongs(id, passport) ? id : null;
+        }
+        return null;
+    }
+
+    private static boolean belongs(final String id, final String passport) {
+        return id.startsWith(passport) && (id.length() == passport.length() || id.charAt(passport.length()) == ':');
+    }
+
+    private static int compare(final String id1, final String id2) {
+        final int length = Math.min(id1.length(), id2.length());
+        for (int i = 0; i < length; i++) {
+            final char c1 = id1.charAt(i);
+            final char c2 = id2.charAt(i);
+            if (c1 != c2) {
+                return c1 == ':' ? -1 : c2 == ':' ? 1 : Character.compare(c1, c2);
+            }
+        }
+        return id1.length() - id2.length();
+    }
+}
@@ -0,0 +1,182 @@
+package liptSoft.Ignatov.wallet;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One operation of a batch executed by {@link Wallet#execute(java.util.List, boolean)}.
+ * Operations are immutable and serializable, so a whole batch is transmitted in one remote call
+ */
+public final class WalletOperation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kind of operation and the {@link Wallet} method it stands for
+     */
+    public enum Type {
+        /**
+         * {@link Wallet#addCurrency(String)}
+         */
+        ADD_CURRENCY,
+        /**
+         * {@link Wallet#deposit(double, String)} or {@link Wallet#deposit(double)} if currency is null
+         */
+        DEPOSIT,
+        /**
+         * {@link Wallet#withdraw(double, String)} or {@link Wallet#withdraw(double)} if currency is null
+         */
+        WITHDRAW,
+        /**
+         * {@link Wallet#setRate(String, String, double)}
+         */
+        SET_RATE,
+        /**
+         * {@link Wallet#convertTo(double, String, String)}
+         */
+        CONVERT,
+        /**
+         * {@link Wallet#clearWallet()}
+         */
+        CLEAR,
+        /**
+         * {@link Wallet#getBalanceIn(String)}
+         */
+        GET_BALANCE,
+        /**
+         * {@link Wallet#getTotal(String)} or total in the currency added first if currency is null
+         */
+        GET_TOTAL
+    }
+
+    private final Type type;
+    private final double amount;
+    private final String currency1;
+    private final String currency2;
+
+    private WalletOperation(final Type type, double amount, final String currency1, final String currency2) {
+        this.type = type;
+        this.amount = amount;
+        this.currency1 = currency1;
+        this.currency2 = currency2;
+    }
+
+    /**
+     * Creates an operation adding provided currency to a wallet
+     */
+    public static WalletOperation addCurrency(final String currency) {
+        return new WalletOperation(Type.ADD_CURRENCY, 0, Objects.requireNonNull(currency), null);
+    }
+
+    /**
+     * Creates an operation depositing amount money in the provided currency
+     */
+    public static WalletOperation deposit(double amount, final String currency) {
+        return new WalletOperation(Type.DEPOSIT, amount, Objects.requireNonNull(currency), null);
+    }
+
+    /**
+     * Creates an operation depositing amount money in the currency added first
+     */
+    public static WalletOperation deposit(double amount) {
+        return new WalletOperation(Type.DEPOSIT, amount, null, null);
+    }
+
+    /**
+     * Creates an operation withdrawing amount money in the provided currency
+     */
+    public static WalletOperation withdraw(double amount, final String currency) {
+        return new WalletOperation(Type.WITHDRAW, amount, Objects.requireNonNull(currency), null);
+    }
+
+    /**
+     * Creates an operation withdrawing amount money in the currency added first
+     */
+    public static WalletOperation withdraw(double amount) {
+        return new WalletOperation(Type.WITHDRAW, amount, null, null);
+    }
+
+    /**
+     * Creates an operation setting the rate from currency1 to currency2
+     *
+     * @param rate the number of currency1 in currency2
+     */
+    public static WalletOperation setRate(final String currency1, final String currency2, double rate) {
+        return new WalletOperation(Type.SET_RATE, rate, Objects.requireNonNull(currency1),
+                Objects.requireNonNull(currency2));
+    }
+
+    /**
+     * Creates an operation converting amount of money in currency 1 to currency 2
+     */
+    public static WalletOperation convert(double amount, final String currency1, final String currency2) {
+        return new WalletOperation(Type.CONVERT, amount, Objects.requireNonNull(currency1),
+                Objects.requireNonNull(currency2));
+    }
+
+    /**
+     * Creates an operation clearing a wallet
+     */
+    public static WalletOperation clear() {
+        return new WalletOperation(Type.CLEAR, 0, null, null);
+    }
+
+    /**
+     * Creates an operation getting balance in the provided currency
+     */
+    public static WalletOperation getBalance(final String currency) {
+        return new WalletOperation(Type.GET_BALANCE, 0, Objects.requireNonNull(currency), null);
+    }
+
+    /**
+     * Creates an operation getting a wallet balance converted to the provided currency
+     */
+    public static WalletOperation getTotal(final String currency) {
+        return new WalletOperation(Type.GET_TOTAL, 0, Objects.requireNonNull(currency), null);
+    }
+
+    /**
+     * Creates an operation getting a wallet balance converted to the currency added first
+     */
+    public static WalletOperation getTotal() {
+        return new WalletOperation(Type.GET_TOTAL, 0, null, null);
+    }
+
+    /**
+     * Creates an operation from its fields without checking them. Used to decode operations
+     */
+    static WalletOperation of(final Type type, double amount, final String currency1, final String currency2) {
+        return new WalletOperation(type, amount, currency1, currency2);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the amount of the operation, or the rate for {@link Type#SET_RATE}
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Gets the first currency of the operation, null if the operation uses the currency added first
+     */
+    public String getCurrency1() {
+        return currency1;
+    }
+
+    /**
+     * Gets the second currency of {@link Type#SET_RATE} and {@link Type#CONVERT} operations
+     */
+    public String getCurrency2() {
+        return currency2;
+    }
+
+    @Override
+    public String toString() {
+        return type + (currency1 == null ? "" : " " + currency1) + (currency2 == null ? "" : " " + currency2)
+                + (amount == 0 ? "" : " " + amount);
+    }
+}
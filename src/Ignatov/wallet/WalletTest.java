@@ -8,14 +8,37 @@ import org.junit.rules.TestName;
 import org.junit.runners.MethodSorters;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Ignatov Nikolay ({@link <a href="https://github.com/nikolyanikolya?tab=repositories"> github </a>})
@@ -26,6 +49,25 @@ public class WalletTest {
 
     private static final String SEPARATOR = File.separator;
 
+    private static final String[] SCRIPTS = {
+            "add currency ruble\ndeposit 100\nadd currency dollar\nset rate dollar ruble 1:60\n"
+                    + "deposit 1 dollar\nconvert 80 ruble to dollar\nwithdraw 2.1 dollar\nshow balance\n"
+                    + "show total\nshow total in dollar",
+            "add currency ruble\r\ndeposit 1e2\r\nadd currency \u0440\u0443\u0431\u043b\u044c\rdeposit 0.125 \u0440\u0443\u0431\u043b\u044c\n"
+                    + "show something\nshow balance\n",
+            "add currency ruble\ndeposit 12345678901234567890.5\ndeposit -.5\nshow total in ruble ",
+            "add currency ruble\ndeposit 100 dollar",
+            "add currency ruble\ndeposit 1,5",
+            "add currency ruble\nadd currency dollar\nset rate ruble dollar 60",
+            "add currency ruble\nadd currency dollar\nset rate ruble dollar 60:1:",
+            "add currency ruble\nadd currency dollar\nconvert 10 ruble to dollar",
+            "add currency ruble\nadd currency dollar\nconvert 0 ruble to euro",
+            "add currency ruble\n\nshow balance",
+            "add currency ruble\nwithdraw  1",
+            "add currency ruble\nremove currency ruble",
+            "show total",
+    };
+
     @Rule
     public final TestName testName = new TestName();
 
@@ -294,6 +336,622 @@ public class WalletTest {
         }
     }
 
+    @Test
+    public void testArrayWalletMatchesWalletImpl() {
+        printTestInfo();
+        Wallet[] wallets = {new WalletImpl(), new ArrayWallet()};
+        try {
+            for (Wallet wallet : wallets) {
+                wallet.addCurrency("ruble");
+                wallet.deposit(100);
+                wallet.addCurrency("dollar");
+                wallet.setRate("dollar", "ruble", 1. / 60);
+                wallet.deposit(1, "dollar");
+                wallet.convertTo(80, "ruble", "dollar");
+                wallet.withdraw(2.1, "dollar");
+            }
+            for (String currency : new String[]{"ruble", "dollar"}) {
+                Assert.assertEquals(wallets[0].getBalanceIn(currency), wallets[1].getBalanceIn(currency));
+                Assert.assertEquals(wallets[0].getTotal(currency), wallets[1].getTotal(currency));
+            }
+        } catch (RemoteException e) {
+            Assert.fail("Expected no errors. " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testArrayWalletDoesNotAllocate() {
+        printTestInfo();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)) {
+            return;
+        }
+        ArrayWallet wallet = new ArrayWallet();
+        String[] currencies = new String[20];
+        for (int i = 0; i < currencies.length; i++) {
+            currencies[i] = "currency" + i;
+            wallet.addCurrency(currencies[i]);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1_000_000; i++) {
+            String currency = currencies[i % currencies.length];
+            wallet.deposit(2, currency);
+            wallet.withdraw(1, currency);
+            wallet.balanceOf(currency);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertEquals(1_000_000. / currencies.length, wallet.balanceOf(currencies[0]), 0);
+        Assert.assertTrue("expected no allocations on the hot path, allocated " + allocated + " bytes",
+                allocated < 16 * 1024);
+    }
+
+    @Test
+    public void testTransitiveRates() {
+        printTestInfo();
+        ArrayWallet wallet = new ArrayWallet();
+        wallet.addCurrency("ruble");
+        wallet.addCurrency("dollar");
+        wallet.addCurrency("euro");
+        wallet.deposit(120);
+        wallet.setRate("ruble", "dollar", 60);
+        wallet.setRate("euro", "dollar", 0.5);
+        Assert.assertEquals(1., wallet.getTotal("euro"), 1e-9);
+        wallet.convertTo(60, "ruble", "euro");
+        Assert.assertEquals(0.5, wallet.balanceOf("euro"), 1e-9);
+        wallet.setRate("ruble", "dollar", 30);
+        Assert.assertEquals(1.5, wallet.getTotal("euro"), 1e-9);
+        Assert.assertEquals(90., wallet.getTotal("ruble"), 1e-9);
+        wallet.addCurrency("yen");
+        try {
+            wallet.getTotal("yen");
+            Assert.fail("Expected an error, because yen is not connected to other currencies");
+        } catch (WalletException e) {
+            System.err.println(e.getMessage());
+        }
+        wallet.setRate("yen", "euro", 150);
+        Assert.assertEquals(225., wallet.getTotal("yen"), 1e-9);
+    }
+
+    @Test
+    public void testRateGraphTieBreak() {
+        printTestInfo();
+        RateGraph graph = new RateGraph(2);
+        for (int i = 0; i < 4; i++) {
+            graph.add();
+        }
+        // 3 is reached from 0 through 2 and through 1 in two conversions, at different rates
+        graph.setRate(2, 0, 2);
+        graph.setRate(3, 2, 3);
+        graph.setRate(1, 0, 5);
+        graph.setRate(3, 1, 7);
+        Assert.assertEquals(6, graph.rate(3, 0), 0);
+        // changing a rate keeps the path found earlier, though breadth-first search from 0 visits 1 before 2
+        graph.setRate(1, 0, 5);
+        Assert.assertEquals(6, graph.rate(3, 0), 0);
+        graph.setRate(2, 0, 4);
+        Assert.assertEquals(12, graph.rate(3, 0), 0);
+        Assert.assertEquals(1. / 12, graph.rate(0, 3), 1e-15);
+        Assert.assertEquals(35, graph.rate(3, 1) * graph.rate(1, 0), 0);
+
+        // changed rates are the ones of a graph built with the final rates in the same order
+        Random random = new Random(4);
+        int size = 12;
+        RateGraph changed = new RateGraph(size);
+        for (int i = 0; i < size; i++) {
+            changed.add();
+        }
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            if (a != b && Double.isNaN(changed.directRate(a, b)) && edges.size() < 2 * size) {
+                edges.add(new int[]{a, b});
+            } else if (edges.isEmpty()) {
+                continue;
+            } else {
+                int[] edge = edges.get(random.nextInt(edges.size()));
+                a = edge[0];
+                b = edge[1];
+            }
+            changed.setRate(a, b, 1 + random.nextInt(100) / 10.);
+        }
+        RateGraph built = new RateGraph(size);
+        for (int i = 0; i < size; i++) {
+            built.add();
+        }
+        for (int[] edge : edges) {
+            built.setRate(edge[0], edge[1], changed.directRate(edge[0], edge[1]));
+        }
+        for (int to = 0; to < size; to++) {
+            for (int from = 0; from < size; from++) {
+                Assert.assertEquals(built.rate(to, from), changed.rate(to, from), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalTotals() {
+        printTestInfo();
+        ArrayWallet wallet = new ArrayWallet();
+        WalletImpl expected = new WalletImpl();
+        for (Wallet each : new Wallet[]{wallet, expected}) {
+            try {
+                each.addCurrency("ruble");
+                each.addCurrency("dollar");
+                each.setRate("ruble", "dollar", 60);
+            } catch (RemoteException e) {
+                Assert.fail("Expected no errors. " + e.getMessage());
+            }
+        }
+        wallet.getTotal("ruble");
+        wallet.getTotal("dollar");
+        for (int i = 0; i < 100; i++) {
+            wallet.deposit(i);
+            expected.deposit(i);
+            wallet.deposit(i / 10., "dollar");
+            expected.deposit(i / 10., "dollar");
+            if (i % 10 == 0) {
+                wallet.convertTo(i / 2., "ruble", "dollar");
+                expected.convertTo(i / 2., "ruble", "dollar");
+                wallet.setRate("ruble", "dollar", 60 + i);
+                expected.setRate("ruble", "dollar", 60 + i);
+            }
+            Assert.assertEquals(expected.getTotal("ruble"), wallet.getTotal("ruble"), 1e-6);
+            Assert.assertEquals(expected.getTotal("dollar"), wallet.getTotal("dollar"), 1e-6);
+        }
+        Assert.assertEquals(2, wallet.getTotalRecomputations());
+        Assert.assertEquals(200, wallet.getTotalCacheHits());
+        wallet.addCurrency("euro");
+        try {
+            wallet.getTotal("ruble");
+            Assert.fail("Expected an error, because there is no rate from euro to ruble");
+        } catch (WalletException e) {
+            System.err.println(e.getMessage());
+        }
+        wallet.setRate("euro", "dollar", 1);
+        wallet.deposit(1, "euro");
+        Assert.assertEquals(wallet.balanceOf("dollar") + 1 + wallet.balanceOf("ruble") / 150,
+                wallet.getTotal("dollar"), 1e-9);
+        Assert.assertEquals(2, wallet.getTotalRecomputations());
+
+        // a large amount deposited and withdrawn does not cancel small balances
+        wallet.clearWallet();
+        expected.clearWallet();
+        for (Wallet each : new Wallet[]{wallet, expected}) {
+            try {
+                each.addCurrency("ruble");
+                each.addCurrency("dollar");
+                each.setRate("ruble", "dollar", 60);
+            } catch (RemoteException e) {
+                Assert.fail("Expected no errors. " + e.getMessage());
+            }
+        }
+        wallet.getTotal("ruble");
+        for (Wallet each : new Wallet[]{wallet, expected}) {
+            try {
+                each.deposit(1e17, "dollar");
+                each.deposit(1, "ruble");
+                each.withdraw(1e17, "dollar");
+                Assert.assertEquals(1, each.getTotal("ruble"), 0);
+            } catch (RemoteException e) {
+                Assert.fail("Expected no errors. " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCommandReader() {
+        printTestInfo();
+        for (String script : SCRIPTS) {
+            String expected = runScript(script, false);
+            Assert.assertEquals(script, expected, runScript(script, true));
+        }
+    }
+
+    private static String runScript(String script, boolean commandReader) {
+        return captureOutput(() -> {
+            if (commandReader) {
+                new ArrayWallet().start(Channels.newChannel(
+                        new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8))));
+            } else {
+                new WalletImpl().start(new Scanner(script));
+            }
+        });
+    }
+
+    private static String captureOutput(Runnable commands) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        try {
+            commands.run();
+        } catch (WalletException e) {
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testScriptExecutor() throws IOException {
+        printTestInfo();
+        Path file = Files.createTempFile("wallet", ".txt");
+        try {
+            for (String script : SCRIPTS) {
+                Files.writeString(file, script);
+                for (int chunkSize : new int[]{1, 7, 1 << 16}) {
+                    String actual = captureOutput(() -> new ScriptExecutor(3, chunkSize).execute(new ArrayWallet(), file));
+                    Assert.assertEquals(script, runScript(script, false), actual);
+                }
+            }
+            StringBuilder script = new StringBuilder("add currency ruble\nadd currency dollar\nset rate dollar ruble 1:60\n");
+            for (int i = 0; i < 100_000; i++) {
+                script.append(i % 2 == 0 ? "deposit 1.5\n" : "convert 0.6 ruble to dollar\r\n");
+            }
+            Files.writeString(file, script);
+            ArrayWallet wallet = new ArrayWallet();
+            ScriptExecutor.Report report = new ScriptExecutor(4, 1 << 12).execute(wallet, file);
+            Assert.assertEquals(100_003, report.commands());
+            Assert.assertEquals(Files.size(file), report.bytes());
+            Assert.assertEquals(50_000 * 0.9, wallet.balanceOf("ruble"), 1e-6);
+            Assert.assertEquals(50_000 * 0.01, wallet.balanceOf("dollar"), 1e-6);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        printTestInfo();
+        final OffHeapStore store = new OffHeapStore(16);
+        for (AbstractWallet wallet : new AbstractWallet[]{new WalletImpl(), new ArrayWallet(),
+                new FixedPointWallet(), new ConcurrentWallet(),
+                new OffHeapWallet(store, store.create("id", "group"))}) {
+            BatchResult result = wallet.execute(List.of(WalletOperation.addCurrency("ruble"),
+                    WalletOperation.addCurrency("dollar"), WalletOperation.setRate("dollar", "ruble", 0.5),
+                    WalletOperation.deposit(10), WalletOperation.withdraw(100), WalletOperation.getTotal("dollar")),
+                    false);
+            Assert.assertTrue(result.isCommitted());
+            Assert.assertFalse(result.isSuccessful());
+            Assert.assertFalse(result.isSuccessful(4));
+            Assert.assertEquals((Double) 5., result.getValue(5));
+
+            result = wallet.execute(List.of(WalletOperation.addCurrency("euro"),
+                    WalletOperation.setRate("euro", "ruble", 0.01), WalletOperation.convert(4, "ruble", "dollar"),
+                    WalletOperation.getTotal(), WalletOperation.convert(100, "dollar", "euro")), true);
+            Assert.assertFalse(result.isCommitted());
+            Assert.assertEquals(5, result.size());
+            Assert.assertEquals((Double) 10., result.getValue(3));
+            Assert.assertNotNull(result.getError(4));
+            Assert.assertEquals((Double) 10., wallet.getBalanceIn("ruble"));
+            Assert.assertEquals((Double) 0., wallet.getBalanceIn("dollar"));
+            Assert.assertEquals((Double) 5., wallet.getTotal("dollar"));
+            try {
+                wallet.getBalanceIn("euro");
+                Assert.fail("Expected an error, because adding of euro is rolled back");
+            } catch (WalletException e) {
+                System.err.println(e.getMessage());
+            }
+
+            result = wallet.execute(List.of(WalletOperation.clear(), WalletOperation.getTotal()), true);
+            Assert.assertFalse(result.isCommitted());
+            Assert.assertEquals((Double) 10., wallet.getTotal("ruble"));
+            Assert.assertTrue(wallet.execute(List.of(WalletOperation.convert(10, "ruble", "dollar")), true)
+                    .isSuccessful());
+            Assert.assertEquals((Double) 5., wallet.getBalanceIn("dollar"));
+
+            // an operation failing with an unexpected exception rolls the batch back as well
+            try {
+                wallet.execute(List.of(WalletOperation.deposit(5, "dollar"),
+                        WalletOperation.of(WalletOperation.Type.ADD_CURRENCY, 0, null, null),
+                        WalletOperation.withdraw(1000, "dollar")), true);
+            } catch (RuntimeException e) {
+                System.err.println(e);
+            }
+            Assert.assertEquals((Double) 5., wallet.getBalanceIn("dollar"));
+        }
+    }
+
+    @Test
+    public void testConcurrentBatchRollback() throws InterruptedException {
+        printTestInfo();
+        ConcurrentWallet wallet = new ConcurrentWallet();
+        wallet.addCurrency("ruble");
+        Thread depositor = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                wallet.deposit(1);
+            }
+        });
+        depositor.start();
+        List<WalletOperation> failing = List.of(WalletOperation.deposit(5), WalletOperation.withdraw(1e12));
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertFalse(wallet.execute(failing, true).isCommitted());
+        }
+        depositor.join();
+        Assert.assertEquals((Double) 100_000., wallet.getBalanceIn("ruble"));
+
+        // money deposited by a batch which is rolled back is never withdrawn by other threads
+        wallet.withdraw(100_000);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger withdrawn = new AtomicInteger();
+        Thread withdrawer = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    wallet.withdraw(5);
+                    withdrawn.incrementAndGet();
+                } catch (WalletException ignored) {
+                }
+            }
+        });
+        withdrawer.start();
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertFalse(wallet.execute(failing, true).isCommitted());
+        }
+        running.set(false);
+        withdrawer.join();
+        Assert.assertEquals(0, withdrawn.get());
+        Assert.assertEquals((Double) 0., wallet.getBalanceIn("ruble"));
+    }
+
+    @Test
+    public void testRateFeed() throws Exception {
+        printTestInfo();
+        ConcurrentWallet wallet = new ConcurrentWallet();
+        for (String currency : new String[]{"ruble", "dollar", "euro"}) {
+            wallet.addCurrency(currency);
+        }
+        wallet.deposit(1, "dollar");
+        wallet.deposit(1, "euro");
+        RateTable before = wallet.getRates();
+        Assert.assertEquals(2, wallet.setRates(List.of(new RateTable.Tick("dollar", "ruble", 0.5),
+                new RateTable.Tick("ruble", "euro", 2), new RateTable.Tick("yen", "ruble", 0.01))));
+        Assert.assertEquals(before.version() + 1, wallet.getRates().version());
+        Assert.assertTrue(Double.isNaN(before.get("dollar", "ruble")));
+        Assert.assertEquals(0.5, wallet.getRates().get("euro", "ruble"), 0);
+        Assert.assertEquals((Double) 4., wallet.getTotal("ruble"));
+
+        // readers never see rates of dollar and euro from different batches
+        Thread feeder = new Thread(() -> {
+            for (int i = 1; i <= 20_000; i++) {
+                wallet.setRates(List.of(new RateTable.Tick("dollar", "ruble", 1. / i),
+                        new RateTable.Tick("euro", "ruble", 1. / i)));
+            }
+        });
+        feeder.start();
+        long version = wallet.getRates().version();
+        while (feeder.isAlive()) {
+            RateTable rates = wallet.getRates();
+            Assert.assertTrue(rates.version() >= version);
+            version = rates.version();
+            Assert.assertEquals(rates.get("dollar", "ruble"), rates.get("euro", "ruble"), 0);
+            double total = wallet.getTotal("ruble");
+            Assert.assertEquals(total / 2, Math.rint(total / 2), 1e-6);
+        }
+        feeder.join();
+
+        Path file = Files.createTempFile("rates", ".txt");
+        try {
+            StringBuilder ticks = new StringBuilder("set rate dollar ruble 1:60\r\nillegal tick\n\n");
+            for (int i = 1; i <= 10_000; i++) {
+                ticks.append("set rate euro ruble 1:").append(i).append('\n')
+                        .append("set rate ruble dollar ").append(i).append(":1\n");
+            }
+            Files.writeString(file, ticks.append("set rate ruble yen 1:100"));
+            RateFeed feed = RateFeed.open(file, Duration.ofMillis(5), wallet::setRates);
+            feed.await();
+            feed.close();
+            Assert.assertEquals(20_002, feed.getTicks());
+            Assert.assertEquals(1, feed.getErrors());
+            Assert.assertTrue(feed.getPublishedTicks() < feed.getTicks());
+            Assert.assertEquals(1. / 10_000, wallet.getRates().get("euro", "ruble"), 0);
+            Assert.assertEquals(10_000, wallet.getRates().get("ruble", "dollar"), 0);
+            System.err.printf("%d ticks in %d batches, %d published%n", feed.getTicks(), feed.getBatches(),
+                    feed.getPublishedTicks());
+        } finally {
+            Files.delete(file);
+        }
+
+        try (RateFeed feed = RateFeed.listen(0, Duration.ofMillis(1), wallet::setRates)) {
+            for (int rate = 1; rate <= 2; rate++) {
+                try (SocketChannel channel = SocketChannel.open(feed.getAddress())) {
+                    channel.write(ByteBuffer.wrap(("set rate euro dollar " + rate + ":1\n")
+                            .getBytes(StandardCharsets.UTF_8)));
+                }
+                while (feed.getPublishedTicks() < rate) {
+                    Thread.sleep(1);
+                }
+            }
+            Assert.assertEquals(2, wallet.getRates().get("euro", "dollar"), 0);
+        }
+    }
+
+    @Test
+    public void testFixedPointWallet() {
+        printTestInfo();
+        FixedPointWallet wallet = new FixedPointWallet();
+        wallet.addCurrency("ruble");
+        wallet.addCurrency("yen", 0);
+        for (int i = 0; i < 10; i++) {
+            wallet.deposit(0.1);
+        }
+        Assert.assertEquals(100, wallet.getBalanceMinorIn("ruble"));
+        Assert.assertEquals((Double) 1., wallet.getBalanceIn("ruble"));
+        wallet.setRate("yen", "ruble", 1.5);
+        wallet.convertToMinor(50, "ruble", "yen");
+        Assert.assertEquals(50, wallet.getBalanceMinorIn("ruble"));
+        Assert.assertEquals(1, wallet.getBalanceMinorIn("yen")); // 0.75 yen rounded half-even
+        wallet.depositMinor(1, "yen");
+        Assert.assertEquals(183, wallet.getTotalMinor("ruble")); // 50 + 2 yen * 66.666667 cents
+        Assert.assertEquals(1_000_000_000_000L, FixedPoint.mulDiv(1_000_000_000_000L,
+                60 * FixedPoint.RATE_ONE, 60 * FixedPoint.RATE_ONE));
+        try {
+            wallet.withdrawMinor(51, "ruble");
+            Assert.fail("Expected an error, because not enough rubles in a wallet");
+        } catch (WalletException e) {
+            System.err.println(e.getMessage());
+        }
+        wallet.depositMinor(Long.MAX_VALUE - 50, "ruble");
+        Assert.assertEquals(WalletException.Reason.ILLEGAL_AMOUNT, Assert.assertThrows(WalletException.class,
+                () -> wallet.withdrawMinor(-1, "ruble")).getReason());
+        Assert.assertEquals(WalletException.Reason.ILLEGAL_AMOUNT, Assert.assertThrows(WalletException.class,
+                () -> FixedPoint.checkScale(FixedPoint.MAX_SCALE + 1)).getReason());
+
+        // rounding in doubles agrees with rounding the shortest decimal representation
+        Random random = new Random(239);
+        double[] special = {0, -0., 0.005, 0.015, 1.005, -1.005, 2.675, 0.125, -0.125, 0.5, 2.5, -2.5,
+                9_999_999_999.995, 92_233_720_368_547_758.07, 1e-300};
+        for (int i = 0; i < 100_000; i++) {
+            double amount = i < special.length ? special[i] : switch (i % 3) {
+                case 0 -> random.nextInt(10_000_000) / 1000.;
+                case 1 -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16));
+                default -> random.nextInt(1000) / 100. * 60 / 7;
+            };
+            for (int scale : new int[]{0, 2, 3, FixedPoint.RATE_DIGITS}) {
+                BigDecimal expected = BigDecimal.valueOf(amount).movePointRight(scale)
+                        .setScale(0, RoundingMode.HALF_EVEN);
+                if (expected.toBigInteger().bitLength() < Long.SIZE) {
+                    Assert.assertEquals(amount + " at scale " + scale, expected.longValueExact(),
+                            FixedPoint.toMinor(amount, scale));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOutputSink() throws IOException {
+        printTestInfo();
+        Random random = new Random(239);
+        double[] special = {0, -0., 0.005, 0.015, 1.005, -1.005, 2.675, 0.125, -0.001, 9_999_999_999.995, 1e10,
+                12345678901234567890.5, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.NEGATIVE_INFINITY};
+        double[] amounts = new double[100_000];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = i < special.length ? special[i] : switch (i % 4) {
+                case 0 -> random.nextInt(10_000_000) / 1000.; // ties of rounding to cents
+                case 1 -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14));
+                case 2 -> random.nextInt(1000) / 100. * 60 / 7;
+                default -> Double.longBitsToDouble(random.nextLong());
+            };
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(expected, false, StandardCharsets.UTF_8)) {
+            for (double amount : amounts) {
+                out.println(new Formatter(Locale.US).format("%.2f %s", amount, "\u0440\u0443\u0431\u043b\u044c"));
+            }
+        }
+        for (boolean async : new boolean[]{false, true}) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            try (OutputSink sink = new OutputSink(actual, 1 << 12, async)) {
+                for (double amount : amounts) {
+                    sink.printBalance(amount, "\u0440\u0443\u0431\u043b\u044c");
+                }
+            }
+            Assert.assertArrayEquals("async " + async, expected.toByteArray(), actual.toByteArray());
+        }
+
+        for (String script : SCRIPTS) {
+            String console = captureOutput(() -> runLogged(script, OutputSink.console()));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputSink sink = new OutputSink(buffer, 16, true)) {
+                runLogged(script, sink);
+            }
+            Assert.assertEquals(script, console, buffer.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void runLogged(String script, OutputSink output) {
+        ArrayWallet wallet = new ArrayWallet(true);
+        wallet.setOutput(output);
+        try {
+            wallet.start(new Scanner(script));
+        } catch (WalletException e) {
+            output.println("Error: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRateHistory() {
+        printTestInfo();
+        Instant start = Instant.parse("2026-01-01T00:00:00Z");
+        RateHistory history = new RateHistory();
+        TreeMap<Long, Double> reference = new TreeMap<>();
+        Random random = new Random(25);
+        int ticks = 30 * 24 * 60; // a month of minute ticks
+        long points = 600_000;
+        long time = start.toEpochMilli();
+        for (int i = 0; i < ticks; i++) {
+            points = Math.max(1, points + random.nextInt(41) - 20);
+            double rate = points / 10_000.;
+            if (i % 1000 == 999) {
+                history.record("ruble", "dollar", 1 / rate, Instant.ofEpochMilli(time));
+            } else {
+                history.record("dollar", "ruble", rate, Instant.ofEpochMilli(time));
+            }
+            reference.put(time, rate);
+            time += 60_000 + (random.nextInt(10) == 0 ? random.nextInt(1000) : 0);
+        }
+        Assert.assertEquals(ticks, history.getTicks());
+        double bytesPerTick = (double) history.getBytes() / ticks;
+        Assert.assertTrue(bytesPerTick + " bytes per tick", bytesPerTick < 8);
+
+        long first = reference.firstKey();
+        long last = reference.lastKey();
+        for (int i = 0; i < 20_000; i++) {
+            long at = i % 2 == 0 ? first - 60_000 + (long) (random.nextDouble() * (last - first + 120_000))
+                    : reference.ceilingKey(first + (long) (random.nextDouble() * (last - first)));
+            Map.Entry<Long, Double> expected = reference.floorEntry(at);
+            double dollar = history.getRate("dollar", "ruble", Instant.ofEpochMilli(at));
+            double ruble = history.getRate("ruble", "dollar", Instant.ofEpochMilli(at));
+            if (expected == null) {
+                Assert.assertTrue(Double.isNaN(dollar) && Double.isNaN(ruble));
+            } else {
+                Assert.assertEquals(expected.getValue(), dollar, 1e-12);
+                Assert.assertEquals(1 / expected.getValue(), ruble, 1e-12);
+            }
+        }
+        Assert.assertEquals(1, history.getRate("ruble", "ruble", start), 0);
+        Assert.assertTrue(Double.isNaN(history.getRate("ruble", "euro", start)));
+
+        Instant now = start.plus(Duration.ofDays(1));
+        ConcurrentWallet wallet = new ConcurrentWallet(false, new RateHistory(Clock.fixed(now, ZoneOffset.UTC)));
+        wallet.addCurrency("ruble");
+        wallet.addCurrency("dollar");
+        wallet.getRateHistory().record("dollar", "ruble", 1. / 50, start);
+        wallet.setRate("dollar", "ruble", 1. / 60);
+        wallet.deposit(10, "ruble");
+        wallet.deposit(1, "dollar");
+        Assert.assertEquals(70, wallet.getTotal("ruble"), 1e-9);
+        Assert.assertEquals(60, wallet.getTotal("ruble", start), 1e-9);
+        Assert.assertEquals(60, wallet.getTotal("ruble", now.minusMillis(1)), 1e-9);
+        Assert.assertEquals(70, wallet.getTotal("ruble", now), 1e-9);
+        Assert.assertEquals(1.2, wallet.getTotal("dollar", start), 1e-9);
+        try {
+            wallet.getTotal("ruble", start.minusMillis(1));
+            Assert.fail("Rate before the first tick should be undefined");
+        } catch (WalletException e) {
+            System.err.println(e.getMessage());
+        }
+
+        // rates of a failed batch are not recorded
+        BatchResult result = wallet.execute(List.of(WalletOperation.setRate("dollar", "ruble", 1. / 100),
+                WalletOperation.withdraw(2, "dollar")), true);
+        Assert.assertFalse(result.isCommitted());
+        Assert.assertEquals(2, wallet.getRateHistory().getTicks());
+        result = wallet.execute(List.of(WalletOperation.setRate("dollar", "ruble", 1. / 100),
+                WalletOperation.getTotal("ruble")), true);
+        Assert.assertTrue(result.isCommitted());
+        Assert.assertEquals(3, wallet.getRateHistory().getTicks());
+        Assert.assertEquals(110, wallet.getTotal("ruble", now), 1e-9);
+        Assert.assertEquals(60, wallet.getTotal("ruble", start), 1e-9);
+
+        try {
+            new ConcurrentWallet().getTotal("ruble", now);
+            Assert.fail("Wallet without a history should not answer totals in the past");
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
     private void testPassed(String fileName) {
         printTestInfo();
         WalletImpl wallet = new WalletImpl();